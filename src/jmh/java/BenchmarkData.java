@@ -0,0 +1,87 @@
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Общие данные для бенчмарков: справочник из файла и синтетические номера.
+ */
+public final class BenchmarkData {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final OkvedService OKVED_SERVICE = new OkvedService(System.err);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Читает JSON справочника из ресурса (classpath:имя) или файла.
+     * Ресурс okved-fixture.json повторяет структуру ОКВЭД 2 (разделы, классы, подклассы,
+     * группы, подгруппы, виды) и содержит около 2,7 тыс. листьев. Чтобы измерить
+     * реальный справочник, передайте -p fixture=/путь/к/okved.json.
+     */
+    public static byte[] readFixture(String fixture) throws IOException {
+        if (fixture.startsWith("classpath:")) {
+            try (InputStream input = BenchmarkData.class.getClassLoader()
+                    .getResourceAsStream(fixture.substring("classpath:".length()))) {
+                if (input == null) {
+                    throw new IOException("Ресурс не найден: " + fixture);
+                }
+                return input.readAllBytes();
+            }
+        }
+        return Files.readAllBytes(Paths.get(fixture));
+    }
+
+    /**
+     * Разбирает JSON справочника в дерево {@link OkvedItem}.
+     */
+    public static List<OkvedItem> parseTree(byte[] json) throws IOException {
+        return OBJECT_MAPPER.readValue(json, new TypeReference<List<OkvedItem>>() {});
+    }
+
+    /**
+     * Извлекает листовые элементы с цифровыми кодами.
+     */
+    public static List<OkvedItem> readLeaves(byte[] json) throws IOException {
+        return OKVED_SERVICE.readNumericLeafItems(new ByteArrayInputStream(json));
+    }
+
+    /**
+     * Увеличивает справочник в scale раз: каждая копия получает цифровой префикс,
+     * поэтому коды становятся длиннее и различаются, а окончания сохраняют распределение.
+     */
+    public static List<OkvedItem> scale(List<OkvedItem> leaves, int scale) {
+        if (scale <= 1) {
+            return leaves;
+        }
+        List<OkvedItem> scaled = new ArrayList<>(leaves.size() * scale);
+        scaled.addAll(leaves);
+        for (int copy = 1; copy < scale; copy++) {
+            for (OkvedItem leaf : leaves) {
+                scaled.add(new OkvedItem(copy + "." + leaf.getCode(), leaf.getName(), Collections.emptyList()));
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Генерирует нормализованные номера +79XXXXXXXXX.
+     */
+    public static String[] randomPhones(int count, long seed) {
+        Random random = new Random(seed);
+        String[] phones = new String[count];
+        for (int i = 0; i < count; i++) {
+            phones[i] = String.format("+79%09d", random.nextInt(1_000_000_000));
+        }
+        return phones;
+    }
+}
@@ -0,0 +1,238 @@
+import bench.WorkloadFactory;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Измеряемые операции для бенчмарков из пакета {@code bench}.
+ */
+public class BenchmarkWorkloads implements WorkloadFactory {
+
+    @Override
+    public Consumer<Blackhole> create(String name, Map<String, String> params) throws Exception {
+        switch (name) {
+            case "normalize":
+                return normalize(params.get("input"));
+            case "tryNormalize":
+                return tryNormalize(params.get("input"));
+            case "normalizeBatch":
+                return normalizeBatch(params.get("engine"), Integer.parseInt(params.get("count")),
+                        Double.parseDouble(params.get("invalidShare")));
+            case "findBestMatch":
+                return findBestMatch(params.get("fixture"), Integer.parseInt(params.get("scale")),
+                        params.get("engine"));
+            case "findBestMatches":
+                return findBestMatches(params.get("fixture"), Integer.parseInt(params.get("count")),
+                        Integer.parseInt(params.get("distinct")), params.get("engine"), params.get("lookup"));
+            case "findApproximateMatch":
+                return findApproximateMatch(params.get("fixture"), Integer.parseInt(params.get("mismatches")),
+                        params.get("engine"));
+            case "findTopMatches":
+                return findTopMatches(params.get("fixture"), Integer.parseInt(params.get("k")),
+                        params.get("engine"));
+            case "buildIndex":
+                return buildIndex(params.get("fixture"), Integer.parseInt(params.get("scale")),
+                        Integer.parseInt(params.get("threads")));
+            case "getDigitsOnly":
+                return getDigitsOnly(params.get("fixture"));
+            case "collectNumericLeafItems":
+                return collectNumericLeafItems(params.get("fixture"));
+            case "treeParse":
+                return treeParse(params.get("fixture"));
+            case "streamParse":
+                return streamParse(params.get("fixture"));
+            default:
+                throw new IllegalArgumentException("Неизвестная операция: " + name);
+        }
+    }
+
+    // Приватные методы
+
+    private static Consumer<Blackhole> normalize(String input) {
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        return blackhole -> {
+            try {
+                blackhole.consume(normalizer.normalize(input));
+            } catch (IllegalArgumentException e) {
+                blackhole.consume(e);
+            }
+        };
+    }
+
+    private static Consumer<Blackhole> tryNormalize(String input) {
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        return blackhole -> blackhole.consume(normalizer.tryNormalize(input));
+    }
+
+    private static Consumer<Blackhole> normalizeBatch(String engine, int count, double invalidShare) {
+        PhoneLoadGenerator generator = new PhoneLoadGenerator(42);
+        generator.setInvalidShare(invalidShare);
+        String[] phones = generator.generate(count);
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        PhoneBulkNormalizer bulk = new PhoneBulkNormalizer(normalizer);
+        long[] results = new long[count];
+
+        if ("scalar".equals(engine)) {
+            return blackhole -> {
+                for (int i = 0; i < count; i++) {
+                    results[i] = normalizer.tryNormalize(phones[i]);
+                }
+                blackhole.consume(results);
+            };
+        }
+        if ("strings".equals(engine)) {
+            return blackhole -> blackhole.consume(bulk.normalize(phones, results));
+        }
+
+        int width = PhoneBulkNormalizer.DEFAULT_RECORD_WIDTH;
+        byte[] records = new byte[count * width];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = phones[i].getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, records, i * width, Math.min(bytes.length, width));
+        }
+        return blackhole -> blackhole.consume(bulk.normalize(records, width, count, results));
+    }
+
+    private static Consumer<Blackhole> findBestMatch(String fixture, int scale, String engine) throws Exception {
+        List<OkvedItem> leaves = BenchmarkData.scale(
+                BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture)), scale);
+        String[] phones = BenchmarkData.randomPhones(1024, 42);
+        OkvedFinder finder = new OkvedFinder(System.err);
+        int[] next = new int[1];
+
+        if ("linear".equals(engine)) {
+            return blackhole -> blackhole.consume(
+                    finder.findBestMatch(phones[next[0]++ & (phones.length - 1)], leaves));
+        }
+
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(leaves);
+        OkvedMatcher matcher = "table".equals(engine) ? OkvedSuffixTable.build(index) : index;
+        return blackhole -> blackhole.consume(
+                finder.findBestMatch(phones[next[0]++ & (phones.length - 1)], matcher));
+    }
+
+    private static Consumer<Blackhole> findBestMatches(String fixture, int count, int distinct, String engine,
+                                                       String lookup) throws Exception {
+        List<OkvedItem> leaves = BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture));
+        PhoneLoadGenerator generator = new PhoneLoadGenerator(42);
+        generator.setDistinct(distinct);
+        generator.setInvalidShare(0);
+        String[] phones = generator.generate(count);
+        long[] normalized = new long[count];
+        new PhoneBulkNormalizer(new PhoneNormalizer()).normalize(phones, normalized);
+        OkvedFinder finder = new OkvedFinder(System.err);
+
+        if ("linear".equals(engine)) {
+            if ("single".equals(lookup)) {
+                return blackhole -> {
+                    for (long phone : normalized) {
+                        blackhole.consume(finder.findBestMatch("+" + phone, leaves));
+                    }
+                };
+            }
+            return blackhole -> blackhole.consume(finder.findBestMatches(normalized, leaves));
+        }
+
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(leaves);
+        if ("single".equals(lookup)) {
+            return blackhole -> {
+                for (long phone : normalized) {
+                    blackhole.consume(finder.findBestMatch(phone, index));
+                }
+            };
+        }
+        return blackhole -> blackhole.consume(finder.findBestMatches(normalized, index));
+    }
+
+    private static Consumer<Blackhole> findApproximateMatch(String fixture, int mismatches, String engine)
+            throws Exception {
+        List<OkvedItem> leaves = BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture));
+        String[] phones = BenchmarkData.randomPhones(1024, 42);
+        OkvedFinder finder = new OkvedFinder(System.err);
+        int[] next = new int[1];
+
+        if ("linear".equals(engine)) {
+            return blackhole -> blackhole.consume(
+                    finder.findApproximateMatch(phones[next[0]++ & (phones.length - 1)], leaves, mismatches));
+        }
+
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(leaves);
+        return blackhole -> blackhole.consume(
+                finder.findApproximateMatch(phones[next[0]++ & (phones.length - 1)], index, mismatches));
+    }
+
+    private static Consumer<Blackhole> findTopMatches(String fixture, int k, String engine) throws Exception {
+        List<OkvedItem> leaves = BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture));
+        String[] phones = BenchmarkData.randomPhones(1024, 42);
+        OkvedFinder finder = new OkvedFinder(System.err);
+        int[] next = new int[1];
+
+        if ("linear".equals(engine)) {
+            return blackhole -> blackhole.consume(
+                    finder.findTopMatches(phones[next[0]++ & (phones.length - 1)], leaves, k));
+        }
+
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(leaves);
+        return blackhole -> blackhole.consume(
+                finder.findTopMatches(phones[next[0]++ & (phones.length - 1)], index, k));
+    }
+
+    private static Consumer<Blackhole> buildIndex(String fixture, int scale, int threads) throws Exception {
+        OkvedLeafTable leaves = OkvedLeafTable.of(BenchmarkData.scale(
+                BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture)), scale));
+        if (threads == 0) {
+            return blackhole -> blackhole.consume(OkvedSuffixIndex.build(leaves));
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        return blackhole -> blackhole.consume(OkvedSuffixIndex.buildParallel(leaves, pool));
+    }
+
+    private static Consumer<Blackhole> getDigitsOnly(String fixture) throws Exception {
+        List<OkvedItem> leaves = BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture));
+        return blackhole -> {
+            for (OkvedItem leaf : leaves) {
+                blackhole.consume(leaf.getDigitsOnly());
+            }
+        };
+    }
+
+    private static Consumer<Blackhole> collectNumericLeafItems(String fixture) throws Exception {
+        List<OkvedItem> roots = BenchmarkData.parseTree(BenchmarkData.readFixture(fixture));
+        return blackhole -> {
+            for (OkvedItem root : roots) {
+                blackhole.consume(root.collectNumericLeafItems());
+            }
+        };
+    }
+
+    private static Consumer<Blackhole> treeParse(String fixture) throws Exception {
+        byte[] json = BenchmarkData.readFixture(fixture);
+        return blackhole -> {
+            try {
+                List<OkvedItem> leaves = new ArrayList<>();
+                for (OkvedItem root : BenchmarkData.parseTree(json)) {
+                    leaves.addAll(root.collectNumericLeafItems());
+                }
+                blackhole.consume(leaves);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static Consumer<Blackhole> streamParse(String fixture) throws Exception {
+        byte[] json = BenchmarkData.readFixture(fixture);
+        return blackhole -> {
+            try {
+                blackhole.consume(BenchmarkData.readLeaves(json));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+}
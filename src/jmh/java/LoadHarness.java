@@ -0,0 +1,736 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочный тест всего конвейера: нормализация, поиск и вывод результата.
+ * Запуск: {@code mvn -Pjmh test-compile exec:exec@load -Dload.args="--mode inprocess --rate 20000"}.
+ *
+ * <p>Режимы:
+ * <ul>
+ *   <li>{@code inprocess} - рабочие потоки в том же процессе, результат в JSON;</li>
+ *   <li>{@code line} - {@link OkvedLineServer} и клиенты по TCP с конвейерной отправкой;</li>
+ *   <li>{@code http} - {@link OkvedHttpServer} и клиенты на постоянных соединениях HTTP/1.1;</li>
+ *   <li>{@code batch} - {@link PhoneBatchProcessor} на максимальной скорости, только пропускная способность.</li>
+ * </ul>
+ *
+ * <p>Запросы отправляются с постоянной частотой независимо от ответов (открытая модель).
+ * Задержка отсчитывается от запланированного времени отправки, а не от фактического,
+ * поэтому время ожидания в очереди при отставании тоже попадает в перцентили
+ * (без эффекта coordinated omission). Первые секунды прогрева в результат не входят.
+ * Выделение памяти считается по всем потокам процесса, включая клиентские.
+ */
+public class LoadHarness {
+
+    /**
+     * Наибольшее количество сгенерированных номеров; дальше последовательность повторяется.
+     */
+    private static final int MAX_INPUTS = 1 << 18;
+
+    /**
+     * Ожидание короче этого выполняется активно, длиннее - с остановкой потока.
+     */
+    private static final long SPIN_NANOS = 100_000;
+
+    private String mode = "inprocess";
+    private int rate = 10_000;
+    private int durationSeconds = 10;
+    private int warmupSeconds = 3;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int serverThreads = Runtime.getRuntime().availableProcessors();
+    private int connections = 4;
+    private long seed = 42;
+    private int distinct = 100_000;
+    private double zipf = 1.0;
+    private double invalid = 0.05;
+    private String fixture = "classpath:okved-fixture.json";
+    private int scale = 1;
+    private String resultFile = "target/load-result.json";
+
+    private OkvedFinder finder;
+    private OkvedDataset dataset;
+    private String[] inputs;
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+        try {
+            harness.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.exit(1);
+        }
+        harness.run();
+    }
+
+    // Приватные методы
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mode":
+                    mode = optionValue(args, ++i);
+                    break;
+                case "--rate":
+                    rate = positive(args, ++i);
+                    break;
+                case "--duration":
+                    durationSeconds = positive(args, ++i);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(optionValue(args, ++i));
+                    break;
+                case "--threads":
+                    threads = positive(args, ++i);
+                    break;
+                case "--server-threads":
+                    serverThreads = positive(args, ++i);
+                    break;
+                case "--connections":
+                    connections = positive(args, ++i);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(optionValue(args, ++i));
+                    break;
+                case "--distinct":
+                    distinct = positive(args, ++i);
+                    break;
+                case "--zipf":
+                    zipf = Double.parseDouble(optionValue(args, ++i));
+                    break;
+                case "--invalid":
+                    invalid = Double.parseDouble(optionValue(args, ++i));
+                    break;
+                case "--fixture":
+                    fixture = optionValue(args, ++i);
+                    break;
+                case "--scale":
+                    scale = positive(args, ++i);
+                    break;
+                case "--result":
+                    resultFile = optionValue(args, ++i);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+        }
+        if (!List.of("inprocess", "line", "http", "batch").contains(mode)) {
+            throw new IllegalArgumentException("Неизвестный режим: " + mode);
+        }
+    }
+
+    private void run() throws Exception {
+        finder = new OkvedFinder(System.err);
+        List<OkvedItem> leaves = BenchmarkData.scale(
+                BenchmarkData.readLeaves(BenchmarkData.readFixture(fixture)), scale);
+        dataset = OkvedDataset.of(finder.compile(leaves), leaves);
+
+        PhoneLoadGenerator generator = new PhoneLoadGenerator(seed);
+        generator.setDistinct(distinct);
+        generator.setZipfExponent(zipf);
+        generator.setInvalidShare(invalid);
+        long total = (long) rate * (warmupSeconds + durationSeconds);
+        inputs = generator.generate((int) Math.min(total, MAX_INPUTS));
+
+        System.err.printf("Режим %s: %d запросов/с, %d с (прогрев %d с), справочник %d элементов%n",
+                mode, rate, durationSeconds, warmupSeconds, dataset.size());
+
+        Report report;
+        switch (mode) {
+            case "line":
+                report = runLine();
+                break;
+            case "http":
+                report = runHttp();
+                break;
+            case "batch":
+                report = runBatch();
+                break;
+            default:
+                report = runInProcess();
+        }
+
+        System.out.println(report.describe());
+        String json = report.toJson();
+        Path path = Paths.get(resultFile);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.writeString(path, json + "\n");
+        System.err.println("Результат записан в " + path);
+    }
+
+    private Report runInProcess() throws InterruptedException {
+        Schedule schedule = new Schedule();
+        Report report = new Report(schedule);
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        OkvedMatcher matcher = dataset.getMatcher();
+        AtomicLong next = new AtomicLong();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = report.newThread("load-worker-" + t, () -> {
+                StringBuilder output = new StringBuilder(256);
+                long checksum = 0;
+                long i;
+                while ((i = next.getAndIncrement()) < schedule.total) {
+                    long intended = schedule.waitFor(i);
+                    String input = inputs[(int) (i % inputs.length)];
+                    output.setLength(0);
+                    long phone = normalizer.tryNormalize(input);
+                    if (phone < 0) {
+                        output.append(PhoneNormalizer.rejectMessage(phone));
+                        report.rejected.increment(i);
+                    } else {
+                        Optional<OkvedFinder.MatchResult> match = finder.findBestMatch(phone, matcher);
+                        String normalized = "+" + phone;
+                        JsonText.appendMatch(output, input, normalized,
+                                match.isPresent() ? match.get() : finder.createBackupMatch(normalized));
+                    }
+                    checksum += output.length();
+                    report.complete(i, intended);
+                }
+                report.checksum.accumulate(checksum);
+            });
+            workers.add(worker);
+        }
+
+        schedule.start(workers);
+        report.measure();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return report.finish();
+    }
+
+    private Report runLine() throws Exception {
+        OkvedLineServer server = new OkvedLineServer(() -> dataset, finder, System.err);
+        server.start(0, serverThreads);
+        Schedule schedule = new Schedule();
+        Report report = new Report(schedule);
+        byte[][] lines = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            lines[i] = (inputs[i] + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> clients = new ArrayList<>();
+        try {
+            for (int c = 0; c < connections; c++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                int connection = c;
+                clients.add(report.newThread("load-send-" + c,
+                        () -> send(socket, connection, lines, schedule, report)));
+                clients.add(report.newThread("load-receive-" + c,
+                        () -> receive(socket, connection, schedule, report)));
+            }
+
+            schedule.start(clients);
+            report.measure();
+            for (Thread client : clients) {
+                client.join();
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.stop(Duration.ofSeconds(1));
+        }
+        return report.finish();
+    }
+
+    /**
+     * Отправляет запросы соединения {@code connection}: номера с индексами connection + k * connections.
+     * Буфер сбрасывается, когда следующий запрос еще не наступил, поэтому при отставании
+     * запросы уходят пачками.
+     */
+    private void send(Socket socket, int connection, byte[][] lines, Schedule schedule, Report report) {
+        try {
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            for (long i = connection; i < schedule.total; i += connections) {
+                schedule.waitFor(i);
+                output.write(lines[(int) (i % lines.length)]);
+                long next = i + connections;
+                if (next >= schedule.total || schedule.intendedTime(next) > System.nanoTime()) {
+                    output.flush();
+                }
+            }
+            output.flush();
+        } catch (IOException e) {
+            report.errors.incrementAndGet();
+            System.err.println("Ошибка отправки: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Читает ответы соединения по порядку: k-й ответ относится к запросу connection + k * connections.
+     */
+    private void receive(Socket socket, int connection, Schedule schedule, Report report) {
+        try {
+            InputStream input = socket.getInputStream();
+            byte[] buffer = new byte[64 * 1024];
+            long i = connection;
+            boolean error = false;
+            int atLineStart = 1;
+            while (i < schedule.total) {
+                int read = input.read(buffer);
+                if (read < 0) {
+                    throw new IOException("соединение закрыто сервером");
+                }
+                for (int p = 0; p < read; p++) {
+                    byte b = buffer[p];
+                    if (atLineStart == 1) {
+                        error = b == 'E';
+                        atLineStart = 0;
+                    }
+                    if (b == '\n') {
+                        if (error) {
+                            report.rejected.increment(i);
+                        }
+                        report.complete(i, schedule.intendedTime(i));
+                        i += connections;
+                        atLineStart = 1;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            report.errors.incrementAndGet();
+            System.err.println("Ошибка чтения: " + e.getMessage());
+        }
+    }
+
+    /**
+     * HTTP-режим в духе wrk2: --connections постоянных соединений, на каждом запрос отправляется
+     * после ответа на предыдущий. Если соединение не успевает, следующий запрос уходит с опозданием,
+     * но задержка все равно отсчитывается от запланированного времени.
+     */
+    private Report runHttp() throws Exception {
+        OkvedHttpServer server = new OkvedHttpServer(() -> dataset, finder, System.err);
+        server.start(0, serverThreads);
+        Schedule schedule = new Schedule();
+        Report report = new Report(schedule);
+        byte[][] requests = new byte[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            requests[i] = ("GET /match?phone=" + URLEncoder.encode(inputs[i], StandardCharsets.UTF_8)
+                    + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        List<Socket> sockets = new ArrayList<>();
+        List<Thread> clients = new ArrayList<>();
+        try {
+            for (int c = 0; c < connections; c++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                int connection = c;
+                clients.add(report.newThread("load-http-" + c,
+                        () -> exchange(socket, connection, requests, schedule, report)));
+            }
+
+            schedule.start(clients);
+            report.measure();
+            for (Thread client : clients) {
+                client.join();
+            }
+            return report.finish();
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.stop(0);
+        }
+    }
+
+    private void exchange(Socket socket, int connection, byte[][] requests, Schedule schedule, Report report) {
+        try {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            byte[] line = new byte[1024];
+            for (long i = connection; i < schedule.total; i += connections) {
+                long intended = schedule.waitFor(i);
+                output.write(requests[(int) (i % requests.length)]);
+                int status = readResponse(input, line);
+                if (status == 400) {
+                    report.rejected.increment(i);
+                } else if (status != 200) {
+                    throw new IOException("HTTP " + status);
+                }
+                report.complete(i, intended);
+            }
+        } catch (IOException e) {
+            report.errors.incrementAndGet();
+            System.err.println("Ошибка HTTP: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Читает ответ HTTP/1.1 с заголовком Content-Length и возвращает код статуса.
+     */
+    private static int readResponse(InputStream input, byte[] line) throws IOException {
+        int length = readLine(input, line);
+        if (length < 12) {
+            throw new IOException("неверная строка статуса");
+        }
+        int status = (line[9] - '0') * 100 + (line[10] - '0') * 10 + (line[11] - '0');
+
+        long contentLength = 0;
+        while ((length = readLine(input, line)) > 0) {
+            if (length > 15 && startsWithIgnoreCase(line, "content-length:")) {
+                contentLength = Long.parseLong(new String(line, 15, length - 15, StandardCharsets.US_ASCII).trim());
+            }
+        }
+        while (contentLength > 0) {
+            long skipped = input.skip(contentLength);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new IOException("соединение закрыто сервером");
+                }
+                skipped = 1;
+            }
+            contentLength -= skipped;
+        }
+        return status;
+    }
+
+    /**
+     * Читает строку до CRLF без самого перевода строки и возвращает ее длину.
+     */
+    private static int readLine(InputStream input, byte[] line) throws IOException {
+        int length = 0;
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("соединение закрыто сервером");
+            }
+            if (b != '\r' && length < line.length) {
+                line[length++] = (byte) b;
+            }
+        }
+        return length;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] line, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(line[i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Пакетный режим не ограничивает частоту: --rate * --duration номеров обрабатываются
+     * так быстро, как позволяет {@link PhoneBatchProcessor}. Перед замером выполняется
+     * прогон того же объема. Перцентили задержки в этом режиме не считаются.
+     */
+    private Report runBatch() throws Exception {
+        long count = (long) rate * durationSeconds;
+        StringBuilder text = new StringBuilder((int) Math.min(count * 20, Integer.MAX_VALUE - 16));
+        for (long i = 0; i < count; i++) {
+            String input = inputs[(int) (i % inputs.length)];
+            // Пустые строки пакетный режим пропускает, поэтому заменяем их неверным номером
+            text.append(input.trim().isEmpty() ? "-" : input).append('\n');
+        }
+        String input = text.toString();
+        PhoneBatchProcessor processor = new PhoneBatchProcessor(
+                new PhoneNormalizer(), finder, dataset.getMatcher(), PhoneBatchProcessor.Format.CSV, threads);
+
+        if (warmupSeconds > 0) {
+            processor.process(new BufferedReader(new StringReader(input)), Writer.nullWriter(), Writer.nullWriter());
+        }
+
+        Schedule schedule = new Schedule();
+        Report report = new Report(schedule);
+        report.begin(System.nanoTime());
+        PhoneBatchProcessor.Stats stats = processor.process(
+                new BufferedReader(new StringReader(input)), Writer.nullWriter(), Writer.nullWriter());
+        report.batchStats(stats);
+        return report.finish();
+    }
+
+    private static String optionValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Не указано значение параметра " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static int positive(String[] args, int index) {
+        int value = Integer.parseInt(optionValue(args, index));
+        if (value < 1) {
+            throw new IllegalArgumentException("Значение " + args[index - 1] + " должно быть положительным: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Возвращает выделенную память по живым потокам процесса: идентификатор потока - байты.
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threadBean.getAllThreadIds();
+        long[] bytes = threadBean.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    /**
+     * Возвращает память, выделенную после снимка. Потоки, завершившиеся за это время, не учитываются.
+     */
+    private static long allocatedSince(Map<Long, Long> snapshot) {
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : allocatedBytes().entrySet()) {
+            total += thread.getValue() - snapshot.getOrDefault(thread.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * Расписание отправки: запрос i запланирован на start + i / rate.
+     */
+    private final class Schedule {
+        private final long total = (long) rate * (warmupSeconds + durationSeconds);
+        private final long warmupRequests = (long) rate * warmupSeconds;
+        private volatile long start;
+
+        private void start(List<Thread> threads) {
+            // Небольшой запас, чтобы все потоки успели запуститься до первого запроса
+            start = System.nanoTime() + 50_000_000L;
+            for (Thread thread : threads) {
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private long intendedTime(long i) {
+            return start + i * 1_000_000_000L / rate;
+        }
+
+        /**
+         * Ожидает запланированного времени запроса i и возвращает его.
+         */
+        private long waitFor(long i) {
+            long intended = intendedTime(i);
+            long remaining;
+            while ((remaining = intended - System.nanoTime()) > 0) {
+                if (remaining > SPIN_NANOS) {
+                    LockSupport.parkNanos(remaining - SPIN_NANOS);
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+            return intended;
+        }
+
+        private boolean measured(long i) {
+            return i >= warmupRequests;
+        }
+    }
+
+    /**
+     * Накопленные результаты прогона. Учитываются только запросы после прогрева.
+     */
+    private final class Report {
+        private final Schedule schedule;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Counter rejected = new Counter();
+        private final AtomicLong errors = new AtomicLong();
+        private final LongAccumulator lastCompletion = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator checksum = new LongAccumulator(Long::sum, 0);
+
+        private long windowStart;
+        private Map<Long, Long> allocatedAtStart;
+        private long finishedThreadsAllocated;
+        private long[] gcAtStart;
+        private long operations;
+        private long elapsedNanos;
+        private long allocated;
+        private long[] gc;
+        private boolean batch;
+
+        private Report(Schedule schedule) {
+            this.schedule = schedule;
+        }
+
+        private void complete(long i, long intended) {
+            if (schedule.measured(i)) {
+                long now = System.nanoTime();
+                latency.record(now - intended);
+                lastCompletion.accumulate(now);
+            }
+        }
+
+        /**
+         * Ожидает конца прогрева и запоминает счетчики памяти на начало замера.
+         */
+        private void measure() {
+            long windowAt = schedule.intendedTime(schedule.warmupRequests);
+            long remaining;
+            while ((remaining = windowAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            begin(windowAt);
+        }
+
+        /**
+         * Создает поток нагрузки. Память, выделенная потоком за время замера,
+         * учитывается при его завершении, так как после завершения она уже недоступна.
+         */
+        private Thread newThread(String name, Runnable task) {
+            return new Thread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    threadDone();
+                }
+            }, name);
+        }
+
+        private synchronized void threadDone() {
+            if (allocatedAtStart != null) {
+                long id = Thread.currentThread().getId();
+                Long bytes = allocatedBytes().get(id);
+                if (bytes != null) {
+                    finishedThreadsAllocated += bytes - allocatedAtStart.getOrDefault(id, 0L);
+                }
+            }
+        }
+
+        private synchronized void begin(long at) {
+            windowStart = at;
+            allocatedAtStart = allocatedBytes();
+            gcAtStart = gcTotals();
+        }
+
+        private void batchStats(PhoneBatchProcessor.Stats stats) {
+            batch = true;
+            operations = stats.getProcessed() + stats.getRejected();
+            rejected.count.set(stats.getRejected());
+            lastCompletion.accumulate(System.nanoTime());
+        }
+
+        private synchronized Report finish() {
+            allocated = allocatedSince(allocatedAtStart) + finishedThreadsAllocated;
+            long[] gcNow = gcTotals();
+            gc = new long[]{gcNow[0] - gcAtStart[0], gcNow[1] - gcAtStart[1]};
+            if (!batch) {
+                operations = latency.getCount();
+            }
+            elapsedNanos = Math.max(1, lastCompletion.get() - windowStart);
+            return this;
+        }
+
+        private double throughput() {
+            return operations * 1e9 / elapsedNanos;
+        }
+
+        private double micros(long nanos) {
+            return nanos / 1000.0;
+        }
+
+        private String describe() {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT,
+                    "%s: %d операций за %.2f с, %.0f оп/с (цель %d), отклонено %d, ошибок %d",
+                    mode, operations, elapsedNanos / 1e9, throughput(), batch ? 0 : rate,
+                    rejected.count.get(), errors.get()));
+            if (!batch) {
+                text.append(String.format(Locale.ROOT,
+                        "%nзадержка, мкс: p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                        micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(99)),
+                        micros(latency.getValueAtPercentile(99.9)), micros(latency.getMax())));
+            }
+            text.append(String.format(Locale.ROOT,
+                    "%nпамять: %.1f МБ/с, %.0f байт/оп; GC: %d сборок, %d мс",
+                    allocated / 1048576.0 / (elapsedNanos / 1e9), (double) allocated / Math.max(1, operations),
+                    gc[0], gc[1]));
+            return text.toString();
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder(512).append('{');
+            json.append("\"mode\":\"").append(mode).append('"')
+                    .append(",\"datasetVersion\":\"").append(dataset.getVersion()).append('"')
+                    .append(",\"datasetItems\":").append(dataset.size())
+                    .append(",\"javaVersion\":\"").append(System.getProperty("java.version")).append('"')
+                    .append(",\"seed\":").append(seed)
+                    .append(",\"rate\":").append(batch ? 0 : rate)
+                    .append(",\"durationSeconds\":").append(durationSeconds)
+                    .append(",\"warmupSeconds\":").append(warmupSeconds)
+                    .append(",\"threads\":").append(threads)
+                    .append(",\"serverThreads\":").append(serverThreads)
+                    .append(",\"connections\":").append(connections)
+                    .append(",\"distinct\":").append(distinct)
+                    .append(",\"zipf\":").append(zipf)
+                    .append(",\"invalidShare\":").append(invalid)
+                    .append(",\"operations\":").append(operations)
+                    .append(",\"rejected\":").append(rejected.count.get())
+                    .append(",\"errors\":").append(errors.get())
+                    .append(",\"throughput\":").append(String.format(Locale.ROOT, "%.1f", throughput()));
+            if (!batch) {
+                json.append(",\"latencyMicros\":{")
+                        .append(String.format(Locale.ROOT, "\"p50\":%.1f,\"p99\":%.1f,\"p999\":%.1f,\"max\":%.1f",
+                                micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(99)),
+                                micros(latency.getValueAtPercentile(99.9)), micros(latency.getMax())))
+                        .append('}');
+            }
+            json.append(",\"allocation\":{")
+                    .append(String.format(Locale.ROOT, "\"mbPerSecond\":%.2f,\"bytesPerOperation\":%.1f",
+                            allocated / 1048576.0 / (elapsedNanos / 1e9), (double) allocated / Math.max(1, operations)))
+                    .append('}')
+                    .append(",\"gc\":{\"count\":").append(gc[0]).append(",\"millis\":").append(gc[1]).append('}');
+            return json.append('}').toString();
+        }
+    }
+
+    /**
+     * Счетчик отклоненных номеров, учитывающий только запросы после прогрева.
+     */
+    private final class Counter {
+        private final AtomicLong count = new AtomicLong();
+
+        private void increment(long i) {
+            if (i >= (long) rate * warmupSeconds) {
+                count.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Генератор входных номеров для нагрузочного теста.
+ * Номера берутся из пула различных номеров с распределением Ципфа: номер с рангом k
+ * выпадает с вероятностью, пропорциональной 1 / k^s, поэтому частые номера повторяются,
+ * как в реальном потоке запросов. Каждый номер записывается в одном из форматов
+ * из {@code TestApp.testPhoneNormalizer}, заданная доля номеров портится.
+ * При одинаковом зерне последовательность одна и та же.
+ */
+public class PhoneLoadGenerator {
+
+    private static final String[] INVALID_SAMPLES = {
+            "", "   ", "12345", "+7 (912) 345-67", "+7 (812) 345-67-89",
+            "89123456789012", "+7 (9l2) 345-67-89", "телефон не указан"
+    };
+
+    private final long seed;
+
+    private int distinct = 100_000;
+    private double zipfExponent = 1.0;
+    private double invalidShare = 0.05;
+
+    public PhoneLoadGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    // Геттеры и сеттеры
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Задает количество различных номеров в пуле.
+     */
+    public void setDistinct(int distinct) {
+        if (distinct < 1) {
+            throw new IllegalArgumentException("Размер пула номеров должен быть положительным: " + distinct);
+        }
+        this.distinct = distinct;
+    }
+
+    /**
+     * Задает показатель распределения Ципфа; 0 - равномерное распределение без перекоса.
+     */
+    public void setZipfExponent(double zipfExponent) {
+        if (zipfExponent < 0) {
+            throw new IllegalArgumentException("Показатель Ципфа не может быть отрицательным: " + zipfExponent);
+        }
+        this.zipfExponent = zipfExponent;
+    }
+
+    /**
+     * Задает долю неверных номеров от 0 до 1.
+     */
+    public void setInvalidShare(double invalidShare) {
+        if (invalidShare < 0 || invalidShare > 1) {
+            throw new IllegalArgumentException("Доля неверных номеров должна быть от 0 до 1: " + invalidShare);
+        }
+        this.invalidShare = invalidShare;
+    }
+
+    /**
+     * Генерирует номера.
+     *
+     * @param count количество номеров
+     * @return номера в исходном виде, как их вводит пользователь
+     */
+    public String[] generate(int count) {
+        Random random = new Random(seed);
+        long[] pool = new long[distinct];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = 9_000_000_000L + (long) random.nextInt(1_000_000_000);
+        }
+        double[] cdf = zipfCdf(distinct, zipfExponent);
+
+        String[] phones = new String[count];
+        for (int i = 0; i < count; i++) {
+            if (random.nextDouble() < invalidShare) {
+                phones[i] = INVALID_SAMPLES[random.nextInt(INVALID_SAMPLES.length)];
+            } else {
+                phones[i] = format(pool[rank(cdf, random.nextDouble())], random.nextInt(5));
+            }
+        }
+        return phones;
+    }
+
+    /**
+     * Записывает десятизначный номер 9XXXXXXXXX в одном из форматов.
+     *
+     * @param core номер без кода страны
+     * @param style формат от 0 до 4
+     * @return номер в заданном формате
+     */
+    static String format(long core, int style) {
+        String digits = Long.toString(core);
+        String code = digits.substring(0, 3);
+        String first = digits.substring(3, 6);
+        String second = digits.substring(6, 8);
+        String third = digits.substring(8, 10);
+        switch (style) {
+            case 0:
+                return "+7 (" + code + ") " + first + "-" + second + "-" + third;
+            case 1:
+                return "8(" + code + ")" + first + second + third;
+            case 2:
+                return digits;
+            case 3:
+                return "+7" + digits;
+            default:
+                return "7 " + code + " " + first + " " + second + " " + third;
+        }
+    }
+
+    // Приватные методы
+
+    private static double[] zipfCdf(int size, double exponent) {
+        double[] cdf = new double[size];
+        double sum = 0;
+        for (int k = 0; k < size; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < size; k++) {
+            cdf[k] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int rank(double[] cdf, double u) {
+        int position = Arrays.binarySearch(cdf, u);
+        return Math.min(position >= 0 ? position : -position - 1, cdf.length - 1);
+    }
+}
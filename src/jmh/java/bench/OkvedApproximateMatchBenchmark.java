@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Приближенный поиск с допустимыми несовпадающими цифрами: перебор списка
+ * с упакованными окончаниями и обход индекса с отсечением ветвей.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OkvedApproximateMatchBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    @Param({"0", "1", "2"})
+    public String mismatches;
+
+    @Param({"linear", "trie"})
+    public String engine;
+
+    private Consumer<Blackhole> findApproximateMatch;
+
+    @Setup
+    public void setUp() throws Exception {
+        findApproximateMatch = WorkloadFactory.workload("findApproximateMatch",
+                Map.of("fixture", fixture, "mismatches", mismatches, "engine", engine));
+    }
+
+    @Benchmark
+    public void findApproximateMatch(Blackhole blackhole) {
+        findApproximateMatch.accept(blackhole);
+    }
+}
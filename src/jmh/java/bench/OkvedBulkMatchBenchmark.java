@@ -0,0 +1,60 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Поиск для пачки из 1024 номеров из пула различных номеров: по одному через findBestMatch
+ * и пакетно с группировкой по значимым окончаниям, перебором списка и по индексу.
+ * Время указано на один номер.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@OperationsPerInvocation(1024)
+public class OkvedBulkMatchBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    @Param({"linear", "trie"})
+    public String engine;
+
+    @Param({"single", "bulk"})
+    public String lookup;
+
+    @Param({"64", "100000"})
+    public String distinct;
+
+    private Consumer<Blackhole> findBestMatches;
+
+    @Setup
+    public void setUp() throws Exception {
+        findBestMatches = WorkloadFactory.workload("findBestMatches",
+                Map.of("fixture", fixture, "count", "1024", "distinct", distinct,
+                        "engine", engine, "lookup", lookup));
+    }
+
+    @Benchmark
+    public void findBestMatches(Blackhole blackhole) {
+        findBestMatches.accept(blackhole);
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Поиск лучшего совпадения по справочнику и по синтетическим справочникам в 10 и 100 раз больше.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OkvedFinderBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    @Param({"1", "10", "100"})
+    public String scale;
+
+    @Param({"linear", "trie", "table"})
+    public String engine;
+
+    private Consumer<Blackhole> findBestMatch;
+
+    @Setup
+    public void setUp() throws Exception {
+        findBestMatch = WorkloadFactory.workload("findBestMatch",
+                Map.of("fixture", fixture, "scale", scale, "engine", engine));
+    }
+
+    @Benchmark
+    public void findBestMatch(Blackhole blackhole) {
+        findBestMatch.accept(blackhole);
+    }
+}
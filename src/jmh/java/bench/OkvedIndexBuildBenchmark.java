@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Построение индекса окончаний для большого справочника: последовательно (threads = 0)
+ * и параллельно с заданным числом потоков.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OkvedIndexBuildBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    @Param("200")
+    public String scale;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public String threads;
+
+    private Consumer<Blackhole> buildIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        buildIndex = WorkloadFactory.workload("buildIndex",
+                Map.of("fixture", fixture, "scale", scale, "threads", threads));
+    }
+
+    @Benchmark
+    public void buildIndex(Blackhole blackhole) {
+        buildIndex.accept(blackhole);
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Операции OkvedItem над всем справочником: извлечение цифр кода и сбор листьев из дерева.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OkvedItemBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    private Consumer<Blackhole> getDigitsOnly;
+    private Consumer<Blackhole> collectNumericLeafItems;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, String> params = Map.of("fixture", fixture);
+        getDigitsOnly = WorkloadFactory.workload("getDigitsOnly", params);
+        collectNumericLeafItems = WorkloadFactory.workload("collectNumericLeafItems", params);
+    }
+
+    @Benchmark
+    public void getDigitsOnly(Blackhole blackhole) {
+        getDigitsOnly.accept(blackhole);
+    }
+
+    @Benchmark
+    public void collectNumericLeafItems(Blackhole blackhole) {
+        collectNumericLeafItems.accept(blackhole);
+    }
+}
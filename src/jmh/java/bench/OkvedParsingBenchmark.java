@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Разбор JSON справочника: дерево Jackson с обходом листьев и потоковое извлечение.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OkvedParsingBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    private Consumer<Blackhole> treeParse;
+    private Consumer<Blackhole> streamParse;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, String> params = Map.of("fixture", fixture);
+        treeParse = WorkloadFactory.workload("treeParse", params);
+        streamParse = WorkloadFactory.workload("streamParse", params);
+    }
+
+    @Benchmark
+    public void treeParse(Blackhole blackhole) {
+        treeParse.accept(blackhole);
+    }
+
+    @Benchmark
+    public void streamParse(Blackhole blackhole) {
+        streamParse.accept(blackhole);
+    }
+}
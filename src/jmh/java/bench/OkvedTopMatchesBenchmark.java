@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Поиск нескольких лучших совпадений: перебор с ограниченной кучей и слияние по индексу.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OkvedTopMatchesBenchmark {
+
+    @Param("classpath:okved-fixture.json")
+    public String fixture;
+
+    @Param({"1", "3", "10", "25"})
+    public String k;
+
+    @Param({"linear", "trie"})
+    public String engine;
+
+    private Consumer<Blackhole> findTopMatches;
+
+    @Setup
+    public void setUp() throws Exception {
+        findTopMatches = WorkloadFactory.workload("findTopMatches",
+                Map.of("fixture", fixture, "k", k, "engine", engine));
+    }
+
+    @Benchmark
+    public void findTopMatches(Blackhole blackhole) {
+        findTopMatches.accept(blackhole);
+    }
+}
@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Нормализация пачки из 1024 номеров в разных форматах: по одному через tryNormalize,
+ * пакетно из строк и пакетно из записей фиксированной ширины. Время указано на один номер.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@OperationsPerInvocation(1024)
+public class PhoneBulkNormalizerBenchmark {
+
+    @Param({"scalar", "strings", "records"})
+    public String engine;
+
+    @Param({"0", "0.05"})
+    public String invalidShare;
+
+    private Consumer<Blackhole> normalizeBatch;
+
+    @Setup
+    public void setUp() throws Exception {
+        normalizeBatch = WorkloadFactory.workload("normalizeBatch",
+                Map.of("engine", engine, "count", "1024", "invalidShare", invalidShare));
+    }
+
+    @Benchmark
+    public void normalizeBatch(Blackhole blackhole) {
+        normalizeBatch.accept(blackhole);
+    }
+}
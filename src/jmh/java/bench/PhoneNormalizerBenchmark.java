@@ -0,0 +1,61 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Нормализация номеров в разных форматах, включая отклоняемые.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhoneNormalizerBenchmark {
+
+    @Param({
+            "+7 (912) 345-67-89",
+            "8(912)3456789",
+            "9123456789",
+            "+79123456789",
+            "7 912 345 67 89",
+            "123",
+            "+7 (812) 345-67-89"
+    })
+    public String input;
+
+    private Consumer<Blackhole> normalize;
+    private Consumer<Blackhole> tryNormalize;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, String> params = Map.of("input", input);
+        normalize = WorkloadFactory.workload("normalize", params);
+        tryNormalize = WorkloadFactory.workload("tryNormalize", params);
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        normalize.accept(blackhole);
+    }
+
+    @Benchmark
+    public void tryNormalize(Blackhole blackhole) {
+        tryNormalize.accept(blackhole);
+    }
+}
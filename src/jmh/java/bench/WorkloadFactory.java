@@ -0,0 +1,33 @@
+package bench;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Создает измеряемые операции.
+ * JMH не допускает бенчмарки в пакете по умолчанию, а классы приложения
+ * находятся именно там и не видны из именованных пакетов. Поэтому операции
+ * реализуются в пакете по умолчанию (BenchmarkWorkloads) и передаются
+ * бенчмаркам через этот интерфейс.
+ */
+public interface WorkloadFactory {
+
+    /**
+     * @param name имя операции
+     * @param params параметры бенчмарка
+     * @return операция, вызываемая на каждой итерации; результат передается в Blackhole
+     * @throws Exception при ошибке подготовки данных
+     */
+    Consumer<Blackhole> create(String name, Map<String, String> params) throws Exception;
+
+    /**
+     * Создает операцию через реализацию из пакета по умолчанию.
+     */
+    static Consumer<Blackhole> workload(String name, Map<String, String> params) throws Exception {
+        WorkloadFactory factory = (WorkloadFactory) Class.forName("BenchmarkWorkloads")
+                .getDeclaredConstructor().newInstance();
+        return factory.create(name, params);
+    }
+}
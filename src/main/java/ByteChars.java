@@ -0,0 +1,58 @@
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Представление байтов ASCII буфера как последовательности символов без копирования.
+ * Объект переиспользуется: {@link #wrap} переключает его на другой буфер или диапазон.
+ */
+final class ByteChars implements CharSequence {
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * Представляет буфер целиком. Индексы абсолютные, как в {@link ByteBuffer#get(int)}.
+     */
+    void wrap(ByteBuffer buffer) {
+        wrap(buffer, 0, buffer.limit());
+    }
+
+    /**
+     * Представляет диапазон {@code [start, end)} буфера; индексы отсчитываются от start.
+     */
+    void wrap(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.offset = start;
+        this.length = end - start;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    /**
+     * Возвращает новое представление части диапазона поверх того же буфера, без копирования.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, length);
+        ByteChars chars = new ByteChars();
+        chars.wrap(buffer, offset + start, offset + end);
+        return chars;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,73 @@
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.List;
+
+/**
+ * Запись значений JSON в {@link StringBuilder} без промежуточных объектов.
+ */
+public final class JsonText {
+
+    private JsonText() {
+    }
+
+    /**
+     * Дописывает строку JSON в кавычках с экранированием или null.
+     *
+     * @param out буфер
+     * @param value значение
+     * @return тот же буфер
+     */
+    public static StringBuilder appendString(StringBuilder out, CharSequence value) {
+        if (value == null) {
+            return out.append("null");
+        }
+        out.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(value, out);
+        return out.append('"');
+    }
+
+    /**
+     * Дописывает результат поиска для нормализованного номера в виде объекта JSON.
+     *
+     * @param out буфер
+     * @param phone исходный номер
+     * @param normalizedPhone нормализованый номер телефона
+     * @param result результат поиска
+     * @return тот же буфер
+     */
+    public static StringBuilder appendMatch(StringBuilder out, CharSequence phone, CharSequence normalizedPhone,
+                                            OkvedFinder.MatchResult result) {
+        out.append("{\"phone\":");
+        appendString(out, phone).append(",\"normalized\":\"").append(normalizedPhone).append("\",\"code\":");
+        appendString(out, result.getCode()).append(",\"matchLength\":").append(result.getMatchLength())
+                .append(",\"name\":");
+        return appendString(out, result.getName()).append('}');
+    }
+
+    /**
+     * Дописывает несколько результатов поиска для нормализованного номера в виде объекта JSON
+     * с массивом {@code matches}, лучший результат первым.
+     *
+     * @param out буфер
+     * @param phone исходный номер
+     * @param normalizedPhone нормализованый номер телефона
+     * @param results результаты поиска
+     * @return тот же буфер
+     */
+    public static StringBuilder appendMatches(StringBuilder out, String phone, String normalizedPhone,
+                                              List<OkvedFinder.MatchResult> results) {
+        out.append("{\"phone\":");
+        appendString(out, phone).append(",\"normalized\":\"").append(normalizedPhone).append("\",\"matches\":[");
+        for (int i = 0; i < results.size(); i++) {
+            OkvedFinder.MatchResult result = results.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"code\":");
+            appendString(out, result.getCode()).append(",\"matchLength\":").append(result.getMatchLength())
+                    .append(",\"name\":");
+            appendString(out, result.getName()).append('}');
+        }
+        return out.append("]}");
+    }
+}
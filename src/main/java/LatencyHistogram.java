@@ -0,0 +1,118 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек в наносекундах в духе HdrHistogram: значения до 32 хранятся точно,
+ * дальше каждый интервал [2^n, 2^(n+1)) делится на 32 равные части, поэтому относительная
+ * погрешность не превышает 1/32 (~3%) во всем диапазоне до ~2,4 часа.
+ * Запись выполняется без блокировок и без создания объектов.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int GROUPS = 38;
+    private static final long MAX_VALUE = (1L << (SUB_BUCKET_BITS + GROUPS)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (GROUPS + 1));
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Записывает значение. Отрицательные значения считаются нулем,
+     * значения больше максимального - максимальным.
+     *
+     * @param nanos задержка в наносекундах
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Возвращает количество записанных значений.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Возвращает сумму записанных значений в наносекундах.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Возвращает максимальное записанное значение в наносекундах.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Возвращает значение, не меньше которого оказались (100 - percentile)% записей.
+     * Результат - верхняя граница интервала, в который попал перцентиль.
+     *
+     * @param percentile перцентиль от 0 до 100
+     * @return значение в наносекундах или 0, если записей нет
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Удаляет все записи.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    // Приватные методы
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
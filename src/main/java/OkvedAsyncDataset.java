@@ -0,0 +1,219 @@
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Справочник, который загружается в фоне, пока поиск уже отвечает.
+ * До окончания загрузки ответ дается по {@link StartupPolicy политике запуска}: после ожидания
+ * не дольше заданного срока, сразу по последнему снимку или сразу резервной стратегией.
+ * Такие ответы помечаются {@link Answer#isProvisional() предварительными}. После загрузки
+ * все ответы даются по загруженному справочнику без ожидания.
+ */
+public class OkvedAsyncDataset implements Supplier<OkvedDataset> {
+
+    /**
+     * Поведение поиска, пока справочник загружается.
+     */
+    public enum StartupPolicy {
+        /**
+         * Ждать загрузки не дольше {@link #setMaxWait срока}, затем ответить как {@link #SNAPSHOT}.
+         */
+        WAIT,
+        /**
+         * Сразу отвечать по последнему снимку справочника, без снимка - резервной стратегией.
+         */
+        SNAPSHOT,
+        /**
+         * Сразу отвечать резервной стратегией {@link OkvedFinder#createBackupMatch}.
+         */
+        BACKUP
+    }
+
+    private final CompletableFuture<OkvedDataset> loading;
+    private final OkvedDataset provisional;
+    private final OkvedDataset empty;
+    private final OkvedFinder finder;
+
+    private volatile StartupPolicy policy = StartupPolicy.WAIT;
+    private volatile Duration maxWait = Duration.ofSeconds(1);
+
+    /**
+     * @param loading загрузка справочника
+     * @param provisional справочник до окончания загрузки (например, из снимка) или null
+     * @param finder поиск совпадений
+     */
+    public OkvedAsyncDataset(CompletableFuture<OkvedDataset> loading, OkvedDataset provisional, OkvedFinder finder) {
+        this.loading = loading;
+        this.empty = OkvedDataset.of(OkvedSuffixIndex.build(Collections.emptyList()), Collections.emptyList());
+        this.provisional = provisional != null ? provisional : empty;
+        this.finder = finder;
+    }
+
+    /**
+     * Запускает загрузку справочника и сразу возвращает управление.
+     *
+     * @param loader загрузка справочника
+     * @param executor исполнитель, в котором выполняется загрузка
+     * @param provisional справочник до окончания загрузки или null
+     * @param finder поиск совпадений
+     * @return справочник, загружаемый в фоне
+     */
+    public static OkvedAsyncDataset start(Callable<OkvedDataset> loader, Executor executor,
+                                          OkvedDataset provisional, OkvedFinder finder) {
+        CompletableFuture<OkvedDataset> loading = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                loading.complete(loader.call());
+            } catch (Throwable e) {
+                loading.completeExceptionally(e);
+            }
+        });
+        return new OkvedAsyncDataset(loading, provisional, finder);
+    }
+
+    // Геттеры и сеттеры
+    public StartupPolicy getStartupPolicy() {
+        return policy;
+    }
+
+    public void setStartupPolicy(StartupPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Задает наибольшее ожидание загрузки для политики {@link StartupPolicy#WAIT}.
+     */
+    public void setMaxWait(Duration maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Возвращает загруженный справочник без ожидания. До окончания загрузки возвращает
+     * предварительный справочник, а для политики {@link StartupPolicy#BACKUP} - пустой,
+     * чтобы поиск по нему переходил к резервной стратегии.
+     */
+    @Override
+    public OkvedDataset get() {
+        OkvedDataset loaded = loadedNow();
+        if (loaded != null) {
+            return loaded;
+        }
+        return policy == StartupPolicy.BACKUP ? empty : provisional;
+    }
+
+    /**
+     * Возвращает true, если справочник загружен.
+     */
+    public boolean isReady() {
+        return loadedNow() != null;
+    }
+
+    /**
+     * Возвращает загрузку справочника. Завершение возвращенного объекта на загрузку не влияет.
+     */
+    public CompletableFuture<OkvedDataset> ready() {
+        return loading.copy();
+    }
+
+    /**
+     * Ожидает загрузки не дольше заданного времени.
+     *
+     * @param timeout наибольшее время ожидания
+     * @return загруженный справочник или, если он не успел загрузиться, результат {@link #get()}
+     */
+    public OkvedDataset await(Duration timeout) {
+        OkvedDataset loaded = loading.copy()
+                .completeOnTimeout(null, timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionally(error -> null)
+                .join();
+        return loaded != null ? loaded : get();
+    }
+
+    /**
+     * Находит лучшее совпадение по текущей политике запуска.
+     * Если совпадение не найдено, результат дает резервная стратегия.
+     *
+     * @param normalizedPhone нормализованный номер телефона
+     * @return ответ, который завершается сразу или, для {@link StartupPolicy#WAIT}, не позже срока ожидания
+     */
+    public CompletableFuture<Answer> findBestMatchAsync(String normalizedPhone) {
+        OkvedDataset loaded = loadedNow();
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(answer(loaded, normalizedPhone, false));
+        }
+
+        switch (policy) {
+            case WAIT:
+                return loading.copy()
+                        .completeOnTimeout(null, maxWait.toNanos(), TimeUnit.NANOSECONDS)
+                        .handle((dataset, error) -> dataset != null
+                                ? answer(dataset, normalizedPhone, false)
+                                : answer(provisional, normalizedPhone, true));
+            case SNAPSHOT:
+                return CompletableFuture.completedFuture(answer(provisional, normalizedPhone, true));
+            default:
+                return CompletableFuture.completedFuture(
+                        new Answer(finder.createBackupMatch(normalizedPhone), true, true, null));
+        }
+    }
+
+    /**
+     * Синхронный вариант {@link #findBestMatchAsync}.
+     */
+    public Answer findBestMatch(String normalizedPhone) {
+        return findBestMatchAsync(normalizedPhone).join();
+    }
+
+    /**
+     * Ответ поиска с признаками того, как он получен.
+     */
+    public static final class Answer {
+        private final OkvedFinder.MatchResult result;
+        private final boolean provisional;
+        private final boolean backup;
+        private final String datasetVersion;
+
+        private Answer(OkvedFinder.MatchResult result, boolean provisional, boolean backup, String datasetVersion) {
+            this.result = result;
+            this.provisional = provisional;
+            this.backup = backup;
+            this.datasetVersion = datasetVersion;
+        }
+
+        public OkvedFinder.MatchResult getResult() { return result; }
+
+        /**
+         * Возвращает true, если ответ дан до окончания загрузки справочника.
+         */
+        public boolean isProvisional() { return provisional; }
+
+        /**
+         * Возвращает true, если результат получен резервной стратегией.
+         */
+        public boolean isBackup() { return backup; }
+
+        /**
+         * Возвращает версию справочника, по которому дан ответ, или null для резервной стратегии без справочника.
+         */
+        public String getDatasetVersion() { return datasetVersion; }
+    }
+
+    // Приватные методы
+
+    private OkvedDataset loadedNow() {
+        return loading.isDone() && !loading.isCompletedExceptionally() ? loading.join() : null;
+    }
+
+    private Answer answer(OkvedDataset dataset, String normalizedPhone, boolean provisional) {
+        Optional<OkvedFinder.MatchResult> result = finder.findBestMatch(normalizedPhone, dataset.getMatcher());
+        if (result.isPresent()) {
+            return new Answer(result.get(), provisional, false, dataset.getVersion());
+        }
+        return new Answer(finder.createBackupMatch(normalizedPhone), provisional, true, dataset.getVersion());
+    }
+}
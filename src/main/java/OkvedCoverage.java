@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Покрытие пространства мобильных номеров справочником: сколько номеров +79XXXXXXXXX
+ * каждый код получает как лучший результат, с какой длиной совпадения и сколько номеров
+ * уходит в резервную стратегию.
+ *
+ * <p>Номера не перебираются. Каждый узел индекса окончаний соответствует окончанию длиной
+ * в его глубину, и номеров с этим окончанием ровно 10^(9 - глубина) (две первые цифры 7 и 9
+ * фиксированы). Номер останавливается в узле, если ни один потомок не продолжает совпадение,
+ * поэтому узел выигрывает свое количество номеров за вычетом номеров потомков и отдает их
+ * своему лучшему элементу. Один проход по узлам дает точные значения для всего пространства.
+ */
+public final class OkvedCoverage {
+
+    /**
+     * Количество номеров в пространстве +79XXXXXXXXX.
+     */
+    public static final long PHONE_SPACE = 1_000_000_000L;
+
+    /**
+     * Наибольшая длина совпадения: все цифры номера 79XXXXXXXXX.
+     */
+    public static final int MAX_MATCH_LENGTH = 11;
+
+    private static final int RADIX = 10;
+    private static final int FREE_DIGITS = 9;
+
+    /**
+     * Формат вывода.
+     */
+    public enum Format { CSV, JSON }
+
+    private final List<CodeCoverage> codes;
+    private final long[] lengths;
+    private final int leafCount;
+
+    private OkvedCoverage(List<CodeCoverage> codes, long[] lengths, int leafCount) {
+        this.codes = codes;
+        this.lengths = lengths;
+        this.leafCount = leafCount;
+    }
+
+    /**
+     * Вычисляет покрытие по индексу окончаний.
+     *
+     * @param index индекс окончаний
+     * @return покрытие; коды упорядочены по убыванию выигранных номеров, затем по коду
+     */
+    public static OkvedCoverage compute(OkvedSuffixIndex index) {
+        OkvedLeafTable leaves = index.getLeafTable();
+        IntBuffer children = index.children();
+        IntBuffer depths = index.depths();
+        IntBuffer bestLeaves = index.bestLeaves();
+
+        Map<String, CodeCoverage> byCode = new HashMap<>();
+        List<CodeCoverage> codes = new ArrayList<>();
+        for (int leaf = 0; leaf < leaves.size(); leaf++) {
+            String code = leaves.getCode(leaf);
+            if (!byCode.containsKey(code)) {
+                CodeCoverage coverage = new CodeCoverage(code, leaves.getName(leaf));
+                byCode.put(code, coverage);
+                codes.add(coverage);
+            }
+        }
+
+        // Обход только тех узлов, окончание которых встречается в номерах 79XXXXXXXXX
+        long[] lengths = new long[MAX_MATCH_LENGTH + 1];
+        int[] stack = new int[MAX_MATCH_LENGTH * (RADIX - 1) + 1];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            int depth = depths.get(node);
+            long wins = phonesWithSuffix(depth);
+            if (depth < MAX_MATCH_LENGTH) {
+                for (int digit = 0; digit < RADIX; digit++) {
+                    int child = children.get(node * RADIX + digit);
+                    if (child != 0 && fitsPrefix(depth, digit)) {
+                        wins -= phonesWithSuffix(depth + 1);
+                        stack[stackSize++] = child;
+                    }
+                }
+            }
+
+            lengths[depth] += wins;
+            if (depth > 0 && wins > 0) {
+                byCode.get(leaves.getCode(bestLeaves.get(node))).lengths[depth] += wins;
+            }
+        }
+
+        for (CodeCoverage coverage : codes) {
+            for (long count : coverage.lengths) {
+                coverage.wins += count;
+            }
+        }
+        codes.sort(Comparator.comparingLong((CodeCoverage coverage) -> coverage.wins).reversed()
+                .thenComparing(CodeCoverage::getCode));
+        return new OkvedCoverage(Collections.unmodifiableList(codes), lengths, leaves.size());
+    }
+
+    /**
+     * Сравнивает покрытие двух версий справочника.
+     *
+     * @param before покрытие прежней версии
+     * @param after покрытие новой версии
+     * @return изменившиеся коды по убыванию абсолютного изменения, затем по коду
+     */
+    public static List<CodeChange> compare(OkvedCoverage before, OkvedCoverage after) {
+        Map<String, CodeCoverage> previous = new HashMap<>();
+        for (CodeCoverage coverage : before.codes) {
+            previous.put(coverage.code, coverage);
+        }
+
+        List<CodeChange> changes = new ArrayList<>();
+        for (CodeCoverage coverage : after.codes) {
+            CodeCoverage old = previous.remove(coverage.code);
+            if (old == null || old.wins != coverage.wins) {
+                changes.add(new CodeChange(coverage.code, coverage.name, old != null, true,
+                        old != null ? old.wins : 0, coverage.wins));
+            }
+        }
+        for (CodeCoverage old : previous.values()) {
+            changes.add(new CodeChange(old.code, old.name, true, false, old.wins, 0));
+        }
+        changes.sort(Comparator.comparingLong((CodeChange change) -> Math.abs(change.getDelta())).reversed()
+                .thenComparing(CodeChange::getCode));
+        return changes;
+    }
+
+    /**
+     * Записывает покрытие по кодам.
+     * CSV: строка на код с количеством номеров по длинам совпадения, затем строка резервной
+     * стратегии с пустым кодом. JSON: один объект с итогами, кодами и недостижимыми кодами.
+     */
+    public void write(Format format, Writer out) throws IOException {
+        StringBuilder text = new StringBuilder();
+        if (format == Format.CSV) {
+            text.append("code,name,wins,share");
+            for (int length = 1; length <= MAX_MATCH_LENGTH; length++) {
+                text.append(",length_").append(length);
+            }
+            text.append('\n');
+            for (CodeCoverage coverage : codes) {
+                PhoneBatchProcessor.appendCsv(text, coverage.code).append(',');
+                PhoneBatchProcessor.appendCsv(text, coverage.name).append(',').append(coverage.wins).append(',');
+                appendShare(text, coverage.wins);
+                appendLengths(text, coverage.lengths, ",", "");
+                text.append('\n');
+            }
+            text.append(",,").append(getBackupCount()).append(',');
+            appendShare(text, getBackupCount());
+            appendLengths(text, new long[MAX_MATCH_LENGTH + 1], ",", "").append('\n');
+        } else {
+            text.append("{\"space\":").append(PHONE_SPACE).append(",\"leaves\":").append(leafCount)
+                    .append(",\"codes\":").append(codes.size()).append(",\"reachable\":").append(getReachableCount())
+                    .append(",\"backup\":").append(getBackupCount()).append(",\"backupShare\":");
+            appendShare(text, getBackupCount()).append(",\"lengths\":[");
+            appendLengths(text, lengths, "", ",").append("],\"byCode\":[");
+            for (int i = 0; i < codes.size(); i++) {
+                CodeCoverage coverage = codes.get(i);
+                text.append(i > 0 ? ",{\"code\":" : "{\"code\":");
+                JsonText.appendString(text, coverage.code).append(",\"name\":");
+                JsonText.appendString(text, coverage.name).append(",\"wins\":").append(coverage.wins)
+                        .append(",\"share\":");
+                appendShare(text, coverage.wins).append(",\"lengths\":[");
+                appendLengths(text, coverage.lengths, "", ",").append("]}");
+            }
+            text.append("],\"unreachable\":[");
+            List<String> unreachable = getUnreachableCodes();
+            for (int i = 0; i < unreachable.size(); i++) {
+                JsonText.appendString(text.append(i > 0 ? "," : ""), unreachable.get(i));
+            }
+            text.append("]}\n");
+        }
+        out.write(text.toString());
+    }
+
+    /**
+     * Записывает изменения покрытия между двумя версиями справочника.
+     * В CSV после строк кодов идет строка резервной стратегии с пустым кодом.
+     */
+    public static void writeDiff(Format format, OkvedCoverage before, OkvedCoverage after, Writer out)
+            throws IOException {
+        List<CodeChange> changes = compare(before, after);
+        StringBuilder text = new StringBuilder();
+        if (format == Format.CSV) {
+            text.append("code,name,status,before,after,delta,share_delta\n");
+            for (CodeChange change : changes) {
+                PhoneBatchProcessor.appendCsv(text, change.code).append(',');
+                PhoneBatchProcessor.appendCsv(text, change.name).append(',').append(change.getStatus()).append(',')
+                        .append(change.before).append(',').append(change.after).append(',')
+                        .append(change.getDelta()).append(',');
+                appendShare(text, change.getDelta()).append('\n');
+            }
+            long backupDelta = after.getBackupCount() - before.getBackupCount();
+            text.append(",,backup,").append(before.getBackupCount()).append(',').append(after.getBackupCount())
+                    .append(',').append(backupDelta).append(',');
+            appendShare(text, backupDelta).append('\n');
+        } else {
+            text.append("{\"backup\":{\"before\":").append(before.getBackupCount())
+                    .append(",\"after\":").append(after.getBackupCount())
+                    .append(",\"delta\":").append(after.getBackupCount() - before.getBackupCount())
+                    .append("},\"reachable\":{\"before\":").append(before.getReachableCount())
+                    .append(",\"after\":").append(after.getReachableCount()).append("},\"changes\":[");
+            for (int i = 0; i < changes.size(); i++) {
+                CodeChange change = changes.get(i);
+                text.append(i > 0 ? ",{\"code\":" : "{\"code\":");
+                JsonText.appendString(text, change.code).append(",\"name\":");
+                JsonText.appendString(text, change.name).append(",\"status\":\"").append(change.getStatus())
+                        .append("\",\"before\":").append(change.before).append(",\"after\":").append(change.after)
+                        .append(",\"delta\":").append(change.getDelta()).append(",\"shareDelta\":");
+                appendShare(text, change.getDelta()).append('}');
+            }
+            text.append("]}\n");
+        }
+        out.write(text.toString());
+    }
+
+    // Геттеры и сеттеры
+    public List<CodeCoverage> getCodes() { return codes; }
+    public int getLeafCount() { return leafCount; }
+
+    /**
+     * Возвращает количество номеров, для которых совпадение не найдено и применяется резервная стратегия.
+     */
+    public long getBackupCount() {
+        return lengths[0];
+    }
+
+    /**
+     * Возвращает количество номеров по длинам совпадения: индекс 0 - резервная стратегия.
+     */
+    public long[] getLengthHistogram() {
+        return lengths.clone();
+    }
+
+    /**
+     * Возвращает количество кодов, которые хотя бы для одного номера являются лучшим результатом.
+     */
+    public int getReachableCount() {
+        int reachable = 0;
+        for (CodeCoverage coverage : codes) {
+            if (coverage.wins > 0) {
+                reachable++;
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Возвращает коды, которые не являются лучшим результатом ни для одного номера, по порядку кодов.
+     */
+    public List<String> getUnreachableCodes() {
+        List<String> unreachable = new ArrayList<>();
+        for (CodeCoverage coverage : codes) {
+            if (coverage.wins == 0) {
+                unreachable.add(coverage.code);
+            }
+        }
+        return unreachable;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OkvedCoverage{leaves=%d, codes=%d, reachable=%d, backup=%d}",
+                leafCount, codes.size(), getReachableCount(), getBackupCount());
+    }
+
+    // Приватные методы
+
+    /**
+     * Количество номеров 79XXXXXXXXX с заданным окончанием длины depth, совместимым с префиксом.
+     */
+    private static long phonesWithSuffix(int depth) {
+        long count = 1;
+        for (int i = depth; i < FREE_DIGITS; i++) {
+            count *= RADIX;
+        }
+        return count;
+    }
+
+    /**
+     * Проверяет, что цифра на позиции depth с конца совместима с префиксом 79.
+     */
+    private static boolean fitsPrefix(int depth, int digit) {
+        return depth < FREE_DIGITS || (depth == FREE_DIGITS && digit == 9) || (depth == FREE_DIGITS + 1 && digit == 7);
+    }
+
+    private static StringBuilder appendShare(StringBuilder out, long count) {
+        return out.append(String.format(Locale.ROOT, "%.9f", (double) count / PHONE_SPACE));
+    }
+
+    private static StringBuilder appendLengths(StringBuilder out, long[] lengths, String before, String between) {
+        for (int length = 1; length <= MAX_MATCH_LENGTH; length++) {
+            out.append(length > 1 ? between : "").append(before).append(lengths[length]);
+        }
+        return out;
+    }
+
+    /**
+     * Покрытие одного кода.
+     */
+    public static final class CodeCoverage {
+        private final String code;
+        private final String name;
+        private final long[] lengths = new long[MAX_MATCH_LENGTH + 1];
+        private long wins;
+
+        private CodeCoverage(String code, String name) {
+            this.code = code;
+            this.name = name;
+        }
+
+        public String getCode() { return code; }
+        public String getName() { return name; }
+        public long getWins() { return wins; }
+        public double getShare() { return (double) wins / PHONE_SPACE; }
+
+        /**
+         * Возвращает количество выигранных номеров с заданной длиной совпадения.
+         */
+        public long getWins(int matchLength) {
+            return lengths[matchLength];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CodeCoverage{code='%s', wins=%d}", code, wins);
+        }
+    }
+
+    /**
+     * Изменение покрытия кода между двумя версиями справочника.
+     */
+    public static final class CodeChange {
+        private final String code;
+        private final String name;
+        private final boolean presentBefore;
+        private final boolean presentAfter;
+        private final long before;
+        private final long after;
+
+        private CodeChange(String code, String name, boolean presentBefore, boolean presentAfter,
+                           long before, long after) {
+            this.code = code;
+            this.name = name;
+            this.presentBefore = presentBefore;
+            this.presentAfter = presentAfter;
+            this.before = before;
+            this.after = after;
+        }
+
+        public String getCode() { return code; }
+        public String getName() { return name; }
+        public long getBefore() { return before; }
+        public long getAfter() { return after; }
+        public long getDelta() { return after - before; }
+
+        /**
+         * Возвращает added, removed или changed.
+         */
+        public String getStatus() {
+            if (!presentBefore) {
+                return "added";
+            }
+            return presentAfter ? "changed" : "removed";
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CodeChange{code='%s', %s, %d -> %d}", code, getStatus(), before, after);
+        }
+    }
+}
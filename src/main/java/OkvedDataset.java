@@ -0,0 +1,70 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Загруженный справочник OKVED: листовые элементы, построенный по ним механизм поиска
+ * и сведения о версии данных. Объект неизменяемый и может использоваться из любого
+ * количества потоков; новая версия справочника - это новый объект.
+ */
+public class OkvedDataset {
+
+    private final List<OkvedItem> leaves;
+    private final OkvedMatcher matcher;
+    private final String version;
+    private final long loadedAtMillis;
+
+    public OkvedDataset(List<OkvedItem> leaves, OkvedMatcher matcher, String version, long loadedAtMillis) {
+        this.leaves = Collections.unmodifiableList(leaves);
+        this.matcher = matcher;
+        this.version = version;
+        this.loadedAtMillis = loadedAtMillis;
+    }
+
+    /**
+     * Создает справочник, вычисляя версию как контрольную сумму кодов и названий элементов.
+     *
+     * @param matcher механизм поиска
+     * @param leaves элементы, по которым построен механизм поиска
+     * @return справочник
+     */
+    public static OkvedDataset of(OkvedMatcher matcher, List<OkvedItem> leaves) {
+        return new OkvedDataset(leaves, matcher, computeVersion(leaves), System.currentTimeMillis());
+    }
+
+    public List<OkvedItem> getLeaves() { return leaves; }
+    public OkvedMatcher getMatcher() { return matcher; }
+    public String getVersion() { return version; }
+    public long getLoadedAtMillis() { return loadedAtMillis; }
+    public int size() { return matcher.size(); }
+
+    /**
+     * Вычисляет версию данных как CRC32 кодов и названий в порядке списка.
+     *
+     * @param leaves элементы справочника
+     * @return версия в шестнадцатеричном виде
+     */
+    public static String computeVersion(List<OkvedItem> leaves) {
+        CRC32 crc = new CRC32();
+        for (OkvedItem leaf : leaves) {
+            update(crc, leaf.getCode());
+            update(crc, leaf.getName());
+        }
+        return String.format("%08x-%d", crc.getValue(), leaves.size());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OkvedDataset{version='%s', size=%d}", version, size());
+    }
+
+    // Приватные методы
+
+    private static void update(CRC32 crc, String value) {
+        if (value != null) {
+            crc.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        crc.update(0);
+    }
+}
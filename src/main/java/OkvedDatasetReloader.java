@@ -0,0 +1,215 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Горячая замена справочника без остановки процесса.
+ * Текущий справочник публикуется через одну атомарную ссылку: новая версия полностью
+ * строится в фоновом потоке и только затем подменяет старую, поэтому поиск никогда
+ * не блокируется и не видит частично построенный индекс. Запрос, начатый со старой
+ * версией, завершается на ней же.
+ *
+ * <p>Обновление выполняется по расписанию ({@link #scheduleEvery}), при изменении файла
+ * ({@link #watch}) или вручную ({@link #reload()}). Если загрузка не удалась или вернула
+ * пустой справочник, остается прежняя версия.
+ */
+public class OkvedDatasetReloader implements Supplier<OkvedDataset>, Closeable {
+
+    private final Callable<OkvedDataset> loader;
+    private final PrintStream log;
+    private final AtomicReference<OkvedDataset> current;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Object reloadLock = new Object();
+
+    private ScheduledExecutorService scheduler;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    /**
+     * @param initial справочник, доступный сразу
+     * @param loader загрузка новой версии справочника (выполняется в фоновом потоке)
+     * @param log поток для сообщений об обновлении
+     */
+    public OkvedDatasetReloader(OkvedDataset initial, Callable<OkvedDataset> loader, PrintStream log) {
+        this.current = new AtomicReference<>(initial);
+        this.loader = loader;
+        this.log = log;
+    }
+
+    /**
+     * Возвращает текущий справочник. Чтение одной volatile-ссылки, без блокировок.
+     */
+    @Override
+    public OkvedDataset get() {
+        return current.get();
+    }
+
+    /**
+     * Возвращает версию текущего справочника.
+     */
+    public String getVersion() {
+        return current.get().getVersion();
+    }
+
+    /**
+     * Возвращает количество выполненных замен справочника.
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    /**
+     * Возвращает количество неудачных попыток обновления.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Загружает справочник и, если его версия отличается от текущей, публикует его.
+     * Одновременные вызовы выполняются по очереди, поиск при этом не блокируется.
+     *
+     * @return true, если справочник был заменен
+     */
+    public boolean reload() {
+        synchronized (reloadLock) {
+            OkvedDataset loaded;
+            try {
+                loaded = loader.call();
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.println("Ошибка обновления справочника OKVED, используется прежняя версия: " + e.getMessage());
+                return false;
+            }
+            return publish(loaded);
+        }
+    }
+
+    /**
+     * Публикует уже загруженный справочник (например, завершившуюся фоновую загрузку),
+     * если его версия отличается от текущей.
+     *
+     * @param loaded новый справочник
+     * @return true, если справочник был заменен
+     */
+    public boolean publish(OkvedDataset loaded) {
+        synchronized (reloadLock) {
+            OkvedDataset previous = current.get();
+            if (loaded == null || loaded.size() == 0) {
+                failures.incrementAndGet();
+                log.println("Получен пустой справочник OKVED, используется прежняя версия");
+                return false;
+            }
+            if (loaded.getVersion().equals(previous.getVersion())) {
+                return false;
+            }
+
+            current.set(loaded);
+            reloads.incrementAndGet();
+            log.printf("Справочник OKVED обновлен: %s -> %s%n", previous.getVersion(), loaded.getVersion());
+            return true;
+        }
+    }
+
+    /**
+     * Запускает обновление по расписанию.
+     *
+     * @param interval интервал между обновлениями
+     */
+    public synchronized void scheduleEvery(Duration interval) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "okved-reload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long millis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::reload, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Запускает обновление при создании или изменении файла.
+     * Несколько событий подряд (запись файла частями) приводят к одному обновлению.
+     *
+     * @param file отслеживаемый файл
+     * @throws IOException если каталог файла не может отслеживаться
+     */
+    public synchronized void watch(Path file) throws IOException {
+        if (watchService != null) {
+            throw new IllegalStateException("Файл уже отслеживается");
+        }
+        Path absolute = file.toAbsolutePath();
+        Path directory = absolute.getParent();
+        Path fileName = absolute.getFileName();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        WatchService service = watchService;
+        watchThread = new Thread(() -> watchLoop(service, fileName), "okved-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (watchService != null) {
+            watchService.close();
+            watchThread.interrupt();
+            watchService = null;
+        }
+    }
+
+    // Приватные методы
+
+    private void watchLoop(WatchService service, Path fileName) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= fileName.equals(event.context());
+                }
+                key.reset();
+
+                if (changed) {
+                    // Ожидание, пока запись файла завершится
+                    Thread.sleep(200);
+                    drain(service);
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Отслеживание остановлено
+        }
+    }
+
+    private static void drain(WatchService service) {
+        WatchKey key;
+        while ((key = service.poll()) != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+}
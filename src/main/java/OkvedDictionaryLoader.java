@@ -0,0 +1,379 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Загрузка больших пользовательских справочников (расширения классификатора, списки кодов
+ * партнеров) в миллионы элементов. Поддерживаются JSON в формате {@link OkvedItem}
+ * и CSV из двух колонок {@code code,name}.
+ *
+ * <p>JSON разбирается потоково {@link OkvedJsonStreamParser}: листья сразу добавляются в таблицу,
+ * дерево элементов не строится. CSV делится на блоки по границам строк, блоки отображаются
+ * в память и разбираются задачами fork/join; каждая задача собирает свою {@link OkvedLeafTable},
+ * части объединяются в порядке файла. Затем индекс строится
+ * {@link OkvedSuffixIndex#buildParallel параллельно}. Порядок элементов и правило выбора
+ * при равной длине совпадения те же, что в {@link OkvedFinder}.
+ */
+public class OkvedDictionaryLoader {
+
+    /**
+     * Задача делится дальше, пока в очереди потока меньше этого числа лишних задач.
+     */
+    private static final int SURPLUS_TASKS = 3;
+
+    /**
+     * Размер блока CSV в байтах; блок продлевается до конца строки.
+     */
+    private static final int CSV_CHUNK_BYTES = 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private final OkvedJsonStreamParser streamParser;
+    private final PrintStream log;
+
+    public OkvedDictionaryLoader() {
+        this(ForkJoinPool.commonPool(), System.out);
+    }
+
+    /**
+     * @param pool пул потоков для разбора и построения индекса
+     * @param log поток для сообщений о загрузке
+     */
+    public OkvedDictionaryLoader(ForkJoinPool pool, PrintStream log) {
+        this.pool = pool;
+        this.streamParser = new OkvedJsonStreamParser();
+        this.log = log;
+    }
+
+    /**
+     * Загружает справочник из файла и строит индекс. Формат определяется по расширению:
+     * {@code .csv} - CSV, иначе JSON.
+     *
+     * @param file файл справочника
+     * @return индекс окончаний
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    public OkvedSuffixIndex load(Path file) throws IOException {
+        long start = System.nanoTime();
+        OkvedLeafTable leaves = isCsv(file) ? readCsv(file) : readJson(file);
+        long parsed = System.nanoTime();
+        OkvedSuffixIndex index = OkvedSuffixIndex.buildParallel(leaves, pool);
+
+        log.printf("Справочник %s: %d элементов, разбор %d мс, индекс %d мс (потоков: %d)%n",
+                file, leaves.size(), (parsed - start) / 1_000_000, (System.nanoTime() - parsed) / 1_000_000,
+                pool.getParallelism());
+        return index;
+    }
+
+    /**
+     * Потоково читает JSON-массив элементов {@link OkvedItem} и извлекает листья с цифровыми кодами.
+     *
+     * @param file JSON-файл
+     * @return листья в порядке документа
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    public OkvedLeafTable readJson(Path file) throws IOException {
+        long timer = OkvedMetrics.global().startTimer();
+        OkvedLeafTable.Builder builder = new OkvedLeafTable.Builder(0);
+        try (InputStream input = Files.newInputStream(file)) {
+            streamParser.parse(input, builder::add);
+        }
+
+        OkvedLeafTable leaves = builder.build();
+        OkvedMetrics.global().recordStage(OkvedMetrics.Stage.PARSE, timer, leaves.size());
+        return leaves;
+    }
+
+    /**
+     * Извлекает листья с цифровыми кодами из дерева элементов.
+     * Результат совпадает с последовательным {@link OkvedItem#collectNumericLeafItems()} по всем корням.
+     *
+     * @param roots корневые элементы
+     * @return листья в порядке обхода дерева
+     */
+    public OkvedLeafTable extractLeaves(List<OkvedItem> roots) {
+        return OkvedLeafTable.concat(pool.invoke(new LeafTask(roots, 0, roots.size())));
+    }
+
+    /**
+     * Читает CSV из колонок {@code code,name}. Название можно заключить в двойные кавычки
+     * (кавычка внутри удваивается). Строки без цифр в коде, в том числе заголовок, пропускаются.
+     *
+     * @param file CSV-файл в UTF-8
+     * @return элементы в порядке строк
+     * @throws IOException при ошибке чтения или неверном формате строки
+     */
+    public OkvedLeafTable readCsv(Path file) throws IOException {
+        long timer = OkvedMetrics.global().startTimer();
+
+        OkvedLeafTable leaves;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = csvChunks(channel);
+            leaves = OkvedLeafTable.concat(pool.invoke(new CsvTask(channel, bounds, 0, bounds.length - 1)));
+        } catch (IllegalArgumentException e) {
+            // Исключение из другого потока fork/join приходит обернутым в исключение того же типа
+            Throwable cause = e;
+            while (cause.getCause() instanceof IllegalArgumentException) {
+                cause = cause.getCause();
+            }
+            throw new IOException("Неверный формат CSV " + file + ": " + cause.getMessage(), cause);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        OkvedMetrics.global().recordStage(OkvedMetrics.Stage.PARSE, timer, leaves.size());
+        return leaves;
+    }
+
+    // Приватные методы
+
+    private static boolean isCsv(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".csv");
+    }
+
+    private static void collectLeaves(List<OkvedItem> items, int from, int to, OkvedLeafTable.Builder builder) {
+        for (int i = from; i < to; i++) {
+            OkvedItem item = items.get(i);
+            if (!item.isLeaf()) {
+                collectLeaves(item.getItems(), 0, item.getItems().size(), builder);
+            } else if (OkvedItem.isNumericCode(item.getCode())) {
+                builder.add(item.getCode(), item.getName());
+            }
+        }
+    }
+
+    /**
+     * Делит файл на блоки около {@value #CSV_CHUNK_BYTES} байт по границам строк.
+     *
+     * @return начало каждого блока и конец файла
+     */
+    private static long[] csvChunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[(int) (size / CSV_CHUNK_BYTES) + 2];
+        int count = 0;
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            bounds[count++] = start;
+            start = start + CSV_CHUNK_BYTES < size ? lineEnd(channel, start + CSV_CHUNK_BYTES - 1, size, probe) : size;
+        }
+        bounds[count++] = size;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Возвращает позицию после первого перевода строки ({@code \n}, {@code \r\n} или {@code \r}),
+     * начиная с position, или конец файла.
+     */
+    private static long lineEnd(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        boolean afterCr = false;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (afterCr) {
+                    return b == '\n' ? position + i + 1 : position + i;
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                afterCr = b == '\r';
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Считает строки в начале файла до позиции end; нужно только для сообщения об ошибке.
+     */
+    private static long countLines(FileChannel channel, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long lines = 0;
+        long position = 0;
+        byte previous = 0;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\r' || (b == '\n' && previous != '\r')) {
+                    lines++;
+                }
+                previous = b;
+            }
+            position += read;
+        }
+        return lines;
+    }
+
+    /**
+     * Разбирает строку {@code code,name}.
+     *
+     * @return код и название или null для пустой строки
+     * @throws IllegalArgumentException если строка не в формате {@code code,name}
+     */
+    private static String[] parseCsvLine(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            throw new IllegalArgumentException("ожидалось code,name");
+        }
+        String code = line.substring(0, comma).trim();
+        String name = line.substring(comma + 1).trim();
+        if (name.startsWith("\"")) {
+            if (name.length() < 2 || !name.endsWith("\"")) {
+                throw new IllegalArgumentException("незакрытая кавычка");
+            }
+            name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+        }
+        return new String[]{code, name};
+    }
+
+    private static <T> List<T> concat(List<T> left, List<T> right) {
+        List<T> joined = new ArrayList<>(left.size() + right.size());
+        joined.addAll(left);
+        joined.addAll(right);
+        return joined;
+    }
+
+    /**
+     * Извлекает листья из диапазона элементов одного уровня. Диапазон делится пополам,
+     * а единственный внутренний элемент - по своим дочерним, пока есть свободные потоки.
+     */
+    private static final class LeafTask extends RecursiveTask<List<OkvedLeafTable>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<OkvedItem> items;
+        private final int from;
+        private final int to;
+
+        private LeafTask(List<OkvedItem> items, int from, int to) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<OkvedLeafTable> compute() {
+            if (getSurplusQueuedTaskCount() <= SURPLUS_TASKS) {
+                if (to - from > 1) {
+                    int middle = (from + to) >>> 1;
+                    LeafTask left = new LeafTask(items, from, middle);
+                    left.fork();
+                    List<OkvedLeafTable> right = new LeafTask(items, middle, to).compute();
+                    return concat(left.join(), right);
+                }
+                if (to - from == 1 && !items.get(from).isLeaf()) {
+                    List<OkvedItem> children = items.get(from).getItems();
+                    return new LeafTask(children, 0, children.size()).compute();
+                }
+            }
+
+            OkvedLeafTable.Builder builder = new OkvedLeafTable.Builder(to - from);
+            collectLeaves(items, from, to, builder);
+            return Collections.singletonList(builder.build());
+        }
+    }
+
+    /**
+     * Разбирает диапазон блоков CSV. Каждый блок отображается в память и декодируется отдельно;
+     * блоки начинаются с начала строки, поэтому символ UTF-8 не может попасть на границу.
+     */
+    private static final class CsvTask extends RecursiveTask<List<OkvedLeafTable>> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        private CsvTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<OkvedLeafTable> compute() {
+            if (to - from > 1 && getSurplusQueuedTaskCount() <= SURPLUS_TASKS) {
+                int middle = (from + to) >>> 1;
+                CsvTask left = new CsvTask(channel, bounds, from, middle);
+                left.fork();
+                List<OkvedLeafTable> right = new CsvTask(channel, bounds, middle, to).compute();
+                return concat(left.join(), right);
+            }
+
+            OkvedLeafTable.Builder builder = new OkvedLeafTable.Builder(CSV_CHUNK_BYTES / 64);
+            try {
+                for (int chunk = from; chunk < to; chunk++) {
+                    parseChunk(chunk, builder);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return Collections.singletonList(builder.build());
+        }
+
+        private void parseChunk(int chunk, OkvedLeafTable.Builder builder) throws IOException {
+            CharBuffer text = StandardCharsets.UTF_8.newDecoder().decode(
+                    channel.map(FileChannel.MapMode.READ_ONLY, bounds[chunk], bounds[chunk + 1] - bounds[chunk]));
+            if (chunk == 0 && text.length() > 0 && text.charAt(0) == '\uFEFF') {
+                text.position(1);
+                text = text.slice();
+            }
+
+            int line = 0;
+            int limit = text.limit();
+            int lineStart = 0;
+            int i = 0;
+            while (lineStart < limit) {
+                while (i < limit && text.get(i) != '\n' && text.get(i) != '\r') {
+                    i++;
+                }
+                int lineEnd = i;
+                if (i < limit && text.get(i) == '\r' && i + 1 < limit && text.get(i + 1) == '\n') {
+                    i++;
+                }
+                i++;
+
+                String[] fields;
+                try {
+                    fields = parseCsvLine(text.subSequence(lineStart, lineEnd).toString());
+                } catch (IllegalArgumentException e) {
+                    long lineNumber = countLines(channel, bounds[chunk]) + line + 1;
+                    throw new IllegalArgumentException("строка " + lineNumber + ": " + e.getMessage());
+                }
+                if (fields != null && OkvedItem.isNumericCode(fields[0])) {
+                    builder.add(fields[0], fields[1]);
+                }
+                line++;
+                lineStart = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,471 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Загрузка JSON справочника по HTTP с локальным кэшем.
+ * Запрашивает сжатие gzip и распаковывает ответ потоково, повторные загрузки
+ * выполняет условными запросами (If-None-Match / If-Modified-Since).
+ * Свежий кэш используется без обращения к сети, устаревший в пределах
+ * {@link #setStaleWhileRevalidate окна} отдается сразу, а обновление
+ * выполняется в фоне. При ошибке сети используется кэш любого возраста.
+ *
+ * <p>Каждый полученный ответ проверяется (распаковка и разбор JSON до конца) и сохраняется
+ * в файл с новым именем; метаданные с именем файла и Content-Encoding заменяются последними.
+ * Поэтому чтение кэша всегда получает тело вместе с его метаданными, даже если
+ * обновление идет параллельно.
+ *
+ * <p>HTTP-клиент с пулом соединений и поток фонового обновления создаются при первом
+ * обращении и освобождаются {@link #close()}; загрузчик рассчитан на один экземпляр на процесс.
+ */
+public class OkvedDownloader implements Closeable {
+
+    /**
+     * Обработчик потока JSON.
+     */
+    @FunctionalInterface
+    public interface StreamHandler<T> {
+        T handle(InputStream input) throws IOException;
+    }
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_ENCODING = "contentEncoding";
+    private static final String KEY_FETCHED_AT = "fetchedAt";
+    private static final String KEY_BODY = "body";
+
+    private final String url;
+    private final Path cacheDir;
+    private final PrintStream log;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Object switchLock = new Object();
+
+    private volatile Duration connectTimeout = Duration.ofSeconds(10);
+    private volatile Duration readTimeout = Duration.ofSeconds(30);
+    private Duration maxAge = Duration.ofHours(1);
+    private Duration staleWhileRevalidate = Duration.ofDays(1);
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private ExecutorService refreshExecutor;
+    private boolean closed;
+
+    /**
+     * @param url адрес JSON справочника
+     * @param cacheDir каталог кэша или null, чтобы загружать без кэша
+     * @param log поток для сообщений о загрузке
+     */
+    public OkvedDownloader(String url, Path cacheDir, PrintStream log) {
+        this.url = url;
+        this.cacheDir = cacheDir;
+        this.log = log;
+    }
+
+    // Геттеры и сеттеры
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Задает таймаут установки соединения. Действует и для уже созданного клиента:
+     * применяется к новым соединениям пула.
+     */
+    public synchronized void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        if (connectionManager != null) {
+            connectionManager.setDefaultConnectionConfig(connectionConfig());
+        }
+    }
+
+    /**
+     * Задает таймаут ожидания данных. Применяется к каждому следующему запросу.
+     */
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Задает время, в течение которого кэш используется без обращения к сети.
+     */
+    public void setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Задает окно после истечения {@link #setMaxAge maxAge}, в котором кэш отдается сразу,
+     * а обновление выполняется в фоне.
+     */
+    public void setStaleWhileRevalidate(Duration staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Загружает JSON справочника и передает распакованный поток обработчику.
+     *
+     * @param handler обработчик потока JSON
+     * @return результат обработчика
+     * @throws IOException если данные недоступны ни в сети, ни в кэше
+     */
+    public <T> T fetch(StreamHandler<T> handler) throws IOException {
+        if (cacheDir == null) {
+            return download(handler);
+        }
+
+        Properties meta = readMeta();
+        if (meta != null) {
+            long ageMillis = System.currentTimeMillis() - Long.parseLong(meta.getProperty(KEY_FETCHED_AT, "0"));
+
+            if (ageMillis <= maxAge.toMillis()) {
+                return readCache(meta, handler);
+            }
+            if (ageMillis <= maxAge.plus(staleWhileRevalidate).toMillis()) {
+                // Тело открывается до запуска обновления, которое может заменить кэш
+                InputStream input = openCache(meta);
+                refreshInBackground();
+                try (input) {
+                    return handler.handle(input);
+                }
+            }
+        }
+
+        try {
+            meta = revalidate();
+        } catch (IOException e) {
+            if (meta == null) {
+                throw e;
+            }
+            log.println("Ошибка обновления OKVED, используется кэш: " + e.getMessage());
+        }
+        return readCache(meta, handler);
+    }
+
+    /**
+     * Читает JSON справочника из кэша любого возраста без обращения к сети.
+     *
+     * @param handler обработчик потока JSON
+     * @return результат обработчика
+     * @throws IOException если кэш не задан или пуст
+     */
+    public <T> T readCached(StreamHandler<T> handler) throws IOException {
+        Properties meta = cacheDir != null ? readMeta() : null;
+        if (meta == null) {
+            throw new IOException("Кэш OKVED отсутствует: " + url);
+        }
+        return readCache(meta, handler);
+    }
+
+    /**
+     * Распаковывает поток, если он сжат gzip.
+     *
+     * @param input исходный поток
+     * @param contentEncoding значение Content-Encoding или null
+     */
+    static InputStream decode(InputStream input, String contentEncoding) throws IOException {
+        if (contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("gzip")) {
+            return new GZIPInputStream(input, 64 * 1024);
+        }
+        return input;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    // Приватные методы
+
+    private synchronized CloseableHttpClient client() {
+        if (httpClient == null) {
+            connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                    .setDefaultConnectionConfig(connectionConfig())
+                    .build();
+
+            // Сжатие обрабатывается вручную, чтобы хранить в кэше исходный gzip
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .disableContentCompression()
+                    .build();
+        }
+        return httpClient;
+    }
+
+    private ConnectionConfig connectionConfig() {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(connectTimeout))
+                .setSocketTimeout(Timeout.of(readTimeout))
+                .build();
+    }
+
+    /**
+     * Создает запрос с текущим таймаутом ожидания данных: соединения пула
+     * могли быть открыты с прежним значением.
+     */
+    private HttpGet newRequest() {
+        HttpGet request = new HttpGet(url);
+        request.setConfig(RequestConfig.custom()
+                .setResponseTimeout(Timeout.of(readTimeout))
+                .build());
+        request.setHeader("Accept-Encoding", "gzip");
+        return request;
+    }
+
+    private <T> T download(StreamHandler<T> handler) throws IOException {
+        HttpGet request = newRequest();
+
+        return client().execute(request, response -> {
+            if (response.getCode() != 200) {
+                throw new IOException("HTTP ошибка: " + response.getCode());
+            }
+            try (InputStream input = decode(response.getEntity().getContent(), headerValue(response, "Content-Encoding"))) {
+                return handler.handle(input);
+            }
+        });
+    }
+
+    private Properties revalidate() throws IOException {
+        Properties meta = readMeta();
+        HttpGet request = newRequest();
+        if (meta != null) {
+            if (meta.getProperty(KEY_ETAG) != null) {
+                request.setHeader("If-None-Match", meta.getProperty(KEY_ETAG));
+            }
+            if (meta.getProperty(KEY_LAST_MODIFIED) != null) {
+                request.setHeader("If-Modified-Since", meta.getProperty(KEY_LAST_MODIFIED));
+            }
+        }
+
+        Properties current = meta;
+        return client().execute(request, response -> {
+            if (response.getCode() == 304 && current != null) {
+                log.println("Данные OKVED не изменились, используется кэш");
+                return touchMeta(current);
+            }
+            if (response.getCode() != 200) {
+                throw new IOException("HTTP ошибка: " + response.getCode());
+            }
+
+            // Новое тело сохраняется под собственным именем, прежнее не трогается до проверки
+            String encoding = headerValue(response, "Content-Encoding");
+            Files.createDirectories(cacheDir);
+            Path body = Files.createTempFile(cacheDir, cacheName() + "-", ".body");
+            try {
+                try (InputStream input = response.getEntity().getContent();
+                     OutputStream output = Files.newOutputStream(body)) {
+                    input.transferTo(output);
+                }
+                validate(body, encoding);
+            } catch (IOException e) {
+                Files.deleteIfExists(body);
+                throw e;
+            }
+
+            Properties updated = new Properties();
+            updated.setProperty(KEY_URL, url);
+            updated.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+            updated.setProperty(KEY_BODY, body.getFileName().toString());
+            setIfPresent(updated, KEY_ETAG, headerValue(response, "ETag"));
+            setIfPresent(updated, KEY_LAST_MODIFIED, headerValue(response, "Last-Modified"));
+            setIfPresent(updated, KEY_ENCODING, encoding);
+            switchBody(updated);
+            return updated;
+        });
+    }
+
+    /**
+     * Проверяет, что сохраненный ответ распаковывается и разбирается как JSON до конца:
+     * обрезанный или чужой ответ не должен заменить рабочий кэш.
+     */
+    private static void validate(Path body, String contentEncoding) throws IOException {
+        try (InputStream input = decode(Files.newInputStream(body), contentEncoding);
+             JsonParser parser = new JsonFactory().createParser(input)) {
+            if (parser.nextToken() == null) {
+                throw new IOException("Пустой ответ");
+            }
+            while (parser.nextToken() != null) {
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            throw new IOException("Ответ OKVED поврежден: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Отмечает, что тело кэша подтверждено сервером. Если кэш тем временем переключен
+     * на другое тело, возвращаются новые метаданные без изменений.
+     */
+    private Properties touchMeta(Properties confirmed) throws IOException {
+        synchronized (switchLock) {
+            Properties latest = readMeta();
+            if (latest != null && !bodyPath(latest).equals(bodyPath(confirmed))) {
+                return latest;
+            }
+            confirmed.setProperty(KEY_FETCHED_AT, String.valueOf(System.currentTimeMillis()));
+            writeMeta(confirmed);
+            return confirmed;
+        }
+    }
+
+    /**
+     * Переключает кэш на новое тело: метаданные заменяются последними, затем
+     * удаляется прежнее тело. Уже открытые потоки прежнего тела дочитываются,
+     * а чтение, не успевшее его открыть, повторяется по новым метаданным.
+     */
+    private void switchBody(Properties updated) throws IOException {
+        synchronized (switchLock) {
+            Properties previous = readMeta();
+            writeMeta(updated);
+            if (previous != null && !bodyPath(previous).equals(bodyPath(updated))) {
+                try {
+                    Files.deleteIfExists(bodyPath(previous));
+                } catch (IOException e) {
+                    log.println("Прежний кэш OKVED не удален: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                refreshing.set(false);
+                return;
+            }
+            if (refreshExecutor == null) {
+                refreshExecutor = Executors.newSingleThreadExecutor(task -> {
+                    Thread thread = new Thread(task, "okved-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        revalidate();
+                    } catch (IOException e) {
+                        log.println("Фоновое обновление OKVED не удалось: " + e.getMessage());
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+                log.println("Фоновое обновление OKVED не запущено: " + e.getMessage());
+            }
+        }
+    }
+
+    private <T> T readCache(Properties meta, StreamHandler<T> handler) throws IOException {
+        try (InputStream input = openCache(meta)) {
+            return handler.handle(input);
+        }
+    }
+
+    /**
+     * Открывает тело кэша, описанное метаданными, и распаковывает его по их Content-Encoding.
+     * Если тело уже удалено параллельным обновлением, метаданные перечитываются один раз.
+     */
+    private InputStream openCache(Properties meta) throws IOException {
+        InputStream body;
+        try {
+            body = Files.newInputStream(bodyPath(meta));
+        } catch (NoSuchFileException e) {
+            meta = readMeta();
+            if (meta == null) {
+                throw e;
+            }
+            body = Files.newInputStream(bodyPath(meta));
+        }
+        try {
+            return decode(body, meta.getProperty(KEY_ENCODING));
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    private Properties readMeta() {
+        Path metaPath = metaPath();
+        if (!Files.exists(metaPath)) {
+            return null;
+        }
+
+        Properties meta = new Properties();
+        try (InputStream input = Files.newInputStream(metaPath)) {
+            meta.load(input);
+        } catch (IOException e) {
+            return null;
+        }
+        return url.equals(meta.getProperty(KEY_URL)) && Files.exists(bodyPath(meta)) ? meta : null;
+    }
+
+    private void writeMeta(Properties meta) throws IOException {
+        Path temp = Files.createTempFile(cacheDir, cacheName(), ".meta.tmp");
+        try (OutputStream output = Files.newOutputStream(temp)) {
+            meta.store(output, "OKVED cache");
+        }
+        Files.move(temp, metaPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String cacheName() {
+        return "okved-" + Integer.toHexString(url.hashCode());
+    }
+
+    /**
+     * Возвращает файл тела из метаданных; кэш прежнего формата хранил тело под постоянным именем.
+     */
+    private Path bodyPath(Properties meta) {
+        return cacheDir.resolve(meta.getProperty(KEY_BODY, cacheName() + ".body"));
+    }
+
+    private Path metaPath() {
+        return cacheDir.resolve(cacheName() + ".properties");
+    }
+
+    private static String headerValue(ClassicHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private static void setIfPresent(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+}
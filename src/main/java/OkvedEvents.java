@@ -0,0 +1,58 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * События JFR для профилирования в production.
+ * Записываются только при включенных метриках ({@link OkvedMetrics#setEnabled}).
+ * События поиска отдельных номеров частые, поэтому выключены по умолчанию
+ * и включаются в настройках записи ({@code okved.Lookup#enabled=true}).
+ */
+public final class OkvedEvents {
+
+    private OkvedEvents() {
+    }
+
+    @Name("okved.Stage")
+    @Label("OKVED Stage")
+    @Category("OKVED")
+    @Description("Этап загрузки справочника: загрузка, разбор, построение индекса")
+    @StackTrace(false)
+    public static class StageEvent extends Event {
+
+        @Label("Stage")
+        public String stage;
+
+        @Label("Items")
+        public long items;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        public long elapsed;
+    }
+
+    @Name("okved.Lookup")
+    @Label("OKVED Lookup")
+    @Category("OKVED")
+    @Description("Нормализация или поиск для одного номера")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class LookupEvent extends Event {
+
+        @Label("Stage")
+        public String stage;
+
+        @Label("Result")
+        @Description("Длина совпадения или код отказа нормализации")
+        public long result;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        public long elapsed;
+    }
+}
@@ -1,11 +1,64 @@
+import java.io.PrintStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongFunction;
 
 /**
  * Сервис для поиска кода OKVED по совпадению с номером телефона.
  */
 public class OkvedFinder {
 
+    /**
+     * Максимальная длина окончания для плотной таблицы (10^7 записей, ~40 МБ).
+     */
+    public static final int MAX_TABLE_DIGITS = 7;
+
+    /**
+     * Максимальное количество несовпадающих цифр в приближенном поиске. Число ветвей
+     * обхода индекса растет с каждой допустимой цифрой, и при трех несовпадениях поиск
+     * становится на порядок медленнее, чем при двух; замеры приведены в README.
+     */
+    public static final int MAX_MISMATCHES = 2;
+
+    /**
+     * Количество различных окончаний, начиная с которого пакетный поиск идет параллельно.
+     */
+    public static final int PARALLEL_THRESHOLD = 16_384;
+
+    /**
+     * Количество окончаний, которое задача пакетного поиска обрабатывает без дальнейшего деления.
+     */
+    private static final int RESOLVE_CHUNK = 2_048;
+
+    /**
+     * Количество последних цифр, упакованных по четыре бита в long.
+     */
+    private static final int PACKED_DIGITS = 15;
+    private static final long NIBBLE_LOW_BITS = 0x1111111111111111L;
+
+    private final PrintStream log;
+
+    public OkvedFinder() {
+        this(System.out);
+    }
+
+    /**
+     * @param log поток для сообщений о построении индекса
+     */
+    public OkvedFinder(PrintStream log) {
+        this.log = log;
+    }
+
     public static class MatchResult {
         private final OkvedItem okvedItem;
         private final int matchLength;
@@ -26,6 +79,19 @@ public class OkvedFinder {
         public String getCode() { return okvedItem.getCode(); }
         public String getName() { return okvedItem.getName(); }
 
+        /**
+         * Возвращает количество несовпадающих цифр в окончаниях: 0 для точного совпадения.
+         */
+        public int getMismatches() {
+            int mismatches = 0;
+            for (int i = 0; i < Math.min(phoneSuffix.length(), okvedSuffix.length()); i++) {
+                if (phoneSuffix.charAt(i) != okvedSuffix.charAt(i)) {
+                    mismatches++;
+                }
+            }
+            return mismatches;
+        }
+
         @Override
         public String toString() {
             return String.format(
@@ -82,6 +148,370 @@ public class OkvedFinder {
         return Optional.ofNullable(bestMatch);
     }
 
+    /**
+     * Находит лучший результат совпадения по заранее построенному индексу.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @return список результатов поиска
+     */
+    public Optional<MatchResult> findBestMatch(String normalizedPhone, OkvedMatcher matcher) {
+        if (normalizedPhone == null || matcher == null || matcher.size() == 0) {
+            return Optional.empty();
+        }
+
+        OkvedMetrics metrics = OkvedMetrics.global();
+        long timer = metrics.startTimer();
+        Optional<MatchResult> result = matcher.findBestMatch(normalizedPhone);
+        metrics.recordMatch(timer, result);
+        return result;
+    }
+
+    /**
+     * Находит лучший результат совпадения для номера в виде числа 79XXXXXXXXX,
+     * не создавая строку номера.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @return лучший результат поиска
+     */
+    public Optional<MatchResult> findBestMatch(long normalizedPhone, OkvedMatcher matcher) {
+        if (normalizedPhone < 0 || matcher == null || matcher.size() == 0) {
+            return Optional.empty();
+        }
+
+        OkvedMetrics metrics = OkvedMetrics.global();
+        long timer = metrics.startTimer();
+        Optional<MatchResult> result = matcher.findBestMatch(normalizedPhone);
+        metrics.recordMatch(timer, result);
+        return result;
+    }
+
+    /**
+     * Находит лучший результат совпадения и записывает его в изменяемый результат вызывающего кода.
+     * Для индекса, таблицы и попаданий в кэш объекты не создаются, поэтому в цикле обработки
+     * номеров этот вариант не нагружает сборщик мусора.
+     *
+     * @param normalizedPhone нормализованый номер телефона в виде числа 79XXXXXXXXX
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @param slot результат, который заполняется или сбрасывается
+     * @return true, если совпадение найдено
+     */
+    public boolean findBestMatch(long normalizedPhone, OkvedMatcher matcher, OkvedMatchSlot slot) {
+        if (normalizedPhone < 0 || matcher == null || matcher.size() == 0) {
+            slot.clear();
+            return false;
+        }
+
+        OkvedMetrics metrics = OkvedMetrics.global();
+        long timer = metrics.startTimer();
+        boolean found = matcher.findBestMatch(normalizedPhone, slot);
+        metrics.recordMatch(timer, slot.getMatchLength());
+        return found;
+    }
+
+    /**
+     * Находит несколько лучших результатов совпадения: по убыванию длины совпадения,
+     * при равной длине - по убыванию кода, при равных кодах - в порядке списка.
+     * Перебирает все элементы, удерживая k лучших в ограниченной куче.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param okvedItems разобранный OKVED
+     * @param k максимальное количество результатов
+     * @return результаты поиска, лучший первым
+     */
+    public List<MatchResult> findTopMatches(String normalizedPhone, List<OkvedItem> okvedItems, int k) {
+        if (normalizedPhone == null || okvedItems == null || k <= 0) {
+            return Collections.emptyList();
+        }
+
+        String phoneDigits = normalizedPhone.substring(1);
+        // Вершина кучи - худший из отобранных; при равенстве хуже более поздний элемент
+        Comparator<Candidate> byRank = Comparator.<Candidate>comparingInt(c -> c.result.getMatchLength())
+                .thenComparing(c -> c.result.getCode())
+                .thenComparing(Comparator.<Candidate>comparingInt(c -> c.order).reversed());
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(k, byRank);
+
+        for (int i = 0; i < okvedItems.size(); i++) {
+            OkvedItem item = okvedItems.get(i);
+            String okvedDigits = item.getDigitsOnly();
+            if (okvedDigits.isEmpty()) {
+                continue;
+            }
+
+            int matchLength = findMaxSuffixMatch(phoneDigits, okvedDigits);
+            if (matchLength == 0) {
+                continue;
+            }
+
+            String suffix = phoneDigits.substring(phoneDigits.length() - matchLength);
+            Candidate candidate = new Candidate(new MatchResult(item, matchLength, suffix, suffix), i);
+            if (heap.size() < k) {
+                heap.add(candidate);
+            } else if (byRank.compare(candidate, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        List<MatchResult> matches = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            matches.add(heap.poll().result);
+        }
+        Collections.reverse(matches);
+        return matches;
+    }
+
+    /**
+     * Находит несколько лучших результатов совпадения по заранее построенному индексу.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @param k максимальное количество результатов
+     * @return результаты поиска, лучший первым
+     */
+    public List<MatchResult> findTopMatches(String normalizedPhone, OkvedMatcher matcher, int k) {
+        if (normalizedPhone == null || matcher == null || matcher.size() == 0) {
+            return Collections.emptyList();
+        }
+
+        return matcher.findTopMatches(normalizedPhone, k);
+    }
+
+    /**
+     * Находит лучший приближенный результат: окончания номера и кода могут различаться
+     * не больше чем в maxMismatches цифрах, а совпадение начинается с равной цифры.
+     * Результаты упорядочены по убыванию длины совпадения, затем по возрастанию количества
+     * несовпадений, затем по убыванию кода. При maxMismatches = 0 результат совпадает
+     * с {@link #findBestMatch(String, List)}.
+     * Последние цифры номера и кода упаковываются по четыре бита в long, и несовпадения
+     * всех позиций находятся одним XOR с подсчетом бит.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param okvedItems разобранный OKVED
+     * @param maxMismatches допустимое количество несовпадающих цифр, от 0 до {@link #MAX_MISMATCHES}
+     * @return лучший результат поиска
+     * @throws IllegalArgumentException если maxMismatches вне допустимого диапазона
+     */
+    public Optional<MatchResult> findApproximateMatch(String normalizedPhone, List<OkvedItem> okvedItems,
+                                                      int maxMismatches) {
+        checkMismatches(maxMismatches);
+        if (normalizedPhone == null || okvedItems == null || okvedItems.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String phoneDigits = normalizedPhone.substring(1);
+        long phone = packTail(phoneDigits);
+        int phoneLength = packedLength(phoneDigits);
+        OkvedItem bestItem = null;
+        int bestLength = 0;
+        int bestMismatches = 0;
+
+        for (OkvedItem item : okvedItems) {
+            String okvedDigits = item.getDigitsOnly();
+            if (okvedDigits.isEmpty()) {
+                continue;
+            }
+
+            int length = Math.min(phoneLength, packedLength(okvedDigits));
+            long match = approximateMatch(phone, packTail(okvedDigits), length, maxMismatches);
+            int matchLength = (int) (match >>> 32);
+            int mismatches = (int) match;
+            if (matchLength == 0) {
+                continue;
+            }
+
+            if (bestItem == null || matchLength > bestLength
+                    || (matchLength == bestLength && (mismatches < bestMismatches
+                    || (mismatches == bestMismatches && item.getCode().compareTo(bestItem.getCode()) > 0)))) {
+                bestItem = item;
+                bestLength = matchLength;
+                bestMismatches = mismatches;
+            }
+        }
+
+        if (bestItem == null) {
+            return Optional.empty();
+        }
+        String okvedDigits = bestItem.getDigitsOnly();
+        return Optional.of(new MatchResult(bestItem, bestLength,
+                phoneDigits.substring(phoneDigits.length() - bestLength),
+                okvedDigits.substring(okvedDigits.length() - bestLength)));
+    }
+
+    /**
+     * Находит лучший приближенный результат по заранее построенному индексу.
+     * Порядок результатов тот же, что и у {@link #findApproximateMatch(String, List, int)}.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @param maxMismatches допустимое количество несовпадающих цифр, от 0 до {@link #MAX_MISMATCHES}
+     * @return лучший результат поиска
+     * @throws IllegalArgumentException если maxMismatches вне допустимого диапазона
+     */
+    public Optional<MatchResult> findApproximateMatch(String normalizedPhone, OkvedMatcher matcher,
+                                                      int maxMismatches) {
+        checkMismatches(maxMismatches);
+        if (normalizedPhone == null || matcher == null || matcher.size() == 0) {
+            return Optional.empty();
+        }
+
+        OkvedMetrics metrics = OkvedMetrics.global();
+        long timer = metrics.startTimer();
+        Optional<MatchResult> result = matcher.findApproximateMatch(normalizedPhone, maxMismatches);
+        metrics.recordMatch(timer, result);
+        return result;
+    }
+
+    /**
+     * Находит лучшие результаты для пакета номеров в любом формате.
+     * Номера нормализуются пакетно через {@link PhoneBulkNormalizer}, дальше поиск идет
+     * как в {@link #findBestMatches(long[], OkvedMatcher)}. Для номеров, которые
+     * не удалось нормализовать, возвращается пустой результат.
+     *
+     * @param phones номера в любом формате
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @return результаты поиска в порядке номеров
+     */
+    public List<Optional<MatchResult>> findBestMatches(Collection<? extends CharSequence> phones,
+                                                       OkvedMatcher matcher) {
+        return findBestMatches(normalizeAll(phones), matcher);
+    }
+
+    /**
+     * Находит лучшие результаты для пакета номеров в любом формате перебором списка,
+     * как в {@link #findBestMatches(long[], List)}.
+     *
+     * @param phones номера в любом формате
+     * @param okvedItems разобранный OKVED
+     * @return результаты поиска в порядке номеров
+     */
+    public List<Optional<MatchResult>> findBestMatches(Collection<? extends CharSequence> phones,
+                                                       List<OkvedItem> okvedItems) {
+        return findBestMatches(normalizeAll(phones), okvedItems);
+    }
+
+    /**
+     * Находит лучшие результаты для пакета нормализованных номеров перебором списка.
+     * Результат зависит только от стольких последних цифр номера, сколько цифр в самом
+     * длинном коде, поэтому список перебирается один раз на каждое различное окончание.
+     * Если различных окончаний не меньше {@link #PARALLEL_THRESHOLD}, перебор идет в общем пуле потоков.
+     *
+     * @param normalizedPhones номера в виде чисел 79XXXXXXXXX; для отрицательных значений
+     *                         (кодов отказа нормализации) возвращается пустой результат
+     * @param okvedItems разобранный OKVED
+     * @return результаты поиска в порядке номеров
+     */
+    public List<Optional<MatchResult>> findBestMatches(long[] normalizedPhones, List<OkvedItem> okvedItems) {
+        if (okvedItems == null || okvedItems.isEmpty()) {
+            return Collections.nCopies(normalizedPhones.length, Optional.empty());
+        }
+
+        int tailDigits = 0;
+        for (OkvedItem item : okvedItems) {
+            tailDigits = Math.max(tailDigits, item.getDigitsOnly().length());
+        }
+        return resolveGroups(normalizedPhones, tailDigits,
+                phone -> findBestMatch("+" + phone, okvedItems), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Находит лучшие результаты для пакета нормализованных номеров. Если различных окончаний
+     * не меньше {@link #PARALLEL_THRESHOLD}, поиск идет в общем пуле потоков.
+     *
+     * @param normalizedPhones номера в виде чисел 79XXXXXXXXX; для отрицательных значений
+     *                         (кодов отказа нормализации) возвращается пустой результат
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @return результаты поиска в порядке номеров
+     */
+    public List<Optional<MatchResult>> findBestMatches(long[] normalizedPhones, OkvedMatcher matcher) {
+        return findBestMatches(normalizedPhones, matcher, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Находит лучшие результаты для пакета нормализованных номеров.
+     * Результат зависит только от последних {@link OkvedMatcher#getTailDigits()} цифр номера,
+     * поэтому номера группируются по этим цифрам в хеш-таблице и поиск выполняется один раз
+     * на каждое различное окончание. Метрики записываются для каждого выполненного поиска.
+     *
+     * <p>Выигрыш зависит от стоимости одного поиска: индекс и таблица отвечают за десятки
+     * наносекунд, что сравнимо с группировкой, поэтому пакетный поиск окупается в основном
+     * для кэша с промахами, перебора списка и крупных пакетов с повторами в пуле потоков.
+     *
+     * @param normalizedPhones номера в виде чисел 79XXXXXXXXX; для отрицательных значений
+     *                         (кодов отказа нормализации) возвращается пустой результат
+     * @param matcher индекс, построенный по разобранному OKVED
+     * @param pool пул потоков, в котором ищутся окончания, если их не меньше
+     *             {@link #PARALLEL_THRESHOLD}, или null для последовательного поиска
+     * @return результаты поиска в порядке номеров
+     */
+    public List<Optional<MatchResult>> findBestMatches(long[] normalizedPhones, OkvedMatcher matcher,
+                                                       ForkJoinPool pool) {
+        if (matcher == null || matcher.size() == 0) {
+            return Collections.nCopies(normalizedPhones.length, Optional.empty());
+        }
+        return resolveGroups(normalizedPhones, matcher.getTailDigits(),
+                phone -> findBestMatch(phone, matcher), pool);
+    }
+
+    /**
+     * Проверяет допустимое количество несовпадающих цифр приближенного поиска.
+     *
+     * @throws IllegalArgumentException если значение вне диапазона от 0 до {@link #MAX_MISMATCHES}
+     */
+    static void checkMismatches(int maxMismatches) {
+        if (maxMismatches < 0 || maxMismatches > MAX_MISMATCHES) {
+            throw new IllegalArgumentException(String.format(
+                    "Количество несовпадений должно быть от 0 до %d: %d", MAX_MISMATCHES, maxMismatches));
+        }
+    }
+
+    /**
+     * Компилирует OKVED в самый быстрый доступный механизм поиска:
+     * плотную таблицу ответов, если она помещается в {@link #MAX_TABLE_DIGITS},
+     * иначе индекс окончаний.
+     *
+     * @param okvedItems разобранный OKVED
+     * @return механизм поиска
+     */
+    public OkvedMatcher compile(List<OkvedItem> okvedItems) {
+        return compile(okvedItems, MAX_TABLE_DIGITS);
+    }
+
+    /**
+     * Компилирует OKVED с заданным ограничением на размер плотной таблицы.
+     *
+     * @param okvedItems разобранный OKVED
+     * @param maxTableDigits максимальная длина окончания для плотной таблицы
+     * @return механизм поиска
+     */
+    public OkvedMatcher compile(List<OkvedItem> okvedItems, int maxTableDigits) {
+        return compile(OkvedSuffixIndex.build(okvedItems), maxTableDigits);
+    }
+
+    /**
+     * Компилирует готовый индекс окончаний, например прочитанный из снимка.
+     *
+     * @param index индекс окончаний
+     * @param maxTableDigits максимальная длина окончания для плотной таблицы
+     * @return механизм поиска
+     */
+    public OkvedMatcher compile(OkvedSuffixIndex index, int maxTableDigits) {
+        if (index.getMaxDepth() > maxTableDigits) {
+            log.printf("Индекс окончаний: %d узлов, %d КБ (таблица для %d цифр не строится)%n",
+                    index.getNodeCount(), index.getFootprintBytes() / 1024, index.getMaxDepth());
+            return index;
+        }
+
+        long timer = OkvedMetrics.global().startTimer();
+        OkvedSuffixTable table = OkvedSuffixTable.build(index);
+        OkvedMetrics.global().recordStage(OkvedMetrics.Stage.COMPILE, timer, index.size());
+        log.printf("Таблица окончаний: %d записей, %d КБ, %d мс%n",
+                OkvedSuffixTable.tableSize(table.getTailDigits()), table.getFootprintBytes() / 1024,
+                table.getBuildTimeNanos() / 1_000_000);
+        return table;
+    }
+
     /**
      * Резервная стратегия: создает фиктивный OKVED на основе номера.
      *
@@ -89,6 +519,7 @@ public class OkvedFinder {
      * @return список результатов поиска
      */
     public MatchResult createBackupMatch(String normalizedPhone) {
+        OkvedMetrics.global().recordBackupFallback();
         PhoneNormalizer normalizer = new PhoneNormalizer();
         String lastDigits = normalizer.extractLastDigits(normalizedPhone, 4);
 
@@ -110,6 +541,91 @@ public class OkvedFinder {
 
     // Приватные методы
 
+    private static long[] normalizeAll(Collection<? extends CharSequence> phones) {
+        CharSequence[] inputs = phones.toArray(new CharSequence[0]);
+        long[] normalized = new long[inputs.length];
+        new PhoneBulkNormalizer(new PhoneNormalizer()).normalize(inputs, normalized);
+        return normalized;
+    }
+
+    /**
+     * Группирует номера по последним tailDigits цифрам, ищет результат один раз на группу
+     * и возвращает результаты в порядке номеров без копирования по одному на номер.
+     */
+    private static List<Optional<MatchResult>> resolveGroups(long[] phones, int tailDigits,
+                                                             LongFunction<Optional<MatchResult>> lookup,
+                                                             ForkJoinPool pool) {
+        TailGroups groups = new TailGroups(phones, tailDigits);
+        List<Optional<MatchResult>> resolved = new ArrayList<>(Collections.nCopies(groups.size(), Optional.empty()));
+        ResolveTask task = new ResolveTask(lookup, groups.representatives, resolved, 0, groups.size());
+        if (pool != null && pool.getParallelism() > 1 && groups.size() >= PARALLEL_THRESHOLD) {
+            pool.invoke(task);
+        } else {
+            task.resolve();
+        }
+        return new GroupedResults(groups.groupOf, resolved);
+    }
+
+    /**
+     * Количество последних цифр строки, которые помещаются в упакованное значение:
+     * до первого символа, не являющегося цифрой, и не больше {@value #PACKED_DIGITS}.
+     */
+    private static int packedLength(String digits) {
+        int length = 0;
+        for (int i = digits.length() - 1; i >= 0 && length < PACKED_DIGITS; i--) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Упаковывает последние цифры строки по четыре бита: последняя цифра в младших битах.
+     */
+    private static long packTail(String digits) {
+        int length = packedLength(digits);
+        long packed = 0;
+        for (int i = digits.length() - length; i < digits.length(); i++) {
+            packed = packed << 4 | (digits.charAt(i) - '0');
+        }
+        return packed;
+    }
+
+    /**
+     * Сравнивает упакованные окончания номера и кода.
+     *
+     * @param length количество сравниваемых цифр с конца
+     * @return длина совпадения в старших 32 битах и количество несовпадений в младших
+     */
+    private static long approximateMatch(long phone, long code, int length, int maxMismatches) {
+        long difference = phone ^ code;
+        // Младший бит каждой тетрады: цифры в этой позиции различаются
+        long mismatches = (difference | difference >>> 1 | difference >>> 2 | difference >>> 3)
+                & NIBBLE_LOW_BITS & nibbleMask(length);
+
+        // Окончание обрывается на несовпадении с номером maxMismatches + 1
+        long rest = mismatches;
+        for (int i = 0; i < maxMismatches && rest != 0; i++) {
+            rest &= rest - 1;
+        }
+        int limit = rest == 0 ? length : Long.numberOfTrailingZeros(rest) / 4;
+
+        // Совпадение заканчивается на последней равной цифре перед границей
+        long matches = ~mismatches & NIBBLE_LOW_BITS & nibbleMask(limit);
+        if (matches == 0) {
+            return 0;
+        }
+        int matchLength = (Long.SIZE - 1 - Long.numberOfLeadingZeros(matches)) / 4 + 1;
+        return (long) matchLength << 32 | Long.bitCount(mismatches & nibbleMask(matchLength));
+    }
+
+    private static long nibbleMask(int digits) {
+        return (1L << 4 * digits) - 1;
+    }
+
     private int findMaxSuffixMatch(String phoneDigits, String okvedDigits) {
         int maxPossible = Math.min(phoneDigits.length(), okvedDigits.length());
 
@@ -124,4 +640,168 @@ public class OkvedFinder {
 
         return 0;
     }
-}
\ No newline at end of file
+
+    private static class Candidate {
+        private final MatchResult result;
+        private final int order;
+
+        private Candidate(MatchResult result, int order) {
+            this.result = result;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Группы номеров с одинаковыми последними цифрами. Хеш-таблица с открытой адресацией
+     * растет вместе с количеством различных окончаний, а не с размером пакета.
+     */
+    private static final class TailGroups {
+        private static final long EMPTY = -1;
+        private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+        private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+        private final int[] groupOf;
+        private long[] representatives;
+        private int size;
+
+        private long[] tails;
+        private int[] tailGroups;
+        private int hashShift;
+
+        private TailGroups(long[] phones, int tailDigits) {
+            // Начальный размер по размеру пакета, но не больше 2 МБ: таблица не растет по ходу группировки
+            int capacity = Integer.highestOneBit(Math.max(16, Math.min(phones.length, MAX_INITIAL_CAPACITY)) * 2 - 1);
+            representatives = new long[capacity];
+            tails = new long[capacity * 2];
+            tailGroups = new int[capacity * 2];
+            hashShift = Long.numberOfLeadingZeros(tails.length) + 1;
+            Arrays.fill(tails, EMPTY);
+
+            long modulus = 1;
+            for (int i = 0; i < Math.min(tailDigits, 11); i++) {
+                modulus *= 10;
+            }
+
+            groupOf = new int[phones.length];
+            for (int i = 0; i < phones.length; i++) {
+                long phone = phones[i];
+                groupOf[i] = phone < 0 ? -1 : add(phone % modulus, phone);
+            }
+        }
+
+        private int size() {
+            return size;
+        }
+
+        /**
+         * Возвращает группу окончания; новое окончание запоминается вместе с номером,
+         * по которому для всей группы выполняется поиск.
+         */
+        private int add(long tail, long phone) {
+            int mask = tails.length - 1;
+            int slot = (int) (tail * HASH_MULTIPLIER >>> hashShift);
+            while (tails[slot] != EMPTY) {
+                if (tails[slot] == tail) {
+                    return tailGroups[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size == representatives.length) {
+                representatives = Arrays.copyOf(representatives, size * 2);
+            }
+            representatives[size] = phone;
+            tails[slot] = tail;
+            tailGroups[slot] = size;
+            if (++size * 2 > tails.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        private void rehash() {
+            long[] oldTails = tails;
+            int[] oldGroups = tailGroups;
+            tails = new long[oldTails.length * 2];
+            tailGroups = new int[oldTails.length * 2];
+            hashShift--;
+            Arrays.fill(tails, EMPTY);
+
+            int mask = tails.length - 1;
+            for (int i = 0; i < oldTails.length; i++) {
+                if (oldTails[i] != EMPTY) {
+                    int slot = (int) (oldTails[i] * HASH_MULTIPLIER >>> hashShift);
+                    while (tails[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    tails[slot] = oldTails[i];
+                    tailGroups[slot] = oldGroups[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Ищет результаты для диапазона окончаний, деля его пополам, пока он больше {@link #RESOLVE_CHUNK}.
+     * Задачи пишут в разные элементы списка, а join публикует их другим потокам.
+     */
+    private static final class ResolveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final LongFunction<Optional<MatchResult>> lookup;
+        private final long[] phones;
+        private final List<Optional<MatchResult>> results;
+        private final int from;
+        private final int to;
+
+        private ResolveTask(LongFunction<Optional<MatchResult>> lookup, long[] phones,
+                            List<Optional<MatchResult>> results, int from, int to) {
+            this.lookup = lookup;
+            this.phones = phones;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > RESOLVE_CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ResolveTask(lookup, phones, results, from, middle),
+                        new ResolveTask(lookup, phones, results, middle, to));
+                return;
+            }
+            resolve();
+        }
+
+        private void resolve() {
+            for (int i = from; i < to; i++) {
+                results.set(i, lookup.apply(phones[i]));
+            }
+        }
+    }
+
+    /**
+     * Результаты в порядке номеров: номер ссылается на результат своей группы.
+     */
+    private static final class GroupedResults extends AbstractList<Optional<MatchResult>> implements RandomAccess {
+        private final int[] groupOf;
+        private final List<Optional<MatchResult>> resolved;
+
+        private GroupedResults(int[] groupOf, List<Optional<MatchResult>> resolved) {
+            this.groupOf = groupOf;
+            this.resolved = resolved;
+        }
+
+        @Override
+        public Optional<MatchResult> get(int index) {
+            int group = groupOf[index];
+            return group < 0 ? Optional.empty() : resolved.get(group);
+        }
+
+        @Override
+        public int size() {
+            return groupOf.length;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Загрузка справочника из нескольких источников с упреждающими запросами.
+ * Источники опрашиваются по порядку: если текущий не ответил за {@link #setHedgeDelay задержку},
+ * параллельно запускается следующий, а при ошибке следующий запускается сразу.
+ * Побеждает первый ответ, который разбирается в непустой список листьев и совпадает
+ * с {@link #setExpectedSha256 контрольной суммой}; остальные попытки отменяются.
+ * Вся загрузка ограничена {@link #setDeadline общим сроком}.
+ */
+public class OkvedHedgedLoader implements Closeable {
+
+    private static final String NOT_STARTED = "не запускался";
+    private static final String CANCELLED = "отменен";
+
+    private final List<OkvedSource> sources;
+    private final OkvedDownloader.StreamHandler<List<OkvedItem>> parser;
+    private final PrintStream log;
+    private final ExecutorService executor;
+
+    private Duration hedgeDelay = Duration.ofSeconds(2);
+    private Duration deadline = Duration.ofSeconds(30);
+    private String expectedSha256;
+
+    /**
+     * @param sources источники в порядке приоритета
+     * @param parser разбор JSON в листовые элементы
+     * @param log поток для сообщений о загрузке
+     */
+    public OkvedHedgedLoader(List<OkvedSource> sources, OkvedDownloader.StreamHandler<List<OkvedItem>> parser,
+                             PrintStream log) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("Не задан ни один источник справочника");
+        }
+        this.sources = new ArrayList<>(sources);
+        this.parser = parser;
+        this.log = log;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "okved-source-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Геттеры и сеттеры
+    public List<OkvedSource> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * Задает время ожидания ответа источника, после которого запускается следующий.
+     */
+    public void setHedgeDelay(Duration hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * Задает общий срок загрузки из всех источников.
+     */
+    public void setDeadline(Duration deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Задает ожидаемую контрольную сумму SHA-256 тела JSON (hex) или null, чтобы не проверять.
+     */
+    public void setExpectedSha256(String expectedSha256) {
+        this.expectedSha256 = expectedSha256;
+    }
+
+    /**
+     * Загружает справочник из первого источника, вернувшего проверенный ответ.
+     *
+     * @return результат загрузки
+     * @throws IOException если ни один источник не ответил корректно до истечения срока
+     */
+    public Result load() throws IOException {
+        long start = System.nanoTime();
+        long deadlineAt = start + deadline.toNanos();
+        CompletionService<Fetched> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<Fetched>, Running> running = new HashMap<>();
+        Map<String, String> outcomes = new LinkedHashMap<>();
+        for (OkvedSource source : sources) {
+            outcomes.put(source.getName(), NOT_STARTED);
+        }
+        IOException failure = new IOException("Справочник OKVED не получен ни из одного источника");
+
+        int next = 0;
+        long hedgeAt = start;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (next < sources.size() && (running.isEmpty() || now >= hedgeAt)) {
+                    if (!running.isEmpty()) {
+                        log.printf("Источник OKVED не ответил за %d мс, запускается %s%n",
+                                hedgeDelay.toMillis(), sources.get(next).getName());
+                    }
+                    start(completion, running, sources.get(next++));
+                    hedgeAt = now + hedgeDelay.toNanos();
+                    continue;
+                }
+                if (running.isEmpty()) {
+                    throw failure;
+                }
+                if (now >= deadlineAt) {
+                    IOException timeout = new IOException("Истек срок загрузки справочника OKVED: "
+                            + deadline.toMillis() + " мс");
+                    for (Throwable suppressed : failure.getSuppressed()) {
+                        timeout.addSuppressed(suppressed);
+                    }
+                    throw timeout;
+                }
+
+                long waitUntil = next < sources.size() ? Math.min(hedgeAt, deadlineAt) : deadlineAt;
+                Future<Fetched> done = completion.poll(waitUntil - now, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    continue;
+                }
+
+                Running attempt = running.remove(done);
+                try {
+                    Fetched fetched = done.get();
+                    outcomes.put(attempt.source.getName(), "ok");
+                    cancelRunning(running, outcomes);
+                    return new Result(attempt.source.getName(), fetched.leaves, fetched.sha256,
+                            (System.nanoTime() - start) / 1_000_000, outcomes);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    outcomes.put(attempt.source.getName(), "ошибка: " + cause.getMessage());
+                    failure.addSuppressed(
+                            new IOException(attempt.source.getName() + ": " + cause.getMessage(), cause));
+                    log.printf("Источник OKVED %s недоступен: %s%n", attempt.source.getName(), cause.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Загрузка справочника OKVED прервана");
+        } finally {
+            cancelRunning(running, outcomes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        for (OkvedSource source : sources) {
+            source.close();
+        }
+    }
+
+    /**
+     * Результат загрузки: листья, источник и исход каждой попытки.
+     */
+    public static final class Result {
+        private final String source;
+        private final List<OkvedItem> leaves;
+        private final String sha256;
+        private final long elapsedMillis;
+        private final Map<String, String> outcomes;
+
+        private Result(String source, List<OkvedItem> leaves, String sha256, long elapsedMillis,
+                       Map<String, String> outcomes) {
+            this.source = source;
+            this.leaves = leaves;
+            this.sha256 = sha256;
+            this.elapsedMillis = elapsedMillis;
+            this.outcomes = Collections.unmodifiableMap(new LinkedHashMap<>(outcomes));
+        }
+
+        public String getSource() { return source; }
+        public List<OkvedItem> getLeaves() { return leaves; }
+        public String getSha256() { return sha256; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        /**
+         * Возвращает исход попытки по каждому источнику в порядке приоритета:
+         * ok, ошибка, отменен или не запускался.
+         */
+        public Map<String, String> getOutcomes() { return outcomes; }
+    }
+
+    // Приватные методы
+
+    private void start(CompletionService<Fetched> completion, Map<Future<Fetched>, Running> running,
+                       OkvedSource source) {
+        OkvedSource.Attempt attempt = new OkvedSource.Attempt();
+        Future<Fetched> future = completion.submit(() -> fetch(source, attempt));
+        running.put(future, new Running(source, attempt));
+    }
+
+    private Fetched fetch(OkvedSource source, OkvedSource.Attempt attempt) throws IOException {
+        byte[] body = source.fetch(attempt);
+        String sha256 = sha256(body);
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sha256)) {
+            throw new IOException("контрольная сумма не совпадает: " + sha256);
+        }
+        List<OkvedItem> leaves = parser.handle(new ByteArrayInputStream(body));
+        if (leaves.isEmpty()) {
+            throw new IOException("пустой справочник");
+        }
+        return new Fetched(leaves, sha256);
+    }
+
+    private static void cancelRunning(Map<Future<Fetched>, Running> running, Map<String, String> outcomes) {
+        for (Map.Entry<Future<Fetched>, Running> entry : running.entrySet()) {
+            entry.getValue().attempt.cancel();
+            entry.getKey().cancel(true);
+            outcomes.put(entry.getValue().source.getName(), CANCELLED);
+        }
+        running.clear();
+    }
+
+    private static String sha256(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static final class Running {
+        private final OkvedSource source;
+        private final OkvedSource.Attempt attempt;
+
+        private Running(OkvedSource source, OkvedSource.Attempt attempt) {
+            this.source = source;
+            this.attempt = attempt;
+        }
+    }
+
+    private static final class Fetched {
+        private final List<OkvedItem> leaves;
+        private final String sha256;
+
+        private Fetched(List<OkvedItem> leaves, String sha256) {
+            this.leaves = leaves;
+            this.sha256 = sha256;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * HTTP-сервис поиска OKVED на базе {@code com.sun.net.httpserver}.
+ * Справочник загружается один раз и используется всеми запросами.
+ *
+ * <ul>
+ *   <li>{@code GET /match?phone=...} - результат для одного номера;</li>
+ *   <li>{@code POST /match} - массив результатов для JSON-массива номеров
+ *       или номеров по одному в строке;</li>
+ *   <li>{@code GET /health} - версия и размер загруженного справочника, счетчики кэша результатов;</li>
+ *   <li>{@code GET /metrics} - метрики в текстовом формате Prometheus.</li>
+ * </ul>
+ */
+public class OkvedHttpServer {
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Наибольший размер тела POST-запроса по умолчанию (около 200 тысяч номеров).
+     */
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 4 * 1024 * 1024;
+
+    private final Supplier<OkvedDataset> datasetSupplier;
+    private final PhoneNormalizer normalizer;
+    private final OkvedFinder finder;
+    private final ObjectMapper objectMapper;
+    private final PrintStream log;
+    private volatile int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param datasetSupplier источник текущего справочника
+     * @param finder сервис поиска
+     * @param log поток для сообщений сервера
+     */
+    public OkvedHttpServer(Supplier<OkvedDataset> datasetSupplier, OkvedFinder finder, PrintStream log) {
+        this.datasetSupplier = datasetSupplier;
+        this.normalizer = new PhoneNormalizer();
+        this.finder = finder;
+        this.objectMapper = new ObjectMapper();
+        this.log = log;
+    }
+
+    /**
+     * Задает наибольший размер тела POST-запроса; на запрос с телом больше ответ 413.
+     */
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    /**
+     * Запускает сервер.
+     *
+     * @param port порт (0 - любой свободный)
+     * @param threads количество рабочих потоков; 0 - виртуальные потоки,
+     *                если JVM их поддерживает, иначе по два потока на ядро
+     * @throws IOException если порт недоступен
+     */
+    public synchronized void start(int port, int threads) throws IOException {
+        // Без TCP_NODELAY ответы задерживаются алгоритмом Нейгла на десятки миллисекунд.
+        // Настройка читается при первом создании сервера в JVM
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        executor = newWorkerExecutor(threads);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/match", this::handleMatch);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(executor);
+        server.start();
+
+        log.printf("HTTP-сервер запущен на порту %d%n", getPort());
+    }
+
+    /**
+     * Останавливает сервер, дожидаясь завершения текущих запросов.
+     *
+     * @param delaySeconds максимальное время ожидания
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (server == null) {
+            return;
+        }
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+    }
+
+    /**
+     * Возвращает порт, на котором работает сервер.
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Создает пул рабочих потоков.
+     *
+     * @param threads количество потоков; 0 - виртуальные потоки (Java 21+) или по два потока на ядро
+     * @return пул потоков
+     */
+    static ExecutorService newWorkerExecutor(int threads) {
+        if (threads > 0) {
+            return Executors.newFixedThreadPool(threads);
+        }
+        try {
+            // Сборка нацелена на Java 11, поэтому виртуальные потоки подключаются через рефлексию
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+        }
+    }
+
+    // Приватные методы
+
+    private void handleMatch(HttpExchange exchange) throws IOException {
+        try {
+            OkvedDataset dataset = datasetSupplier.get();
+
+            if ("GET".equals(exchange.getRequestMethod())) {
+                String phone;
+                try {
+                    phone = queryParameter(exchange.getRequestURI().getRawQuery(), "phone");
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 400, "Неверная строка запроса: " + e.getMessage());
+                    return;
+                }
+                if (phone == null) {
+                    sendError(exchange, 400, "Не указан параметр phone");
+                    return;
+                }
+                StringBuilder body = new StringBuilder(256);
+                boolean accepted = appendMatch(body, dataset, phone);
+                send(exchange, accepted ? 200 : 400, body);
+
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                int limit = maxRequestBytes;
+                byte[] request;
+                String[] phones;
+                try {
+                    request = readBody(exchange, limit);
+                    phones = request != null ? readPhones(request) : null;
+                } catch (IOException e) {
+                    sendError(exchange, 400, "Неверное тело запроса: " + e.getMessage());
+                    return;
+                }
+                if (request == null) {
+                    sendError(exchange, 413, "Тело запроса больше " + limit + " байт");
+                    return;
+                }
+                StringBuilder body = new StringBuilder(phones.length * 160 + 2).append('[');
+                for (int i = 0; i < phones.length; i++) {
+                    if (i > 0) {
+                        body.append(',');
+                    }
+                    appendMatch(body, dataset, phones[i]);
+                }
+                send(exchange, 200, body.append(']'));
+
+            } else {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                sendError(exchange, 405, "Метод не поддерживается");
+            }
+        } catch (RuntimeException e) {
+            log.println("Ошибка обработки запроса: " + e);
+            sendError(exchange, 500, "Внутренняя ошибка");
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        OkvedDataset dataset = datasetSupplier.get();
+        StringBuilder body = new StringBuilder("{\"status\":\"")
+                .append(dataset.size() > 0 ? "UP" : "DEGRADED")
+                .append("\",\"datasetVersion\":");
+        JsonText.appendString(body, dataset.getVersion())
+                .append(",\"items\":").append(dataset.size())
+                .append(",\"loadedAt\":").append(dataset.getLoadedAtMillis());
+        if (dataset.getMatcher() instanceof OkvedResultCache) {
+            OkvedResultCache.Stats stats = ((OkvedResultCache) dataset.getMatcher()).stats();
+            body.append(",\"cache\":{\"hits\":").append(stats.getHits())
+                    .append(",\"misses\":").append(stats.getMisses())
+                    .append(",\"evictions\":").append(stats.getEvictions())
+                    .append(",\"size\":").append(stats.getSize())
+                    .append('}');
+        }
+        body.append('}');
+        send(exchange, 200, body);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        StringBuilder body = OkvedMetrics.global().appendPrometheus(new StringBuilder(4096));
+        send(exchange, 200, PROMETHEUS_CONTENT_TYPE, body);
+    }
+
+    private boolean appendMatch(StringBuilder body, OkvedDataset dataset, String phone) {
+        long normalized = normalizer.tryNormalize(phone);
+        if (normalized < 0) {
+            body.append("{\"phone\":");
+            JsonText.appendString(body, phone).append(",\"error\":");
+            JsonText.appendString(body, PhoneNormalizer.rejectMessage(normalized)).append('}');
+            return false;
+        }
+
+        String normalizedPhone = "+" + normalized;
+        Optional<OkvedFinder.MatchResult> result = finder.findBestMatch(normalizedPhone, dataset.getMatcher());
+        JsonText.appendMatch(body, phone, normalizedPhone,
+                result.orElseGet(() -> finder.createBackupMatch(normalizedPhone)));
+        return true;
+    }
+
+    /**
+     * Читает тело запроса не длиннее limit байт: заявленная длина проверяется до чтения,
+     * а чтение ограничено на случай передачи по частям.
+     *
+     * @return тело запроса или null, если оно больше limit
+     */
+    private static byte[] readBody(HttpExchange exchange, int limit) throws IOException {
+        try (InputStream input = exchange.getRequestBody()) {
+            if (declaredLength(exchange) > limit) {
+                return null;
+            }
+            byte[] body = input.readNBytes(limit + 1);
+            return body.length <= limit ? body : null;
+        }
+    }
+
+    /**
+     * Возвращает длину тела из Content-Length или -1, если она не указана.
+     */
+    private static long declaredLength(HttpExchange exchange) {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            return contentLength != null ? Long.parseLong(contentLength.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String[] readPhones(byte[] request) throws IOException {
+        String text = new String(request, StandardCharsets.UTF_8);
+        if (text.trim().startsWith("[")) {
+            return objectMapper.readValue(text, String[].class);
+        }
+        return text.lines().filter(line -> !line.trim().isEmpty()).toArray(String[]::new);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder body = new StringBuilder("{\"error\":");
+        JsonText.appendString(body, message).append('}');
+        send(exchange, status, body);
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence body) throws IOException {
+        send(exchange, status, JSON_CONTENT_TYPE, body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, CharSequence body)
+            throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        // Известная длина тела позволяет клиенту переиспользовать соединение
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            if (name.equals(URLDecoder.decode(key, StandardCharsets.UTF_8))) {
+                return eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            }
+        }
+        return null;
+    }
+}
@@ -73,7 +73,31 @@ public class OkvedItem {
      * Проверяет, содержит ли код цифры.
      */
     public boolean hasNumericCode() {
-        return code != null && code.matches(".*\\d.*");
+        return isNumericCode(code);
+    }
+
+    /**
+     * Проверяет, содержит ли код цифры.
+     * Совпадает с проверкой {@code code.matches(".*\\d.*")}: точка не захватывает
+     * символы конца строки, поэтому коды с переводом строки не считаются цифровыми.
+     *
+     * @param code код OKVED
+     * @return true, если код содержит цифру
+     */
+    public static boolean isNumericCode(String code) {
+        if (code == null) {
+            return false;
+        }
+
+        boolean hasDigit = false;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+            hasDigit |= c >= '0' && c <= '9';
+        }
+        return hasDigit;
     }
 
     /**
@@ -83,7 +107,15 @@ public class OkvedItem {
         if (code == null) {
             return "";
         }
-        return code.replaceAll("[^0-9]", "");
+
+        StringBuilder digits = new StringBuilder(code.length());
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.length() == code.length() ? code : digits.toString();
     }
 
     /**
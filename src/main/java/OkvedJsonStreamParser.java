@@ -0,0 +1,147 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Потоковое извлечение листовых элементов OKVED с цифровыми кодами.
+ * Документ читается за один проход через {@link JsonParser}, дерево
+ * {@link OkvedItem} не строится: в памяти хранятся только код и название
+ * элементов на текущем пути от корня.
+ * Листья передаются в том же порядке, что и в {@link OkvedItem#collectNumericLeafItems()}.
+ */
+public class OkvedJsonStreamParser {
+
+    /**
+     * Получатель листовых элементов.
+     */
+    @FunctionalInterface
+    public interface LeafSink {
+        void accept(String code, String name);
+    }
+
+    private static final int INITIAL_DEPTH = 8;
+
+    private final JsonFactory jsonFactory;
+
+    public OkvedJsonStreamParser() {
+        this(new JsonFactory());
+    }
+
+    public OkvedJsonStreamParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Читает массив элементов OKVED и передает листья с цифровыми кодами в получатель.
+     *
+     * @param input JSON-документ в формате массива {@link OkvedItem}
+     * @param sink получатель листовых элементов
+     * @return количество переданных листьев
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    public int parse(InputStream input, LeafSink sink) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Ожидался массив элементов OKVED");
+            }
+            return parseItems(parser, sink);
+        }
+    }
+
+    // Приватные методы
+
+    private int parseItems(JsonParser parser, LeafSink sink) throws IOException {
+        ItemPath path = new ItemPath();
+        int emitted = 0;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case START_OBJECT:
+                    path.push();
+                    break;
+
+                case FIELD_NAME:
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if ("code".equals(field)) {
+                        path.codes[path.depth] = textValue(parser, value);
+                    } else if ("name".equals(field)) {
+                        path.names[path.depth] = textValue(parser, value);
+                    } else if ("items".equals(field) && value == JsonToken.START_ARRAY) {
+                        // Дочерние объекты разбираются в этом же цикле
+                        JsonToken first = parser.nextToken();
+                        if (first == JsonToken.START_OBJECT) {
+                            path.hasChildren[path.depth] = true;
+                            path.push();
+                        } else if (first != JsonToken.END_ARRAY) {
+                            throw new IOException("Ожидался объект OKVED в items");
+                        }
+                    } else {
+                        // Неизвестные поля пропускаются, как в @JsonIgnoreProperties
+                        parser.skipChildren();
+                    }
+                    break;
+
+                case END_OBJECT:
+                    if (!path.hasChildren[path.depth] && OkvedItem.isNumericCode(path.codes[path.depth])) {
+                        sink.accept(path.codes[path.depth], path.names[path.depth]);
+                        emitted++;
+                    }
+                    path.pop();
+                    break;
+
+                case END_ARRAY:
+                    if (path.depth < 0) {
+                        return emitted;
+                    }
+                    break;
+
+                default:
+                    throw new IOException("Неожиданный элемент JSON: " + token);
+            }
+        }
+
+        throw new IOException("Неожиданный конец JSON");
+    }
+
+    private static String textValue(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value.isScalarValue()) {
+            return parser.getText();
+        }
+        throw new IOException("Ожидалось строковое значение поля " + parser.getCurrentName());
+    }
+
+    /**
+     * Код, название и наличие дочерних элементов для каждого уровня вложенности.
+     */
+    private static class ItemPath {
+        private String[] codes = new String[INITIAL_DEPTH];
+        private String[] names = new String[INITIAL_DEPTH];
+        private boolean[] hasChildren = new boolean[INITIAL_DEPTH];
+        private int depth = -1;
+
+        private void push() {
+            depth++;
+            if (depth == codes.length) {
+                codes = Arrays.copyOf(codes, depth * 2);
+                names = Arrays.copyOf(names, depth * 2);
+                hasChildren = Arrays.copyOf(hasChildren, depth * 2);
+            }
+            hasChildren[depth] = false;
+        }
+
+        private void pop() {
+            codes[depth] = null;
+            names[depth] = null;
+            depth--;
+        }
+    }
+}
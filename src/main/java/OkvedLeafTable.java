@@ -0,0 +1,413 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Неизменяемая таблица листовых элементов OKVED в виде нескольких плоских массивов
+ * вместо списка объектов: цифры всех кодов подряд (по цифре в байте) со смещениями,
+ * коды без повторов, названия в одном общем массиве символов.
+ * Поиск работает с массивами напрямую, а {@link OkvedItem} создается только по запросу,
+ * поэтому таблица занимает в несколько раз меньше памяти, чем исходные объекты,
+ * и просматривается последовательно.
+ *
+ * <p>Массивы хранятся в буферах: таблица, построенная в памяти, оборачивает обычные массивы,
+ * а таблица из снимка ({@link OkvedSnapshot}) читает их прямо из отображенного файла.
+ * Коды такой таблицы декодируются при первом обращении, названия - при каждом.
+ */
+public final class OkvedLeafTable {
+
+    private final ByteBuffer digits;
+    private final IntBuffer digitOffsets;
+    private final String[] codes;
+    private final CharBuffer codeChars;
+    private final IntBuffer codeOffsets;
+    private final CharBuffer names;
+    private final IntBuffer nameOffsets;
+    private final LongBuffer nullNames;
+
+    /**
+     * @param codes коды элементов; если null, коды декодируются из codeChars при обращении
+     */
+    private OkvedLeafTable(ByteBuffer digits, IntBuffer digitOffsets, String[] codes, CharBuffer codeChars,
+                           IntBuffer codeOffsets, CharBuffer names, IntBuffer nameOffsets, LongBuffer nullNames) {
+        this.digits = digits;
+        this.digitOffsets = digitOffsets;
+        this.codes = codes != null ? codes : new String[digitOffsets.limit() - 1];
+        this.codeChars = codeChars;
+        this.codeOffsets = codeOffsets;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.nullNames = nullNames;
+    }
+
+    /**
+     * Строит таблицу по списку элементов. Элементы без цифр в коде пропускаются.
+     *
+     * @param okvedItems листовые элементы OKVED
+     * @return таблица элементов с цифровыми кодами в порядке списка
+     */
+    public static OkvedLeafTable of(List<OkvedItem> okvedItems) {
+        Builder builder = new Builder(okvedItems != null ? okvedItems.size() : 0);
+        if (okvedItems != null) {
+            for (OkvedItem item : okvedItems) {
+                builder.add(item.getCode(), item.getName());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Объединяет таблицы, построенные независимо (например, разными потоками), в одну
+     * с сохранением порядка: сначала элементы первой таблицы, затем второй и так далее.
+     *
+     * @param parts таблицы в нужном порядке
+     * @return общая таблица
+     */
+    public static OkvedLeafTable concat(List<OkvedLeafTable> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int size = 0;
+        int digitCount = 0;
+        int nameLength = 0;
+        for (OkvedLeafTable part : parts) {
+            size += part.size();
+            digitCount += part.digits.limit();
+            nameLength += part.names.limit();
+        }
+
+        byte[] digits = new byte[digitCount];
+        int[] digitOffsets = new int[size + 1];
+        String[] codes = new String[size];
+        char[] names = new char[nameLength];
+        int[] nameOffsets = new int[size + 1];
+        long[] nullNames = new long[nullWords(size)];
+        int leaf = 0;
+        digitCount = 0;
+        nameLength = 0;
+        for (OkvedLeafTable part : parts) {
+            for (int i = 0; i < part.digits.limit(); i++) {
+                digits[digitCount + i] = part.digits.get(i);
+            }
+            for (int i = 0; i < part.names.limit(); i++) {
+                names[nameLength + i] = part.names.get(i);
+            }
+            for (int i = 0; i < part.size(); i++) {
+                codes[leaf + i] = part.getCode(i);
+                digitOffsets[leaf + i + 1] = digitCount + part.digitOffsets.get(i + 1);
+                nameOffsets[leaf + i + 1] = nameLength + part.nameOffsets.get(i + 1);
+                if (!part.hasName(i)) {
+                    nullNames[(leaf + i) >>> 6] |= 1L << (leaf + i);
+                }
+            }
+            leaf += part.size();
+            digitCount += part.digits.limit();
+            nameLength += part.names.limit();
+        }
+        return new OkvedLeafTable(ByteBuffer.wrap(digits), IntBuffer.wrap(digitOffsets), codes, null, null,
+                CharBuffer.wrap(names), IntBuffer.wrap(nameOffsets), LongBuffer.wrap(nullNames));
+    }
+
+    /**
+     * Возвращает количество элементов.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Возвращает код элемента. Код таблицы из снимка декодируется при первом обращении;
+     * одновременное декодирование безопасно и в худшем случае выполняется дважды.
+     */
+    public String getCode(int leaf) {
+        String code = codes[leaf];
+        if (code == null) {
+            code = codeChars.subSequence(codeOffsets.get(leaf), codeOffsets.get(leaf + 1)).toString();
+            codes[leaf] = code;
+        }
+        return code;
+    }
+
+    /**
+     * Возвращает название элемента. Строка создается при каждом вызове.
+     */
+    public String getName(int leaf) {
+        if (!hasName(leaf)) {
+            return null;
+        }
+        return names.subSequence(nameOffsets.get(leaf), nameOffsets.get(leaf + 1)).toString();
+    }
+
+    /**
+     * Возвращает количество цифр в коде элемента.
+     */
+    public int getDigitCount(int leaf) {
+        return digitOffsets.get(leaf + 1) - digitOffsets.get(leaf);
+    }
+
+    /**
+     * Возвращает цифру кода по номеру с конца: 0 - последняя цифра.
+     */
+    public int digitFromEnd(int leaf, int position) {
+        return digits.get(digitOffsets.get(leaf + 1) - 1 - position);
+    }
+
+    /**
+     * Возвращает цифры кода элемента строкой. Строка создается при каждом вызове.
+     */
+    public String getDigits(int leaf) {
+        return getDigitSuffix(leaf, getDigitCount(leaf));
+    }
+
+    /**
+     * Возвращает последние цифры кода элемента строкой.
+     *
+     * @param leaf номер элемента
+     * @param length количество цифр
+     */
+    public String getDigitSuffix(int leaf, int length) {
+        int end = digitOffsets.get(leaf + 1);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('0' + digits.get(end - length + i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Сравнивает коды двух элементов лексикографически.
+     */
+    public int compareCodes(int leafA, int leafB) {
+        return getCode(leafA).compareTo(getCode(leafB));
+    }
+
+    /**
+     * Возвращает длину совпадения окончания кода с окончанием номера.
+     * Первый символ номера (+) в сравнении не участвует.
+     *
+     * @param leaf номер элемента
+     * @param normalizedPhone нормализованный номер телефона
+     * @return количество совпавших цифр с конца
+     */
+    public int matchLength(int leaf, String normalizedPhone) {
+        int start = digitOffsets.get(leaf);
+        int end = digitOffsets.get(leaf + 1);
+        int i = end - 1;
+        int j = normalizedPhone.length() - 1;
+        while (i >= start && j >= 1 && digits.get(i) == normalizedPhone.charAt(j) - '0') {
+            i--;
+            j--;
+        }
+        return end - 1 - i;
+    }
+
+    /**
+     * Создает объект элемента. При каждом вызове создается новый объект;
+     * список вложенных элементов листа общий и неизменяемый.
+     */
+    public OkvedItem item(int leaf) {
+        return new OkvedItem(getCode(leaf), getName(leaf), Collections.emptyList());
+    }
+
+    /**
+     * Возвращает элементы списком только для чтения; объекты создаются при обращении.
+     */
+    public List<OkvedItem> asList() {
+        return new ItemList();
+    }
+
+    /**
+     * Оценивает объем памяти, занимаемый таблицей, в байтах: массивы и строки кодов
+     * (заголовок строки, массив символов Latin-1 и ссылка на нее). Для таблицы из снимка
+     * учитываются только уже декодированные коды.
+     */
+    public long getFootprintBytes() {
+        long bytes = digits.capacity() + 4L * digitOffsets.capacity() + 2L * names.capacity()
+                + 4L * nameOffsets.capacity() + 8L * nullNames.capacity() + 4L * codes.length;
+        if (codeChars != null) {
+            bytes += 2L * codeChars.capacity() + 4L * codeOffsets.capacity();
+        }
+        Map<String, Boolean> seen = new IdentityHashMap<>();
+        for (String code : codes) {
+            if (code != null && seen.put(code, Boolean.TRUE) == null) {
+                bytes += 24 + 16 + code.length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Открывает таблицу поверх готовых буферов, например отображенных из файла снимка.
+     * Буферы не копируются.
+     *
+     * @param digits цифры всех кодов подряд
+     * @param digitOffsets начало цифр каждого элемента и общий конец
+     * @param codeChars символы всех кодов подряд
+     * @param codeOffsets начало кода каждого элемента и общий конец
+     * @param names символы всех названий подряд
+     * @param nameOffsets начало названия каждого элемента и общий конец
+     * @param nullNames битовая маска элементов без названия
+     */
+    static OkvedLeafTable map(ByteBuffer digits, IntBuffer digitOffsets, CharBuffer codeChars, IntBuffer codeOffsets,
+                              CharBuffer names, IntBuffer nameOffsets, LongBuffer nullNames) {
+        return new OkvedLeafTable(digits, digitOffsets, null, codeChars, codeOffsets, names, nameOffsets, nullNames);
+    }
+
+    ByteBuffer digits() {
+        return digits.duplicate();
+    }
+
+    IntBuffer digitOffsets() {
+        return digitOffsets.duplicate();
+    }
+
+    CharBuffer names() {
+        return names.duplicate();
+    }
+
+    IntBuffer nameOffsets() {
+        return nameOffsets.duplicate();
+    }
+
+    LongBuffer nullNames() {
+        return nullNames.duplicate();
+    }
+
+    /**
+     * Возвращает количество слов битовой маски для заданного количества элементов.
+     */
+    static int nullWords(int size) {
+        return (size + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Пошаговое построение таблицы, например из снимка.
+     */
+    static final class Builder {
+
+        private byte[] digits;
+        private int[] digitOffsets;
+        private String[] codes;
+        private char[] names;
+        private int[] nameOffsets;
+        private final BitSet nullNames = new BitSet();
+        private final Map<String, String> internedCodes = new HashMap<>();
+        private int size;
+        private int digitCount;
+        private int nameLength;
+
+        Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            digits = new byte[capacity * 6];
+            digitOffsets = new int[capacity + 1];
+            codes = new String[capacity];
+            names = new char[capacity * 32];
+            nameOffsets = new int[capacity + 1];
+        }
+
+        /**
+         * Добавляет элемент, извлекая цифры из кода. Элементы без цифр пропускаются.
+         *
+         * @return true, если элемент добавлен
+         */
+        boolean add(String code, String name) {
+            if (code == null) {
+                return false;
+            }
+            int start = digitCount;
+            for (int i = 0; i < code.length(); i++) {
+                char c = code.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    appendDigit(c);
+                }
+            }
+            if (digitCount == start) {
+                return false;
+            }
+            append(code, name);
+            return true;
+        }
+
+        /**
+         * Добавляет элемент с заранее извлеченными цифрами кода.
+         */
+        void add(String code, String codeDigits, String name) {
+            for (int i = 0; i < codeDigits.length(); i++) {
+                appendDigit(codeDigits.charAt(i));
+            }
+            append(code, name);
+        }
+
+        OkvedLeafTable build() {
+            return new OkvedLeafTable(ByteBuffer.wrap(Arrays.copyOf(digits, digitCount)),
+                    IntBuffer.wrap(Arrays.copyOf(digitOffsets, size + 1)), Arrays.copyOf(codes, size), null, null,
+                    CharBuffer.wrap(Arrays.copyOf(names, nameLength)), IntBuffer.wrap(Arrays.copyOf(nameOffsets, size + 1)),
+                    LongBuffer.wrap(Arrays.copyOf(nullNames.toLongArray(), nullWords(size))));
+        }
+
+        private void appendDigit(char c) {
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Недопустимая цифра кода: " + c);
+            }
+            if (digitCount == digits.length) {
+                digits = Arrays.copyOf(digits, digits.length * 2);
+            }
+            digits[digitCount++] = (byte) (c - '0');
+        }
+
+        private void append(String code, String name) {
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, size * 2);
+                digitOffsets = Arrays.copyOf(digitOffsets, size * 2 + 1);
+                nameOffsets = Arrays.copyOf(nameOffsets, size * 2 + 1);
+            }
+            codes[size] = internedCodes.computeIfAbsent(code, key -> key);
+
+            if (name == null) {
+                nullNames.set(size);
+            } else {
+                if (nameLength + name.length() > names.length) {
+                    names = Arrays.copyOf(names, Math.max(names.length * 2, nameLength + name.length()));
+                }
+                name.getChars(0, name.length(), names, nameLength);
+                nameLength += name.length();
+            }
+
+            size++;
+            digitOffsets[size] = digitCount;
+            nameOffsets[size] = nameLength;
+        }
+    }
+
+    // Приватные методы
+
+    private boolean hasName(int leaf) {
+        return (nullNames.get(leaf >>> 6) & 1L << leaf) == 0;
+    }
+
+    private class ItemList extends AbstractList<OkvedItem> implements RandomAccess {
+
+        @Override
+        public OkvedItem get(int index) {
+            if (index < 0 || index >= codes.length) {
+                throw new IndexOutOfBoundsException("Индекс " + index + ", размер " + codes.length);
+            }
+            return item(index);
+        }
+
+        @Override
+        public int size() {
+            return codes.length;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * TCP-сервис поиска OKVED с построчным протоколом для внутренних клиентов,
+ * которым накладные расходы HTTP больше самого поиска. Построен на неблокирующих
+ * каналах NIO: каждый поток-цикл обслуживает свой {@link Selector} и свои соединения.
+ *
+ * <p>Клиент отправляет номера по одному в строке ({@code \n}, допускается {@code \r\n})
+ * и может не дожидаться ответов: запросы конвейеризуются, ответы приходят в том же порядке.
+ * Последняя строка перед закрытием отправки клиентом может не иметь перевода строки.
+ * Ответ - строка {@code код,длина_совпадения}; если совпадения нет, возвращается код
+ * резервной стратегии с длиной 0. Отклоненный номер - {@code ERR,empty} или {@code ERR,format}.
+ *
+ * <p>Строки разбираются прямо из переиспользуемых прямых буферов без создания строк
+ * на запрос. Если буфер ответов клиента заполнен, чтение из его соединения приостанавливается,
+ * пока ответы не будут отправлены. Сверх {@link #setMaxConnections лимита соединений}
+ * клиент получает {@code ERR,busy} и соединение закрывается.
+ */
+public class OkvedLineServer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Место в буфере ответов, достаточное для одного ответа.
+     */
+    private static final int MAX_RESPONSE = 256;
+
+    private static final byte[] ERR_EMPTY = ascii("ERR,empty\n");
+    private static final byte[] ERR_FORMAT = ascii("ERR,format\n");
+    private static final byte[] ERR_BUSY = ascii("ERR,busy\n");
+    private static final byte[] ERR_TOO_LONG = ascii("ERR,too long\n");
+
+    private final Supplier<OkvedDataset> datasetSupplier;
+    private final OkvedFinder finder;
+    private final PrintStream log;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+
+    private int maxConnections = 1024;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private volatile boolean closing;
+
+    /**
+     * @param datasetSupplier источник текущего справочника
+     * @param finder сервис поиска
+     * @param log поток для сообщений сервера
+     */
+    public OkvedLineServer(Supplier<OkvedDataset> datasetSupplier, OkvedFinder finder, PrintStream log) {
+        this.datasetSupplier = datasetSupplier;
+        this.finder = finder;
+        this.log = log;
+    }
+
+    /**
+     * Задает наибольшее количество одновременных соединений.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Запускает сервер.
+     *
+     * @param port порт (0 - любой свободный)
+     * @param threads количество потоков-циклов; 0 - по одному на ядро
+     * @throws IOException если порт недоступен
+     */
+    public synchronized void start(int port, int threads) throws IOException {
+        int loopCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        closing = false;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        // Новые соединения принимает первый цикл и распределяет по всем по кругу
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+
+        log.printf("TCP-сервер построчного протокола запущен на порту %d (потоков: %d)%n", getPort(), loopCount);
+    }
+
+    /**
+     * Останавливает сервер: новые соединения не принимаются, на уже полученные строки
+     * отправляются ответы, затем соединения закрываются. По истечении времени ожидания
+     * оставшиеся соединения закрываются принудительно.
+     *
+     * @param timeout максимальное время ожидания
+     */
+    public synchronized void stop(Duration timeout) {
+        if (loops == null) {
+            return;
+        }
+        closing = true;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (EventLoop loop : loops) {
+            long remainingMillis = Math.max(1, (deadline - System.nanoTime()) / 1_000_000);
+            try {
+                loop.thread.join(remainingMillis);
+                if (loop.thread.isAlive()) {
+                    loop.forceClose = true;
+                    loop.selector.wakeup();
+                    loop.thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeQuietly(serverChannel);
+        loops = null;
+    }
+
+    /**
+     * Возвращает порт, на котором работает сервер.
+     */
+    public synchronized int getPort() {
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new IllegalStateException("Сервер не запущен", e);
+        }
+    }
+
+    /**
+     * Возвращает количество открытых соединений.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Возвращает количество обработанных строк.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    // Приватные методы
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void closeQuietly(Closeable channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Уже закрыт
+        }
+    }
+
+    /**
+     * Поток с собственным селектором. Буферы разбора и номер переиспользуются всеми
+     * соединениями цикла, у каждого соединения - только свои буферы ввода и вывода.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final PhoneNormalizer normalizer = new PhoneNormalizer();
+        private final ByteChars chars = new ByteChars();
+        private final OkvedMatchSlot slot = new OkvedMatchSlot();
+        private int nextLoop;
+        private volatile boolean forceClose;
+
+        private EventLoop(int number) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "okved-line-" + number);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    selector.select(closing ? 50 : 0);
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            try {
+                                if (key.isReadable()) {
+                                    connection.read();
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    connection.write();
+                                }
+                            } catch (IOException e) {
+                                connection.close();
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    // В том числе соединения, принятые этим же циклом
+                    registerPending();
+
+                    if (closing && shutDownStep()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                log.println("Ошибка TCP-сервера: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        /**
+         * Шаг остановки: прекращает прием и чтение, закрывает соединения без неотправленных ответов.
+         *
+         * @return true, если цикл можно завершать
+         */
+        private boolean shutDownStep() {
+            if (forceClose) {
+                return true;
+            }
+            boolean open = false;
+            for (SelectionKey key : selector.keys()) {
+                if (key.channel() == serverChannel) {
+                    key.cancel();
+                } else if (key.isValid() && key.attachment() instanceof Connection) {
+                    Connection connection = (Connection) key.attachment();
+                    if (connection.output.position() == 0) {
+                        connection.close();
+                    } else {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        open = true;
+                    }
+                }
+            }
+            return !open && pending.isEmpty();
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                if (closing || connections.incrementAndGet() > maxConnections) {
+                    if (!closing) {
+                        connections.decrementAndGet();
+                    }
+                    channel.configureBlocking(false);
+                    channel.write(ByteBuffer.wrap(ERR_BUSY));
+                    closeQuietly(channel);
+                    continue;
+                }
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.pending.add(channel);
+                if (loop != this) {
+                    loop.selector.wakeup();
+                }
+            }
+        }
+
+        private void registerPending() throws IOException {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(this, channel, key));
+            }
+        }
+
+        /**
+         * Обрабатывает строку {@code [start, end)} буфера и записывает ответ.
+         */
+        private void respond(ByteBuffer input, int start, int end, ByteBuffer output, OkvedMatcher matcher) {
+            requests.incrementAndGet();
+            chars.wrap(input);
+            long phone = normalizer.tryNormalize(chars, start, end);
+            if (phone < 0) {
+                output.put(phone == PhoneNormalizer.REJECT_EMPTY ? ERR_EMPTY : ERR_FORMAT);
+                return;
+            }
+
+            if (!finder.findBestMatch(phone, matcher, slot)) {
+                slot.set(finder.createBackupMatch("+" + phone));
+            }
+            String code = slot.getCode();
+            for (int i = 0; i < code.length(); i++) {
+                output.put((byte) code.charAt(i));
+            }
+            output.put((byte) ',');
+            putInt(output, slot.getMatchLength());
+            output.put((byte) '\n');
+        }
+
+        private void putInt(ByteBuffer output, int value) {
+            if (value >= 10) {
+                putInt(output, value / 10);
+            }
+            output.put((byte) ('0' + value % 10));
+        }
+    }
+
+    /**
+     * Соединение клиента с буферами ввода и вывода.
+     */
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private boolean skippingLine;
+        private boolean endOfInput;
+        private boolean closed;
+
+        private Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            if (channel.read(input) < 0) {
+                // Клиент закончил отправку: ответить на полученное и закрыть
+                endOfInput = true;
+            }
+            process();
+            write();
+        }
+
+        /**
+         * Отвечает на все полные строки во входном буфере, пока в выходном есть место.
+         */
+        private void process() {
+            input.flip();
+            OkvedMatcher matcher = datasetSupplier.get().getMatcher();
+            int start = input.position();
+            int limit = input.limit();
+            for (int i = start; i < limit && output.remaining() >= MAX_RESPONSE; i++) {
+                if (input.get(i) == '\n') {
+                    if (skippingLine) {
+                        skippingLine = false;
+                    } else {
+                        loop.respond(input, start, i, output, matcher);
+                    }
+                    start = i + 1;
+                }
+            }
+            if (endOfInput && start < limit && output.remaining() >= MAX_RESPONSE) {
+                // Клиент закрыл отправку: остаток без перевода строки - последняя строка
+                if (!skippingLine) {
+                    loop.respond(input, start, limit, output, matcher);
+                }
+                skippingLine = false;
+                start = limit;
+            }
+            input.position(start);
+            input.compact();
+
+            if (!input.hasRemaining() && output.remaining() >= MAX_RESPONSE) {
+                // Строка не помещается в буфер: ответ об ошибке, остаток строки пропускается
+                if (!skippingLine) {
+                    output.put(ERR_TOO_LONG);
+                    skippingLine = true;
+                }
+                input.clear();
+            }
+        }
+
+        /**
+         * Отправляет ответы. Пока ответы не отправлены, соединение не читается; когда буфер
+         * освобождается, обрабатываются строки, которые ждали места для ответа.
+         */
+        private void write() throws IOException {
+            while (true) {
+                output.flip();
+                channel.write(output);
+                output.compact();
+                if (output.position() > 0) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (input.position() == 0) {
+                    break;
+                }
+                process();
+                if (output.position() == 0) {
+                    break;
+                }
+            }
+
+            if (closing || endOfInput) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                connections.decrementAndGet();
+                key.cancel();
+                closeQuietly(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Изменяемый результат поиска, который принадлежит вызывающему коду и переиспользуется
+ * между поисками: {@link OkvedFinder#findBestMatch(long, OkvedMatcher, OkvedMatchSlot)}
+ * заполняет его без создания объектов.
+ *
+ * <p>Код и длина совпадения доступны сразу. Название, окончания и {@link OkvedFinder.MatchResult}
+ * получаются при первом обращении: индекс создает результат один раз на узел и дальше
+ * возвращает его же, поэтому в установившемся режиме объекты тоже не создаются.
+ * Объект не потокобезопасен: у каждого потока должен быть свой.
+ */
+public final class OkvedMatchSlot {
+
+    private OkvedSuffixIndex index;
+    private int node;
+    private OkvedFinder.MatchResult result;
+
+    /**
+     * Возвращает true, если совпадение найдено.
+     */
+    public boolean isFound() {
+        return index != null || result != null;
+    }
+
+    /**
+     * Возвращает длину совпадения или 0, если совпадение не найдено.
+     */
+    public int getMatchLength() {
+        if (index != null) {
+            return index.depthAt(node);
+        }
+        return result != null ? result.getMatchLength() : 0;
+    }
+
+    /**
+     * Возвращает код OKVED или null, если совпадение не найдено.
+     */
+    public String getCode() {
+        if (index != null) {
+            return index.codeAt(node);
+        }
+        return result != null ? result.getCode() : null;
+    }
+
+    /**
+     * Возвращает название OKVED или null, если совпадение не найдено.
+     */
+    public String getName() {
+        OkvedFinder.MatchResult match = toResult();
+        return match != null ? match.getName() : null;
+    }
+
+    /**
+     * Возвращает совпавшее окончание номера или null, если совпадение не найдено.
+     */
+    public String getPhoneSuffix() {
+        OkvedFinder.MatchResult match = toResult();
+        return match != null ? match.getPhoneSuffix() : null;
+    }
+
+    /**
+     * Возвращает совпавшее окончание кода или null, если совпадение не найдено.
+     */
+    public String getOkvedSuffix() {
+        OkvedFinder.MatchResult match = toResult();
+        return match != null ? match.getOkvedSuffix() : null;
+    }
+
+    /**
+     * Возвращает результат в виде {@link OkvedFinder.MatchResult} или null, если совпадение не найдено.
+     */
+    public OkvedFinder.MatchResult toResult() {
+        if (index != null) {
+            return index.resultFor(node);
+        }
+        return result;
+    }
+
+    /**
+     * Сбрасывает результат: совпадение не найдено.
+     */
+    public void clear() {
+        index = null;
+        node = 0;
+        result = null;
+    }
+
+    /**
+     * Запоминает готовый результат поиска.
+     */
+    public void set(OkvedFinder.MatchResult result) {
+        this.index = null;
+        this.node = 0;
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return isFound() ? "OkvedMatchSlot{" + toResult() + "}" : "OkvedMatchSlot{empty}";
+    }
+
+    /**
+     * Запоминает узел индекса; результат для него создается только при обращении.
+     */
+    void set(OkvedSuffixIndex index, int node) {
+        this.index = index;
+        this.node = node;
+        this.result = null;
+    }
+
+    /**
+     * Возвращает индекс запомненного узла или null, если результат задан готовым или не найден.
+     */
+    OkvedSuffixIndex index() {
+        return index;
+    }
+
+    /**
+     * Возвращает запомненный узел индекса; имеет смысл, только если {@link #index()} не null.
+     */
+    int node() {
+        return node;
+    }
+}
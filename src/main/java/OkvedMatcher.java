@@ -0,0 +1,82 @@
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Механизм поиска OKVED по совпадению окончаний, построенный заранее
+ * по списку листовых элементов.
+ */
+public interface OkvedMatcher {
+
+    /**
+     * Находит лучший результат совпадения.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @return лучший результат поиска
+     */
+    Optional<OkvedFinder.MatchResult> findBestMatch(String normalizedPhone);
+
+    /**
+     * Находит лучший результат совпадения для номера в виде числа 79XXXXXXXXX.
+     * Реализации по индексу не создают строку номера.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @return лучший результат поиска
+     */
+    default Optional<OkvedFinder.MatchResult> findBestMatch(long normalizedPhone) {
+        return findBestMatch("+" + normalizedPhone);
+    }
+
+    /**
+     * Находит лучший результат совпадения и записывает его в изменяемый результат вызывающего кода.
+     * Реализации по индексу и таблице не создают объектов; реализация по умолчанию
+     * переходит к {@link #findBestMatch(long)}.
+     *
+     * @param normalizedPhone нормализованый номер телефона в виде числа 79XXXXXXXXX
+     * @param slot результат, который заполняется или сбрасывается
+     * @return true, если совпадение найдено
+     */
+    default boolean findBestMatch(long normalizedPhone, OkvedMatchSlot slot) {
+        Optional<OkvedFinder.MatchResult> result = findBestMatch(normalizedPhone);
+        if (result.isPresent()) {
+            slot.set(result.get());
+            return true;
+        }
+        slot.clear();
+        return false;
+    }
+
+    /**
+     * Находит лучший приближенный результат: окончания номера и кода могут различаться
+     * не больше чем в maxMismatches цифрах. Порядок результатов описан в
+     * {@link OkvedFinder#findApproximateMatch(String, List, int)}.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param maxMismatches допустимое количество несовпадающих цифр, от 0 до {@link OkvedFinder#MAX_MISMATCHES}
+     * @return лучший результат поиска
+     * @throws IllegalArgumentException если maxMismatches вне допустимого диапазона
+     */
+    Optional<OkvedFinder.MatchResult> findApproximateMatch(String normalizedPhone, int maxMismatches);
+
+    /**
+     * Находит несколько лучших результатов совпадения, лучший первым.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param k максимальное количество результатов
+     * @return результаты поиска
+     */
+    List<OkvedFinder.MatchResult> findTopMatches(String normalizedPhone, int k);
+
+    /**
+     * Возвращает количество последних цифр номера, от которых зависит результат:
+     * номера с одинаковыми последними цифрами получают одинаковый результат.
+     * Реализация по умолчанию учитывает все 11 цифр номера 79XXXXXXXXX.
+     */
+    default int getTailDigits() {
+        return 11;
+    }
+
+    /**
+     * Возвращает количество элементов, по которым ведется поиск.
+     */
+    int size();
+}
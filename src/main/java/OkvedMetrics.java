@@ -0,0 +1,393 @@
+import jdk.jfr.EventType;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Встроенные метрики этапов загрузки, нормализации и поиска.
+ * По умолчанию выключены: тогда каждый замер сводится к чтению одного поля.
+ * Включенные метрики записываются без блокировок, дублируются событиями JFR
+ * ({@link OkvedEvents}) и выгружаются в текстовом формате Prometheus или через JMX.
+ *
+ * <p>Замер этапа:
+ * <pre>
+ * long timer = metrics.startTimer();
+ * ...
+ * metrics.recordStage(OkvedMetrics.Stage.COMPILE, timer, items);
+ * </pre>
+ */
+public class OkvedMetrics implements OkvedMetricsMBean {
+
+    /**
+     * Измеряемые этапы.
+     */
+    public enum Stage {
+        /** Загрузка JSON по сети или из кэша вместе с потоковым разбором. */
+        DOWNLOAD,
+        /** Разбор JSON из локального файла. */
+        PARSE,
+        /** Чтение бинарного снимка. */
+        SNAPSHOT,
+        /** Построение индекса окончаний. */
+        INDEX,
+        /** Построение плотной таблицы. */
+        COMPILE,
+        /** Загрузка справочника целиком. */
+        LOAD,
+        /** Нормализация одного номера. */
+        NORMALIZE,
+        /** Поиск лучшего совпадения для одного номера. */
+        MATCH;
+
+        private final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Имя MBean в JMX.
+     */
+    public static final String OBJECT_NAME = "okved:type=Metrics";
+
+    /**
+     * Длины совпадения больше этой учитываются вместе с ней.
+     */
+    public static final int MAX_MATCH_LENGTH = 16;
+
+    private static final OkvedMetrics GLOBAL = new OkvedMetrics();
+    private static final EventType LOOKUP_EVENT = EventType.getEventType(OkvedEvents.LookupEvent.class);
+    private static final EventType STAGE_EVENT = EventType.getEventType(OkvedEvents.StageEvent.class);
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder rejectedEmpty = new LongAdder();
+    private final LongAdder rejectedFormat = new LongAdder();
+    private final LongAdder backupFallbacks = new LongAdder();
+    private final AtomicLongArray matchLengths = new AtomicLongArray(MAX_MATCH_LENGTH + 1);
+
+    private volatile boolean enabled;
+    private volatile long datasetItems;
+    private volatile long datasetLoadNanos;
+    private volatile long datasetLoadedAtMillis;
+
+    public OkvedMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Возвращает общие метрики процесса, которые используют все компоненты.
+     */
+    public static OkvedMetrics global() {
+        return GLOBAL;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Начинает замер.
+     *
+     * @return метка начала или 0, если метрики выключены
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Записывает длительность этапа загрузки.
+     *
+     * @param stage этап
+     * @param timer метка из {@link #startTimer()}
+     * @param items количество обработанных элементов
+     */
+    public void recordStage(Stage stage, long timer, long items) {
+        if (timer == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - timer;
+        stages[stage.ordinal()].record(elapsed);
+
+        if (STAGE_EVENT.isEnabled()) {
+            OkvedEvents.StageEvent event = new OkvedEvents.StageEvent();
+            event.stage = stage.label;
+            event.items = items;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Записывает результат нормализации одного номера.
+     *
+     * @param timer метка из {@link #startTimer()}
+     * @param result номер или отрицательный код отказа
+     */
+    public void recordNormalize(long timer, long result) {
+        if (timer == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - timer;
+        stages[Stage.NORMALIZE.ordinal()].record(elapsed);
+        if (result == PhoneNormalizer.REJECT_EMPTY) {
+            rejectedEmpty.increment();
+        } else if (result < 0) {
+            rejectedFormat.increment();
+        }
+        commitLookup(Stage.NORMALIZE, result, elapsed);
+    }
+
+    /**
+     * Записывает результат поиска для одного номера.
+     *
+     * @param timer метка из {@link #startTimer()}
+     * @param result результат поиска
+     */
+    public void recordMatch(long timer, Optional<OkvedFinder.MatchResult> result) {
+        recordMatch(timer, result.isPresent() ? result.get().getMatchLength() : 0);
+    }
+
+    /**
+     * Записывает результат поиска для одного номера без обертки результата.
+     *
+     * @param timer метка из {@link #startTimer()}
+     * @param matchLength длина совпадения, 0 - совпадение не найдено
+     */
+    public void recordMatch(long timer, int matchLength) {
+        if (timer == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - timer;
+        stages[Stage.MATCH.ordinal()].record(elapsed);
+        int length = Math.min(matchLength, MAX_MATCH_LENGTH);
+        matchLengths.incrementAndGet(length);
+        commitLookup(Stage.MATCH, length, elapsed);
+    }
+
+    /**
+     * Учитывает использование резервной стратегии.
+     */
+    public void recordBackupFallback() {
+        if (enabled) {
+            backupFallbacks.increment();
+        }
+    }
+
+    /**
+     * Записывает загрузку справочника целиком.
+     *
+     * @param timer метка из {@link #startTimer()}
+     * @param items количество элементов справочника
+     */
+    public void recordDatasetLoad(long timer, long items) {
+        if (timer == 0) {
+            return;
+        }
+        datasetLoadNanos = System.nanoTime() - timer;
+        datasetItems = items;
+        datasetLoadedAtMillis = System.currentTimeMillis();
+        recordStage(Stage.LOAD, timer, items);
+    }
+
+    /**
+     * Возвращает гистограмму задержек этапа.
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * Регистрирует метрики в JMX платформы. Повторная регистрация игнорируется.
+     *
+     * @throws IllegalStateException если регистрация не удалась
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Уже зарегистрированы
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать метрики в JMX", e);
+        }
+    }
+
+    /**
+     * Обнуляет гистограммы и счетчики. Сведения о загруженном справочнике сохраняются.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : stages) {
+            histogram.reset();
+        }
+        rejectedEmpty.reset();
+        rejectedFormat.reset();
+        backupFallbacks.reset();
+        for (int i = 0; i < matchLengths.length(); i++) {
+            matchLengths.set(i, 0);
+        }
+    }
+
+    /**
+     * Дописывает метрики в текстовом формате Prometheus (версия 0.0.4).
+     *
+     * @param out буфер
+     * @return тот же буфер
+     */
+    public StringBuilder appendPrometheus(StringBuilder out) {
+        out.append("# HELP okved_metrics_enabled Включены ли метрики\n")
+                .append("# TYPE okved_metrics_enabled gauge\n")
+                .append("okved_metrics_enabled ").append(enabled ? 1 : 0).append('\n');
+
+        out.append("# HELP okved_stage_duration_seconds Длительность этапов загрузки и обработки номеров\n")
+                .append("# TYPE okved_stage_duration_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stages[stage.ordinal()];
+            long count = histogram.getCount();
+            if (count == 0) {
+                continue;
+            }
+            for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                out.append("okved_stage_duration_seconds{stage=\"").append(stage.label)
+                        .append("\",quantile=\"").append(quantile).append("\"} ");
+                appendSeconds(out, histogram.getValueAtPercentile(quantile * 100)).append('\n');
+            }
+            out.append("okved_stage_duration_seconds_sum{stage=\"").append(stage.label).append("\"} ");
+            appendSeconds(out, histogram.getSum()).append('\n');
+            out.append("okved_stage_duration_seconds_count{stage=\"").append(stage.label).append("\"} ")
+                    .append(count).append('\n');
+        }
+
+        out.append("# HELP okved_normalize_rejects_total Отклоненные номера по причинам\n")
+                .append("# TYPE okved_normalize_rejects_total counter\n")
+                .append("okved_normalize_rejects_total{reason=\"empty\"} ").append(rejectedEmpty.sum()).append('\n')
+                .append("okved_normalize_rejects_total{reason=\"format\"} ").append(rejectedFormat.sum()).append('\n');
+
+        out.append("# HELP okved_backup_fallbacks_total Результаты резервной стратегии\n")
+                .append("# TYPE okved_backup_fallbacks_total counter\n")
+                .append("okved_backup_fallbacks_total ").append(backupFallbacks.sum()).append('\n');
+
+        out.append("# HELP okved_match_length_total Распределение длины совпадения (0 - совпадений нет)\n")
+                .append("# TYPE okved_match_length_total counter\n");
+        for (int length = 0; length <= MAX_MATCH_LENGTH; length++) {
+            long count = matchLengths.get(length);
+            if (count > 0) {
+                out.append("okved_match_length_total{length=\"").append(length).append("\"} ")
+                        .append(count).append('\n');
+            }
+        }
+
+        out.append("# HELP okved_dataset_items Количество элементов загруженного справочника\n")
+                .append("# TYPE okved_dataset_items gauge\n")
+                .append("okved_dataset_items ").append(datasetItems).append('\n')
+                .append("# HELP okved_dataset_load_seconds Длительность последней загрузки справочника\n")
+                .append("# TYPE okved_dataset_load_seconds gauge\n")
+                .append("okved_dataset_load_seconds ");
+        appendSeconds(out, datasetLoadNanos).append('\n')
+                .append("# HELP okved_dataset_loaded_timestamp_seconds Время последней загрузки справочника\n")
+                .append("# TYPE okved_dataset_loaded_timestamp_seconds gauge\n")
+                .append("okved_dataset_loaded_timestamp_seconds ").append(datasetLoadedAtMillis / 1000).append('\n');
+        return out;
+    }
+
+    // Атрибуты JMX
+
+    @Override
+    public long getNormalizeCount() {
+        return stages[Stage.NORMALIZE.ordinal()].getCount();
+    }
+
+    @Override
+    public long getNormalizeP99Nanos() {
+        return stages[Stage.NORMALIZE.ordinal()].getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getRejectedEmpty() {
+        return rejectedEmpty.sum();
+    }
+
+    @Override
+    public long getRejectedFormat() {
+        return rejectedFormat.sum();
+    }
+
+    @Override
+    public long getMatchCount() {
+        return stages[Stage.MATCH.ordinal()].getCount();
+    }
+
+    @Override
+    public long getMatchP50Nanos() {
+        return stages[Stage.MATCH.ordinal()].getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getMatchP99Nanos() {
+        return stages[Stage.MATCH.ordinal()].getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getMatchP999Nanos() {
+        return stages[Stage.MATCH.ordinal()].getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMatchMaxNanos() {
+        return stages[Stage.MATCH.ordinal()].getMax();
+    }
+
+    @Override
+    public long[] getMatchLengthDistribution() {
+        long[] distribution = new long[matchLengths.length()];
+        for (int i = 0; i < distribution.length; i++) {
+            distribution[i] = matchLengths.get(i);
+        }
+        return distribution;
+    }
+
+    @Override
+    public long getBackupFallbacks() {
+        return backupFallbacks.sum();
+    }
+
+    @Override
+    public long getDatasetItems() {
+        return datasetItems;
+    }
+
+    @Override
+    public long getDatasetLoadMillis() {
+        return datasetLoadNanos / 1_000_000;
+    }
+
+    @Override
+    public String getPrometheusText() {
+        return appendPrometheus(new StringBuilder()).toString();
+    }
+
+    // Приватные методы
+
+    private static void commitLookup(Stage stage, long result, long elapsed) {
+        if (LOOKUP_EVENT.isEnabled()) {
+            OkvedEvents.LookupEvent event = new OkvedEvents.LookupEvent();
+            event.stage = stage.label;
+            event.result = result;
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    private static StringBuilder appendSeconds(StringBuilder out, long nanos) {
+        return out.append(nanos / 1e9);
+    }
+}
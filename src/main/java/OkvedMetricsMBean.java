@@ -0,0 +1,37 @@
+/**
+ * Метрики поиска OKVED, доступные через JMX ({@code okved:type=Metrics}).
+ */
+public interface OkvedMetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getNormalizeCount();
+
+    long getNormalizeP99Nanos();
+
+    long getRejectedEmpty();
+
+    long getRejectedFormat();
+
+    long getMatchCount();
+
+    long getMatchP50Nanos();
+
+    long getMatchP99Nanos();
+
+    long getMatchP999Nanos();
+
+    long getMatchMaxNanos();
+
+    long[] getMatchLengthDistribution();
+
+    long getBackupFallbacks();
+
+    long getDatasetItems();
+
+    long getDatasetLoadMillis();
+
+    String getPrometheusText();
+}
@@ -0,0 +1,516 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный по размеру потокобезопасный кэш результатов поиска.
+ * Ключ - нормализованный номер в виде числа 79XXXXXXXXX, без создания строк и оберток.
+ * Кэш разбит на сегменты с собственной блокировкой и поддерживает два способа вытеснения:
+ * <ul>
+ *   <li>{@link Policy#LRU} - вытесняется давно не использованная запись;</li>
+ *   <li>{@link Policy#TINY_LFU} - в духе W-TinyLFU: новые записи попадают в небольшое окно LRU,
+ *       а в основную область переходят, только если по частотному скетчу они запрашиваются
+ *       чаще, чем вытесняемая оттуда запись. Так редкие номера не вымывают популярные.</li>
+ * </ul>
+ * При смене справочника ({@link #rebind}) кэш очищается целиком.
+ */
+public class OkvedResultCache implements OkvedMatcher {
+
+    /**
+     * Способ вытеснения записей.
+     */
+    public enum Policy { LRU, TINY_LFU }
+
+    /**
+     * Счетчики кэша.
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long size;
+
+        public Stats(long hits, long misses, long evictions, long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getSize() { return size; }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stats{hits=%d, misses=%d, evictions=%d, size=%d, hitRate=%.3f}",
+                    hits, misses, evictions, size, getHitRate());
+        }
+    }
+
+    private static final Object NO_MATCH = new Object();
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    private final Policy policy;
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private volatile OkvedMatcher delegate;
+    private volatile int generation;
+
+    /**
+     * @param delegate механизм поиска, результаты которого кэшируются
+     * @param maximumSize максимальное количество записей
+     * @param policy способ вытеснения
+     */
+    public OkvedResultCache(OkvedMatcher delegate, int maximumSize, Policy policy) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным: " + maximumSize);
+        }
+        this.delegate = delegate;
+        this.policy = policy;
+
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && maximumSize / (segmentCount * 2) >= MIN_SEGMENT_CAPACITY) {
+            segmentCount *= 2;
+        }
+        this.segments = new Segment[segmentCount];
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        // Окну и основной области TinyLFU нужно хотя бы по одной записи
+        int segmentCapacity = Math.max(2, (maximumSize + segmentCount - 1) / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity, policy);
+        }
+    }
+
+    @Override
+    public Optional<OkvedFinder.MatchResult> findBestMatch(String normalizedPhone) {
+        long phone = parseNormalized(normalizedPhone);
+        if (phone < 0) {
+            return delegate.findBestMatch(normalizedPhone);
+        }
+        return lookup(phone, normalizedPhone);
+    }
+
+    @Override
+    public Optional<OkvedFinder.MatchResult> findBestMatch(long normalizedPhone) {
+        return lookup(normalizedPhone, null);
+    }
+
+    /**
+     * При попадании в кэш объекты не создаются. При промахе результат ищется
+     * делегатом и сохраняется в кэше.
+     */
+    @Override
+    public boolean findBestMatch(long normalizedPhone, OkvedMatchSlot slot) {
+        int hash = hash(normalizedPhone);
+        Segment segment = segmentFor(hash);
+
+        Object cached = segment.get(normalizedPhone, hash);
+        if (cached != null) {
+            hits.increment();
+            if (cached == NO_MATCH) {
+                slot.clear();
+                return false;
+            }
+            slot.set((OkvedFinder.MatchResult) cached);
+            return true;
+        }
+
+        misses.increment();
+        int startGeneration = generation;
+        boolean found = delegate.findBestMatch(normalizedPhone, slot);
+        evictions.add(segment.put(normalizedPhone, hash, found ? slot.toResult() : NO_MATCH,
+                startGeneration, this));
+        return found;
+    }
+
+    /**
+     * Кэшируется только точный лучший результат, приближенный всегда ищется заново.
+     */
+    @Override
+    public Optional<OkvedFinder.MatchResult> findApproximateMatch(String normalizedPhone, int maxMismatches) {
+        return delegate.findApproximateMatch(normalizedPhone, maxMismatches);
+    }
+
+    /**
+     * Кэшируется только лучший результат, несколько результатов всегда ищутся заново.
+     */
+    @Override
+    public List<OkvedFinder.MatchResult> findTopMatches(String normalizedPhone, int k) {
+        return delegate.findTopMatches(normalizedPhone, k);
+    }
+
+    @Override
+    public int getTailDigits() {
+        return delegate.getTailDigits();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    /**
+     * Переключает кэш на новый справочник и удаляет все записи.
+     *
+     * @param newDelegate механизм поиска по новому справочнику
+     */
+    public synchronized void rebind(OkvedMatcher newDelegate) {
+        delegate = newDelegate;
+        invalidate();
+    }
+
+    /**
+     * Удаляет все записи.
+     */
+    public synchronized void invalidate() {
+        // Сначала меняется поколение: запросы, начатые до очистки, не сохранят результат
+        generation++;
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Возвращает текущие значения счетчиков.
+     */
+    public Stats stats() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    // Приватные методы
+
+    private Optional<OkvedFinder.MatchResult> lookup(long phone, String normalizedPhone) {
+        int hash = hash(phone);
+        Segment segment = segmentFor(hash);
+
+        Object cached = segment.get(phone, hash);
+        if (cached != null) {
+            hits.increment();
+            return cached == NO_MATCH ? Optional.empty() : Optional.of((OkvedFinder.MatchResult) cached);
+        }
+
+        misses.increment();
+        int startGeneration = generation;
+        OkvedMatcher matcher = delegate;
+        Optional<OkvedFinder.MatchResult> result = normalizedPhone != null
+                ? matcher.findBestMatch(normalizedPhone) : matcher.findBestMatch(phone);
+
+        evictions.add(segment.put(phone, hash, result.isPresent() ? result.get() : NO_MATCH,
+                startGeneration, this));
+        return result;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[segmentShift == 32 ? 0 : hash >>> segmentShift];
+    }
+
+    private static long parseNormalized(String normalizedPhone) {
+        if (normalizedPhone == null || normalizedPhone.length() != 12 || normalizedPhone.charAt(0) != '+') {
+            return -1;
+        }
+        long phone = 0;
+        for (int i = 1; i < 12; i++) {
+            int digit = normalizedPhone.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            phone = phone * 10 + digit;
+        }
+        return phone;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Сегмент кэша: открытая адресация по long-ключам и двусвязные очереди на массивах.
+     * Все методы выполняются под блокировкой сегмента.
+     */
+    private static final class Segment {
+
+        private static final int NIL = -1;
+        private static final byte WINDOW = 0;
+        private static final byte MAIN = 1;
+
+        private final long[] keys;
+        private final Object[] values;
+        private final int[] prev;
+        private final int[] next;
+        private final byte[] queues;
+        private final int[] table;
+        private final int tableMask;
+        private final int[] heads = {NIL, NIL};
+        private final int[] tails = {NIL, NIL};
+        private final int[] sizes = new int[2];
+        private final int windowCapacity;
+        private final int mainCapacity;
+        private final FrequencySketch sketch;
+        private int freeHead;
+
+        private Segment(int capacity, Policy policy) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.prev = new int[capacity];
+            this.next = new int[capacity];
+            this.queues = new byte[capacity];
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            this.table = new int[tableSize];
+            this.tableMask = tableSize - 1;
+
+            if (policy == Policy.TINY_LFU) {
+                this.windowCapacity = Math.max(1, capacity / 100);
+                this.mainCapacity = capacity - windowCapacity;
+                this.sketch = new FrequencySketch(capacity);
+            } else {
+                this.windowCapacity = 0;
+                this.mainCapacity = capacity;
+                this.sketch = null;
+            }
+            clear();
+        }
+
+        private synchronized Object get(long key, int hash) {
+            if (sketch != null) {
+                sketch.increment(hash);
+            }
+            int slot = find(key, hash);
+            if (slot == NIL) {
+                return null;
+            }
+            byte queue = queues[slot];
+            unlink(slot);
+            linkLast(queue, slot);
+            return values[slot];
+        }
+
+        /**
+         * @return количество вытесненных записей
+         */
+        private synchronized int put(long key, int hash, Object value, int startGeneration,
+                                     OkvedResultCache owner) {
+            if (startGeneration != owner.generation || find(key, hash) != NIL) {
+                return 0;
+            }
+
+            if (sketch == null) {
+                int evicted = 0;
+                if (sizes[MAIN] == mainCapacity) {
+                    remove(heads[MAIN]);
+                    evicted = 1;
+                }
+                insert(MAIN, key, hash, value);
+                return evicted;
+            }
+
+            int evicted = 0;
+            if (sizes[WINDOW] == windowCapacity) {
+                // Кандидат из окна конкурирует с жертвой из основной области по частоте
+                int candidate = heads[WINDOW];
+                if (sizes[MAIN] < mainCapacity) {
+                    unlink(candidate);
+                    linkLast(MAIN, candidate);
+                } else {
+                    int victim = heads[MAIN];
+                    if (sketch.frequency(hash(keys[candidate])) > sketch.frequency(hash(keys[victim]))) {
+                        remove(victim);
+                        unlink(candidate);
+                        linkLast(MAIN, candidate);
+                    } else {
+                        remove(candidate);
+                    }
+                    evicted = 1;
+                }
+            }
+            insert(WINDOW, key, hash, value);
+            return evicted;
+        }
+
+        private synchronized int size() {
+            return sizes[WINDOW] + sizes[MAIN];
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(table, NIL);
+            Arrays.fill(values, null);
+            for (int i = 0; i < keys.length; i++) {
+                next[i] = i + 1 < keys.length ? i + 1 : NIL;
+            }
+            freeHead = 0;
+            Arrays.fill(heads, NIL);
+            Arrays.fill(tails, NIL);
+            Arrays.fill(sizes, 0);
+            if (sketch != null) {
+                sketch.clear();
+            }
+        }
+
+        private void insert(byte queue, long key, int hash, Object value) {
+            int slot = freeHead;
+            freeHead = next[slot];
+            keys[slot] = key;
+            values[slot] = value;
+
+            int index = hash & tableMask;
+            while (table[index] != NIL) {
+                index = (index + 1) & tableMask;
+            }
+            table[index] = slot;
+            linkLast(queue, slot);
+        }
+
+        private void remove(int slot) {
+            unlink(slot);
+            deleteFromTable(keys[slot]);
+            values[slot] = null;
+            next[slot] = freeHead;
+            freeHead = slot;
+        }
+
+        private int find(long key, int hash) {
+            int index = hash & tableMask;
+            int slot;
+            while ((slot = table[index]) != NIL) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                index = (index + 1) & tableMask;
+            }
+            return NIL;
+        }
+
+        private void deleteFromTable(long key) {
+            int index = hash(key) & tableMask;
+            while (keys[table[index]] != key) {
+                index = (index + 1) & tableMask;
+            }
+
+            // Обратный сдвиг: последующие элементы цепочки переносятся на освободившееся место
+            int gap = index;
+            int current = (gap + 1) & tableMask;
+            while (table[current] != NIL) {
+                int home = hash(keys[table[current]]) & tableMask;
+                if (((current - home) & tableMask) >= ((current - gap) & tableMask)) {
+                    table[gap] = table[current];
+                    gap = current;
+                }
+                current = (current + 1) & tableMask;
+            }
+            table[gap] = NIL;
+        }
+
+        private void linkLast(byte queue, int slot) {
+            queues[slot] = queue;
+            prev[slot] = tails[queue];
+            next[slot] = NIL;
+            if (tails[queue] == NIL) {
+                heads[queue] = slot;
+            } else {
+                next[tails[queue]] = slot;
+            }
+            tails[queue] = slot;
+            sizes[queue]++;
+        }
+
+        private void unlink(int slot) {
+            byte queue = queues[slot];
+            if (prev[slot] == NIL) {
+                heads[queue] = next[slot];
+            } else {
+                next[prev[slot]] = next[slot];
+            }
+            if (next[slot] == NIL) {
+                tails[queue] = prev[slot];
+            } else {
+                prev[next[slot]] = prev[slot];
+            }
+            sizes[queue]--;
+        }
+    }
+
+    /**
+     * Count-Min скетч с 4-битными счетчиками (насыщение на 15) и периодическим
+     * делением пополам, чтобы частоты отражали недавние запросы.
+     */
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97CB3127, 0xB5A4F5C3, 0x6FE4E4C5, 0x3C6EF372};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+            this.counters = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * Math.max(capacity, 16);
+        }
+
+        private void increment(int hash) {
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                }
+            }
+            if (++additions == sampleSize) {
+                halve();
+            }
+        }
+
+        private int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private void clear() {
+            for (byte[] row : counters) {
+                Arrays.fill(row, (byte) 0);
+            }
+            additions = 0;
+        }
+
+        private void halve() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -1,27 +1,60 @@
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
-
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * Сервис для загрузки и обработки данных OKVED.
+ * Сервис для загрузки и обработки данных OKVED. Сервис владеет загрузчиком
+ * и закрывает его в {@link #close()}.
  */
-public class OkvedService {
+public class OkvedService implements Closeable {
 
-    private static final String OKVED_URL =
+    public static final String OKVED_URL =
             "https://raw.githubusercontent.com/bergstar/testcase/refs/heads/master/okved.json";
 
-    private final ObjectMapper objectMapper;
+    private final OkvedJsonStreamParser streamParser;
+    private final OkvedDownloader downloader;
+    private final PrintStream log;
+    private boolean skipSnapshotChecksum;
 
     public OkvedService() {
-        this.objectMapper = new ObjectMapper();
+        this(System.out);
+    }
+
+    /**
+     * @param log поток для сообщений о ходе загрузки
+     */
+    public OkvedService(PrintStream log) {
+        this(log, new OkvedDownloader(OKVED_URL, null, log));
+    }
+
+    /**
+     * @param log поток для сообщений о ходе загрузки
+     * @param downloader загрузчик JSON (например, с локальным кэшем)
+     */
+    public OkvedService(PrintStream log, OkvedDownloader downloader) {
+        this.streamParser = new OkvedJsonStreamParser();
+        this.downloader = downloader;
+        this.log = log;
+    }
+
+    public OkvedDownloader getDownloader() {
+        return downloader;
+    }
+
+    /**
+     * Отключает проверку контрольной суммы всех данных снимка при загрузке: проверяются
+     * только заголовок и оглавление. По умолчанию снимок с поврежденными данными
+     * не используется и справочник загружается из JSON.
+     */
+    public void setSkipSnapshotChecksum(boolean skipSnapshotChecksum) {
+        this.skipSnapshotChecksum = skipSnapshotChecksum;
     }
 
     /**
@@ -29,55 +62,143 @@ public class OkvedService {
      */
     public List<OkvedItem> loadOkvedData() {
         try {
-            System.out.println("Загрузка данных OKVED...");
-            String jsonContent = downloadOkvedJson();
+            log.println("Загрузка и разбор данных OKVED...");
+            List<OkvedItem> leafItems = downloadOkvedLeaves();
 
-            System.out.println("Парсинг JSON...");
-            List<OkvedItem> rootItems = parseOkvedJson(jsonContent);
+            log.printf("Успешно загружено %d листовых OKVED элементов%n", leafItems.size());
 
-            System.out.println("Извлечение листовых элементов...");
-            List<OkvedItem> leafItems = extractNumericLeafItems(rootItems);
+            return leafItems;
 
-            System.out.printf("Успешно загружено %d листовых OKVED элементов%n", leafItems.size());
+        } catch (IOException e) {
+            System.err.println("Ошибка при загрузке OKVED данных: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
 
+    /**
+     * Загружает данные OKVED из локального файла в том же формате.
+     *
+     * @param file JSON-файл справочника
+     * @return листовые элементы с цифрами
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    public List<OkvedItem> loadOkvedData(Path file) throws IOException {
+        long timer = OkvedMetrics.global().startTimer();
+        try (InputStream input = Files.newInputStream(file)) {
+            List<OkvedItem> leafItems = readNumericLeafItems(input);
+            OkvedMetrics.global().recordStage(OkvedMetrics.Stage.PARSE, timer, leafItems.size());
+            log.printf("Из файла %s загружено %d листовых OKVED элементов%n", file, leafItems.size());
             return leafItems;
+        }
+    }
+
+    /**
+     * Загружает данные OKVED из нескольких источников с упреждающими запросами
+     * (см. {@link OkvedHedgedLoader}).
+     *
+     * @param loader загрузчик с источниками, созданный с разбором {@link #readNumericLeafItems}
+     * @return листовые элементы с цифрами (пустой список, если ни один источник не ответил)
+     */
+    public List<OkvedItem> loadOkvedData(OkvedHedgedLoader loader) {
+        try {
+            long timer = OkvedMetrics.global().startTimer();
+            OkvedHedgedLoader.Result result = loader.load();
+            OkvedMetrics.global().recordStage(OkvedMetrics.Stage.DOWNLOAD, timer, result.getLeaves().size());
+
+            log.printf("Из источника %s за %d мс загружено %d листовых OKVED элементов (SHA-256 %s)%n",
+                    result.getSource(), result.getElapsedMillis(), result.getLeaves().size(), result.getSha256());
+            return result.getLeaves();
 
         } catch (IOException e) {
             System.err.println("Ошибка при загрузке OKVED данных: " + e.getMessage());
+            for (Throwable cause : e.getSuppressed()) {
+                System.err.println("  " + cause.getMessage());
+            }
             return new ArrayList<>();
         }
     }
 
-    // Приватные методы
+    /**
+     * Потоково извлекает листовые элементы с цифрами из JSON, не строя полное дерево.
+     *
+     * @param input JSON-документ в формате массива {@link OkvedItem}
+     * @return листовые элементы в порядке документа
+     * @throws IOException при ошибке чтения или неверном формате
+     */
+    public List<OkvedItem> readNumericLeafItems(InputStream input) throws IOException {
+        List<OkvedItem> leafItems = new ArrayList<>();
+        streamParser.parse(input, (code, name) ->
+                leafItems.add(new OkvedItem(code, name, Collections.emptyList())));
+        return leafItems;
+    }
 
-    private String downloadOkvedJson() throws IOException {
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpGet request = new HttpGet(OKVED_URL);
+    /**
+     * Загружает справочник из бинарного снимка, если он есть, не поврежден и не устарел;
+     * контрольная сумма данных снимка проверяется при каждой загрузке.
+     * Иначе загружает JSON, строит индекс и перезаписывает снимок.
+     * Если JSON загрузить не удалось, используется устаревший снимок, когда он есть.
+     *
+     * @param snapshotPath путь к файлу снимка
+     * @param maxAge максимальный возраст снимка
+     * @return снимок справочника (пустой, если данные получить не удалось)
+     */
+    public OkvedSnapshot loadOkvedSnapshot(Path snapshotPath, Duration maxAge) {
+        OkvedSnapshot staleSnapshot = null;
+
+        if (Files.exists(snapshotPath)) {
+            try {
+                long timer = OkvedMetrics.global().startTimer();
+                OkvedSnapshot snapshot = OkvedSnapshot.read(snapshotPath);
+                if (!skipSnapshotChecksum) {
+                    snapshot.verifyChecksum();
+                }
+                OkvedMetrics.global().recordStage(OkvedMetrics.Stage.SNAPSHOT, timer, snapshot.getLeaves().size());
+                long ageMillis = System.currentTimeMillis() - snapshot.getCreatedAtMillis();
 
-            return httpClient.execute(request, response -> {
-                if (response.getCode() == 200) {
-                    return EntityUtils.toString(response.getEntity());
-                } else {
-                    throw new IOException("HTTP ошибка: " + response.getCode());
+                if (downloader.getUrl().equals(snapshot.getSource()) && ageMillis <= maxAge.toMillis()) {
+                    log.printf("Снимок OKVED загружен: %d листовых элементов%n", snapshot.getLeaves().size());
+                    return snapshot;
                 }
-            });
+                log.println("Снимок OKVED устарел, выполняется обновление...");
+                staleSnapshot = snapshot;
+            } catch (IOException e) {
+                log.println("Снимок OKVED не может быть прочитан: " + e.getMessage());
+            }
         }
-    }
 
-    private List<OkvedItem> parseOkvedJson(String jsonContent) throws IOException {
-        return objectMapper.readValue(
-                jsonContent,
-                new TypeReference<List<OkvedItem>>() {}
-        );
+        List<OkvedItem> leafItems = loadOkvedData();
+        if (leafItems.isEmpty() && staleSnapshot != null) {
+            log.println("Используется устаревший снимок OKVED");
+            return staleSnapshot;
+        }
+
+        OkvedSnapshot snapshot = new OkvedSnapshot(
+                downloader.getUrl(), System.currentTimeMillis(), OkvedSuffixIndex.build(leafItems));
+        if (!leafItems.isEmpty()) {
+            try {
+                snapshot.write(snapshotPath);
+                log.println("Снимок OKVED сохранен: " + snapshotPath);
+            } catch (IOException e) {
+                System.err.println("Ошибка при сохранении снимка OKVED: " + e.getMessage());
+            }
+        }
+        return snapshot;
     }
 
-    private List<OkvedItem> extractNumericLeafItems(List<OkvedItem> rootItems) {
-        List<OkvedItem> allNumericLeaves = new ArrayList<>();
+    /**
+     * Закрывает загрузчик: HTTP-клиент и поток фонового обновления.
+     */
+    @Override
+    public void close() throws IOException {
+        downloader.close();
+    }
 
-        for (OkvedItem rootItem : rootItems) {
-            allNumericLeaves.addAll(rootItem.collectNumericLeafItems());
-        }
+    // Приватные методы
 
-        return allNumericLeaves;
+    private List<OkvedItem> downloadOkvedLeaves() throws IOException {
+        long timer = OkvedMetrics.global().startTimer();
+        List<OkvedItem> leafItems = downloader.fetch(this::readNumericLeafItems);
+        OkvedMetrics.global().recordStage(OkvedMetrics.Stage.DOWNLOAD, timer, leafItems.size());
+        return leafItems;
     }
 }
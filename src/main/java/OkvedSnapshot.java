@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Бинарный снимок скомпилированного справочника OKVED: листовые элементы
+ * и готовый индекс окончаний. Снимок записывается один раз и открывается
+ * через {@link FileChannel#map}, поэтому несколько процессов на одной машине
+ * читают одни и те же страницы файла из кэша ОС.
+ *
+ * <p>Все массивы индекса и таблицы элементов, включая общий порядок элементов
+ * и списки лучших элементов узлов, хранятся в файле в готовом виде. При открытии
+ * проверяются только заголовок, оглавление и размеры разделов, а индекс работает
+ * с буферами поверх отображенного файла: ничего не копируется в кучу и не пересчитывается,
+ * названия декодируются при обращении. Полную контрольную сумму данных проверяет
+ * {@link #verifyChecksum()}: индексы в разделах не проверяются на диапазон, поэтому
+ * снимок из файла используется только после этой проверки.
+ *
+ * <p>Формат файла:
+ * <pre>
+ * заголовок (big-endian):
+ *   int    magic            "OKVS"
+ *   int    formatVersion
+ *   long   createdAtMillis
+ *   int    payloadLength
+ *   int    payloadCrc32
+ * payload (little-endian, каждый раздел выровнен по 8 байтам):
+ *   оглавление: int leafCount, nodeCount, maxDepth, digitCount, codeLength, nameLength,
+ *               sourceLength (-1 означает null), tocCrc32 (по предыдущим 28 байтам)
+ *   long[(leafCount + 63) / 64]   элементы без названия
+ *   int[nodeCount * 10]           children
+ *   int[nodeCount]                depths
+ *   int[nodeCount]                bestLeaves
+ *   int[nodeCount * 10]           topLeaves
+ *   int[nodeCount + 1]            terminalStarts
+ *   int[leafCount]                terminalLeaves
+ *   int[leafCount]                ranks
+ *   int[leafCount + 1]            digitOffsets, codeOffsets, nameOffsets
+ *   char[sourceLength], char[codeLength], char[nameLength]
+ *   byte[digitCount]              цифры кодов
+ * </pre>
+ * Данные записаны в little-endian, чтобы на x86 и ARM буферы читались без перестановки байтов.
+ */
+public class OkvedSnapshot {
+
+    /**
+     * Текущая версия формата. Снимки другой версии считаются устаревшими.
+     */
+    public static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x4F4B5653;
+    private static final int HEADER_SIZE = 24;
+    private static final int TOC_SIZE = 32;
+    private static final int RADIX = 10;
+    private static final ByteOrder PAYLOAD_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final String source;
+    private final long createdAtMillis;
+    private final OkvedSuffixIndex index;
+    private final Path path;
+    private final ByteBuffer payload;
+    private final int payloadCrc;
+
+    public OkvedSnapshot(String source, long createdAtMillis, OkvedSuffixIndex index) {
+        this(source, createdAtMillis, index, null, null, 0);
+    }
+
+    private OkvedSnapshot(String source, long createdAtMillis, OkvedSuffixIndex index, Path path, ByteBuffer payload,
+                          int payloadCrc) {
+        this.source = source;
+        this.createdAtMillis = createdAtMillis;
+        this.index = index;
+        this.path = path;
+        this.payload = payload;
+        this.payloadCrc = payloadCrc;
+    }
+
+    public String getSource() { return source; }
+    public long getCreatedAtMillis() { return createdAtMillis; }
+    public OkvedSuffixIndex getIndex() { return index; }
+    public List<OkvedItem> getLeaves() { return index.getLeaves(); }
+
+    /**
+     * Записывает снимок в файл. Файл заменяется атомарно, поэтому
+     * читатели никогда не видят частично записанный снимок.
+     *
+     * @param path путь к файлу снимка
+     * @throws IOException при ошибке записи
+     */
+    public void write(Path path) throws IOException {
+        OkvedLeafTable leaves = index.getLeafTable();
+        int leafCount = leaves.size();
+        int[] codeOffsets = new int[leafCount + 1];
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            codeOffsets[leaf + 1] = codeOffsets[leaf] + leaves.getCode(leaf).length();
+        }
+        char[] codeChars = new char[codeOffsets[leafCount]];
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            leaves.getCode(leaf).getChars(0, codeOffsets[leaf + 1] - codeOffsets[leaf], codeChars, codeOffsets[leaf]);
+        }
+
+        Layout layout = new Layout(leafCount, index.depths().limit(), leaves.digits().limit(), codeChars.length,
+                leaves.names().limit(), source != null ? source.length() : -1);
+        ByteBuffer payload = ByteBuffer.allocate(layout.checkedSize()).order(PAYLOAD_ORDER);
+        payload.putInt(leafCount)
+                .putInt(layout.nodeCount)
+                .putInt(index.getMaxDepth())
+                .putInt(layout.digitCount)
+                .putInt(layout.codeLength)
+                .putInt(layout.nameLength)
+                .putInt(layout.sourceLength);
+        CRC32 tocCrc = new CRC32();
+        tocCrc.update(payload.array(), 0, TOC_SIZE - 4);
+        payload.putInt((int) tocCrc.getValue());
+
+        section(payload, layout.nullNamesBytes()).asLongBuffer().put(leaves.nullNames());
+        section(payload, 4L * layout.nodeCount * RADIX).asIntBuffer().put(index.children());
+        section(payload, 4L * layout.nodeCount).asIntBuffer().put(index.depths());
+        section(payload, 4L * layout.nodeCount).asIntBuffer().put(index.bestLeaves());
+        section(payload, layout.topLeavesBytes()).asIntBuffer().put(index.topLeaves());
+        section(payload, 4L * (layout.nodeCount + 1)).asIntBuffer().put(index.terminalStarts());
+        section(payload, 4L * leafCount).asIntBuffer().put(index.terminalLeaves());
+        section(payload, 4L * leafCount).asIntBuffer().put(index.ranks());
+        section(payload, 4L * (leafCount + 1)).asIntBuffer().put(leaves.digitOffsets());
+        section(payload, 4L * (leafCount + 1)).asIntBuffer().put(codeOffsets);
+        section(payload, 4L * (leafCount + 1)).asIntBuffer().put(leaves.nameOffsets());
+        if (source != null) {
+            section(payload, 2L * layout.sourceLength).asCharBuffer().put(source);
+        }
+        section(payload, 2L * layout.codeLength).asCharBuffer().put(codeChars);
+        section(payload, 2L * layout.nameLength).asCharBuffer().put(leaves.names());
+        section(payload, layout.digitCount).put(leaves.digits());
+        payload.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.limit());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(createdAtMillis)
+                .putInt(payload.limit())
+                .putInt((int) crc.getValue())
+                .flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffers = {header, payload};
+            while (payload.hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Открывает снимок через отображение файла в память. Проверяются заголовок,
+     * контрольная сумма оглавления и размеры разделов; содержимое разделов
+     * проверяет {@link #verifyChecksum()}.
+     *
+     * @param path путь к файлу снимка
+     * @return открытый снимок
+     * @throws IOException если файл отсутствует, поврежден или имеет другую версию формата
+     */
+    public static OkvedSnapshot read(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Файл не является снимком OKVED: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(String.format("Версия снимка %d не поддерживается (ожидается %d)",
+                    version, FORMAT_VERSION));
+        }
+        long createdAtMillis = buffer.getLong();
+        int payloadLength = buffer.getInt();
+        int payloadCrc = buffer.getInt();
+        if (payloadLength < TOC_SIZE || payloadLength != buffer.remaining()) {
+            throw new IOException("Снимок OKVED обрезан: " + path);
+        }
+
+        ByteBuffer payload = buffer.slice().order(PAYLOAD_ORDER);
+        CRC32 tocCrc = new CRC32();
+        tocCrc.update(payload.duplicate().limit(TOC_SIZE - 4));
+        int leafCount = payload.getInt();
+        int nodeCount = payload.getInt();
+        int maxDepth = payload.getInt();
+        Layout layout = new Layout(leafCount, nodeCount, payload.getInt(), payload.getInt(), payload.getInt(),
+                payload.getInt());
+        if (payload.getInt() != (int) tocCrc.getValue() || leafCount < 0 || nodeCount < 1 || maxDepth < 0
+                || layout.digitCount < 0 || layout.codeLength < 0 || layout.nameLength < 0 || layout.sourceLength < -1
+                || layout.size() != payloadLength) {
+            throw new IOException("Оглавление снимка OKVED повреждено: " + path);
+        }
+
+        LongBuffer nullNames = section(payload, layout.nullNamesBytes()).asLongBuffer();
+        IntBuffer children = section(payload, 4L * nodeCount * RADIX).asIntBuffer();
+        IntBuffer depths = section(payload, 4L * nodeCount).asIntBuffer();
+        IntBuffer bestLeaves = section(payload, 4L * nodeCount).asIntBuffer();
+        IntBuffer topLeaves = section(payload, layout.topLeavesBytes()).asIntBuffer();
+        IntBuffer terminalStarts = section(payload, 4L * (nodeCount + 1)).asIntBuffer();
+        IntBuffer terminalLeaves = section(payload, 4L * leafCount).asIntBuffer();
+        IntBuffer ranks = section(payload, 4L * leafCount).asIntBuffer();
+        IntBuffer digitOffsets = section(payload, 4L * (leafCount + 1)).asIntBuffer();
+        IntBuffer codeOffsets = section(payload, 4L * (leafCount + 1)).asIntBuffer();
+        IntBuffer nameOffsets = section(payload, 4L * (leafCount + 1)).asIntBuffer();
+        String source = layout.sourceLength < 0 ? null
+                : section(payload, 2L * layout.sourceLength).asCharBuffer().toString();
+        CharBuffer codeChars = section(payload, 2L * layout.codeLength).asCharBuffer();
+        CharBuffer names = section(payload, 2L * layout.nameLength).asCharBuffer();
+        ByteBuffer digits = section(payload, layout.digitCount);
+
+        OkvedLeafTable leaves = OkvedLeafTable.map(digits, digitOffsets, codeChars, codeOffsets, names, nameOffsets,
+                nullNames);
+        OkvedSuffixIndex index = OkvedSuffixIndex.restore(leaves, children, depths, bestLeaves, ranks, topLeaves,
+                terminalStarts, terminalLeaves, maxDepth);
+        payload.rewind();
+        return new OkvedSnapshot(source, createdAtMillis, index, path, payload, payloadCrc);
+    }
+
+    /**
+     * Проверяет контрольную сумму всех данных снимка, прочитанного из файла.
+     * Для снимка, созданного в памяти, ничего не делает.
+     *
+     * @throws IOException если данные снимка повреждены
+     */
+    public void verifyChecksum() throws IOException {
+        if (payload == null) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != payloadCrc) {
+            throw new IOException("Контрольная сумма снимка OKVED не совпадает: " + path);
+        }
+    }
+
+    // Приватные методы
+
+    /**
+     * Возвращает раздел длиной length байт с текущей позиции и переносит позицию
+     * за раздел с выравниванием по 8 байтам.
+     */
+    private static ByteBuffer section(ByteBuffer payload, long length) {
+        ByteBuffer section = payload.slice().order(PAYLOAD_ORDER);
+        section.limit((int) length);
+        payload.position(payload.position() + (int) Layout.align(length));
+        return section;
+    }
+
+    /**
+     * Размеры разделов снимка.
+     */
+    private static final class Layout {
+        private final int leafCount;
+        private final int nodeCount;
+        private final int digitCount;
+        private final int codeLength;
+        private final int nameLength;
+        private final int sourceLength;
+
+        private Layout(int leafCount, int nodeCount, int digitCount, int codeLength, int nameLength,
+                       int sourceLength) {
+            this.leafCount = leafCount;
+            this.nodeCount = nodeCount;
+            this.digitCount = digitCount;
+            this.codeLength = codeLength;
+            this.nameLength = nameLength;
+            this.sourceLength = sourceLength;
+        }
+
+        private long nullNamesBytes() {
+            return 8L * OkvedLeafTable.nullWords(leafCount);
+        }
+
+        private long topLeavesBytes() {
+            return 4L * nodeCount * OkvedSuffixIndex.TOP_LEAVES;
+        }
+
+        /**
+         * Общий размер payload в байтах; считается в long, чтобы поврежденное оглавление
+         * не давало переполнения.
+         */
+        private long size() {
+            return TOC_SIZE + align(nullNamesBytes()) + align(4L * nodeCount * RADIX) + 2 * align(4L * nodeCount)
+                    + align(topLeavesBytes()) + align(4L * (nodeCount + 1)) + 2 * align(4L * leafCount)
+                    + 3 * align(4L * (leafCount + 1)) + align(2L * Math.max(sourceLength, 0))
+                    + align(2L * codeLength) + align(2L * nameLength) + align(digitCount);
+        }
+
+        private int checkedSize() throws IOException {
+            long size = size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Снимок OKVED превышает 2 ГБ: " + size + " байт");
+            }
+            return (int) size;
+        }
+
+        private static long align(long length) {
+            return (length + 7) & ~7L;
+        }
+    }
+}
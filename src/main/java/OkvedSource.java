@@ -0,0 +1,225 @@
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Источник JSON справочника OKVED для {@link OkvedHedgedLoader}: локальный файл,
+ * ресурс classpath, локальный кэш загрузчика или адрес зеркала.
+ * Источник возвращает распакованное тело целиком, проверку и разбор выполняет загрузчик.
+ */
+public abstract class OkvedSource implements Closeable {
+
+    private final String name;
+
+    protected OkvedSource(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Локальный файл; файлы с расширением {@code .gz} распаковываются.
+     */
+    public static OkvedSource file(Path file) {
+        return new FileSource(file);
+    }
+
+    /**
+     * Ресурс classpath; ресурсы с расширением {@code .gz} распаковываются.
+     */
+    public static OkvedSource classpath(String resource) {
+        return new ClasspathSource(resource);
+    }
+
+    /**
+     * Локальный кэш загрузчика любого возраста, без обращения к сети.
+     */
+    public static OkvedSource cache(OkvedDownloader downloader) {
+        return new CacheSource(downloader);
+    }
+
+    /**
+     * Адрес HTTP(S): основной или зеркало. Отмена попытки прерывает запрос.
+     *
+     * @param url адрес JSON справочника
+     * @param timeout таймаут соединения и чтения
+     */
+    public static OkvedSource http(String url, Duration timeout) {
+        return new HttpSource(url, timeout);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Загружает JSON справочника. Вызывается в отдельном потоке; при отмене попытки поток
+     * прерывается и выполняется действие, зарегистрированное через {@link Attempt#onCancel}.
+     *
+     * @param attempt попытка загрузки
+     * @return распакованное тело JSON
+     * @throws IOException при ошибке загрузки или отмене
+     */
+    public abstract byte[] fetch(Attempt attempt) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Одна попытка загрузки из источника. Позволяет источнику прервать блокирующую
+     * операцию (например, закрыть соединение), которую не прерывает {@link Thread#interrupt()}.
+     */
+    public static final class Attempt {
+
+        private final AtomicReference<Runnable> cancelAction = new AtomicReference<>();
+        private volatile boolean cancelled;
+
+        /**
+         * Регистрирует действие отмены. Если попытка уже отменена, действие выполняется сразу.
+         */
+        public void onCancel(Runnable action) {
+            cancelAction.set(action);
+            if (cancelled && cancelAction.compareAndSet(action, null)) {
+                action.run();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Runnable action = cancelAction.getAndSet(null);
+            if (action != null) {
+                action.run();
+            }
+        }
+    }
+
+    // Приватные методы
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static boolean isGzip(String name) {
+        return name.toLowerCase().endsWith(".gz");
+    }
+
+    private static final class FileSource extends OkvedSource {
+        private final Path file;
+
+        private FileSource(Path file) {
+            super("file:" + file);
+            this.file = file;
+        }
+
+        @Override
+        public byte[] fetch(Attempt attempt) throws IOException {
+            String encoding = isGzip(file.toString()) ? "gzip" : null;
+            return readAll(OkvedDownloader.decode(Files.newInputStream(file), encoding));
+        }
+    }
+
+    private static final class ClasspathSource extends OkvedSource {
+        private final String resource;
+
+        private ClasspathSource(String resource) {
+            super("classpath:" + resource);
+            this.resource = resource;
+        }
+
+        @Override
+        public byte[] fetch(Attempt attempt) throws IOException {
+            InputStream input = OkvedSource.class.getClassLoader().getResourceAsStream(resource);
+            if (input == null) {
+                throw new IOException("Ресурс не найден: " + resource);
+            }
+            return readAll(OkvedDownloader.decode(input, isGzip(resource) ? "gzip" : null));
+        }
+    }
+
+    private static final class CacheSource extends OkvedSource {
+        private final OkvedDownloader downloader;
+
+        private CacheSource(OkvedDownloader downloader) {
+            super("cache:" + downloader.getUrl());
+            this.downloader = downloader;
+        }
+
+        @Override
+        public byte[] fetch(Attempt attempt) throws IOException {
+            return downloader.readCached(InputStream::readAllBytes);
+        }
+    }
+
+    private static final class HttpSource extends OkvedSource {
+        private final String url;
+        private final Duration timeout;
+        private CloseableHttpClient httpClient;
+
+        private HttpSource(String url, Duration timeout) {
+            super(url);
+            this.url = url;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public byte[] fetch(Attempt attempt) throws IOException {
+            HttpGet request = new HttpGet(url);
+            request.setHeader("Accept-Encoding", "gzip");
+            attempt.onCancel(request::cancel);
+
+            return client().execute(request, response -> {
+                if (response.getCode() != 200) {
+                    throw new IOException("HTTP ошибка: " + response.getCode());
+                }
+                Header encoding = response.getFirstHeader("Content-Encoding");
+                return readAll(OkvedDownloader.decode(response.getEntity().getContent(),
+                        encoding != null ? encoding.getValue() : null));
+            });
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (httpClient != null) {
+                httpClient.close();
+            }
+        }
+
+        private synchronized CloseableHttpClient client() {
+            if (httpClient == null) {
+                ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(timeout))
+                        .setSocketTimeout(Timeout.of(timeout))
+                        .build();
+                httpClient = HttpClients.custom()
+                        .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                                .setDefaultConnectionConfig(connectionConfig)
+                                .build())
+                        .disableContentCompression()
+                        .build();
+            }
+            return httpClient;
+        }
+    }
+}
@@ -0,0 +1,1152 @@
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Индекс для поиска OKVED по совпадению окончаний.
+ * Префиксное дерево по цифрам кода, записанным в обратном порядке.
+ * Для каждого узла заранее вычислен лучший элемент (самое длинное совпадение,
+ * при равенстве длины - лексикографически наибольший код), поэтому поиск
+ * проходит не больше узлов, чем цифр в самом длинном коде. Элементы хранятся
+ * в {@link OkvedLeafTable}, объект результата для узла создается при первом обращении.
+ * Кроме того, для каждого узла хранятся до {@value #TOP_LEAVES} лучших элементов
+ * поддерева и все элементы, код которых заканчивается в узле, - из них слиянием
+ * без сортировки собираются несколько лучших результатов.
+ */
+public class OkvedSuffixIndex implements OkvedMatcher {
+
+    private static final int RADIX = 10;
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    /**
+     * Количество лучших элементов поддерева, заранее отобранных для каждого узла.
+     */
+    static final int TOP_LEAVES = 10;
+
+    /**
+     * Младшие биты элемента стека приближенного поиска, занятые количеством несовпадений
+     * (до {@link OkvedFinder#MAX_MISMATCHES}).
+     */
+    private static final int MISMATCH_BITS = 2;
+    private static final int MISMATCH_MASK = (1 << MISMATCH_BITS) - 1;
+
+    /**
+     * Количество уровней под узлом, цифры которых приближенный поиск проверяет заранее.
+     */
+    private static final int LOOKAHEAD = 3;
+    private static final int CHILD_MASK = (1 << RADIX) - 1;
+
+    /**
+     * Количество групп параллельного построения: по двум последним цифрам кода.
+     */
+    private static final int PARTITIONS = RADIX * RADIX;
+
+    private final OkvedLeafTable leaves;
+    private final List<OkvedItem> leafList;
+    private final IntBuffer children;
+    private final IntBuffer depths;
+    private final IntBuffer bestLeaves;
+    private final IntBuffer ranks;
+    private final IntBuffer topLeaves;
+    private final IntBuffer terminalStarts;
+    private final IntBuffer terminalLeaves;
+    private final OkvedFinder.MatchResult[] results;
+    private final int nodeCount;
+    private final int maxDepth;
+
+    /**
+     * Форма поддерева каждого узла: наибольшая глубина в старших 32 битах и по
+     * {@value #RADIX} бит цифр, встречающихся на {@value #LOOKAHEAD} ближайших уровнях
+     * под узлом, в младших. Нужна только приближенному поиску и вычисляется
+     * при первом обращении.
+     */
+    private volatile long[] shapes;
+
+    /**
+     * @param order элементы в общем порядке
+     * @param ranks место каждого элемента в общем порядке
+     */
+    private OkvedSuffixIndex(OkvedLeafTable leaves, int[] children, int[] depths, int[] bestLeaves, int maxDepth,
+                             int[] order, int[] ranks) {
+        // Обход в порядке мест заполняет списки узлов сразу отсортированными
+        int nodeCount = depths.length;
+        int[] topLeaves = new int[nodeCount * TOP_LEAVES];
+        Arrays.fill(topLeaves, NONE);
+        int[] topSizes = new int[nodeCount];
+        int[] terminalNodes = new int[order.length];
+        int[] terminalStarts = new int[nodeCount + 1];
+
+        for (int leaf : order) {
+            int node = ROOT;
+            for (int i = 0; i < leaves.getDigitCount(leaf); i++) {
+                node = children[node * RADIX + leaves.digitFromEnd(leaf, i)];
+                if (topSizes[node] < TOP_LEAVES) {
+                    topLeaves[node * TOP_LEAVES + topSizes[node]++] = leaf;
+                }
+            }
+            terminalNodes[leaf] = node;
+            terminalStarts[node + 1]++;
+        }
+
+        for (int node = 0; node < nodeCount; node++) {
+            terminalStarts[node + 1] += terminalStarts[node];
+        }
+        int[] terminalLeaves = new int[order.length];
+        int[] terminalSizes = new int[nodeCount];
+        for (int leaf : order) {
+            int node = terminalNodes[leaf];
+            terminalLeaves[terminalStarts[node] + terminalSizes[node]++] = leaf;
+        }
+
+        this.leaves = leaves;
+        this.leafList = leaves.asList();
+        this.children = IntBuffer.wrap(children);
+        this.depths = IntBuffer.wrap(depths);
+        this.bestLeaves = IntBuffer.wrap(bestLeaves);
+        this.ranks = IntBuffer.wrap(ranks);
+        this.topLeaves = IntBuffer.wrap(topLeaves);
+        this.terminalStarts = IntBuffer.wrap(terminalStarts);
+        this.terminalLeaves = IntBuffer.wrap(terminalLeaves);
+        this.nodeCount = nodeCount;
+        this.maxDepth = maxDepth;
+        this.results = new OkvedFinder.MatchResult[nodeCount];
+    }
+
+    /**
+     * Индекс поверх готовых буферов без копирования и вычислений.
+     */
+    private OkvedSuffixIndex(OkvedLeafTable leaves, IntBuffer children, IntBuffer depths, IntBuffer bestLeaves,
+                             IntBuffer ranks, IntBuffer topLeaves, IntBuffer terminalStarts, IntBuffer terminalLeaves,
+                             int maxDepth) {
+        this.leaves = leaves;
+        this.leafList = leaves.asList();
+        this.children = children;
+        this.depths = depths;
+        this.bestLeaves = bestLeaves;
+        this.ranks = ranks;
+        this.topLeaves = topLeaves;
+        this.terminalStarts = terminalStarts;
+        this.terminalLeaves = terminalLeaves;
+        this.nodeCount = depths.limit();
+        this.maxDepth = maxDepth;
+        this.results = new OkvedFinder.MatchResult[nodeCount];
+    }
+
+    /**
+     * Строит индекс по списку элементов OKVED.
+     * Элементы без цифр в коде пропускаются.
+     *
+     * @param okvedItems листовые элементы OKVED
+     * @return построенный индекс
+     */
+    public static OkvedSuffixIndex build(List<OkvedItem> okvedItems) {
+        return build(OkvedLeafTable.of(okvedItems));
+    }
+
+    /**
+     * Строит индекс по готовой таблице элементов в текущем потоке.
+     *
+     * @param leaves элементы с цифровыми кодами
+     * @return построенный индекс
+     */
+    public static OkvedSuffixIndex build(OkvedLeafTable leaves) {
+        long timer = OkvedMetrics.global().startTimer();
+        int[] order = rankOrder(leaves);
+        int[] ranks = ranksOf(order);
+        Trie trie = new Trie(leaves, ranks, 0, leaves.size(), 1 + totalDigits(leaves, 0, leaves.size(), null, 0));
+        for (int leaf = 0; leaf < leaves.size(); leaf++) {
+            trie.add(leaf);
+        }
+
+        OkvedSuffixIndex index = new OkvedSuffixIndex(leaves, Arrays.copyOf(trie.children, trie.nodeCount * RADIX),
+                Arrays.copyOf(trie.depths, trie.nodeCount), Arrays.copyOf(trie.bestLeaves, trie.nodeCount),
+                trie.maxDepth, order, ranks);
+        OkvedMetrics.global().recordStage(OkvedMetrics.Stage.INDEX, timer, leaves.size());
+        return index;
+    }
+
+    /**
+     * Строит индекс параллельно для больших справочников.
+     * Элементы делятся на {@value #PARTITIONS} групп по двум последним цифрам кода;
+     * для каждой группы отдельная задача fork/join строит поддерево, после чего поддеревья
+     * объединяются под узлами последней цифры. Внутри группы элементы добавляются в порядке
+     * списка, а лучший элемент узла последней цифры выбирается по тому же правилу
+     * (наибольший код, при равных кодах - первый в списке), поэтому индекс дает те же
+     * результаты, что и {@link #build(OkvedLeafTable)}.
+     *
+     * @param leaves элементы с цифровыми кодами
+     * @param pool пул потоков для построения
+     * @return построенный индекс
+     */
+    public static OkvedSuffixIndex buildParallel(OkvedLeafTable leaves, ForkJoinPool pool) {
+        long timer = OkvedMetrics.global().startTimer();
+        int leafCount = leaves.size();
+        int[] order = identity(leafCount);
+        pool.invoke(new RankSortTask(leaves, order, new int[leafCount], 0, leafCount));
+        int[] ranks = ranksOf(order);
+
+        // Элементы с одной цифрой влияют только на узел последней цифры,
+        // остальные распределяются по группам с сохранением порядка списка
+        int[] partitionStarts = new int[PARTITIONS + 1];
+        int[] bestShortLeaves = new int[RADIX];
+        Arrays.fill(bestShortLeaves, NONE);
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            int last = leaves.digitFromEnd(leaf, 0);
+            if (leaves.getDigitCount(leaf) == 1) {
+                bestShortLeaves[last] = better(ranks, bestShortLeaves[last], leaf);
+            } else {
+                partitionStarts[last * RADIX + leaves.digitFromEnd(leaf, 1) + 1]++;
+            }
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            partitionStarts[partition + 1] += partitionStarts[partition];
+        }
+        int[] partitionLeaves = new int[partitionStarts[PARTITIONS]];
+        int[] partitionSizes = new int[PARTITIONS];
+        for (int leaf = 0; leaf < leafCount; leaf++) {
+            if (leaves.getDigitCount(leaf) > 1) {
+                int partition = leaves.digitFromEnd(leaf, 0) * RADIX + leaves.digitFromEnd(leaf, 1);
+                partitionLeaves[partitionStarts[partition] + partitionSizes[partition]++] = leaf;
+            }
+        }
+
+        Trie[] tries = new Trie[PARTITIONS];
+        pool.invoke(new PartitionTask(leaves, ranks, partitionStarts, partitionLeaves, tries, 0, PARTITIONS));
+
+        // Корень, узлы последней цифры, затем поддеревья групп подряд
+        int nodeCount = 1;
+        int maxDepth = 0;
+        int[] lastDigitNodes = new int[RADIX];
+        int[] partitionOffsets = new int[PARTITIONS];
+        for (int digit = 0; digit < RADIX; digit++) {
+            boolean present = bestShortLeaves[digit] != NONE;
+            for (int second = 0; second < RADIX; second++) {
+                present |= tries[digit * RADIX + second] != null;
+            }
+            lastDigitNodes[digit] = present ? nodeCount++ : ROOT;
+            if (present) {
+                maxDepth = Math.max(maxDepth, 1);
+            }
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (tries[partition] != null) {
+                partitionOffsets[partition] = nodeCount;
+                nodeCount += tries[partition].nodeCount;
+                maxDepth = Math.max(maxDepth, tries[partition].maxDepth);
+            }
+        }
+
+        int[] children = new int[nodeCount * RADIX];
+        int[] depths = new int[nodeCount];
+        int[] bestLeaves = new int[nodeCount];
+        for (int digit = 0; digit < RADIX; digit++) {
+            int node = lastDigitNodes[digit];
+            if (node == ROOT) {
+                continue;
+            }
+            children[digit] = node;
+            depths[node] = 1;
+            int best = bestShortLeaves[digit];
+            for (int second = 0; second < RADIX; second++) {
+                Trie trie = tries[digit * RADIX + second];
+                if (trie != null) {
+                    children[node * RADIX + second] = partitionOffsets[digit * RADIX + second];
+                    best = better(ranks, best, trie.bestLeaves[ROOT]);
+                }
+            }
+            bestLeaves[node] = best;
+        }
+        pool.invoke(new CopyTask(tries, partitionOffsets, children, depths, bestLeaves, 0, PARTITIONS));
+
+        OkvedSuffixIndex index = new OkvedSuffixIndex(leaves, children, depths, bestLeaves, maxDepth, order, ranks);
+        OkvedMetrics.global().recordStage(OkvedMetrics.Stage.INDEX, timer, leafCount);
+        return index;
+    }
+
+    /**
+     * Открывает индекс поверх сохраненных буферов, например отображенных из файла снимка.
+     * Буферы не копируются, порядок элементов и списки узлов не пересчитываются.
+     *
+     * @param leaves проиндексированные элементы
+     * @param children дочерние узлы, по {@value #RADIX} на узел
+     * @param depths глубина каждого узла
+     * @param bestLeaves лучший элемент для каждого узла
+     * @param ranks место каждого элемента в общем порядке
+     * @param topLeaves лучшие элементы поддерева, по {@value #TOP_LEAVES} на узел
+     * @param terminalStarts начало списка элементов, код которых заканчивается в узле, и общий конец
+     * @param terminalLeaves элементы, код которых заканчивается в узле, по узлам
+     * @param maxDepth длина самого длинного кода
+     * @return индекс
+     */
+    static OkvedSuffixIndex restore(OkvedLeafTable leaves, IntBuffer children, IntBuffer depths, IntBuffer bestLeaves,
+                                    IntBuffer ranks, IntBuffer topLeaves, IntBuffer terminalStarts,
+                                    IntBuffer terminalLeaves, int maxDepth) {
+        return new OkvedSuffixIndex(leaves, children, depths, bestLeaves, ranks, topLeaves, terminalStarts,
+                terminalLeaves, maxDepth);
+    }
+
+    /**
+     * Находит лучший результат совпадения.
+     * Результат совпадает с {@link OkvedFinder#findBestMatch(String, List)}.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @return лучший результат поиска
+     */
+    @Override
+    public Optional<OkvedFinder.MatchResult> findBestMatch(String normalizedPhone) {
+        if (normalizedPhone == null) {
+            return Optional.empty();
+        }
+
+        return resultAt(findNode(normalizedPhone));
+    }
+
+    @Override
+    public Optional<OkvedFinder.MatchResult> findBestMatch(long normalizedPhone) {
+        return resultAt(findNode(normalizedPhone));
+    }
+
+    @Override
+    public boolean findBestMatch(long normalizedPhone, OkvedMatchSlot slot) {
+        return fillSlot(findNode(normalizedPhone), slot);
+    }
+
+    /**
+     * Находит лучший приближенный результат обходом дерева в глубину: ветвь продолжается,
+     * пока количество несовпадений с цифрами номера не превышает maxMismatches. Каждый узел,
+     * в который ведет совпавшая цифра, - кандидат с длиной, равной его глубине, и лучшим
+     * элементом поддерева. Поддерево не обходится, если оценка сверху - наибольшая глубина,
+     * уменьшенная по цифрам ближайших уровней, и лучший элемент поддерева - не позволяет
+     * превзойти найденный результат. Потомки узла перебираются по маске цифр без чтения
+     * пустых ссылок.
+     * Результат совпадает с {@link OkvedFinder#findApproximateMatch(String, List, int)}.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param maxMismatches допустимое количество несовпадающих цифр, от 0 до {@link OkvedFinder#MAX_MISMATCHES}
+     * @return лучший результат поиска
+     * @throws IllegalArgumentException если maxMismatches вне допустимого диапазона
+     */
+    @Override
+    public Optional<OkvedFinder.MatchResult> findApproximateMatch(String normalizedPhone, int maxMismatches) {
+        OkvedFinder.checkMismatches(maxMismatches);
+        if (normalizedPhone == null) {
+            return Optional.empty();
+        }
+        if (maxMismatches == 0) {
+            return findBestMatch(normalizedPhone);
+        }
+
+        // Цифры номера с конца; первый символ (+) в сравнении не участвует
+        int[] phoneDigits = new int[Math.max(0, Math.min(normalizedPhone.length() - 1, maxDepth))];
+        int phoneLength = 0;
+        while (phoneLength < phoneDigits.length) {
+            int digit = normalizedPhone.charAt(normalizedPhone.length() - 1 - phoneLength) - '0';
+            if (digit < 0 || digit >= RADIX) {
+                break;
+            }
+            phoneDigits[phoneLength++] = digit;
+        }
+
+        // Стек отложенных ветвей: узел, его глубина и количество несовпадений на пути к нему
+        // в одном long. На каждом уровне текущего пути откладывается не больше RADIX - 1 ветвей
+        long[] shapes = shapes();
+        long[] stack = new long[phoneLength * (RADIX - 1) + 1];
+        int stackSize = 0;
+        stack[stackSize++] = ROOT;
+        int bestNode = NONE;
+        int bestLength = 0;
+        int bestMismatches = 0;
+
+        while (stackSize > 0) {
+            long entry = stack[--stackSize];
+            int node = (int) (entry >>> Integer.SIZE);
+            int depth = (int) entry >>> MISMATCH_BITS;
+            int mismatches = (int) entry & MISMATCH_MASK;
+            if (!improves(reach(shapes[node], depth, maxMismatches - mismatches, phoneDigits, phoneLength),
+                    mismatches, node, bestLength, bestMismatches, bestNode)) {
+                continue;
+            }
+
+            // Ветвь продолжается по совпадающим цифрам без стека: длинное точное окончание
+            // находится сразу и отсекает большую часть отложенных ветвей
+            while (depth < phoneLength) {
+                int shape = (int) shapes[node];
+                int digit = phoneDigits[depth];
+                if (mismatches < maxMismatches) {
+                    // Отложенная ветвь полностью проверяется при извлечении из стека,
+                    // здесь достаточно наибольшей глубины поддерева
+                    long next = (long) (depth + 1) << MISMATCH_BITS | (mismatches + 1);
+                    for (int others = shape & CHILD_MASK & ~(1 << digit); others != 0; others &= others - 1) {
+                        int child = children.get(node * RADIX + Integer.numberOfTrailingZeros(others));
+                        if (Math.min((int) (shapes[child] >>> Integer.SIZE), phoneLength) >= bestLength) {
+                            stack[stackSize++] = (long) child << Integer.SIZE | next;
+                        }
+                    }
+                }
+                if ((shape & 1 << digit) == 0) {
+                    break;
+                }
+                node = children.get(node * RADIX + digit);
+                depth++;
+                if (improves(depth, mismatches, node, bestLength, bestMismatches, bestNode)) {
+                    bestNode = node;
+                    bestLength = depth;
+                    bestMismatches = mismatches;
+                }
+            }
+        }
+
+        if (bestNode == NONE) {
+            return Optional.empty();
+        }
+        int bestLeaf = bestLeaves.get(bestNode);
+        return Optional.of(new OkvedFinder.MatchResult(leaves.item(bestLeaf), bestLength,
+                normalizedPhone.substring(normalizedPhone.length() - bestLength),
+                leaves.getDigitSuffix(bestLeaf, bestLength)));
+    }
+
+    /**
+     * Находит несколько лучших результатов: по убыванию длины совпадения,
+     * при равной длине - по убыванию кода, при равных кодах - в порядке исходного списка.
+     * Элементы с совпадением длиной L - это элементы, код которых заканчивается в узле L
+     * пути номера, и поддеревья его потомков, кроме следующего узла пути. Для k не больше
+     * {@value #TOP_LEAVES} они сливаются из заранее отсортированных списков узлов,
+     * иначе все элементы перебираются с ограниченной кучей.
+     * Объекты результатов создаются только для отобранных элементов.
+     *
+     * @param normalizedPhone нормализованый номер телефона
+     * @param k максимальное количество результатов
+     * @return результаты поиска, лучший первым
+     */
+    @Override
+    public List<OkvedFinder.MatchResult> findTopMatches(String normalizedPhone, int k) {
+        if (normalizedPhone == null || k <= 0) {
+            return Collections.emptyList();
+        }
+        if (k == 1) {
+            int node = findNode(normalizedPhone);
+            return node == ROOT ? Collections.emptyList() : Collections.singletonList(result(node));
+        }
+        if (k > TOP_LEAVES) {
+            return selectTopMatches(normalizedPhone, k);
+        }
+
+        // Узлы на пути номера: path[L] - узел совпадения длиной L
+        int[] path = new int[maxDepth + 2];
+        int pathDepth = 0;
+        for (int i = normalizedPhone.length() - 1; i >= 1 && pathDepth < maxDepth; i--) {
+            int digit = normalizedPhone.charAt(i) - '0';
+            if (digit < 0 || digit >= RADIX) {
+                break;
+            }
+            int child = children.get(path[pathDepth] * RADIX + digit);
+            if (child == ROOT) {
+                break;
+            }
+            path[++pathDepth] = child;
+        }
+
+        List<OkvedFinder.MatchResult> matches = new ArrayList<>(k);
+        // Источники слияния: списки потомков узла и список элементов, заканчивающихся в узле
+        int[] positions = new int[RADIX + 1];
+        int[] limits = new int[RADIX + 1];
+        int[] headRanks = new int[RADIX + 1];
+
+        for (int length = pathDepth; length >= 1 && matches.size() < k; length--) {
+            int node = path[length];
+            int excluded = path[length + 1];
+            int sources = 0;
+
+            for (int digit = 0; digit < RADIX; digit++) {
+                int child = children.get(node * RADIX + digit);
+                if (child != ROOT && child != excluded) {
+                    positions[sources] = child * TOP_LEAVES;
+                    limits[sources] = child * TOP_LEAVES + TOP_LEAVES;
+                    headRanks[sources++] = ranks.get(topLeaves.get(child * TOP_LEAVES));
+                }
+            }
+            int terminalSource = NONE;
+            if (terminalStarts.get(node) < terminalStarts.get(node + 1)) {
+                terminalSource = sources;
+                positions[sources] = terminalStarts.get(node);
+                limits[sources] = terminalStarts.get(node + 1);
+                headRanks[sources++] = ranks.get(terminalLeaves.get(terminalStarts.get(node)));
+            }
+
+            String suffix = null;
+            while (sources > 0 && matches.size() < k) {
+                int source = 0;
+                for (int i = 1; i < sources; i++) {
+                    if (headRanks[i] < headRanks[source]) {
+                        source = i;
+                    }
+                }
+
+                IntBuffer list = source == terminalSource ? terminalLeaves : topLeaves;
+                int leaf = list.get(positions[source]++);
+                if (positions[source] < limits[source] && list.get(positions[source]) != NONE) {
+                    headRanks[source] = ranks.get(list.get(positions[source]));
+                } else {
+                    // Источник исчерпан: на его место переносится последний
+                    sources--;
+                    positions[source] = positions[sources];
+                    limits[source] = limits[sources];
+                    headRanks[source] = headRanks[sources];
+                    if (terminalSource == source) {
+                        terminalSource = NONE;
+                    } else if (terminalSource == sources) {
+                        terminalSource = source;
+                    }
+                }
+
+                if (length == pathDepth && leaf == bestLeaves.get(node)) {
+                    matches.add(result(node));
+                } else {
+                    if (suffix == null) {
+                        suffix = normalizedPhone.substring(normalizedPhone.length() - length);
+                    }
+                    matches.add(new OkvedFinder.MatchResult(leaves.item(leaf), length, suffix, suffix));
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Возвращает количество проиндексированных элементов.
+     */
+    @Override
+    public int size() {
+        return leaves.size();
+    }
+
+    /**
+     * Возвращает проиндексированные элементы в порядке исходного списка.
+     * Объекты элементов создаются при обращении.
+     */
+    public List<OkvedItem> getLeaves() {
+        return leafList;
+    }
+
+    /**
+     * Возвращает таблицу проиндексированных элементов.
+     */
+    public OkvedLeafTable getLeafTable() {
+        return leaves;
+    }
+
+    /**
+     * Возвращает длину самого длинного цифрового кода.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Номер проходит по дереву не глубже самого длинного кода, поэтому результат
+     * зависит только от последних {@link #getMaxDepth()} цифр.
+     */
+    @Override
+    public int getTailDigits() {
+        return maxDepth;
+    }
+
+    /**
+     * Возвращает количество узлов дерева, включая корень.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Оценивает объем памяти, занимаемый массивами индекса и таблицей элементов, в байтах.
+     */
+    public long getFootprintBytes() {
+        long[] shapes = this.shapes;
+        return 4L * children.capacity() + 4L * depths.capacity() + 4L * bestLeaves.capacity()
+                + 4L * ranks.capacity() + 4L * topLeaves.capacity() + 4L * terminalStarts.capacity()
+                + 4L * terminalLeaves.capacity() + (shapes != null ? 8L * shapes.length : 0)
+                + 4L * results.length + leaves.getFootprintBytes();
+    }
+
+    IntBuffer children() {
+        return children.duplicate();
+    }
+
+    IntBuffer depths() {
+        return depths.duplicate();
+    }
+
+    IntBuffer bestLeaves() {
+        return bestLeaves.duplicate();
+    }
+
+    IntBuffer ranks() {
+        return ranks.duplicate();
+    }
+
+    IntBuffer topLeaves() {
+        return topLeaves.duplicate();
+    }
+
+    IntBuffer terminalStarts() {
+        return terminalStarts.duplicate();
+    }
+
+    IntBuffer terminalLeaves() {
+        return terminalLeaves.duplicate();
+    }
+
+    /**
+     * Находит узел лучшего совпадения для номера в виде числа 79XXXXXXXXX.
+     */
+    int findNode(long normalizedPhone) {
+        IntBuffer children = this.children;
+        int node = ROOT;
+
+        for (long rest = normalizedPhone; rest > 0; rest /= RADIX) {
+            int child = children.get(node * RADIX + (int) (rest % RADIX));
+            if (child == ROOT) {
+                break;
+            }
+            node = child;
+        }
+
+        return node;
+    }
+
+    /**
+     * Возвращает узел, соответствующий окончанию из младших цифр числа.
+     * Используется для построения плотной таблицы.
+     */
+    int findNode(int tail, int digitCount) {
+        IntBuffer children = this.children;
+        int node = ROOT;
+
+        for (int i = 0; i < digitCount; i++) {
+            int child = children.get(node * RADIX + tail % RADIX);
+            if (child == ROOT) {
+                break;
+            }
+            node = child;
+            tail /= RADIX;
+        }
+
+        return node;
+    }
+
+    /**
+     * Возвращает заранее вычисленный результат для узла.
+     */
+    Optional<OkvedFinder.MatchResult> resultAt(int node) {
+        return node == ROOT ? Optional.empty() : Optional.of(result(node));
+    }
+
+    /**
+     * Заполняет результат поиска узлом без создания объектов.
+     *
+     * @return true, если совпадение найдено
+     */
+    boolean fillSlot(int node, OkvedMatchSlot slot) {
+        if (node == ROOT) {
+            slot.clear();
+            return false;
+        }
+        slot.set(this, node);
+        return true;
+    }
+
+    String codeAt(int node) {
+        return leaves.getCode(bestLeaves.get(node));
+    }
+
+    int depthAt(int node) {
+        return depths.get(node);
+    }
+
+    OkvedFinder.MatchResult resultFor(int node) {
+        return result(node);
+    }
+
+    // Приватные методы
+
+    /**
+     * Возвращает результат для узла, создавая его при первом обращении.
+     * Одновременное создание безопасно: результат неизменяемый и в худшем случае
+     * будет создан дважды.
+     */
+    private OkvedFinder.MatchResult result(int node) {
+        OkvedFinder.MatchResult result = results[node];
+        if (result == null) {
+            int leaf = bestLeaves.get(node);
+            String suffix = leaves.getDigitSuffix(leaf, depths.get(node));
+            result = new OkvedFinder.MatchResult(leaves.item(leaf), depths.get(node), suffix, suffix);
+            results[node] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Перебирает все элементы, удерживая k лучших в куче с худшим элементом в вершине.
+     */
+    private List<OkvedFinder.MatchResult> selectTopMatches(String normalizedPhone, int k) {
+        int capacity = Math.min(k, leaves.size());
+        int[] heapLeaves = new int[capacity];
+        int[] heapLengths = new int[capacity];
+        int heapSize = 0;
+
+        for (int leaf = 0; leaf < leaves.size(); leaf++) {
+            int length = leaves.matchLength(leaf, normalizedPhone);
+            if (length == 0) {
+                continue;
+            }
+
+            if (heapSize < capacity) {
+                heapLeaves[heapSize] = leaf;
+                heapLengths[heapSize] = length;
+                siftUp(heapLeaves, heapLengths, heapSize++);
+            } else if (compareRank(length, leaf, heapLengths[0], heapLeaves[0]) > 0) {
+                heapLeaves[0] = leaf;
+                heapLengths[0] = length;
+                siftDown(heapLeaves, heapLengths, heapSize);
+            }
+        }
+
+        // Извлечение из кучи дает элементы от худшего к лучшему
+        OkvedFinder.MatchResult[] sorted = new OkvedFinder.MatchResult[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            int leaf = heapLeaves[0];
+            int length = heapLengths[0];
+            String suffix = normalizedPhone.substring(normalizedPhone.length() - length);
+            sorted[i] = new OkvedFinder.MatchResult(leaves.item(leaf), length, suffix, suffix);
+
+            heapLeaves[0] = heapLeaves[i];
+            heapLengths[0] = heapLengths[i];
+            siftDown(heapLeaves, heapLengths, i);
+        }
+
+        return Arrays.asList(sorted);
+    }
+
+    private void siftUp(int[] heapLeaves, int[] heapLengths, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (compareRank(heapLengths[index], heapLeaves[index], heapLengths[parent], heapLeaves[parent]) >= 0) {
+                return;
+            }
+            swap(heapLeaves, heapLengths, index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int[] heapLeaves, int[] heapLengths, int size) {
+        int index = 0;
+        while (true) {
+            int worst = index;
+            for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                if (compareRank(heapLengths[child], heapLeaves[child], heapLengths[worst], heapLeaves[worst]) < 0) {
+                    worst = child;
+                }
+            }
+            if (worst == index) {
+                return;
+            }
+            swap(heapLeaves, heapLengths, index, worst);
+            index = worst;
+        }
+    }
+
+    /**
+     * Сравнивает два результата: положительное значение, если первый лучше.
+     */
+    private int compareRank(int lengthA, int leafA, int lengthB, int leafB) {
+        if (lengthA != lengthB) {
+            return Integer.compare(lengthA, lengthB);
+        }
+        return Integer.compare(ranks.get(leafB), ranks.get(leafA));
+    }
+
+    private static void swap(int[] heapLeaves, int[] heapLengths, int i, int j) {
+        int leaf = heapLeaves[i];
+        heapLeaves[i] = heapLeaves[j];
+        heapLeaves[j] = leaf;
+        int length = heapLengths[i];
+        heapLengths[i] = heapLengths[j];
+        heapLengths[j] = length;
+    }
+
+    private int findNode(String normalizedPhone) {
+        IntBuffer children = this.children;
+        int node = ROOT;
+
+        // Первый символ (+) в сравнении не участвует
+        for (int i = normalizedPhone.length() - 1; i >= 1; i--) {
+            int digit = normalizedPhone.charAt(i) - '0';
+            if (digit < 0 || digit >= RADIX) {
+                break;
+            }
+
+            int child = children.get(node * RADIX + digit);
+            if (child == ROOT) {
+                break;
+            }
+            node = child;
+        }
+
+        return node;
+    }
+
+    /**
+     * Оценивает сверху длину совпадения в поддереве узла: не больше наибольшей глубины
+     * поддерева и не дальше уровня, на котором цифр номера, отсутствующих на ближайших
+     * уровнях под узлом, становится больше оставшегося запаса несовпадений.
+     */
+    private static int reach(long shape, int depth, int budget, int[] phoneDigits, int phoneLength) {
+        int reach = Math.min((int) (shape >>> Integer.SIZE), phoneLength);
+        int lookahead = Math.min(LOOKAHEAD, reach - depth);
+        for (int level = 0; level < lookahead; level++) {
+            if ((shape >>> (level * RADIX + phoneDigits[depth + level]) & 1) == 0 && budget-- == 0) {
+                return depth + level;
+            }
+        }
+        return reach;
+    }
+
+    /**
+     * Проверяет, лучше ли результат в поддереве узла найденного: длиннее, при равной длине -
+     * с меньшим количеством несовпадений, затем - с лучшим элементом поддерева на меньшем
+     * месте в общем порядке. Места элементов читаются только при равенстве остального.
+     */
+    private boolean improves(int length, int mismatches, int node, int bestLength, int bestMismatches, int bestNode) {
+        return length > bestLength || (length == bestLength && bestNode != NONE && (mismatches < bestMismatches
+                || (mismatches == bestMismatches
+                && ranks.get(bestLeaves.get(node)) < ranks.get(bestLeaves.get(bestNode)))));
+    }
+
+    private long[] shapes() {
+        long[] shapes = this.shapes;
+        if (shapes == null) {
+            shapes = subtreeShapes(children, depths, maxDepth);
+            this.shapes = shapes;
+        }
+        return shapes;
+    }
+
+    /**
+     * Вычисляет для каждого узла наибольшую глубину в его поддереве и цифры ближайших
+     * уровней под ним. Узлы обходятся в порядке убывания глубины, поэтому потомки
+     * обработаны раньше родителя.
+     */
+    private static long[] subtreeShapes(IntBuffer children, IntBuffer depths, int maxDepth) {
+        int nodeCount = depths.limit();
+        int[] starts = new int[maxDepth + 2];
+        for (int node = 0; node < nodeCount; node++) {
+            starts[depths.get(node) + 1]++;
+        }
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            starts[depth + 1] += starts[depth];
+        }
+        int[] byDepth = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            byDepth[starts[depths.get(node)]++] = node;
+        }
+
+        long levelsMask = (1L << (LOOKAHEAD - 1) * RADIX) - 1;
+        long[] shapes = new long[nodeCount];
+        for (int i = byDepth.length - 1; i >= 0; i--) {
+            int node = byDepth[i];
+            long height = depths.get(node);
+            long levels = 0;
+            for (int digit = 0; digit < RADIX; digit++) {
+                int child = children.get(node * RADIX + digit);
+                if (child != ROOT) {
+                    long shape = shapes[child];
+                    height = Math.max(height, shape >>> Integer.SIZE);
+                    // Уровни потомка сдвигаются на один вниз, под ними - его собственная цифра
+                    levels |= (shape & levelsMask) << RADIX | 1L << digit;
+                }
+            }
+            shapes[node] = height << Integer.SIZE | levels;
+        }
+        return shapes;
+    }
+
+    /**
+     * Возвращает лучший из двух элементов: с наибольшим кодом, при равных кодах - первый в списке,
+     * то есть с меньшим местом в общем порядке.
+     */
+    private static int better(int[] ranks, int current, int candidate) {
+        return current == NONE || ranks[candidate] < ranks[current] ? candidate : current;
+    }
+
+    /**
+     * Возвращает элементы в общем порядке: по убыванию кода, при равных кодах - по порядку списка.
+     */
+    private static int[] rankOrder(OkvedLeafTable leaves) {
+        int[] order = identity(leaves.size());
+        mergeSort(leaves, order, new int[order.length], 0, order.length);
+        return order;
+    }
+
+    private static int[] ranksOf(int[] order) {
+        int[] ranks = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            ranks[order[rank]] = rank;
+        }
+        return ranks;
+    }
+
+    private static int[] identity(int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    /**
+     * Устойчивая сортировка номеров элементов по убыванию кода: при равных кодах
+     * сохраняется исходный порядок.
+     */
+    private static void mergeSort(OkvedLeafTable leaves, int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(leaves, order, buffer, from, middle);
+        mergeSort(leaves, order, buffer, middle, to);
+        merge(leaves, order, buffer, from, middle, to);
+    }
+
+    private static void merge(OkvedLeafTable leaves, int[] order, int[] buffer, int from, int middle, int to) {
+        if (leaves.compareCodes(order[middle - 1], order[middle]) >= 0) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && leaves.compareCodes(buffer[left], buffer[right]) >= 0) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static int totalDigits(OkvedLeafTable leaves, int from, int to, int[] leafIds, int skippedDigits) {
+        int total = 0;
+        for (int i = from; i < to; i++) {
+            total += leaves.getDigitCount(leafIds != null ? leafIds[i] : i) - skippedDigits;
+        }
+        return total;
+    }
+
+    /**
+     * Префиксное дерево по цифрам кодов в обратном порядке, начиная с цифры {@code firstDigit} с конца.
+     * При {@code firstDigit > 0} корень соответствует общему окончанию всех добавленных элементов.
+     * Массивы растут по мере добавления узлов: общие окончания делают узлов в разы меньше, чем цифр.
+     */
+    private static final class Trie {
+        private final OkvedLeafTable leaves;
+        private final int[] ranks;
+        private final int firstDigit;
+        private final int maxNodes;
+        private int[] children;
+        private int[] depths;
+        private int[] bestLeaves;
+        private int nodeCount = 1;
+        private int maxDepth;
+
+        /**
+         * @param leafCount количество элементов, которые будут добавлены
+         * @param maxNodes наибольшее возможное количество узлов
+         */
+        private Trie(OkvedLeafTable leaves, int[] ranks, int firstDigit, int leafCount, int maxNodes) {
+            this.leaves = leaves;
+            this.ranks = ranks;
+            this.firstDigit = firstDigit;
+            this.maxNodes = maxNodes;
+            int capacity = (int) Math.min(maxNodes, 16L + leafCount + leafCount / 2);
+            this.children = new int[capacity * RADIX];
+            this.depths = new int[capacity];
+            this.bestLeaves = new int[capacity];
+            depths[ROOT] = firstDigit;
+            if (firstDigit > 0) {
+                bestLeaves[ROOT] = NONE;
+            }
+        }
+
+        private void add(int leaf) {
+            int digitCount = leaves.getDigitCount(leaf);
+            int node = ROOT;
+            if (firstDigit > 0) {
+                bestLeaves[ROOT] = better(ranks, bestLeaves[ROOT], leaf);
+            }
+
+            for (int i = firstDigit; i < digitCount; i++) {
+                int slot = node * RADIX + leaves.digitFromEnd(leaf, i);
+                if (children[slot] == ROOT) {
+                    if (nodeCount == depths.length) {
+                        grow();
+                    }
+                    children[slot] = nodeCount;
+                    depths[nodeCount] = depths[node] + 1;
+                    bestLeaves[nodeCount] = leaf;
+                    nodeCount++;
+                } else {
+                    // Место в общем порядке уже учитывает порядок списка при равных кодах
+                    bestLeaves[children[slot]] = better(ranks, bestLeaves[children[slot]], leaf);
+                }
+                node = children[slot];
+            }
+            maxDepth = Math.max(maxDepth, digitCount);
+        }
+
+        private void grow() {
+            int capacity = (int) Math.min(maxNodes, 2L * depths.length);
+            children = Arrays.copyOf(children, capacity * RADIX);
+            depths = Arrays.copyOf(depths, capacity);
+            bestLeaves = Arrays.copyOf(bestLeaves, capacity);
+        }
+    }
+
+    /**
+     * Строит поддеревья для диапазона групп, деля его пополам.
+     */
+    private static final class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final OkvedLeafTable leaves;
+        private final int[] ranks;
+        private final int[] partitionStarts;
+        private final int[] partitionLeaves;
+        private final Trie[] tries;
+        private final int from;
+        private final int to;
+
+        private PartitionTask(OkvedLeafTable leaves, int[] ranks, int[] partitionStarts, int[] partitionLeaves,
+                              Trie[] tries, int from, int to) {
+            this.leaves = leaves;
+            this.ranks = ranks;
+            this.partitionStarts = partitionStarts;
+            this.partitionLeaves = partitionLeaves;
+            this.tries = tries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PartitionTask(leaves, ranks, partitionStarts, partitionLeaves, tries, from, middle),
+                        new PartitionTask(leaves, ranks, partitionStarts, partitionLeaves, tries, middle, to));
+                return;
+            }
+
+            int start = partitionStarts[from];
+            int end = partitionStarts[from + 1];
+            if (start == end) {
+                return;
+            }
+            Trie trie = new Trie(leaves, ranks, 2, end - start,
+                    1 + totalDigits(leaves, start, end, partitionLeaves, 2));
+            for (int i = start; i < end; i++) {
+                trie.add(partitionLeaves[i]);
+            }
+            tries[from] = trie;
+        }
+    }
+
+    /**
+     * Параллельная сортировка слиянием для общего порядка элементов.
+     */
+    private static final class RankSortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_THRESHOLD = 8192;
+
+        private final OkvedLeafTable leaves;
+        private final int[] order;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+
+        private RankSortTask(OkvedLeafTable leaves, int[] order, int[] buffer, int from, int to) {
+            this.leaves = leaves;
+            this.order = order;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                mergeSort(leaves, order, buffer, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RankSortTask(leaves, order, buffer, from, middle),
+                    new RankSortTask(leaves, order, buffer, middle, to));
+            merge(leaves, order, buffer, from, middle, to);
+        }
+    }
+
+    /**
+     * Переносит поддеревья групп в общие массивы, сдвигая номера узлов.
+     */
+    private static final class CopyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Trie[] tries;
+        private final int[] offsets;
+        private final int[] children;
+        private final int[] depths;
+        private final int[] bestLeaves;
+        private final int from;
+        private final int to;
+
+        private CopyTask(Trie[] tries, int[] offsets, int[] children, int[] depths, int[] bestLeaves,
+                         int from, int to) {
+            this.tries = tries;
+            this.offsets = offsets;
+            this.children = children;
+            this.depths = depths;
+            this.bestLeaves = bestLeaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CopyTask(tries, offsets, children, depths, bestLeaves, from, middle),
+                        new CopyTask(tries, offsets, children, depths, bestLeaves, middle, to));
+                return;
+            }
+
+            Trie trie = tries[from];
+            if (trie == null) {
+                return;
+            }
+            int offset = offsets[from];
+            for (int node = 0; node < trie.nodeCount; node++) {
+                for (int digit = 0; digit < RADIX; digit++) {
+                    int child = trie.children[node * RADIX + digit];
+                    children[(offset + node) * RADIX + digit] = child == ROOT ? ROOT : offset + child;
+                }
+            }
+            System.arraycopy(trie.depths, 0, depths, offset, trie.nodeCount);
+            System.arraycopy(trie.bestLeaves, 0, bestLeaves, offset, trie.nodeCount);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Скомпилированный режим поиска OKVED: плотная таблица ответов для всех
+ * окончаний номера длиной K, где K - длина самого длинного цифрового кода.
+ * Лучшее совпадение зависит только от последних K цифр номера,
+ * поэтому поиск сводится к одному чтению из массива.
+ */
+public class OkvedSuffixTable implements OkvedMatcher {
+
+    private final OkvedSuffixIndex index;
+    private final int[] nodes;
+    private final int tailDigits;
+    private final long buildTimeNanos;
+
+    private OkvedSuffixTable(OkvedSuffixIndex index, int[] nodes, int tailDigits, long buildTimeNanos) {
+        this.index = index;
+        this.nodes = nodes;
+        this.tailDigits = tailDigits;
+        this.buildTimeNanos = buildTimeNanos;
+    }
+
+    /**
+     * Строит таблицу по готовому индексу.
+     *
+     * @param index индекс окончаний
+     * @return таблица для всех окончаний длиной {@link OkvedSuffixIndex#getMaxDepth()}
+     */
+    public static OkvedSuffixTable build(OkvedSuffixIndex index) {
+        long start = System.nanoTime();
+        int tailDigits = index.getMaxDepth();
+        int[] nodes = new int[tableSize(tailDigits)];
+
+        for (int tail = 0; tail < nodes.length; tail++) {
+            nodes[tail] = index.findNode(tail, tailDigits);
+        }
+
+        return new OkvedSuffixTable(index, nodes, tailDigits, System.nanoTime() - start);
+    }
+
+    /**
+     * Возвращает размер таблицы для окончаний заданной длины.
+     *
+     * @param tailDigits длина окончания
+     * @return количество записей в таблице
+     */
+    public static int tableSize(int tailDigits) {
+        int size = 1;
+        for (int i = 0; i < tailDigits; i++) {
+            size *= 10;
+        }
+        return size;
+    }
+
+    @Override
+    public Optional<OkvedFinder.MatchResult> findBestMatch(String normalizedPhone) {
+        if (normalizedPhone == null) {
+            return Optional.empty();
+        }
+
+        // Первый символ (+) в сравнении не участвует
+        int length = normalizedPhone.length();
+        if (length - 1 < tailDigits) {
+            return index.findBestMatch(normalizedPhone);
+        }
+
+        int tail = 0;
+        for (int i = length - tailDigits; i < length; i++) {
+            int digit = normalizedPhone.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return index.findBestMatch(normalizedPhone);
+            }
+            tail = tail * 10 + digit;
+        }
+
+        return index.resultAt(nodes[tail]);
+    }
+
+    @Override
+    public Optional<OkvedFinder.MatchResult> findBestMatch(long normalizedPhone) {
+        // В номере меньше цифр, чем в окончании таблицы
+        if (normalizedPhone < nodes.length / 10) {
+            return index.resultAt(index.findNode(normalizedPhone));
+        }
+        return index.resultAt(nodes[(int) (normalizedPhone % nodes.length)]);
+    }
+
+    @Override
+    public boolean findBestMatch(long normalizedPhone, OkvedMatchSlot slot) {
+        if (normalizedPhone < nodes.length / 10) {
+            return index.fillSlot(index.findNode(normalizedPhone), slot);
+        }
+        return index.fillSlot(nodes[(int) (normalizedPhone % nodes.length)], slot);
+    }
+
+    /**
+     * Приближенные совпадения не сводятся к узлу таблицы, поэтому поиск выполняется по индексу.
+     */
+    @Override
+    public Optional<OkvedFinder.MatchResult> findApproximateMatch(String normalizedPhone, int maxMismatches) {
+        return index.findApproximateMatch(normalizedPhone, maxMismatches);
+    }
+
+    /**
+     * Несколько лучших результатов зависят не только от узла таблицы,
+     * поэтому поиск выполняется по индексу.
+     */
+    @Override
+    public List<OkvedFinder.MatchResult> findTopMatches(String normalizedPhone, int k) {
+        return index.findTopMatches(normalizedPhone, k);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Возвращает длину окончания, по которому строится таблица.
+     */
+    @Override
+    public int getTailDigits() {
+        return tailDigits;
+    }
+
+    /**
+     * Возвращает время построения таблицы в наносекундах.
+     */
+    public long getBuildTimeNanos() {
+        return buildTimeNanos;
+    }
+
+    /**
+     * Оценивает объем памяти, занимаемый таблицей и индексом, в байтах.
+     */
+    public long getFootprintBytes() {
+        return 4L * nodes.length + index.getFootprintBytes();
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Пакетная обработка номеров телефонов.
+ * Конвейер: чтение строк блоками, нормализация и поиск на всех ядрах,
+ * запись результатов в порядке входных данных. Очередь между этапами
+ * ограничена, поэтому чтение приостанавливается, если запись не успевает.
+ */
+public class PhoneBatchProcessor {
+
+    /**
+     * Формат вывода результатов.
+     */
+    public enum Format { CSV, JSONL }
+
+    /**
+     * Итоги обработки.
+     */
+    public static class Stats {
+        private final long processed;
+        private final long rejected;
+
+        public Stats(long processed, long rejected) {
+            this.processed = processed;
+            this.rejected = rejected;
+        }
+
+        public long getProcessed() { return processed; }
+        public long getRejected() { return rejected; }
+
+        @Override
+        public String toString() {
+            return String.format("Stats{processed=%d, rejected=%d}", processed, rejected);
+        }
+    }
+
+    static final String CSV_HEADER = "phone,normalized,code,match_length,name\n";
+    static final String CSV_TOP_HEADER = "phone,normalized,rank,code,match_length,name\n";
+    static final String CSV_ERRORS_HEADER = "line,phone,error\n";
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final Future<Chunk> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final PhoneNormalizer normalizer;
+    private final OkvedFinder finder;
+    private final OkvedMatcher matcher;
+    private final Format format;
+    private final int threads;
+
+    private int topMatches = 1;
+
+    public PhoneBatchProcessor(PhoneNormalizer normalizer, OkvedFinder finder,
+                               OkvedMatcher matcher, Format format, int threads) {
+        this.normalizer = normalizer;
+        this.finder = finder;
+        this.matcher = matcher;
+        this.format = format;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Задает количество лучших результатов на номер. При значении больше 1 в CSV
+     * каждый результат выводится отдельной строкой с номером места (rank),
+     * а в JSONL результаты выводятся массивом {@code matches}.
+     */
+    public void setTopMatches(int topMatches) {
+        if (topMatches < 1) {
+            throw new IllegalArgumentException("Количество результатов должно быть положительным: " + topMatches);
+        }
+        this.topMatches = topMatches;
+    }
+
+    /**
+     * Обрабатывает все номера из входного потока.
+     * Пустые строки пропускаются.
+     *
+     * @param input входные номера, по одному в строке
+     * @param output поток для результатов
+     * @param errors поток для отклоненных номеров с причиной
+     * @return итоги обработки
+     * @throws IOException при ошибке чтения или записи
+     * @throws InterruptedException если поток был прерван
+     */
+    public Stats process(BufferedReader input, Writer output, Writer errors)
+            throws IOException, InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<>(threads * 2);
+        AtomicReference<IOException> readError = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> readChunks(input, workers, pending, readError), "batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long processed = 0;
+        long rejected = 0;
+
+        try {
+            if (format == Format.CSV) {
+                output.write(topMatches > 1 ? CSV_TOP_HEADER : CSV_HEADER);
+                errors.write(CSV_ERRORS_HEADER);
+            }
+
+            while (true) {
+                Future<Chunk> future = pending.take();
+                if (future == END_OF_INPUT) {
+                    break;
+                }
+
+                Chunk chunk = future.get();
+                output.append(chunk.results);
+                errors.append(chunk.errors);
+                processed += chunk.processed;
+                rejected += chunk.rejected;
+            }
+
+            output.flush();
+            errors.flush();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка обработки блока номеров", e.getCause());
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+
+        if (readError.get() != null) {
+            throw readError.get();
+        }
+
+        return new Stats(processed, rejected);
+    }
+
+    // Приватные методы
+
+    private void readChunks(BufferedReader input, ExecutorService workers,
+                            BlockingQueue<Future<Chunk>> pending, AtomicReference<IOException> readError) {
+        try {
+            long lineNumber = 0;
+            List<String> lines = new ArrayList<>(CHUNK_SIZE);
+            long firstLine = 1;
+            String line;
+
+            while ((line = input.readLine()) != null) {
+                lineNumber++;
+                if (lines.isEmpty()) {
+                    firstLine = lineNumber;
+                }
+                lines.add(line);
+
+                if (lines.size() == CHUNK_SIZE) {
+                    submit(lines, firstLine, workers, pending);
+                    lines = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+
+            if (!lines.isEmpty()) {
+                submit(lines, firstLine, workers, pending);
+            }
+        } catch (IOException e) {
+            readError.set(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            pending.put(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(List<String> lines, long firstLine, ExecutorService workers,
+                        BlockingQueue<Future<Chunk>> pending) throws InterruptedException {
+        pending.put(workers.submit(() -> processChunk(lines, firstLine)));
+    }
+
+    /**
+     * Обрабатывает блок строк. Для одного результата на номер нормализация, поиск
+     * и запись нормализованного номера выполняются без создания объектов.
+     */
+    private Chunk processChunk(List<String> lines, long firstLine) {
+        Chunk chunk = new Chunk();
+        OkvedMatchSlot slot = new OkvedMatchSlot();
+        char[] normalizedChars = new char[12];
+        CharBuffer normalizedText = CharBuffer.wrap(normalizedChars);
+
+        for (int i = 0; i < lines.size(); i++) {
+            String phone = lines.get(i);
+            long normalizedPhone = normalizer.tryNormalize(phone);
+            if (normalizedPhone == PhoneNormalizer.REJECT_EMPTY) {
+                continue;
+            }
+            if (normalizedPhone < 0) {
+                appendError(format, chunk.errors, firstLine + i, phone, PhoneNormalizer.rejectMessage(normalizedPhone));
+                chunk.rejected++;
+                continue;
+            }
+
+            if (topMatches > 1) {
+                String normalized = "+" + normalizedPhone;
+                List<OkvedFinder.MatchResult> results = finder.findTopMatches(normalized, matcher, topMatches);
+                appendResults(chunk.results, phone, normalized, results.isEmpty()
+                        ? Collections.singletonList(finder.createBackupMatch(normalized))
+                        : results);
+            } else {
+                normalizer.format(normalizedPhone, normalizedChars, 0);
+                if (!finder.findBestMatch(normalizedPhone, matcher, slot)) {
+                    slot.set(finder.createBackupMatch("+" + normalizedPhone));
+                }
+                appendResult(format, chunk.results, phone, normalizedText, slot.toResult());
+            }
+            chunk.processed++;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Дописывает строку результата для одного номера.
+     */
+    static void appendResult(Format format, StringBuilder out, CharSequence phone, CharSequence normalizedPhone,
+                             OkvedFinder.MatchResult result) {
+        if (format == Format.CSV) {
+            appendCsv(out, phone).append(',')
+                    .append(normalizedPhone).append(',')
+                    .append(result.getCode()).append(',')
+                    .append(result.getMatchLength()).append(',');
+            appendCsv(out, result.getName()).append('\n');
+        } else {
+            JsonText.appendMatch(out, phone, normalizedPhone, result).append('\n');
+        }
+    }
+
+    private void appendResults(StringBuilder out, String phone, String normalizedPhone,
+                               List<OkvedFinder.MatchResult> results) {
+        if (format == Format.CSV) {
+            for (int rank = 1; rank <= results.size(); rank++) {
+                OkvedFinder.MatchResult result = results.get(rank - 1);
+                appendCsv(out, phone).append(',')
+                        .append(normalizedPhone).append(',')
+                        .append(rank).append(',')
+                        .append(result.getCode()).append(',')
+                        .append(result.getMatchLength()).append(',');
+                appendCsv(out, result.getName()).append('\n');
+            }
+        } else {
+            JsonText.appendMatches(out, phone, normalizedPhone, results).append('\n');
+        }
+    }
+
+    /**
+     * Дописывает строку отклоненного номера с причиной.
+     */
+    static void appendError(Format format, StringBuilder out, long lineNumber, String phone, String reason) {
+        if (format == Format.CSV) {
+            out.append(lineNumber).append(',');
+            appendCsv(out, phone).append(',');
+            appendCsv(out, reason).append('\n');
+        } else {
+            out.append("{\"line\":").append(lineNumber).append(",\"phone\":");
+            JsonText.appendString(out, phone).append(",\"error\":");
+            JsonText.appendString(out, reason).append("}\n");
+        }
+    }
+
+    /**
+     * Дописывает значение поля CSV, заключая его в кавычки, если в нем есть запятая, кавычка или перевод строки.
+     */
+    static StringBuilder appendCsv(StringBuilder out, CharSequence value) {
+        if (value == null) {
+            return out;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return out.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+            }
+        }
+        return out.append(value);
+    }
+
+    private static class Chunk {
+        private final StringBuilder results = new StringBuilder();
+        private final StringBuilder errors = new StringBuilder();
+        private int processed;
+        private int rejected;
+    }
+}
@@ -0,0 +1,218 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Пакетная нормализация номеров, записанных в записи фиксированной ширины.
+ * Байты записи классифицируются по восемь за раз внутри одного long (SWAR):
+ * для каждой записи получаются битовые маски цифр, разделителей и пробельных
+ * символов, по которым формат проверяется без посимвольного разбора.
+ * Результаты и коды отказа совпадают с {@link PhoneNormalizer#tryNormalize(CharSequence)}.
+ *
+ * <p>Записи содержат ASCII-символы и дополняются справа пробелами или нулевыми байтами.
+ * Байты вне ASCII не являются ни цифрами, ни разделителями, поэтому такие записи
+ * отклоняются так же, как и в обычном нормализаторе. Метрики нормализации
+ * не записываются: замер времени каждого номера стоил бы дороже самой проверки.
+ * Объект не хранит состояния и может использоваться из нескольких потоков.
+ */
+public class PhoneBulkNormalizer {
+
+    /**
+     * Ширина записи, в которую помещается любой допустимый номер.
+     */
+    public static final int DEFAULT_RECORD_WIDTH = 32;
+
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long LOW = 0x7F7F7F7F7F7F7F7FL;
+    private static final long GATHER = 0x0002040810204081L;
+
+    private static final long COUNTRY_PREFIX = 70_000_000_000L;
+    private static final int CORE_DIGITS = 10;
+
+    /**
+     * Позиции цифр номера 9XX XXX XX XX, перед которыми допускаются разделители.
+     */
+    private static final int GROUP_STARTS = 1 << 3 | 1 << 6 | 1 << 8;
+
+    private final PhoneNormalizer normalizer;
+
+    public PhoneBulkNormalizer(PhoneNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * Нормализует записи фиксированной ширины.
+     *
+     * @param records записи, идущие подряд с начала массива
+     * @param recordWidth ширина записи в байтах: кратна 8 и не больше 64
+     * @param count количество записей
+     * @param results массив для номеров 79XXXXXXXXX или отрицательных кодов отказа
+     * @return количество нормализованных номеров
+     * @throws IllegalArgumentException если ширина записи недопустима или массивы слишком малы
+     */
+    public int normalize(byte[] records, int recordWidth, int count, long[] results) {
+        if (recordWidth < Long.BYTES || recordWidth > Long.SIZE || recordWidth % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Ширина записи должна быть кратна 8 и не больше 64: " + recordWidth);
+        }
+        if ((long) recordWidth * count > records.length || count > results.length) {
+            throw new IllegalArgumentException("Массивы меньше, чем " + count + " записей");
+        }
+
+        int accepted = 0;
+        for (int record = 0; record < count; record++) {
+            long phone = normalizeRecord(records, record * recordWidth, recordWidth);
+            results[record] = phone;
+            if (phone >= 0) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Нормализует номера, упаковывая их в записи ширины {@link #DEFAULT_RECORD_WIDTH}.
+     * Номера длиннее записи или с символами вне ASCII проверяются обычным нормализатором.
+     *
+     * @param phones номера в любом формате
+     * @param results массив для номеров 79XXXXXXXXX или отрицательных кодов отказа
+     * @return количество нормализованных номеров
+     */
+    public int normalize(CharSequence[] phones, long[] results) {
+        byte[] record = new byte[DEFAULT_RECORD_WIDTH];
+        int accepted = 0;
+        for (int i = 0; i < phones.length; i++) {
+            CharSequence phone = phones[i];
+            long result;
+            if (phone == null) {
+                result = PhoneNormalizer.REJECT_EMPTY;
+            } else if (pack(phone, record)) {
+                result = normalizeRecord(record, 0, record.length);
+            } else {
+                result = normalizer.tryNormalize(phone);
+            }
+            results[i] = result;
+            if (result >= 0) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    // Приватные методы
+
+    private static boolean pack(CharSequence phone, byte[] record) {
+        int length = phone.length();
+        if (length > record.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = phone.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            record[i] = (byte) c;
+        }
+        for (int i = length; i < record.length; i++) {
+            record[i] = ' ';
+        }
+        return true;
+    }
+
+    private static long normalizeRecord(byte[] records, int offset, int width) {
+        // Битовые маски записи: бит i соответствует байту i
+        long digits = 0;
+        long separators = 0;
+        long blanks = 0;
+        for (int word = 0; word < width; word += Long.BYTES) {
+            long bytes = (long) WORDS.get(records, offset + word);
+            long ascii = ~bytes & HIGH;
+            long low = bytes & LOW;
+
+            long digit = atLeast(low, '0') & atMost(low, '9') & ascii;
+            // Пробельные символы \s регулярных выражений Java, "-", "(" и ")"
+            long separator = (atLeast(low, '\t') & atMost(low, '\r')
+                    | equal(low, ' ') | equal(low, '-') | atLeast(low, '(') & atMost(low, ')')) & ascii;
+            long blank = atMost(low, ' ') & ascii;
+
+            digits |= gather(digit) << word;
+            separators |= gather(separator) << word;
+            blanks |= gather(blank) << word;
+        }
+
+        // Те же границы, что и у String.trim()
+        long widthMask = width == Long.SIZE ? -1L : (1L << width) - 1;
+        long content = ~blanks & widthMask;
+        if (content == 0) {
+            return PhoneNormalizer.REJECT_EMPTY;
+        }
+        int start = Long.numberOfTrailingZeros(content);
+        int end = Long.SIZE - Long.numberOfLeadingZeros(content);
+        long range = (end == Long.SIZE ? -1L : (1L << end) - 1) & -(1L << start);
+
+        // Кроме цифр и разделителей допускается только "+" в начале
+        long allowed = digits | separators;
+        if (records[offset + start] == '+') {
+            allowed |= 1L << start;
+        }
+        if ((range & ~allowed) != 0 || (digits & 1L << (end - 1)) == 0) {
+            return PhoneNormalizer.REJECT_FORMAT;
+        }
+
+        int count = Long.bitCount(digits);
+        if (count == CORE_DIGITS + 1) {
+            byte country = records[offset + Long.numberOfTrailingZeros(digits)];
+            if (country != '7' && country != '8') {
+                return PhoneNormalizer.REJECT_FORMAT;
+            }
+            digits &= digits - 1;
+        } else if (count != CORE_DIGITS) {
+            return PhoneNormalizer.REJECT_FORMAT;
+        }
+
+        // Разделители допускаются только между группами 9XX XXX XX XX
+        int position = Long.numberOfTrailingZeros(digits);
+        if (records[offset + position] != '9') {
+            return PhoneNormalizer.REJECT_FORMAT;
+        }
+        long core = 9;
+        for (int digit = 1; digit < CORE_DIGITS; digit++) {
+            digits &= digits - 1;
+            int next = Long.numberOfTrailingZeros(digits);
+            if (next != position + 1 && (GROUP_STARTS & 1 << digit) == 0) {
+                return PhoneNormalizer.REJECT_FORMAT;
+            }
+            position = next;
+            core = core * 10 + (records[offset + position] - '0');
+        }
+        return COUNTRY_PREFIX + core;
+    }
+
+    /**
+     * Старший бит каждого байта, если семибитное значение байта не меньше bound.
+     */
+    private static long atLeast(long low, int bound) {
+        return ((low | HIGH) - bound * ONES) & HIGH;
+    }
+
+    /**
+     * Старший бит каждого байта, если семибитное значение байта не больше bound.
+     */
+    private static long atMost(long low, int bound) {
+        return ((bound | 0x80) * ONES - low) & HIGH;
+    }
+
+    private static long equal(long low, int value) {
+        long difference = low ^ value * ONES;
+        return ~((difference + LOW) | difference) & HIGH;
+    }
+
+    /**
+     * Собирает старшие биты восьми байтов в восемь младших битов.
+     */
+    private static long gather(long mask) {
+        return (mask * GATHER) >>> 56;
+    }
+}
@@ -0,0 +1,564 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Пакетная обработка файла номеров через отображение в память.
+ * Файл делится на блоки по границам строк, блоки отображаются {@link FileChannel#map} и
+ * обрабатываются параллельно прямо из байтов: нормализация, поиск и форматирование
+ * не создают объектов на строку. Строка результата собирается в байтах: исходный номер
+ * копируется из файла, а окончание строки с кодом и названием кодируется в UTF-8 один раз
+ * на узел индекса и на резервный код. Результаты пишутся в собственные буферы блока,
+ * которые переиспользуются, и записываются по порядку групповой записью.
+ *
+ * <p>Вывод совпадает с {@link PhoneBatchProcessor} с одним результатом на номер:
+ * те же форматы, порядок строк, нумерация строк в ошибках и правила перевода строки
+ * ({@code \n}, {@code \r\n} или {@code \r}). Блок продлевается до конца строки не более
+ * чем на {@value #MAX_LINE_BYTES} байт: более длинная строка обрезается, отклоняется
+ * как неверный формат, а в ошибку попадает только ее начало.
+ */
+public class PhoneFileProcessor {
+
+    private static final int DEFAULT_CHUNK_BYTES = 256 * 1024;
+
+    /**
+     * Наибольший размер блока; вместе с {@link #MAX_LINE_BYTES} держит отображаемый диапазон
+     * и буферы результатов блока далеко от предела {@link FileChannel#map} в 2 ГБ.
+     */
+    private static final int MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Насколько блок может продлиться за свой размер в поисках конца строки.
+     */
+    private static final int MAX_LINE_BYTES = 1024 * 1024;
+
+    /**
+     * Наибольшее количество готовых блоков в одной групповой записи.
+     */
+    private static final int GATHER_CHUNKS = 16;
+
+    private static final byte[] JSON_PHONE = "{\"phone\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_NORMALIZED = "\",\"normalized\":\"".getBytes(StandardCharsets.US_ASCII);
+
+    private static final Future<Chunk> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final PhoneNormalizer normalizer;
+    private final OkvedFinder finder;
+    private final OkvedMatcher matcher;
+    private final PhoneBatchProcessor.Format format;
+    private final int threads;
+
+    private int chunkBytes = DEFAULT_CHUNK_BYTES;
+
+    public PhoneFileProcessor(PhoneNormalizer normalizer, OkvedFinder finder, OkvedMatcher matcher,
+                              PhoneBatchProcessor.Format format, int threads) {
+        this.normalizer = normalizer;
+        this.finder = finder;
+        this.matcher = matcher;
+        this.format = format;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Задает размер блока входного файла в байтах, не больше 64 МБ. Блок продлевается до конца строки.
+     */
+    public void setChunkBytes(int chunkBytes) {
+        if (chunkBytes < 1 || chunkBytes > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("Размер блока должен быть от 1 до " + MAX_CHUNK_BYTES + ": " + chunkBytes);
+        }
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Обрабатывает все номера из файла. Пустые строки пропускаются.
+     *
+     * @param input файл с номерами в ASCII или UTF-8, по одному в строке
+     * @param output канал для результатов
+     * @param errors канал для отклоненных номеров с причиной
+     * @return итоги обработки
+     * @throws IOException при ошибке чтения или записи
+     * @throws InterruptedException если поток был прерван
+     */
+    public PhoneBatchProcessor.Stats process(Path input, WritableByteChannel output, WritableByteChannel errors)
+            throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<>(threads * 2);
+            // Блоков на один больше, чем в очереди: пока один записывается, остальные заполняются
+            BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(threads * 2 + 1);
+            for (int i = 0; i < threads * 2 + 1; i++) {
+                free.add(new Chunk());
+            }
+            AtomicReference<IOException> planError = new AtomicReference<>();
+
+            Thread planner = new Thread(() -> planChunks(channel, workers, free, pending, planError), "mmap-planner");
+            planner.setDaemon(true);
+            planner.start();
+
+            long processed = 0;
+            long rejected = 0;
+            long lineBase = 0;
+
+            try {
+                if (format == PhoneBatchProcessor.Format.CSV) {
+                    writeFully(output, ByteBuffer.wrap(
+                            PhoneBatchProcessor.CSV_HEADER.getBytes(StandardCharsets.UTF_8)));
+                    writeFully(errors, ByteBuffer.wrap(
+                            PhoneBatchProcessor.CSV_ERRORS_HEADER.getBytes(StandardCharsets.UTF_8)));
+                }
+
+                List<Chunk> batch = new ArrayList<>(GATHER_CHUNKS);
+                ByteBuffer[] results = new ByteBuffer[GATHER_CHUNKS];
+                ByteBuffer[] rejects = new ByteBuffer[GATHER_CHUNKS];
+                boolean done = false;
+                while (!done) {
+                    Future<Chunk> future = pending.take();
+                    if (future == END_OF_INPUT) {
+                        break;
+                    }
+                    batch.add(future.get());
+                    // Добавляем к записи блоки, которые уже готовы
+                    while (batch.size() < GATHER_CHUNKS && pending.peek() != null && pending.peek().isDone()) {
+                        future = pending.poll();
+                        if (future == END_OF_INPUT) {
+                            done = true;
+                            break;
+                        }
+                        batch.add(future.get());
+                    }
+
+                    for (int i = 0; i < batch.size(); i++) {
+                        Chunk chunk = batch.get(i);
+                        chunk.encodeErrors(lineBase);
+                        lineBase += chunk.lines;
+                        processed += chunk.processed;
+                        rejected += chunk.errorCount;
+                        results[i] = chunk.results;
+                        rejects[i] = chunk.errors;
+                    }
+                    writeFully(output, results, batch.size());
+                    writeFully(errors, rejects, batch.size());
+
+                    for (Chunk chunk : batch) {
+                        chunk.release();
+                        free.put(chunk);
+                    }
+                    batch.clear();
+                    Arrays.fill(results, null);
+                    Arrays.fill(rejects, null);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Ошибка обработки блока номеров", e.getCause());
+            } finally {
+                planner.interrupt();
+                workers.shutdownNow();
+            }
+
+            if (planError.get() != null) {
+                throw planError.get();
+            }
+            return new PhoneBatchProcessor.Stats(processed, rejected);
+        }
+    }
+
+    // Приватные методы
+
+    /**
+     * Кодирует часть строки результата после нормализованного номера в том же виде,
+     * что и {@link PhoneBatchProcessor#appendResult}.
+     */
+    private byte[] encodeTail(OkvedFinder.MatchResult result) {
+        StringBuilder text = new StringBuilder();
+        if (format == PhoneBatchProcessor.Format.CSV) {
+            text.append(',').append(result.getCode()).append(',').append(result.getMatchLength()).append(',');
+            PhoneBatchProcessor.appendCsv(text, result.getName()).append('\n');
+        } else {
+            text.append("\",\"code\":");
+            JsonText.appendString(text, result.getCode()).append(",\"matchLength\":").append(result.getMatchLength())
+                    .append(",\"name\":");
+            JsonText.appendString(text, result.getName()).append("}\n");
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void planChunks(FileChannel channel, ExecutorService workers, BlockingQueue<Chunk> free,
+                            BlockingQueue<Future<Chunk>> pending, AtomicReference<IOException> planError) {
+        try {
+            long size = channel.size();
+            ByteBuffer probe = ByteBuffer.allocate(8192);
+            long start = 0;
+            boolean continued = false;
+            while (start < size) {
+                long end = Math.min(size, start + chunkBytes);
+                boolean truncated = false;
+                if (end < size) {
+                    long limit = Math.min(size, end + MAX_LINE_BYTES);
+                    end = lineEnd(channel, end - 1, limit, size, probe);
+                    if (end < 0) {
+                        // Строка не кончается и за пределом продления: она обрезается на границе блока
+                        end = limit;
+                        truncated = true;
+                    }
+                }
+                Chunk chunk = free.take();
+                long from = start;
+                long to = end;
+                boolean skipHead = continued;
+                boolean cutTail = truncated;
+                pending.put(workers.submit(() -> processChunk(channel, from, to, skipHead, cutTail, chunk)));
+                start = end;
+                continued = truncated;
+            }
+        } catch (IOException e) {
+            planError.set(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            pending.put(END_OF_INPUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Возвращает позицию после первого перевода строки ({@code \n}, {@code \r\n} или {@code \r}),
+     * начинающегося до limit, конец файла, если файл кончается раньше, или -1.
+     */
+    private static long lineEnd(FileChannel channel, long position, long limit, long size, ByteBuffer probe)
+            throws IOException {
+        boolean afterCr = false;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (afterCr) {
+                    // \r\n не разделяется между блоками, иначе следующий начался бы с пустой строки
+                    return b == '\n' ? position + i + 1 : position + i;
+                }
+                if (position + i >= limit) {
+                    return -1;
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+                afterCr = b == '\r';
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * @param skipHead блок начинается с продолжения обрезанной строки, оно пропускается
+     * @param cutTail последняя строка блока обрезана и отклоняется
+     */
+    private Chunk processChunk(FileChannel channel, long from, long to, boolean skipHead, boolean cutTail,
+                               Chunk chunk) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        chunk.start(buffer);
+        ByteChars line = chunk.line;
+        OkvedMatchSlot slot = chunk.slot;
+        int limit = buffer.limit();
+
+        int i = 0;
+        if (skipHead) {
+            while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+                i++;
+            }
+            if (i < limit && buffer.get(i) == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n') {
+                i++;
+            }
+            i++;
+        }
+        int lineStart = i;
+        while (lineStart < limit) {
+            while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+                i++;
+            }
+            int lineEnd = i;
+            if (i < limit && buffer.get(i) == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n') {
+                i++;
+            }
+            i++;
+
+            line.wrap(buffer, lineStart, lineEnd);
+            long phone = cutTail && lineEnd == limit ? PhoneNormalizer.REJECT_FORMAT : normalizer.tryNormalize(line);
+            if (phone >= 0) {
+                byte[] tail = finder.findBestMatch(phone, matcher, slot) ? chunk.tail(slot) : chunk.backupTail(phone);
+                chunk.appendResult(lineStart, lineEnd, phone, tail);
+                chunk.processed++;
+            } else if (phone != PhoneNormalizer.REJECT_EMPTY) {
+                chunk.addError(chunk.lines, lineStart, lineEnd, phone);
+            }
+            chunk.lines++;
+            lineStart = i;
+        }
+
+        chunk.results.flip();
+        return chunk;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers, int count)
+            throws IOException {
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            int first = 0;
+            while (first < count) {
+                gathering.write(buffers, first, count - first);
+                while (first < count && !buffers[first].hasRemaining()) {
+                    first++;
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            writeFully(channel, buffers[i]);
+        }
+    }
+
+    /**
+     * Блок входного файла и его буферы. Объекты блоков переиспользуются, поэтому
+     * буферы вывода и закодированные окончания строк создаются один раз, а буферы
+     * растут только при необходимости.
+     */
+    private final class Chunk {
+        private final ByteChars line = new ByteChars();
+        private final OkvedMatchSlot slot = new OkvedMatchSlot();
+        private final char[] normalizedChars = new char[12];
+        private final StringBuilder text = new StringBuilder();
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private ByteBuffer results = ByteBuffer.allocateDirect(8 * 1024);
+        private ByteBuffer errors = ByteBuffer.allocateDirect(1024);
+
+        /**
+         * Окончания строк результата по узлам индекса, по готовым результатам
+         * (например, из кэша) и по двум цифрам резервного кода.
+         */
+        private OkvedSuffixIndex tailIndex;
+        private byte[][] nodeTails = new byte[0][];
+        private final Map<OkvedFinder.MatchResult, byte[]> resultTails = new IdentityHashMap<>();
+        private final byte[][] backupTails = new byte[100][];
+
+        private MappedByteBuffer buffer;
+        private long[] errorLines = new long[16];
+        private int errorCount;
+        private int lines;
+        private int processed;
+
+        private void start(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            results.clear();
+            errorCount = 0;
+            lines = 0;
+            processed = 0;
+        }
+
+        /**
+         * Запоминает отклоненную строку. Номер строки в файле станет известен только
+         * при записи, когда посчитаны строки предыдущих блоков.
+         */
+        private void addError(int line, int start, int end, long rejectCode) {
+            if (errorCount * 4 == errorLines.length) {
+                errorLines = Arrays.copyOf(errorLines, errorLines.length * 2);
+            }
+            int at = errorCount * 4;
+            errorLines[at] = line;
+            errorLines[at + 1] = start;
+            errorLines[at + 2] = end;
+            errorLines[at + 3] = rejectCode;
+            errorCount++;
+        }
+
+        private void encodeErrors(long lineBase) {
+            text.setLength(0);
+            for (int i = 0; i < errorCount; i++) {
+                int at = i * 4;
+                int start = (int) errorLines[at + 1];
+                int end = (int) errorLines[at + 2];
+                byte[] bytes = new byte[end - start];
+                for (int b = 0; b < bytes.length; b++) {
+                    bytes[b] = buffer.get(start + b);
+                }
+                PhoneBatchProcessor.appendError(format, text, lineBase + errorLines[at] + 1,
+                        new String(bytes, StandardCharsets.UTF_8), PhoneNormalizer.rejectMessage(errorLines[at + 3]));
+            }
+            errors = encode(text, errors);
+        }
+
+        /**
+         * Возвращает окончание строки для найденного совпадения, кодируя его при первом обращении.
+         */
+        private byte[] tail(OkvedMatchSlot slot) {
+            OkvedSuffixIndex index = slot.index();
+            if (index == null) {
+                OkvedFinder.MatchResult result = slot.toResult();
+                byte[] tail = resultTails.get(result);
+                if (tail == null) {
+                    tail = encodeTail(result);
+                    resultTails.put(result, tail);
+                }
+                return tail;
+            }
+            if (index != tailIndex) {
+                tailIndex = index;
+                nodeTails = new byte[0][];
+            }
+            int node = slot.node();
+            if (node >= nodeTails.length) {
+                nodeTails = Arrays.copyOf(nodeTails, Math.max(node + 1, nodeTails.length * 2));
+            }
+            byte[] tail = nodeTails[node];
+            if (tail == null) {
+                tail = encodeTail(slot.toResult());
+                nodeTails[node] = tail;
+            }
+            return tail;
+        }
+
+        /**
+         * Возвращает окончание строки с резервным кодом. Резервный код зависит только от цифр
+         * тысяч и сотен номера, поэтому {@link OkvedFinder#createBackupMatch} вызывается
+         * один раз на пару цифр, а для остальных номеров только учитывается в метриках.
+         */
+        private byte[] backupTail(long phone) {
+            int digits = (int) (phone / 100 % 100);
+            byte[] tail = backupTails[digits];
+            if (tail == null) {
+                tail = encodeTail(finder.createBackupMatch("+" + phone));
+                backupTails[digits] = tail;
+            } else {
+                OkvedMetrics.global().recordBackupFallback();
+            }
+            return tail;
+        }
+
+        /**
+         * Дописывает строку результата: исходный номер, нормализованный номер и готовое окончание.
+         * Номер из печатных символов ASCII без символов, требующих экранирования, копируется
+         * из файла как есть, остальные проходят обычное форматирование.
+         */
+        private void appendResult(int start, int end, long phone, byte[] tail) {
+            boolean plain = true;
+            for (int i = start; i < end && plain; i++) {
+                byte b = buffer.get(i);
+                plain = b >= 0x20 && b < 0x7F && b != '"'
+                        && (format == PhoneBatchProcessor.Format.CSV ? b != ',' : b != '\\');
+            }
+            if (plain) {
+                ensure(JSON_PHONE.length + end - start + JSON_NORMALIZED.length);
+                boolean csv = format == PhoneBatchProcessor.Format.CSV;
+                if (!csv) {
+                    results.put(JSON_PHONE);
+                }
+                for (int i = start; i < end; i++) {
+                    results.put(buffer.get(i));
+                }
+                if (csv) {
+                    results.put((byte) ',');
+                } else {
+                    results.put(JSON_NORMALIZED);
+                }
+            } else {
+                byte[] bytes = new byte[end - start];
+                for (int b = 0; b < bytes.length; b++) {
+                    bytes[b] = buffer.get(start + b);
+                }
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                text.setLength(0);
+                if (format == PhoneBatchProcessor.Format.CSV) {
+                    PhoneBatchProcessor.appendCsv(text, value).append(',');
+                } else {
+                    text.append("{\"phone\":");
+                    JsonText.appendString(text, value).append(",\"normalized\":\"");
+                }
+                byte[] head = text.toString().getBytes(StandardCharsets.UTF_8);
+                ensure(head.length);
+                results.put(head);
+            }
+
+            normalizer.format(phone, normalizedChars, 0);
+            ensure(normalizedChars.length + tail.length);
+            for (char c : normalizedChars) {
+                results.put((byte) c);
+            }
+            results.put(tail);
+        }
+
+        private void ensure(int bytes) {
+            while (results.remaining() < bytes) {
+                results = grow(results);
+            }
+        }
+
+        /**
+         * Кодирует текст в UTF-8 в буфер, увеличивая его при нехватке места.
+         *
+         * @return буфер, готовый к записи
+         */
+        private ByteBuffer encode(StringBuilder source, ByteBuffer target) {
+            CharBuffer chars = CharBuffer.wrap(source);
+            target.clear();
+            encoder.reset();
+            CoderResult result;
+            while ((result = encoder.encode(chars, target, true)).isOverflow()) {
+                target = grow(target);
+            }
+            if (result.isError()) {
+                throw new IllegalStateException("Ошибка кодирования результатов: " + result);
+            }
+            while (encoder.flush(target).isOverflow()) {
+                target = grow(target);
+            }
+            target.flip();
+            return target;
+        }
+
+        private ByteBuffer grow(ByteBuffer target) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(target.capacity() * 2);
+            target.flip();
+            return larger.put(target);
+        }
+
+        private void release() {
+            buffer = null;
+        }
+    }
+}
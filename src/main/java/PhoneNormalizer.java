@@ -1,15 +1,27 @@
-import java.util.regex.Pattern;
-
 /**
  * Сервис для нормализации российских мобильных номеров.
+ * Номер разбирается за один проход без регулярных выражений.
+ * Допустимый формат: необязательный "+", необязательный код страны 7 или 8,
+ * затем 10 цифр, начиная с 9, в группах 9XX XXX XX XX. Между группами и перед
+ * ними допускаются пробельные символы, "-", "(" и ")".
  */
 public class PhoneNormalizer {
 
-    private static final Pattern PHONE_PATTERN = Pattern.compile(
-            "^[+]?[\\s\\-()]*[78]?[\\s\\-()]*9\\d{2}[\\s\\-()]*\\d{3}[\\s\\-()]*\\d{2}[\\s\\-()]*\\d{2}$"
-    );
+    /**
+     * Код отказа: пустой номер.
+     */
+    public static final long REJECT_EMPTY = -1;
+
+    /**
+     * Код отказа: номер не соответствует формату.
+     */
+    public static final long REJECT_FORMAT = -2;
+
+    private static final String EMPTY_MESSAGE = "Номер телефона не может быть пустым";
+    private static final String FORMAT_MESSAGE = "Номер не соответствует формату российского мобильного";
 
-    private static final Pattern DIGITS_PATTERN = Pattern.compile("[^0-9]");
+    private static final long COUNTRY_PREFIX = 70_000_000_000L;
+    private static final int CORE_DIGITS = 10;
 
     /**
      * Нормализует российский мобильный номер.
@@ -19,41 +31,78 @@ public class PhoneNormalizer {
      * @throws IllegalArgumentException если номер не может быть нормализован
      */
     public String normalize(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            throw new IllegalArgumentException("Номер телефона не может быть пустым");
-        }
-
-        String cleaned = input.trim();
+        return "+" + normalizeToLong(input);
+    }
 
-        // Быстрая проверка по паттерну
-        if (!PHONE_PATTERN.matcher(cleaned).matches()) {
-            throw new IllegalArgumentException("Номер не соответствует формату российского мобильного");
+    /**
+     * Нормализует номер без создания промежуточных объектов.
+     *
+     * @param input номер в любом формате
+     * @return номер в виде числа 79XXXXXXXXX
+     * @throws IllegalArgumentException если номер не может быть нормализован
+     */
+    public long normalizeToLong(CharSequence input) {
+        long phone = tryNormalize(input);
+        if (phone < 0) {
+            throw new IllegalArgumentException(rejectMessage(phone));
         }
+        return phone;
+    }
 
-        // Извлекаем все цифры
-        String digits = DIGITS_PATTERN.matcher(cleaned).replaceAll("");
-
-        // Определяем длину и корректируем
-        if (digits.length() == 10) {
-            // Номер без кода страны: добавляем 7
-            digits = "7" + digits;
-        } else if (digits.length() == 11) {
-            // Номер с кодом страны: заменяем 8 на 7
-            if (digits.startsWith("8")) {
-                digits = "7" + digits.substring(1);
-            }
-        } else {
-            throw new IllegalArgumentException(
-                    String.format("Номер должен содержать 10 или 11 цифр, получено: %d", digits.length())
-            );
+    /**
+     * Нормализует номер, не выбрасывая исключений.
+     *
+     * @param input номер в любом формате
+     * @return номер в виде числа 79XXXXXXXXX или отрицательный код отказа
+     */
+    public long tryNormalize(CharSequence input) {
+        if (input == null) {
+            return REJECT_EMPTY;
         }
+        return tryNormalize(input, 0, input.length());
+    }
 
-        // Проверяем, что номер начинается с 79
-        if (!digits.startsWith("79")) {
-            throw new IllegalArgumentException("Российские мобильные номера должны начинаться с 79");
+    /**
+     * Нормализует часть последовательности символов, не выбрасывая исключений.
+     *
+     * @param input последовательность символов
+     * @param start начало номера (включительно)
+     * @param end конец номера (не включительно)
+     * @return номер в виде числа 79XXXXXXXXX или отрицательный код отказа
+     */
+    public long tryNormalize(CharSequence input, int start, int end) {
+        OkvedMetrics metrics = OkvedMetrics.global();
+        long timer = metrics.startTimer();
+        long phone = scan(input, start, end);
+        metrics.recordNormalize(timer, phone);
+        return phone;
+    }
+
+    /**
+     * Записывает нормализованный номер в формате +79XXXXXXXXX в буфер.
+     *
+     * @param phone номер в виде числа 79XXXXXXXXX
+     * @param buffer буфер для записи
+     * @param offset позиция в буфере
+     * @return количество записанных символов
+     */
+    public int format(long phone, char[] buffer, int offset) {
+        buffer[offset] = '+';
+        for (int i = 11; i >= 1; i--) {
+            buffer[offset + i] = (char) ('0' + phone % 10);
+            phone /= 10;
         }
+        return 12;
+    }
 
-        return "+" + digits;
+    /**
+     * Возвращает сообщение об ошибке для кода отказа.
+     *
+     * @param rejectCode код отказа
+     * @return текст ошибки
+     */
+    public static String rejectMessage(long rejectCode) {
+        return rejectCode == REJECT_EMPTY ? EMPTY_MESSAGE : FORMAT_MESSAGE;
     }
 
     /**
@@ -75,4 +124,61 @@ public class PhoneNormalizer {
 
         return digits.substring(digits.length() - count);
     }
+
+    // Приватные методы
+
+    private static long scan(CharSequence input, int start, int end) {
+        // Те же границы, что и у String.trim()
+        while (start < end && input.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return REJECT_EMPTY;
+        }
+
+        int i = start;
+        if (input.charAt(i) == '+') {
+            i++;
+        }
+        i = skipSeparators(input, i, end);
+
+        if (i < end && (input.charAt(i) == '7' || input.charAt(i) == '8')) {
+            i = skipSeparators(input, i + 1, end);
+        }
+
+        long core = 0;
+        for (int digit = 0; digit < CORE_DIGITS; digit++) {
+            // Разделители допускаются только между группами 9XX XXX XX XX
+            if (digit == 3 || digit == 6 || digit == 8) {
+                i = skipSeparators(input, i, end);
+            }
+            if (i >= end) {
+                return REJECT_FORMAT;
+            }
+
+            char c = input.charAt(i++);
+            if (c < '0' || c > '9' || (digit == 0 && c != '9')) {
+                return REJECT_FORMAT;
+            }
+            core = core * 10 + (c - '0');
+        }
+
+        return i == end ? COUNTRY_PREFIX + core : REJECT_FORMAT;
+    }
+
+    private static int skipSeparators(CharSequence input, int i, int end) {
+        while (i < end && isSeparator(input.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSeparator(char c) {
+        // Пробельные символы \s регулярных выражений Java, "-", "(" и ")"
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r'
+                || c == '-' || c == '(' || c == ')';
+    }
 }
@@ -1,5 +1,24 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Основной класс для решения задачи нормализации российских мобильных телефонных номеров и поиска по OKVED.
@@ -10,34 +29,89 @@ import java.util.Optional;
  */
 public class PhoneOkvedApp {
 
+    private static final Duration SNAPSHOT_MAX_AGE = Duration.ofDays(1);
+
     public static void main(String[] args) {
         if (args.length == 0) {
             printUsage();
             return;
         }
 
+        if ("--batch".equals(args[0])) {
+            runBatch(args);
+            return;
+        }
+
+        if ("--server".equals(args[0])) {
+            runServer(args);
+            return;
+        }
+
+        if ("--coverage".equals(args[0])) {
+            runCoverage(args);
+            return;
+        }
+
         String phoneInput = args[0];
+        LoadOptions loadOptions = new LoadOptions();
 
         try {
+            int top = 1;
+            int mismatches = 0;
+            for (int i = 1; i < args.length; i++) {
+                if ("--top".equals(args[i])) {
+                    top = parseTop(optionValue(args, ++i));
+                } else if ("--mismatches".equals(args[i])) {
+                    mismatches = Integer.parseInt(optionValue(args, ++i));
+                } else {
+                    i = loadOptions.parseOrFail(args, i);
+                }
+            }
+            if (mismatches != 0 && top > 1) {
+                throw new IllegalArgumentException("--mismatches поддерживается только с --top 1");
+            }
+
             // 1. Нормализация номера
             PhoneNormalizer normalizer = new PhoneNormalizer();
             String normalizedPhone = normalizer.normalize(phoneInput);
 
             System.out.println("✅ Номер нормализован: " + normalizedPhone);
 
-            // 2. Загрузка данных OKVED
-            OkvedService okvedService = new OkvedService();
-            List<OkvedItem> okvedItems = okvedService.loadOkvedData();
+            // 2. Загрузка данных OKVED (в фоне, если задана политика запуска)
+            OkvedFinder finder = new OkvedFinder();
+            OkvedMatcher matcher;
+            if (loadOptions.startupPolicy != null) {
+                OkvedAsyncDataset dataset = startAsync(finder, loadOptions, System.out);
+                if (top == 1 && mismatches == 0) {
+                    printAnswer(normalizedPhone, dataset.findBestMatch(normalizedPhone));
+                    return;
+                }
+                matcher = initialDataset(dataset, loadOptions).getMatcher();
+            } else {
+                matcher = loadDataset(finder, loadOptions, System.out).getMatcher();
+            }
 
-            if (okvedItems.isEmpty()) {
+            if (matcher.size() == 0) {
                 System.out.println("⚠️  Не удалось загрузить данные OKVED, используется резервная стратегия");
                 applyBackupStrategy(normalizedPhone);
                 return;
             }
 
             // 3. Поиск совпадения
-            OkvedFinder finder = new OkvedFinder();
-            Optional<OkvedFinder.MatchResult> result = finder.findBestMatch(normalizedPhone, okvedItems);
+            if (top > 1) {
+                List<OkvedFinder.MatchResult> results = finder.findTopMatches(normalizedPhone, matcher, top);
+                if (results.isEmpty()) {
+                    System.out.println("⚠️  Совпадений не найдено, используется резервная стратегия");
+                    applyBackupStrategy(normalizedPhone);
+                } else {
+                    printTopResults(normalizedPhone, results);
+                }
+                return;
+            }
+
+            Optional<OkvedFinder.MatchResult> result = mismatches != 0
+                    ? finder.findApproximateMatch(normalizedPhone, matcher, mismatches)
+                    : finder.findBestMatch(normalizedPhone, matcher);
 
             // 4. Вывод результата
             if (result.isPresent()) {
@@ -54,7 +128,420 @@ public class PhoneOkvedApp {
             System.err.println("💥 Критическая ошибка: " + e.getMessage());
             e.printStackTrace();
             System.exit(2);
+        } finally {
+            loadOptions.close();
+        }
+    }
+
+    private static void runBatch(String[] args) {
+        String input = null;
+        String output = null;
+        String errors = null;
+        LoadOptions loadOptions = new LoadOptions();
+        PhoneBatchProcessor.Format format = PhoneBatchProcessor.Format.CSV;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 1;
+        boolean mmap = false;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--mmap":
+                        mmap = true;
+                        break;
+                    case "--input":
+                        input = optionValue(args, ++i);
+                        break;
+                    case "--output":
+                        output = optionValue(args, ++i);
+                        break;
+                    case "--errors":
+                        errors = optionValue(args, ++i);
+                        break;
+                    case "--format":
+                        format = PhoneBatchProcessor.Format.valueOf(optionValue(args, ++i).toUpperCase());
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(optionValue(args, ++i));
+                        break;
+                    case "--top":
+                        top = parseTop(optionValue(args, ++i));
+                        break;
+                    default:
+                        i = loadOptions.parseOrFail(args, i);
+                }
+            }
+
+            if (mmap) {
+                if (input == null || "-".equals(input)) {
+                    throw new IllegalArgumentException("Режим --mmap требует --input с путем к файлу");
+                }
+                if (top > 1) {
+                    throw new IllegalArgumentException("Режим --mmap поддерживает только --top 1");
+                }
+            }
+
+            // Сообщения о загрузке идут в stderr, чтобы не смешиваться с результатами
+            OkvedFinder finder = new OkvedFinder(System.err);
+            OkvedMatcher matcher = loadDataset(finder, loadOptions, System.err).getMatcher();
+            PhoneBatchProcessor processor = new PhoneBatchProcessor(
+                    new PhoneNormalizer(), finder, matcher, format, threads);
+            processor.setTopMatches(top);
+
+            long start = System.nanoTime();
+            PhoneBatchProcessor.Stats stats;
+            if (mmap) {
+                PhoneFileProcessor fileProcessor = new PhoneFileProcessor(
+                        new PhoneNormalizer(), finder, matcher, format, threads);
+                try (WritableByteChannel outputChannel = openChannel(output, System.out);
+                     WritableByteChannel errorChannel = openChannel(errors, System.err)) {
+                    stats = fileProcessor.process(Paths.get(input), outputChannel, errorChannel);
+                }
+            } else {
+                try (BufferedReader reader = openReader(input);
+                     Writer outputWriter = openWriter(output, System.out);
+                     Writer errorWriter = openWriter(errors, System.err)) {
+                    stats = processor.process(reader, outputWriter, errorWriter);
+                }
+            }
+
+            System.err.printf("Обработано номеров: %d, отклонено: %d, время: %d мс%n",
+                    stats.getProcessed(), stats.getRejected(), (System.nanoTime() - start) / 1_000_000);
+            if (matcher instanceof OkvedResultCache) {
+                System.err.println("Кэш результатов: " + ((OkvedResultCache) matcher).stats());
+            }
+            if (OkvedMetrics.global().isEnabled()) {
+                System.err.print(OkvedMetrics.global().appendPrometheus(new StringBuilder()));
+            }
+
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("💥 Критическая ошибка: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        } finally {
+            loadOptions.close();
+        }
+    }
+
+    private static void runCoverage(String[] args) {
+        String output = null;
+        String baseline = null;
+        LoadOptions loadOptions = new LoadOptions();
+        OkvedCoverage.Format format = OkvedCoverage.Format.CSV;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--output":
+                        output = optionValue(args, ++i);
+                        break;
+                    case "--baseline":
+                        baseline = optionValue(args, ++i);
+                        break;
+                    case "--format":
+                        format = OkvedCoverage.Format.valueOf(optionValue(args, ++i).toUpperCase());
+                        break;
+                    default:
+                        i = loadOptions.parseOrFail(args, i);
+                }
+            }
+
+            long start = System.nanoTime();
+            OkvedCoverage coverage = OkvedCoverage.compute(loadIndex(loadOptions, System.err));
+            try (Writer out = openWriter(output, System.out)) {
+                if (baseline != null) {
+                    OkvedSuffixIndex baselineIndex = new OkvedDictionaryLoader(ForkJoinPool.commonPool(), System.err)
+                            .load(Paths.get(baseline));
+                    OkvedCoverage.writeDiff(format, OkvedCoverage.compute(baselineIndex), coverage, out);
+                } else {
+                    coverage.write(format, out);
+                }
+            }
+            System.err.printf("Покрытие: %d кодов, достижимых %d, резервная стратегия для %.4f%% номеров, время: %d мс%n",
+                    coverage.getCodes().size(), coverage.getReachableCount(),
+                    100.0 * coverage.getBackupCount() / OkvedCoverage.PHONE_SPACE, (System.nanoTime() - start) / 1_000_000);
+
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("💥 Критическая ошибка: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        } finally {
+            loadOptions.close();
+        }
+    }
+
+    private static void runServer(String[] args) {
+        int port = 8080;
+        int threads = 0;
+        int reloadSeconds = 0;
+        int linePort = -1;
+        int maxConnections = 1024;
+        boolean watch = false;
+        LoadOptions loadOptions = new LoadOptions();
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(optionValue(args, ++i));
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(optionValue(args, ++i));
+                        break;
+                    case "--reload-interval":
+                        reloadSeconds = Integer.parseInt(optionValue(args, ++i));
+                        break;
+                    case "--watch":
+                        watch = true;
+                        break;
+                    case "--line-port":
+                        linePort = Integer.parseInt(optionValue(args, ++i));
+                        break;
+                    case "--max-connections":
+                        maxConnections = Integer.parseInt(optionValue(args, ++i));
+                        break;
+                    default:
+                        i = loadOptions.parseOrFail(args, i);
+                }
+            }
+
+            if (watch && loadOptions.localFile() == null) {
+                throw new IllegalArgumentException("Параметр --watch требует --okved-file или --dictionary");
+            }
+
+            OkvedFinder finder = new OkvedFinder();
+            OkvedAsyncDataset startup = loadOptions.startupPolicy != null
+                    ? startAsync(finder, loadOptions, System.out) : null;
+            OkvedDatasetReloader reloader = new OkvedDatasetReloader(
+                    startup != null ? initialDataset(startup, loadOptions) : loadDataset(finder, loadOptions, System.out),
+                    () -> loadDataset(finder, loadOptions, System.out),
+                    System.out);
+            if (startup != null) {
+                // Сервис уже отвечает по снимку или резервной стратегией, загруженный справочник подменит его
+                startup.ready().thenAccept(reloader::publish);
+            }
+            if (reloadSeconds > 0) {
+                reloader.scheduleEvery(Duration.ofSeconds(reloadSeconds));
+            }
+            if (watch) {
+                reloader.watch(Paths.get(loadOptions.localFile()));
+            }
+
+            OkvedHttpServer server = new OkvedHttpServer(reloader, finder, System.out);
+            server.start(port, threads);
+            OkvedLineServer lineServer = null;
+            if (linePort >= 0) {
+                lineServer = new OkvedLineServer(reloader, finder, System.out);
+                lineServer.setMaxConnections(maxConnections);
+                lineServer.start(linePort, 0);
+            }
+
+            OkvedLineServer startedLineServer = lineServer;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(5);
+                if (startedLineServer != null) {
+                    startedLineServer.stop(Duration.ofSeconds(5));
+                }
+                try {
+                    reloader.close();
+                } catch (IOException e) {
+                    // Процесс завершается
+                }
+                loadOptions.close();
+            }, "http-shutdown"));
+
+        } catch (IllegalArgumentException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            System.err.println("💥 Критическая ошибка: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Загружает справочник (пользовательский, из локального файла, из нескольких источников
+     * или снимка, если они указаны) и компилирует механизм поиска.
+     */
+    private static OkvedDataset loadDataset(OkvedFinder finder, LoadOptions options, PrintStream log) throws IOException {
+        if (options.metrics) {
+            OkvedMetrics.global().setEnabled(true);
+            OkvedMetrics.global().registerMBean();
+        }
+        long timer = OkvedMetrics.global().startTimer();
+
+        OkvedSuffixIndex index = loadIndex(options, log);
+        OkvedMatcher matcher = finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS);
+        if (options.cacheSize > 0) {
+            matcher = new OkvedResultCache(matcher, options.cacheSize, options.cachePolicy);
         }
+        OkvedMetrics.global().recordDatasetLoad(timer, index.size());
+        return OkvedDataset.of(matcher, index.getLeaves());
+    }
+
+    /**
+     * Загружает справочник по параметрам загрузки и строит индекс окончаний.
+     */
+    private static OkvedSuffixIndex loadIndex(LoadOptions options, PrintStream log) throws IOException {
+        OkvedService okvedService = options.service(log);
+
+        OkvedSuffixIndex index;
+        if (options.dictionary != null) {
+            index = new OkvedDictionaryLoader(ForkJoinPool.commonPool(), log).load(Paths.get(options.dictionary));
+        } else if (options.okvedFile != null) {
+            index = OkvedSuffixIndex.build(okvedService.loadOkvedData(Paths.get(options.okvedFile)));
+        } else if (!options.sources.isEmpty()) {
+            Duration deadline = Duration.ofMillis(options.deadlineMillis);
+            List<OkvedSource> sources = new ArrayList<>();
+            for (String spec : options.sources) {
+                sources.add(toSource(spec, options.cacheDir != null ? okvedService.getDownloader() : null, deadline));
+            }
+            try (OkvedHedgedLoader loader = new OkvedHedgedLoader(sources, okvedService::readNumericLeafItems, log)) {
+                loader.setHedgeDelay(Duration.ofMillis(options.hedgeDelayMillis));
+                loader.setDeadline(deadline);
+                loader.setExpectedSha256(options.sha256);
+                index = OkvedSuffixIndex.build(okvedService.loadOkvedData(loader));
+            }
+        } else if (options.snapshot != null) {
+            index = okvedService.loadOkvedSnapshot(Paths.get(options.snapshot), SNAPSHOT_MAX_AGE).getIndex();
+        } else {
+            index = OkvedSuffixIndex.build(okvedService.loadOkvedData());
+        }
+        return index;
+    }
+
+    /**
+     * Запускает загрузку справочника в фоне. До ее окончания поиск отвечает по политике запуска:
+     * по снимку из --snapshot, если он есть, или резервной стратегией.
+     */
+    private static OkvedAsyncDataset startAsync(OkvedFinder finder, LoadOptions options, PrintStream log) {
+        OkvedDataset provisional = null;
+        if (options.snapshot != null && Files.exists(Paths.get(options.snapshot))) {
+            try {
+                OkvedSnapshot snapshot = OkvedSnapshot.read(Paths.get(options.snapshot));
+                if (!options.skipSnapshotChecksum) {
+                    snapshot.verifyChecksum();
+                }
+                provisional = OkvedDataset.of(snapshot.getIndex(), snapshot.getLeaves());
+            } catch (IOException e) {
+                log.println("Снимок OKVED не может быть прочитан: " + e.getMessage());
+            }
+        }
+
+        OkvedAsyncDataset dataset = OkvedAsyncDataset.start(() -> loadDataset(finder, options, log), task -> {
+            Thread thread = new Thread(task, "okved-load");
+            thread.setDaemon(true);
+            thread.start();
+        }, provisional, finder);
+        dataset.setStartupPolicy(options.startupPolicy);
+        dataset.setMaxWait(Duration.ofMillis(options.startupWaitMillis));
+        dataset.ready().whenComplete((loaded, error) -> {
+            if (error != null) {
+                System.err.println("Ошибка при загрузке OKVED данных: " + error.getMessage());
+            }
+        });
+        return dataset;
+    }
+
+    /**
+     * Возвращает справочник для первых запросов: для политики wait - после ожидания загрузки,
+     * иначе сразу.
+     */
+    private static OkvedDataset initialDataset(OkvedAsyncDataset dataset, LoadOptions options) {
+        if (options.startupPolicy == OkvedAsyncDataset.StartupPolicy.WAIT) {
+            return dataset.await(Duration.ofMillis(options.startupWaitMillis));
+        }
+        return dataset.get();
+    }
+
+    /**
+     * Создает источник по описанию: {@code file:путь}, {@code classpath:ресурс}, {@code cache}
+     * (кэш из --cache-dir) или адрес http(s).
+     */
+    private static OkvedSource toSource(String spec, OkvedDownloader cacheDownloader, Duration timeout) {
+        if (spec.startsWith("file:")) {
+            return OkvedSource.file(Paths.get(spec.substring("file:".length())));
+        }
+        if (spec.startsWith("classpath:")) {
+            return OkvedSource.classpath(spec.substring("classpath:".length()));
+        }
+        if (spec.startsWith("http://") || spec.startsWith("https://")) {
+            return OkvedSource.http(spec, timeout);
+        }
+        if ("cache".equals(spec)) {
+            if (cacheDownloader == null) {
+                throw new IllegalArgumentException("Источник cache требует --cache-dir");
+            }
+            return OkvedSource.cache(cacheDownloader);
+        }
+        throw new IllegalArgumentException("Неизвестный источник справочника: " + spec);
+    }
+
+    private static String optionValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Не указано значение параметра " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    private static int parseTop(String value) {
+        int top = Integer.parseInt(value);
+        if (top < 1) {
+            throw new IllegalArgumentException("Значение --top должно быть положительным: " + value);
+        }
+        return top;
+    }
+
+    private static BufferedReader openReader(String path) throws IOException {
+        if (path == null || "-".equals(path)) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    private static Writer openWriter(String path, OutputStream defaultStream) throws IOException {
+        if (path == null || "-".equals(path)) {
+            // Стандартные потоки не закрываем
+            return new OutputStreamWriter(defaultStream, StandardCharsets.UTF_8) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+        return Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    private static WritableByteChannel openChannel(String path, OutputStream defaultStream) throws IOException {
+        if (path == null || "-".equals(path)) {
+            // Стандартные потоки не закрываем
+            WritableByteChannel channel = Channels.newChannel(defaultStream);
+            return new WritableByteChannel() {
+                @Override
+                public int write(ByteBuffer source) throws IOException {
+                    return channel.write(source);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    defaultStream.flush();
+                }
+            };
+        }
+        return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
     }
 
     private static void printSuccessResult(String normalizedPhone, OkvedFinder.MatchResult result) {
@@ -69,13 +556,41 @@ public class PhoneOkvedApp {
             System.out.printf("Окончание номера:  ...%s%n", result.getPhoneSuffix());
             System.out.printf("Окончание кода:    ...%s%n", result.getOkvedSuffix());
         }
+        if (result.getMismatches() > 0) {
+            System.out.printf("Несовпадений:   %d%n", result.getMismatches());
+        }
+        System.out.println("========================");
+    }
+
+    private static void printTopResults(String normalizedPhone, List<OkvedFinder.MatchResult> results) {
+        System.out.println("\n🎯 ЛУЧШИЕ СОВПАДЕНИЯ:");
+        System.out.println("========================");
+        System.out.printf("Номер:          %s%n", normalizedPhone);
+        for (int rank = 1; rank <= results.size(); rank++) {
+            OkvedFinder.MatchResult result = results.get(rank - 1);
+            System.out.printf("%2d. %-10s совпадение %d цифр  %s%n",
+                    rank, result.getCode(), result.getMatchLength(), result.getName());
+        }
         System.out.println("========================");
     }
 
+    private static void printAnswer(String normalizedPhone, OkvedAsyncDataset.Answer answer) {
+        if (answer.isProvisional()) {
+            System.out.println("⚠️  Справочник OKVED еще загружается, результат предварительный");
+        }
+        if (answer.isBackup()) {
+            printBackupResult(normalizedPhone, answer.getResult());
+        } else {
+            printSuccessResult(normalizedPhone, answer.getResult());
+        }
+    }
+
     private static void applyBackupStrategy(String normalizedPhone) {
         OkvedFinder finder = new OkvedFinder();
-        OkvedFinder.MatchResult backupResult = finder.createBackupMatch(normalizedPhone);
+        printBackupResult(normalizedPhone, finder.createBackupMatch(normalizedPhone));
+    }
 
+    private static void printBackupResult(String normalizedPhone, OkvedFinder.MatchResult backupResult) {
         System.out.println("\n🔄 РЕЗЕРВНЫЙ РЕЗУЛЬТАТ:");
         System.out.println("========================");
         System.out.printf("Номер:          %s%n", normalizedPhone);
@@ -95,9 +610,196 @@ public class PhoneOkvedApp {
         System.out.println("  java -jar phone-okved-finder.jar \"8(912)3456789\"");
         System.out.println("  java -jar phone-okved-finder.jar \"9123456789\"");
         System.out.println();
+        System.out.println("Несколько лучших совпадений (также в пакетном режиме):");
+        System.out.println("  java -jar phone-okved-finder.jar \"9123456789\" --top 5");
+        System.out.println();
+        System.out.println("Приближенный поиск: в окончании допускается до K несовпадающих цифр (K от 0 до 2):");
+        System.out.println("  java -jar phone-okved-finder.jar \"9123456789\" --mismatches 1");
+        System.out.println();
+        System.out.println("Покрытие номеров +79XXXXXXXXX кодами (CSV или JSON; с --baseline - изменения относительно другой версии):");
+        System.out.println("  java -jar phone-okved-finder.jar --coverage --okved-file okved.json [--format json] [--output coverage.csv]");
+        System.out.println("  java -jar phone-okved-finder.jar --coverage --okved-file new-okved.json --baseline okved.json");
+        System.out.println();
+        System.out.println("Бинарный снимок справочника (создается при первом запуске, обновляется раз в сутки):");
+        System.out.println("  java -jar phone-okved-finder.jar \"9123456789\" --snapshot okved.snapshot [--skip-snapshot-checksum]");
+        System.out.println("  --skip-snapshot-checksum: проверять только заголовок и оглавление снимка, без контрольной суммы всех данных");
+        System.out.println();
+        System.out.println("Локальный кэш загрузки (повторные запросы условные, со сжатием gzip):");
+        System.out.println("  java -jar phone-okved-finder.jar \"9123456789\" --cache-dir ~/.cache/okved");
+        System.out.println();
+        System.out.println("HTTP-сервис (GET /match?phone=..., POST /match, GET /health):");
+        System.out.println("  java -jar phone-okved-finder.jar --server [--port 8080] [--threads N]");
+        System.out.println();
+        System.out.println("TCP-сервис с построчным протоколом (номер в строке, ответ \"код,длина\"; запросы можно не дожидаясь ответов):");
+        System.out.println("  java -jar phone-okved-finder.jar --server --line-port 9090 [--max-connections 1024]");
+        System.out.println();
+        System.out.println("Горячее обновление справочника (по расписанию, в секундах, или при изменении файла):");
+        System.out.println("  java -jar phone-okved-finder.jar --server --reload-interval 3600");
+        System.out.println("  java -jar phone-okved-finder.jar --server --okved-file okved.json --watch");
+        System.out.println();
+        System.out.println("Собственный справочник (JSON в формате OKVED или CSV code,name; разбор и индекс строятся параллельно):");
+        System.out.println("  java -jar phone-okved-finder.jar --batch --dictionary partner-codes.csv");
+        System.out.println();
+        System.out.println("Несколько источников справочника по порядку (файл, ресурс, кэш, зеркала); если источник");
+        System.out.println("не ответил за --hedge-delay мс, параллельно запрашивается следующий, побеждает первый проверенный ответ:");
+        System.out.println("  java -jar phone-okved-finder.jar --server --cache-dir ~/.cache/okved --source cache");
+        System.out.println("      --source https://mirror.example/okved.json [--hedge-delay 2000] [--deadline 30000] [--okved-sha256 hex]");
+        System.out.println();
+        System.out.println("Быстрый запуск: справочник загружается в фоне, до окончания загрузки ответ предварительный");
+        System.out.println("(wait - ждать не дольше --startup-wait мс, snapshot - по снимку, backup - резервной стратегией):");
+        System.out.println("  java -jar phone-okved-finder.jar \"9123456789\" --snapshot okved.snapshot --startup snapshot");
+        System.out.println("  java -jar phone-okved-finder.jar --server --startup backup");
+        System.out.println();
+        System.out.println("Кэш результатов для повторяющихся номеров (пакетный режим и HTTP-сервис):");
+        System.out.println("  java -jar phone-okved-finder.jar --server --cache-size 100000 [--cache-policy lru|tinylfu]");
+        System.out.println();
+        System.out.println("Метрики этапов (Prometheus: GET /metrics или stderr пакетного режима, JMX: okved:type=Metrics, события JFR):");
+        System.out.println("  java -jar phone-okved-finder.jar --server --metrics");
+        System.out.println();
+        System.out.println("Пакетный режим:");
+        System.out.println("  java -jar phone-okved-finder.jar --batch [--input файл] [--output файл]");
+        System.out.println("      [--errors файл] [--format csv|jsonl] [--threads N] [--top K] [--metrics] [--snapshot файл] [--cache-dir каталог]");
+        System.out.println("  По умолчанию номера читаются из stdin, результаты пишутся в stdout,");
+        System.out.println("  отклоненные номера с причиной - в stderr.");
+        System.out.println("  --mmap: файл --input отображается в память и обрабатывается без создания строк");
+        System.out.println();
         System.out.println("Формат вывода:");
         System.out.println("  - Нормализованный номер: +79XXXXXXXXX");
         System.out.println("  - Код ОКВЭД с максимальным совпадением");
         System.out.println("  - Длина совпадения цифр");
     }
-}
\ No newline at end of file
+
+    /**
+     * Параметры загрузки справочника, общие для всех режимов.
+     */
+    private static class LoadOptions {
+        private String dictionary;
+        private String okvedFile;
+        private String snapshot;
+        private boolean skipSnapshotChecksum;
+        private String cacheDir;
+        private int cacheSize;
+        private OkvedResultCache.Policy cachePolicy = OkvedResultCache.Policy.TINY_LFU;
+        private boolean metrics;
+        private final List<String> sources = new ArrayList<>();
+        private long hedgeDelayMillis = 2000;
+        private long deadlineMillis = 30000;
+        private String sha256;
+        private OkvedAsyncDataset.StartupPolicy startupPolicy;
+        private long startupWaitMillis = 1000;
+        private OkvedService service;
+
+        /**
+         * Разбирает параметр загрузки.
+         *
+         * @return индекс последнего прочитанного аргумента
+         * @throws IllegalArgumentException если параметр неизвестен
+         */
+        private int parseOrFail(String[] args, int i) {
+            switch (args[i]) {
+                case "--dictionary":
+                    dictionary = optionValue(args, i + 1);
+                    return i + 1;
+                case "--okved-file":
+                    okvedFile = optionValue(args, i + 1);
+                    return i + 1;
+                case "--snapshot":
+                    snapshot = optionValue(args, i + 1);
+                    return i + 1;
+                case "--skip-snapshot-checksum":
+                    skipSnapshotChecksum = true;
+                    return i;
+                case "--cache-dir":
+                    cacheDir = optionValue(args, i + 1);
+                    return i + 1;
+                case "--cache-size":
+                    cacheSize = Integer.parseInt(optionValue(args, i + 1));
+                    return i + 1;
+                case "--cache-policy":
+                    cachePolicy = parseCachePolicy(optionValue(args, i + 1));
+                    return i + 1;
+                case "--metrics":
+                    metrics = true;
+                    return i;
+                case "--source":
+                    sources.add(optionValue(args, i + 1));
+                    return i + 1;
+                case "--hedge-delay":
+                    hedgeDelayMillis = Long.parseLong(optionValue(args, i + 1));
+                    return i + 1;
+                case "--deadline":
+                    deadlineMillis = Long.parseLong(optionValue(args, i + 1));
+                    return i + 1;
+                case "--okved-sha256":
+                    sha256 = optionValue(args, i + 1);
+                    return i + 1;
+                case "--startup":
+                    startupPolicy = parseStartupPolicy(optionValue(args, i + 1));
+                    return i + 1;
+                case "--startup-wait":
+                    startupWaitMillis = Long.parseLong(optionValue(args, i + 1));
+                    return i + 1;
+                default:
+                    throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+        }
+
+        /**
+         * Возвращает сервис загрузки. Сервис с загрузчиком создается один раз и используется
+         * всеми загрузками процесса, в том числе повторными при обновлении справочника.
+         */
+        private synchronized OkvedService service(PrintStream log) {
+            if (service == null) {
+                Path dir = cacheDir != null ? Paths.get(cacheDir) : null;
+                service = new OkvedService(log, new OkvedDownloader(OkvedService.OKVED_URL, dir, log));
+                service.setSkipSnapshotChecksum(skipSnapshotChecksum);
+            }
+            return service;
+        }
+
+        /**
+         * Закрывает сервис загрузки, если он создавался.
+         */
+        private synchronized void close() {
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException e) {
+                    // Соединения освобождаются при завершении процесса
+                }
+                service = null;
+            }
+        }
+
+        /**
+         * Возвращает локальный файл справочника, если он задан.
+         */
+        private String localFile() {
+            return dictionary != null ? dictionary : okvedFile;
+        }
+
+        private static OkvedAsyncDataset.StartupPolicy parseStartupPolicy(String value) {
+            switch (value.toLowerCase()) {
+                case "wait":
+                    return OkvedAsyncDataset.StartupPolicy.WAIT;
+                case "snapshot":
+                    return OkvedAsyncDataset.StartupPolicy.SNAPSHOT;
+                case "backup":
+                    return OkvedAsyncDataset.StartupPolicy.BACKUP;
+                default:
+                    throw new IllegalArgumentException("Неизвестная политика запуска: " + value);
+            }
+        }
+
+        private static OkvedResultCache.Policy parseCachePolicy(String value) {
+            switch (value.toLowerCase()) {
+                case "lru":
+                    return OkvedResultCache.Policy.LRU;
+                case "tinylfu":
+                    return OkvedResultCache.Policy.TINY_LFU;
+                default:
+                    throw new IllegalArgumentException("Неизвестная политика кэша: " + value);
+            }
+        }
+    }
+}
@@ -1,6 +1,56 @@
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.regex.Pattern;
 
 /**
  * Тестовый класс для отладки функциональности.
@@ -9,10 +59,35 @@ import java.util.List;
 public class TestApp {
 
     public static void main(String[] args) throws Exception {
+        // Тестовый HTTP-сервер в testCachedDownload создается раньше OkvedHttpServer,
+        // поэтому TCP_NODELAY включается до первого создания сервера в JVM
+        System.setProperty("sun.net.httpserver.nodelay", "true");
         System.out.println("🧪 Тестирование Phone OKVED Finder\n");
         testPhoneNormalizer();
         testJsonParsing();
         testIntegration();
+        testSuffixIndex();
+        testBatchProcessor();
+        testNormalizerEquivalence();
+        testSnapshot();
+        testStreamingParser();
+        testCachedDownload();
+        testHttpServer();
+        testResultCache();
+        testTopMatches();
+        testMetrics();
+        testDatasetReload();
+        testLeafTableFootprint();
+        testLargeDictionary();
+        testHedgedLoading();
+        testAsyncStartup();
+        testLineServer();
+        testAllocationFreeLookup();
+        testMappedBatch();
+        testBulkNormalizer();
+        testApproximateMatch();
+        testCoverage();
+        testBulkMatches();
     }
 
     private static void testPhoneNormalizer() {
@@ -93,4 +168,2001 @@ public class TestApp {
             System.out.println("  ОШИБКА: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    private static void testSuffixIndex() {
+        System.out.println("4. Сравнение индекса и таблицы с линейным поиском:");
+
+        Random random = new Random(42);
+        List<OkvedItem> testItems = randomOkvedItems(random, 2000);
+        OkvedFinder finder = new OkvedFinder();
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(testItems);
+        OkvedSuffixTable table = OkvedSuffixTable.build(index);
+
+        int mismatches = 0;
+        int checks = 10_000;
+        for (int i = 0; i < checks; i++) {
+            String phone = randomPhone(random);
+            String expected = describe(finder.findBestMatch(phone, testItems));
+            String actual = describe(finder.findBestMatch(phone, index));
+            String compiled = describe(finder.findBestMatch(phone, table));
+            if (!expected.equals(actual) || !expected.equals(compiled)) {
+                if (mismatches++ < 5) {
+                    System.out.printf("  %s: ожидалось %s, получено %s%n", phone, expected, actual);
+                }
+            }
+        }
+
+        System.out.printf("  Проверено номеров: %d, расхождений: %d%n", checks, mismatches);
+        System.out.println();
+    }
+
+    private static List<OkvedItem> randomOkvedItems(Random random, int count) {
+        List<OkvedItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder code = new StringBuilder();
+            int groups = 1 + random.nextInt(3);
+            for (int g = 0; g < groups; g++) {
+                if (g > 0) {
+                    code.append('.');
+                }
+                code.append(random.nextInt(10)).append(random.nextInt(10));
+            }
+            if (random.nextInt(10) == 0) {
+                code.setLength(code.length() - 1);
+            }
+            items.add(new OkvedItem(code.toString(), "Элемент " + i, null));
+        }
+        items.add(new OkvedItem("Раздел", "Без цифр", null));
+        return items;
+    }
+
+    private static String randomPhone(Random random) {
+        StringBuilder phone = new StringBuilder("+79");
+        for (int i = 0; i < 9; i++) {
+            phone.append(random.nextInt(10));
+        }
+        return phone.toString();
+    }
+
+    private static String describe(Optional<OkvedFinder.MatchResult> result) {
+        return result.map(r -> r + " " + r.getName()).orElse("нет");
+    }
+
+    private static void testBatchProcessor() throws Exception {
+        System.out.println("5. Тест пакетной обработки:");
+
+        Random random = new Random(7);
+        List<OkvedItem> testItems = randomOkvedItems(random, 500);
+        OkvedFinder finder = new OkvedFinder();
+        OkvedMatcher matcher = OkvedSuffixIndex.build(testItems);
+
+        StringBuilder input = new StringBuilder();
+        int phones = 10_000;
+        for (int i = 0; i < phones; i++) {
+            input.append(i % 100 == 0 ? "123" : randomPhone(random)).append('\n');
+        }
+
+        PhoneBatchProcessor processor = new PhoneBatchProcessor(
+                new PhoneNormalizer(), finder, matcher, PhoneBatchProcessor.Format.CSV, 4);
+        StringWriter output = new StringWriter();
+        StringWriter errors = new StringWriter();
+        PhoneBatchProcessor.Stats stats = processor.process(
+                new BufferedReader(new StringReader(input.toString())), output, errors);
+
+        String[] inputLines = input.toString().split("\n");
+        String[] outputLines = output.toString().split("\n");
+        boolean ordered = true;
+        for (int i = 1, j = 0; i < outputLines.length; i++, j++) {
+            if (j % 100 == 0) {
+                j++;
+            }
+            if (!outputLines[i].startsWith(inputLines[j] + ",")) {
+                ordered = false;
+                break;
+            }
+        }
+
+        System.out.println("  " + stats);
+        System.out.println("  Порядок сохранен: " + ordered);
+        System.out.println("  Первая ошибка: " + errors.toString().split("\n")[1]);
+        System.out.println();
+    }
+
+    private static final Pattern REFERENCE_PHONE_PATTERN = Pattern.compile(
+            "^[+]?[\\s\\-()]*[78]?[\\s\\-()]*9\\d{2}[\\s\\-()]*\\d{3}[\\s\\-()]*\\d{2}[\\s\\-()]*\\d{2}$"
+    );
+
+    private static final Pattern REFERENCE_DIGITS_PATTERN = Pattern.compile("[^0-9]");
+
+    private static final char[] PHONE_ALPHABET = {
+            '+', '7', '8', '9', '0', ' ', '-', '(', ')', '\t', '\u0001', 'a', '\u0660'
+    };
+
+    private static void testNormalizerEquivalence() {
+        System.out.println("6. Сравнение нормализатора с регулярным выражением:");
+
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        long checks = 0;
+        long mismatches = 0;
+
+        // Все строки длиной до 5 символов из алфавита
+        char[] buffer = new char[5];
+        for (int length = 0; length <= buffer.length; length++) {
+            int combinations = (int) Math.pow(PHONE_ALPHABET.length, length);
+            for (int n = 0; n < combinations; n++) {
+                int rest = n;
+                for (int i = 0; i < length; i++) {
+                    buffer[i] = PHONE_ALPHABET[rest % PHONE_ALPHABET.length];
+                    rest /= PHONE_ALPHABET.length;
+                }
+                mismatches += compareNormalizers(normalizer, new String(buffer, 0, length));
+                checks++;
+            }
+        }
+
+        // Случайные искажения корректных номеров
+        Random random = new Random(11);
+        String[] templates = {
+                "+7 (912) 345-67-89", "8(912)3456789", "9123456789", "+79123456789",
+                "7 912 345 67 89", " \u0001+8-(999)-000-00-00\r\n"
+        };
+        for (int n = 0; n < 2_000_000; n++) {
+            StringBuilder phone = new StringBuilder(templates[random.nextInt(templates.length)]);
+            int edits = random.nextInt(4);
+            for (int e = 0; e < edits; e++) {
+                int position = random.nextInt(phone.length() + 1);
+                char c = PHONE_ALPHABET[random.nextInt(PHONE_ALPHABET.length)];
+                switch (random.nextInt(3)) {
+                    case 0:
+                        phone.insert(position, c);
+                        break;
+                    case 1:
+                        if (position < phone.length()) {
+                            phone.deleteCharAt(position);
+                        }
+                        break;
+                    default:
+                        if (position < phone.length()) {
+                            phone.setCharAt(position, c);
+                        }
+                }
+            }
+            mismatches += compareNormalizers(normalizer, phone.toString());
+            checks++;
+        }
+        mismatches += compareNormalizers(normalizer, null);
+
+        System.out.printf("  Проверено строк: %d, расхождений: %d%n", checks, mismatches);
+        System.out.println();
+    }
+
+    private static int compareNormalizers(PhoneNormalizer normalizer, String input) {
+        String expected;
+        try {
+            expected = referenceNormalize(input);
+        } catch (IllegalArgumentException e) {
+            expected = "ОШИБКА: " + e.getMessage();
+        }
+
+        String actual;
+        try {
+            actual = normalizer.normalize(input);
+        } catch (IllegalArgumentException e) {
+            actual = "ОШИБКА: " + e.getMessage();
+        }
+
+        if (expected.equals(actual)) {
+            return 0;
+        }
+        System.out.printf("  '%s': ожидалось %s, получено %s%n", input, expected, actual);
+        return 1;
+    }
+
+    /**
+     * Прежняя реализация нормализации на регулярных выражениях.
+     */
+    private static String referenceNormalize(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            throw new IllegalArgumentException("Номер телефона не может быть пустым");
+        }
+
+        String cleaned = input.trim();
+        if (!REFERENCE_PHONE_PATTERN.matcher(cleaned).matches()) {
+            throw new IllegalArgumentException("Номер не соответствует формату российского мобильного");
+        }
+
+        String digits = REFERENCE_DIGITS_PATTERN.matcher(cleaned).replaceAll("");
+        if (digits.length() == 10) {
+            digits = "7" + digits;
+        } else if (digits.length() == 11) {
+            if (digits.startsWith("8")) {
+                digits = "7" + digits.substring(1);
+            }
+        } else {
+            throw new IllegalArgumentException(
+                    String.format("Номер должен содержать 10 или 11 цифр, получено: %d", digits.length())
+            );
+        }
+
+        if (!digits.startsWith("79")) {
+            throw new IllegalArgumentException("Российские мобильные номера должны начинаться с 79");
+        }
+
+        return "+" + digits;
+    }
+
+    private static void testSnapshot() throws Exception {
+        System.out.println("7. Тест бинарного снимка:");
+
+        Random random = new Random(5);
+        List<OkvedItem> testItems = randomOkvedItems(random, 1000);
+        OkvedFinder finder = new OkvedFinder();
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(testItems);
+
+        Path path = Files.createTempFile("okved", ".snapshot");
+        try {
+            new OkvedSnapshot("test", System.currentTimeMillis(), index).write(path);
+            OkvedSnapshot snapshot = OkvedSnapshot.read(path);
+            snapshot.verifyChecksum();
+
+            int mismatches = 0;
+            for (int i = 0; i < 10_000; i++) {
+                String phone = randomPhone(random);
+                if (!describe(finder.findBestMatch(phone, index))
+                        .equals(describe(finder.findBestMatch(phone, snapshot.getIndex())))) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("  Размер снимка: %d байт, элементов: %d, расхождений: %d%n",
+                    Files.size(path), snapshot.getLeaves().size(), mismatches);
+
+            byte[] bytes = Files.readAllBytes(path);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(path, bytes);
+            try {
+                OkvedSnapshot.read(path).verifyChecksum();
+                System.out.println("  Поврежденные данные снимка не обнаружены");
+            } catch (IOException e) {
+                System.out.println("  Поврежденные данные снимка обнаружены: " + e.getMessage());
+            }
+
+            // Сервис не использует снимок с поврежденными данными и переходит к JSON
+            // (здесь недоступному); без проверки контрольной суммы снимок используется
+            String url = "http://127.0.0.1:1/okved.json";
+            new OkvedSnapshot(url, System.currentTimeMillis(), index).write(path);
+            byte[] serviceBytes = Files.readAllBytes(path);
+            serviceBytes[serviceBytes.length / 2] ^= 1;
+            Files.write(path, serviceBytes);
+            PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+            try (OkvedService checked = new OkvedService(quiet, new OkvedDownloader(url, null, quiet));
+                 OkvedService unchecked = new OkvedService(quiet, new OkvedDownloader(url, null, quiet))) {
+                unchecked.setSkipSnapshotChecksum(true);
+                System.out.printf("  Сервис: элементов с проверкой %d, без проверки %d%n",
+                        checked.loadOkvedSnapshot(path, Duration.ofDays(1)).getLeaves().size(),
+                        unchecked.loadOkvedSnapshot(path, Duration.ofDays(1)).getLeaves().size());
+            }
+            Files.write(path, bytes);
+
+            bytes[bytes.length / 2] ^= 1;
+            bytes[24] ^= 1;
+            Files.write(path, bytes);
+            try {
+                OkvedSnapshot.read(path);
+                System.out.println("  Снимок с поврежденным оглавлением прочитан без ошибки");
+            } catch (IOException e) {
+                System.out.println("  Снимок с поврежденным оглавлением отклонен: " + e.getMessage());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+        System.out.println();
+    }
+
+    private static void testStreamingParser() throws Exception {
+        System.out.println("8. Сравнение потокового разбора с деревом Jackson:");
+
+        Random random = new Random(3);
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 30; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendRandomJsonItem(json, random, String.valueOf(10 + i), 0);
+        }
+        json.append(']');
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<OkvedItem> roots = mapper.readValue(
+                json.toString(),
+                new com.fasterxml.jackson.core.type.TypeReference<List<OkvedItem>>() {}
+        );
+        List<OkvedItem> expected = new ArrayList<>();
+        for (OkvedItem root : roots) {
+            expected.addAll(root.collectNumericLeafItems());
+        }
+
+        List<OkvedItem> actual = new OkvedService().readNumericLeafItems(
+                new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)));
+
+        System.out.printf("  Листьев в дереве: %d, в потоке: %d, совпадают: %s%n",
+                expected.size(), actual.size(), expected.equals(actual));
+        System.out.println();
+    }
+
+    private static void appendRandomJsonItem(StringBuilder json, Random random, String code, int depth) {
+        List<String> fields = new ArrayList<>();
+        fields.add(random.nextInt(20) == 0 ? "\"code\":\"Раздел\"" : "\"code\":\"" + code + "\"");
+        fields.add("\"name\":\"Элемент " + code + "\"");
+        if (random.nextInt(5) == 0) {
+            fields.add("\"comment\":{\"items\":[{\"code\":\"77\"}]}");
+        }
+
+        int children = depth < 4 ? random.nextInt(4) : 0;
+        if (children > 0) {
+            StringBuilder items = new StringBuilder("\"items\":[");
+            for (int i = 0; i < children; i++) {
+                if (i > 0) {
+                    items.append(',');
+                }
+                appendRandomJsonItem(items, random, code + "." + (i + 1), depth + 1);
+            }
+            fields.add(items.append(']').toString());
+        } else if (random.nextBoolean()) {
+            fields.add(random.nextBoolean() ? "\"items\":[]" : "\"items\":null");
+        }
+
+        Collections.shuffle(fields, random);
+        json.append('{').append(String.join(",", fields)).append('}');
+    }
+
+    private static void testCachedDownload() throws Exception {
+        System.out.println("9. Тест кэширующей загрузки:");
+
+        byte[] json = ("[{\"code\":\"01\",\"name\":\"Растениеводство\",\"items\":"
+                + "[{\"code\":\"01.11\",\"name\":\"Зерновые\"},{\"code\":\"01.12\",\"name\":\"Рис\"}]}]")
+                .getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(json);
+        }
+
+        // v1 - gzip, v2 - обрезанный gzip, v3 - JSON без сжатия
+        AtomicReference<String> version = new AtomicReference<>("v1");
+        AtomicInteger fullResponses = new AtomicInteger();
+        AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/okved.json", exchange -> {
+            String etag = "\"" + version.get() + "\"";
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                byte[] body = gzipped.toByteArray();
+                if (etag.equals("\"v2\"")) {
+                    body = Arrays.copyOf(body, body.length / 2);
+                }
+                if (etag.equals("\"v3\"")) {
+                    body = json;
+                } else {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+
+        Path cacheDir = Files.createTempDirectory("okved-cache");
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/okved.json";
+        try (OkvedDownloader downloader = new OkvedDownloader(url, cacheDir, System.out)) {
+            downloader.setMaxAge(Duration.ZERO);
+            downloader.setStaleWhileRevalidate(Duration.ZERO);
+            downloader.setConnectTimeout(Duration.ofSeconds(1));
+            OkvedService service = new OkvedService(System.out, downloader);
+
+            int first = service.loadOkvedData().size();
+            int second = service.loadOkvedData().size();
+            System.out.printf("  Полных ответов: %d, ответов 304: %d, элементов: %d и %d%n",
+                    fullResponses.get(), notModified.get(), first, second);
+
+            // Обрезанный ответ не заменяет кэш
+            version.set("v2");
+            System.out.println("  Элементов после обрезанного ответа: " + service.loadOkvedData().size());
+
+            // Устаревший кэш отдается сразу, а фоновое обновление меняет и тело, и Content-Encoding
+            version.set("v3");
+            downloader.setStaleWhileRevalidate(Duration.ofDays(1));
+            int stale = service.loadOkvedData().size();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!cachedEtag(cacheDir).equals("\"v3\"") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            downloader.setMaxAge(Duration.ofDays(1));
+            System.out.printf("  Устаревший кэш: %d элементов, после фонового обновления (%s): %d%n",
+                    stale, cachedEtag(cacheDir), service.loadOkvedData().size());
+
+            server.stop(0);
+            downloader.setMaxAge(Duration.ZERO);
+            downloader.setStaleWhileRevalidate(Duration.ZERO);
+            System.out.println("  Элементов при недоступном сервере: " + service.loadOkvedData().size());
+
+            // После закрытия загрузчика фоновое обновление не запускается
+            OkvedDownloader closed = new OkvedDownloader(url, cacheDir, System.out);
+            closed.setMaxAge(Duration.ZERO);
+            closed.close();
+            System.out.println("  Элементов после закрытия загрузчика: "
+                    + new OkvedService(System.out, closed).loadOkvedData().size());
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                System.out.println("  Файлов тела в кэше: "
+                        + files.filter(file -> file.toString().endsWith(".body")).count());
+            }
+        } finally {
+            server.stop(0);
+            try (Stream<Path> files = Files.list(cacheDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(cacheDir);
+        }
+        System.out.println();
+    }
+
+    private static String cachedEtag(Path cacheDir) throws IOException {
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            Path metaPath = files.filter(file -> file.toString().endsWith(".properties")).findFirst().orElse(null);
+            if (metaPath == null) {
+                return "";
+            }
+            java.util.Properties meta = new java.util.Properties();
+            try (InputStream input = Files.newInputStream(metaPath)) {
+                meta.load(input);
+            }
+            return meta.getProperty("etag", "");
+        }
+    }
+
+    private static void testHttpServer() throws Exception {
+        System.out.println("10. Тест HTTP-сервиса:");
+
+        Random random = new Random(8);
+        List<OkvedItem> testItems = randomOkvedItems(random, 2000);
+        OkvedFinder finder = new OkvedFinder();
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(testItems);
+        OkvedDataset dataset = OkvedDataset.of(OkvedSuffixTable.build(index), index.getLeaves());
+
+        OkvedHttpServer server = new OkvedHttpServer(() -> dataset, finder, System.out);
+        server.start(0, 4);
+        String base = "http://127.0.0.1:" + server.getPort();
+        try {
+            System.out.println("  GET:    " + httpRequest(base + "/match?phone=%2B7%20912%20345-67-89", null));
+            System.out.println("  Ошибка: " + httpRequest(base + "/match?phone=123", null));
+            System.out.println("  POST:   " + httpRequest(base + "/match", "[\"89123456789\",\"abc\"]"));
+            System.out.println("  Health: " + httpRequest(base + "/health", null));
+            server.setMaxRequestBytes(1024);
+            System.out.println("  Большое тело: " + httpRequest(base + "/match", "89123456789\n".repeat(200)));
+            server.setMaxRequestBytes(OkvedHttpServer.DEFAULT_MAX_REQUEST_BYTES);
+
+            long[] latencies = new long[2000];
+            for (int i = 0; i < latencies.length; i++) {
+                long start = System.nanoTime();
+                httpRequest(base + "/match?phone=" + randomPhone(random).substring(1), null);
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("  Задержка p50: %d мкс, p99: %d мкс%n",
+                    latencies[latencies.length / 2] / 1000, latencies[latencies.length * 99 / 100] / 1000);
+        } finally {
+            server.stop(0);
+        }
+        System.out.println();
+    }
+
+    private static void testResultCache() throws Exception {
+        System.out.println("11. Тест кэша результатов:");
+
+        Random random = new Random(11);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(randomOkvedItems(random, 2000));
+        OkvedSuffixIndex otherIndex = OkvedSuffixIndex.build(randomOkvedItems(random, 2000));
+
+        // Популярные номера перемешаны с потоком однократных
+        String[] popular = new String[500];
+        for (int i = 0; i < popular.length; i++) {
+            popular[i] = randomPhone(random);
+        }
+
+        for (OkvedResultCache.Policy policy : OkvedResultCache.Policy.values()) {
+            OkvedResultCache cache = new OkvedResultCache(index, 1000, policy);
+            AtomicInteger mismatches = new AtomicInteger();
+
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                long seed = t;
+                threads[t] = new Thread(() -> {
+                    Random threadRandom = new Random(seed);
+                    for (int i = 0; i < 50_000; i++) {
+                        String phone = threadRandom.nextInt(2) == 0
+                                ? popular[(int) (popular.length * Math.pow(threadRandom.nextDouble(), 3))]
+                                : randomPhone(threadRandom);
+                        if (!describe(index.findBestMatch(phone)).equals(describe(cache.findBestMatch(phone)))) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.printf("  %-8s %s, расхождений: %d%n", policy, cache.stats(), mismatches.get());
+
+            // После смены справочника результаты берутся только из нового
+            cache.rebind(otherIndex);
+            int staleResults = 0;
+            for (String phone : popular) {
+                if (!describe(otherIndex.findBestMatch(phone)).equals(describe(cache.findBestMatch(phone)))) {
+                    staleResults++;
+                }
+            }
+            System.out.printf("  %-8s после смены справочника устаревших результатов: %d%n", policy, staleResults);
+        }
+        System.out.println();
+    }
+
+    private static void testTopMatches() throws Exception {
+        System.out.println("12. Тест нескольких лучших совпадений:");
+
+        Random random = new Random(12);
+        List<OkvedItem> testItems = randomOkvedItems(random, 2000);
+        OkvedFinder finder = new OkvedFinder();
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(testItems);
+        OkvedSuffixTable table = OkvedSuffixTable.build(index);
+
+        int mismatches = 0;
+        int checks = 0;
+        for (int k : new int[]{1, 3, 10, 25}) {
+            for (int i = 0; i < 1000; i++) {
+                String phone = randomPhone(random);
+                String expected = finder.findTopMatches(phone, testItems, k).stream()
+                        .map(r -> describe(Optional.of(r))).collect(Collectors.joining("; "));
+                String actual = index.findTopMatches(phone, k).stream()
+                        .map(r -> describe(Optional.of(r))).collect(Collectors.joining("; "));
+                String compiled = table.findTopMatches(phone, k).stream()
+                        .map(r -> describe(Optional.of(r))).collect(Collectors.joining("; "));
+                if (!expected.equals(actual) || !expected.equals(compiled)) {
+                    if (mismatches++ < 3) {
+                        System.out.printf("  %s, k=%d:%n    ожидалось %s%n    получено  %s%n", phone, k, expected, actual);
+                    }
+                }
+                if (k == 1 && !describe(index.findBestMatch(phone)).equals(actual)) {
+                    mismatches++;
+                }
+                checks++;
+            }
+        }
+        System.out.printf("  Проверено запросов: %d, расхождений: %d%n", checks, mismatches);
+
+        String[] phones = new String[10_000];
+        for (int i = 0; i < phones.length; i++) {
+            phones[i] = randomPhone(random);
+        }
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            for (String phone : phones) {
+                index.findBestMatch(phone);
+            }
+            long best = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (String phone : phones) {
+                index.findTopMatches(phone, 10);
+            }
+            long top = System.nanoTime() - start;
+            if (round == 19) {
+                System.out.printf("  Лучшее совпадение: %d нс, 10 лучших: %d нс на номер%n",
+                        best / phones.length, top / phones.length);
+            }
+        }
+
+        PhoneBatchProcessor processor = new PhoneBatchProcessor(
+                new PhoneNormalizer(), finder, index, PhoneBatchProcessor.Format.CSV, 2);
+        processor.setTopMatches(3);
+        StringWriter output = new StringWriter();
+        processor.process(new BufferedReader(new StringReader("+7 912 345-67-89\n")), output, new StringWriter());
+        output.toString().lines().forEach(line -> System.out.println("  " + line));
+        System.out.println();
+    }
+
+    private static void testMetrics() throws Exception {
+        System.out.println("13. Тест метрик и событий JFR:");
+
+        Random random = new Random(13);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(randomOkvedItems(random, 2000));
+        OkvedFinder finder = new OkvedFinder(new PrintStream(OutputStream.nullOutputStream()));
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        String[] inputs = new String[10_000];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = i % 10 == 0 ? "123" : i % 25 == 0 ? " " : "8" + randomPhone(random).substring(2);
+        }
+
+        OkvedMetrics metrics = OkvedMetrics.global();
+        long disabled = measureLookups(normalizer, finder, index, inputs);
+        metrics.setEnabled(true);
+        metrics.reset();
+
+        Path jfrFile = Files.createTempFile("okved", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("okved.Stage");
+            recording.enable("okved.Lookup");
+            recording.start();
+            long timer = metrics.startTimer();
+            finder.compile(OkvedSuffixIndex.build(index.getLeaves()), OkvedFinder.MAX_TABLE_DIGITS);
+            metrics.recordDatasetLoad(timer, index.size());
+            for (int i = 0; i < 100; i++) {
+                lookup(normalizer, finder, index, inputs[i]);
+            }
+            recording.stop();
+            recording.dump(jfrFile);
+        }
+        Map<String, Long> events = RecordingFile.readAllEvents(jfrFile).stream()
+                .collect(Collectors.groupingBy(e -> e.getEventType().getName() + "/" + e.getString("stage"),
+                        TreeMap::new, Collectors.counting()));
+        Files.delete(jfrFile);
+        System.out.println("  События JFR: " + events);
+
+        metrics.reset();
+        long enabled = measureLookups(normalizer, finder, index, inputs);
+        long rounds = 20;
+        System.out.printf("  Отклонено: пустых %d, по формату %d (ожидалось %d и %d), резервных: %d%n",
+                metrics.getRejectedEmpty(), metrics.getRejectedFormat(),
+                rounds * 200, rounds * 1000, metrics.getBackupFallbacks());
+        System.out.printf("  Нормализация + поиск: выключены %d нс, включены %d нс на номер%n",
+                disabled / inputs.length, enabled / inputs.length);
+
+        String prometheus = metrics.getPrometheusText();
+        prometheus.lines()
+                .filter(line -> line.startsWith("okved_stage_duration_seconds{stage=\"match\"")
+                        || line.startsWith("okved_normalize_rejects_total")
+                        || line.startsWith("okved_match_length_total{length=\"2\"")
+                        || line.startsWith("okved_dataset_items"))
+                .forEach(line -> System.out.println("  " + line));
+
+        metrics.setEnabled(false);
+        metrics.reset();
+        System.out.println();
+    }
+
+    private static void testDatasetReload() throws Exception {
+        System.out.println("14. Тест горячей замены справочника:");
+
+        Random random = new Random(14);
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        List<List<OkvedItem>> versions = new ArrayList<>();
+        for (int v = 0; v < 3; v++) {
+            versions.add(randomOkvedItems(random, 3000));
+        }
+        String[] phones = new String[2000];
+        for (int i = 0; i < phones.length; i++) {
+            phones[i] = randomPhone(random);
+        }
+
+        // Ожидаемые результаты для каждой версии справочника
+        Map<String, String[]> expectedByVersion = new TreeMap<>();
+        for (List<OkvedItem> items : versions) {
+            String[] expected = new String[phones.length];
+            for (int i = 0; i < phones.length; i++) {
+                expected[i] = describe(finder.findBestMatch(phones[i], items));
+            }
+            expectedByVersion.put(compileDataset(finder, items).getVersion(), expected);
+        }
+
+        // Каждая пятая загрузка завершается ошибкой, каждая седьмая возвращает пустой справочник
+        AtomicInteger loads = new AtomicInteger();
+        OkvedDatasetReloader reloader = new OkvedDatasetReloader(
+                compileDataset(finder, versions.get(0)),
+                () -> {
+                    int load = loads.incrementAndGet();
+                    if (load % 5 == 0) {
+                        throw new IOException("источник недоступен");
+                    }
+                    List<OkvedItem> items = load % 7 == 0 ? Collections.emptyList() : versions.get(load % versions.size());
+                    return compileDataset(finder, items);
+                },
+                quiet);
+
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicInteger mismatches = new AtomicInteger();
+        AtomicInteger unknownVersions = new AtomicInteger();
+        long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            long seed = t;
+            readers[t] = new Thread(() -> {
+                Random threadRandom = new Random(seed);
+                while (System.nanoTime() < deadline) {
+                    OkvedDataset dataset = reloader.get();
+                    String[] expected = expectedByVersion.get(dataset.getVersion());
+                    if (expected == null) {
+                        unknownVersions.incrementAndGet();
+                        continue;
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        int p = threadRandom.nextInt(phones.length);
+                        if (!expected[p].equals(describe(finder.findBestMatch(phones[p], dataset.getMatcher())))) {
+                            mismatches.incrementAndGet();
+                        }
+                        lookups.incrementAndGet();
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        int versionKeptOnFailure = 0;
+        int failedAttempts = 0;
+        while (System.nanoTime() < deadline) {
+            String before = reloader.getVersion();
+            long failuresBefore = reloader.getFailureCount();
+            reloader.reload();
+            if (reloader.getFailureCount() > failuresBefore) {
+                failedAttempts++;
+                if (before.equals(reloader.getVersion())) {
+                    versionKeptOnFailure++;
+                }
+            }
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        System.out.printf("  Поисков: %d, расхождений: %d, неизвестных версий: %d%n",
+                lookups.get(), mismatches.get(), unknownVersions.get());
+        System.out.printf("  Замен: %d, неудачных загрузок: %d, из них версия сохранена: %d%n",
+                reloader.getReloadCount(), failedAttempts, versionKeptOnFailure);
+
+        // Обновление при изменении файла
+        Path directory = Files.createTempDirectory("okved-reload");
+        Path file = directory.resolve("okved.json");
+        Files.writeString(file, toOkvedJson(versions.get(0)));
+        try (OkvedService service = new OkvedService(quiet);
+             OkvedDatasetReloader fileReloader = new OkvedDatasetReloader(
+                compileDataset(finder, service.loadOkvedData(file)),
+                () -> compileDataset(finder, service.loadOkvedData(file)),
+                quiet)) {
+            fileReloader.watch(file);
+            String expectedVersion = compileDataset(finder, versions.get(1)).getVersion();
+            Files.writeString(file, toOkvedJson(versions.get(1)));
+
+            long watchDeadline = System.nanoTime() + Duration.ofSeconds(15).toNanos();
+            while (!expectedVersion.equals(fileReloader.getVersion()) && System.nanoTime() < watchDeadline) {
+                Thread.sleep(50);
+            }
+            System.out.printf("  Обновление при изменении файла: %s%n",
+                    expectedVersion.equals(fileReloader.getVersion()) ? "выполнено" : "не выполнено");
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+        System.out.println();
+    }
+
+    private static void testLeafTableFootprint() {
+        System.out.println("15. Память таблицы элементов:");
+
+        // Элементы в том виде, в каком их раньше хранил индекс: объекты со списком
+        // дочерних элементов и отдельные строки цифр кодов
+        Random random = new Random(15);
+        int count = 200_000;
+        long baseline = usedHeap();
+        List<OkvedItem> items = new ArrayList<>(count);
+        List<String> digits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String code = String.format("%02d.%02d.%d", random.nextInt(100), random.nextInt(100), random.nextInt(10));
+            OkvedItem item = new OkvedItem(code, "Деятельность по виду номер " + i, new ArrayList<>());
+            items.add(item);
+            digits.add(item.getDigitsOnly());
+        }
+        long objectsBytes = usedHeap() - baseline;
+
+        OkvedLeafTable table = OkvedLeafTable.of(items);
+        int mismatches = 0;
+        for (int i = 0; i < count; i++) {
+            if (!items.get(i).equals(table.item(i)) || !digits.get(i).equals(table.getDigits(i))) {
+                mismatches++;
+            }
+        }
+        items = null;
+        digits = null;
+        long tableBytes = usedHeap() - baseline;
+
+        System.out.printf("  Элементов: %d, расхождений: %d%n", table.size(), mismatches);
+        System.out.printf("  Объекты: %d КБ (%d байт на элемент), таблица: %d КБ (%d байт на элемент, оценка %d КБ)%n",
+                objectsBytes / 1024, objectsBytes / count, tableBytes / 1024, tableBytes / count,
+                table.getFootprintBytes() / 1024);
+        System.out.println();
+    }
+
+    private static void testLargeDictionary() throws Exception {
+        System.out.println("16. Большой пользовательский справочник:");
+
+        // Дерево из разделов, групп и листьев; коды повторяются, чтобы проверить выбор при равенстве
+        Random random = new Random(16);
+        List<OkvedItem> roots = new ArrayList<>();
+        int leafNumber = 0;
+        for (int r = 0; r < 40; r++) {
+            List<OkvedItem> groups = new ArrayList<>();
+            for (int g = 0; g < 25; g++) {
+                List<OkvedItem> leaves = new ArrayList<>();
+                for (int l = 0; l < 300; l++) {
+                    StringBuilder code = new StringBuilder();
+                    int digits = 1 + random.nextInt(8);
+                    for (int d = 0; d < digits; d++) {
+                        if (d > 0 && d % 2 == 0) {
+                            code.append('.');
+                        }
+                        code.append(random.nextInt(10));
+                    }
+                    leaves.add(new OkvedItem(code.toString(), "Код партнера " + leafNumber++ + ", \"группа\" " + g, null));
+                }
+                groups.add(new OkvedItem("Группа " + g, "Группа", leaves));
+            }
+            roots.add(new OkvedItem("Раздел " + r, "Раздел", groups));
+        }
+        List<OkvedItem> expected = new ArrayList<>();
+        for (OkvedItem root : roots) {
+            expected.addAll(root.collectNumericLeafItems());
+        }
+
+        Path json = Files.createTempFile("dictionary", ".json");
+        Path csv = Files.createTempFile("dictionary", ".csv");
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.writeValue(json.toFile(), roots);
+        StringBuilder csvText = new StringBuilder("code,name\n");
+        for (OkvedItem item : expected) {
+            csvText.append(item.getCode()).append(",\"").append(item.getName().replace("\"", "\"\"")).append("\"\n");
+        }
+        Files.writeString(csv, csvText);
+
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedDictionaryLoader loader = new OkvedDictionaryLoader(new ForkJoinPool(4), quiet);
+        OkvedLeafTable fromTree = loader.extractLeaves(roots);
+        OkvedLeafTable fromJson = loader.readJson(json);
+        OkvedLeafTable fromCsv = loader.readCsv(csv);
+        System.out.printf("  Листьев: %d, совпадают с последовательным обходом: дерево %s, JSON %s, CSV %s%n",
+                expected.size(), fromTree.asList().equals(expected), fromJson.asList().equals(expected),
+                fromCsv.asList().equals(expected));
+        Files.delete(json);
+        Files.delete(csv);
+
+        // Параллельный индекс дает те же результаты, что и последовательный
+        OkvedSuffixIndex sequential = OkvedSuffixIndex.build(fromJson);
+        OkvedSuffixIndex parallel = OkvedSuffixIndex.buildParallel(fromJson, new ForkJoinPool(4));
+        int mismatches = 0;
+        for (int i = 0; i < 20_000; i++) {
+            String phone = randomPhone(random);
+            if (!describe(sequential.findBestMatch(phone)).equals(describe(parallel.findBestMatch(phone)))
+                    || !describeAll(sequential.findTopMatches(phone, 5)).equals(describeAll(parallel.findTopMatches(phone, 5)))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("  Узлов: %d и %d, проверено номеров: 20000, расхождений: %d%n",
+                sequential.getNodeCount(), parallel.getNodeCount(), mismatches);
+
+        // Время построения индекса в зависимости от числа потоков (лучшее из трех)
+        StringBuilder timings = new StringBuilder();
+        for (int threads : new int[]{1, 2, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                OkvedSuffixIndex.buildParallel(fromJson, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            timings.append(String.format(" %d потоков - %d мс;", threads, best / 1_000_000));
+        }
+        System.out.printf("  Построение индекса (ядер: %d):%s%n", Runtime.getRuntime().availableProcessors(), timings);
+        System.out.println();
+    }
+
+    private static void testHedgedLoading() throws Exception {
+        System.out.println("17. Загрузка из нескольких источников с упреждающими запросами:");
+
+        Random random = new Random(17);
+        byte[] json = toOkvedJson(randomOkvedItems(random, 500)).getBytes(StandardCharsets.UTF_8);
+        byte[] corrupt = toOkvedJson(randomOkvedItems(random, 500)).getBytes(StandardCharsets.UTF_8);
+        String sha256 = sha256Hex(json);
+
+        // Медленный источник отдает тело по байту, пока клиент не закроет соединение
+        AtomicInteger aborted = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/slow", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < 60; i++) {
+                    Thread.sleep(50);
+                    body.write(' ');
+                    body.flush();
+                }
+                body.write(json);
+            } catch (IOException e) {
+                aborted.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.createContext("/fail", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.createContext("/corrupt", exchange -> respond(exchange, corrupt));
+        server.createContext("/ok", exchange -> respond(exchange, json));
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedService service = new OkvedService(quiet);
+        Path dir = Files.createTempDirectory("okved-sources");
+        try {
+            // Основной источник не ответил за 100 мс: запускается зеркало, основной отменяется
+            OkvedHedgedLoader.Result result = hedgedLoad(service, 100, 5000, sha256,
+                    OkvedSource.http(base + "/slow", Duration.ofSeconds(5)),
+                    OkvedSource.http(base + "/ok", Duration.ofSeconds(5)));
+            long waitUntil = System.currentTimeMillis() + 3000;
+            while (aborted.get() == 0 && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(20);
+            }
+            System.out.printf("  Медленный основной: %s за %d мс, %s, соединений прервано: %d%n",
+                    result.getSource().substring(base.length()), result.getElapsedMillis(),
+                    result.getOutcomes().values(), aborted.get());
+
+            // Ошибка и неверная контрольная сумма не ждут задержки: следующий источник запускается сразу
+            result = hedgedLoad(service, 2000, 5000, sha256,
+                    OkvedSource.http(base + "/fail", Duration.ofSeconds(5)),
+                    OkvedSource.http(base + "/corrupt", Duration.ofSeconds(5)),
+                    OkvedSource.http(base + "/ok", Duration.ofSeconds(5)),
+                    OkvedSource.http(base + "/slow", Duration.ofSeconds(5)));
+            System.out.printf("  Ошибки источников: %s за %d мс (< задержки 2000 мс: %s), %s%n",
+                    result.getSource().substring(base.length()), result.getElapsedMillis(),
+                    result.getElapsedMillis() < 2000, result.getOutcomes().values());
+
+            // Локальный файл и кэш загрузчика
+            Path file = dir.resolve("okved.json.gz");
+            try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file))) {
+                output.write(json);
+            }
+            try (OkvedDownloader downloader = new OkvedDownloader(base + "/ok", dir, quiet)) {
+                downloader.fetch(InputStream::readAllBytes);
+                result = hedgedLoad(service, 100, 5000, sha256,
+                        OkvedSource.file(dir.resolve("missing.json")),
+                        OkvedSource.classpath("missing-okved.json"),
+                        OkvedSource.cache(downloader),
+                        OkvedSource.file(file));
+                System.out.printf("  Локальные источники: %s, %s, листьев: %d%n",
+                        result.getSource().startsWith("cache:") ? "cache" : result.getSource(),
+                        result.getOutcomes().values(), result.getLeaves().size());
+            }
+
+            // Общий срок: все источники медленные
+            long start = System.nanoTime();
+            try {
+                hedgedLoad(service, 100, 400, null,
+                        OkvedSource.http(base + "/slow", Duration.ofSeconds(5)),
+                        OkvedSource.http(base + "/slow", Duration.ofSeconds(5)));
+                System.out.println("  Срок не соблюден: загрузка завершилась");
+            } catch (IOException e) {
+                System.out.printf("  Срок 400 мс: %s (через %d мс)%n",
+                        e.getMessage(), (System.nanoTime() - start) / 1_000_000);
+            }
+
+            // Все источники с ошибкой: OkvedService возвращает пустой список для резервной стратегии
+            try (OkvedHedgedLoader loader = new OkvedHedgedLoader(
+                    List.of(OkvedSource.http(base + "/fail", Duration.ofSeconds(5))),
+                    service::readNumericLeafItems, quiet)) {
+                PrintStream err = System.err;
+                System.setErr(quiet);
+                try {
+                    System.out.println("  Все источники с ошибкой, листьев: " + service.loadOkvedData(loader).size());
+                } finally {
+                    System.setErr(err);
+                }
+            }
+        } finally {
+            service.close();
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        System.out.println();
+    }
+
+    private static void testAsyncStartup() throws Exception {
+        System.out.println("18. Фоновая загрузка справочника при запуске:");
+
+        Random random = new Random(18);
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        List<OkvedItem> snapshotItems = randomOkvedItems(random, 2000);
+        List<OkvedItem> freshItems = randomOkvedItems(random, 2000);
+        OkvedDataset snapshot = compileDataset(finder, snapshotItems);
+        String phone = randomPhone(random);
+
+        // Загрузка ждет сигнала, как медленное скачивание справочника
+        CountDownLatch release = new CountDownLatch(1);
+        Callable<OkvedDataset> slowLoader = () -> {
+            release.await();
+            return compileDataset(finder, freshItems);
+        };
+        Executor background = task -> {
+            Thread thread = new Thread(task, "okved-load");
+            thread.setDaemon(true);
+            thread.start();
+        };
+        OkvedAsyncDataset dataset = OkvedAsyncDataset.start(slowLoader, background, snapshot, finder);
+
+        for (OkvedAsyncDataset.StartupPolicy policy : OkvedAsyncDataset.StartupPolicy.values()) {
+            dataset.setStartupPolicy(policy);
+            dataset.setMaxWait(Duration.ofMillis(100));
+            long start = System.nanoTime();
+            OkvedAsyncDataset.Answer answer = dataset.findBestMatch(phone);
+            System.out.printf("  %-8s до загрузки: %d мс, предварительный: %s, резервный: %s, по снимку: %s%n",
+                    policy, (System.nanoTime() - start) / 1_000_000, answer.isProvisional(), answer.isBackup(),
+                    snapshot.getVersion().equals(answer.getDatasetVersion()));
+        }
+
+        // Ожидание, которое завершается загрузкой раньше срока
+        dataset.setStartupPolicy(OkvedAsyncDataset.StartupPolicy.WAIT);
+        dataset.setMaxWait(Duration.ofSeconds(5));
+        OkvedDatasetReloader reloader = new OkvedDatasetReloader(dataset.get(), slowLoader, quiet);
+        CompletableFuture<Void> published = dataset.ready().thenAccept(reloader::publish);
+        CompletableFuture<OkvedAsyncDataset.Answer> waiting = dataset.findBestMatchAsync(phone);
+        Thread.sleep(50);
+        release.countDown();
+        OkvedAsyncDataset.Answer answer = waiting.get(5, TimeUnit.SECONDS);
+        published.get(5, TimeUnit.SECONDS);
+        String expected = describe(finder.findBestMatch(phone, freshItems));
+        System.out.printf("  WAIT с загрузкой: предварительный: %s, результат совпадает: %s, сервис обновлен: %s%n",
+                answer.isProvisional(), expected.equals(describe(Optional.of(answer.getResult()))),
+                reloader.getVersion().equals(dataset.get().getVersion()));
+
+        boolean allFinal = true;
+        for (OkvedAsyncDataset.StartupPolicy policy : OkvedAsyncDataset.StartupPolicy.values()) {
+            dataset.setStartupPolicy(policy);
+            allFinal &= !dataset.findBestMatch(phone).isProvisional();
+        }
+        System.out.println("  После загрузки все ответы окончательные: " + allFinal);
+
+        // Ошибка загрузки: ответы остаются предварительными, ошибка видна через ready()
+        OkvedAsyncDataset failed = OkvedAsyncDataset.start(() -> {
+            throw new IOException("источник недоступен");
+        }, background, null, finder);
+        String error;
+        try {
+            failed.ready().get(5, TimeUnit.SECONDS);
+            error = "нет";
+        } catch (ExecutionException e) {
+            error = e.getCause().getMessage();
+        }
+        failed.setStartupPolicy(OkvedAsyncDataset.StartupPolicy.WAIT);
+        answer = failed.findBestMatch(phone);
+        System.out.printf("  Ошибка загрузки: %s, предварительный: %s, резервный: %s%n",
+                error, answer.isProvisional(), answer.isBackup());
+        System.out.println();
+    }
+
+    private static void testLineServer() throws Exception {
+        System.out.println("19. Тест TCP-сервера построчного протокола:");
+
+        Random random = new Random(19);
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(randomOkvedItems(random, 3000));
+        OkvedMatcher table = finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS);
+        OkvedDataset dataset = OkvedDataset.of(table, index.getLeaves());
+
+        // Поиск по номеру-числу совпадает с поиском по строке во всех реализациях
+        OkvedResultCache cache = new OkvedResultCache(index, 1000, OkvedResultCache.Policy.LRU);
+        int longMismatches = 0;
+        for (int i = 0; i < 20000; i++) {
+            String phone = randomPhone(random);
+            long number = Long.parseLong(phone.substring(1));
+            String expected = describe(index.findBestMatch(phone));
+            for (OkvedMatcher matcher : new OkvedMatcher[]{index, table, cache}) {
+                if (!expected.equals(describe(finder.findBestMatch(number, matcher)))) {
+                    longMismatches++;
+                }
+            }
+        }
+        System.out.println("  Поиск по числу, расхождений со строкой: " + longMismatches);
+
+        // Смешанные форматы, ошибки и \r\n; ответы сравниваются с OkvedFinder
+        String[] formats = {"+7 (%s) %s-%s-%s", "8(%s)%s%s%s", "%s%s%s%s", "7 %s %s %s %s"};
+        int lineCount = 50_000;
+        StringBuilder request = new StringBuilder();
+        String[] expected = new String[lineCount];
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        for (int i = 0; i < lineCount; i++) {
+            String phone = randomPhone(random).substring(2);
+            String line = i % 10 == 9 ? "12345" : i % 97 == 0 ? "" : String.format(formats[i % formats.length],
+                    phone.substring(0, 3), phone.substring(3, 6), phone.substring(6, 8), phone.substring(8));
+            request.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+            long normalized = normalizer.tryNormalize(line);
+            if (normalized < 0) {
+                expected[i] = normalized == PhoneNormalizer.REJECT_EMPTY ? "ERR,empty" : "ERR,format";
+            } else {
+                OkvedFinder.MatchResult result = finder.findBestMatch("+" + normalized, table)
+                        .orElseGet(() -> finder.createBackupMatch("+" + normalized));
+                expected[i] = result.getCode() + "," + result.getMatchLength();
+            }
+        }
+        byte[] requestBytes = request.toString().getBytes(StandardCharsets.US_ASCII);
+
+        OkvedLineServer server = new OkvedLineServer(() -> dataset, finder, quiet);
+        server.setMaxConnections(2);
+        server.start(0, 2);
+        try {
+            List<String> responses = pipeline(server.getPort(), requestBytes, lineCount);
+            int mismatches = 0;
+            for (int i = 0; i < lineCount; i++) {
+                if (i >= responses.size() || !expected[i].equals(responses.get(i))) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("  Конвейер: строк %d, ответов %d, расхождений: %d%n",
+                    lineCount, responses.size(), mismatches);
+
+            // Пропускная способность: все строки отправляются без ожидания ответов
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                pipeline(server.getPort(), requestBytes, lineCount);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("  Пропускная способность: %.0f тыс. строк/с%n", lineCount * 1e6 / best);
+
+            // Лимит соединений и слишком длинная строка
+            try (Socket first = new Socket("127.0.0.1", server.getPort());
+                 Socket second = new Socket("127.0.0.1", server.getPort());
+                 Socket third = new Socket("127.0.0.1", server.getPort())) {
+                third.setSoTimeout(5000);
+                BufferedReader thirdReader = new BufferedReader(
+                        new InputStreamReader(third.getInputStream(), StandardCharsets.US_ASCII));
+                System.out.println("  Сверх лимита соединений: " + thirdReader.readLine());
+
+                first.setSoTimeout(5000);
+                char[] longLine = new char[100_000];
+                Arrays.fill(longLine, '9');
+                OutputStream firstOutput = first.getOutputStream();
+                firstOutput.write((new String(longLine) + "\n9123456789\n").getBytes(StandardCharsets.US_ASCII));
+                BufferedReader firstReader = new BufferedReader(
+                        new InputStreamReader(first.getInputStream(), StandardCharsets.US_ASCII));
+                System.out.printf("  Длинная строка: %s, следующая: %s%n",
+                        firstReader.readLine(), firstReader.readLine().equals(expectedLine(finder, table, 79123456789L)));
+
+                // Последняя строка без перевода строки получает ответ после закрытия отправки
+                second.setSoTimeout(5000);
+                second.getOutputStream().write("9123456789".getBytes(StandardCharsets.US_ASCII));
+                second.shutdownOutput();
+                BufferedReader secondReader = new BufferedReader(
+                        new InputStreamReader(second.getInputStream(), StandardCharsets.US_ASCII));
+                System.out.printf("  Строка без перевода строки в конце: %s%n",
+                        expectedLine(finder, table, 79123456789L).equals(secondReader.readLine()));
+            }
+
+            // Плавная остановка: полученные строки получают ответы, затем соединение закрывается
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout(5000);
+                socket.getOutputStream().write(Arrays.copyOf(requestBytes, 1000));
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                String firstResponse = reader.readLine();
+                long start = System.nanoTime();
+                server.stop(Duration.ofSeconds(2));
+                int answered = firstResponse != null ? 1 : 0;
+                while (reader.readLine() != null) {
+                    answered++;
+                }
+                System.out.printf("  Остановка: %d мс, ответов после остановки получено: %d, соединений: %d%n",
+                        (System.nanoTime() - start) / 1_000_000, answered, server.getConnectionCount());
+            }
+        } finally {
+            server.stop(Duration.ZERO);
+        }
+        System.out.println();
+    }
+
+    private static String expectedLine(OkvedFinder finder, OkvedMatcher matcher, long phone) {
+        OkvedFinder.MatchResult result = finder.findBestMatch(phone, matcher)
+                .orElseGet(() -> finder.createBackupMatch("+" + phone));
+        return result.getCode() + "," + result.getMatchLength();
+    }
+
+    /**
+     * Отправляет запрос из отдельного потока и читает ответы, не дожидаясь окончания отправки.
+     */
+    private static List<String> pipeline(int port, byte[] request, int lineCount) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(10_000);
+            Thread writer = new Thread(() -> {
+                try {
+                    socket.getOutputStream().write(request);
+                    socket.getOutputStream().flush();
+                } catch (IOException e) {
+                    System.out.println("  Ошибка отправки: " + e.getMessage());
+                }
+            });
+            writer.start();
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII), 64 * 1024);
+            List<String> responses = new ArrayList<>(lineCount);
+            String line;
+            while (responses.size() < lineCount && (line = reader.readLine()) != null) {
+                responses.add(line);
+            }
+            writer.join();
+            return responses;
+        }
+    }
+
+    private static void testAllocationFreeLookup() throws Exception {
+        System.out.println("20. Тест поиска без создания объектов:");
+
+        Random random = new Random(20);
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(randomOkvedItems(random, 3000));
+        OkvedMatcher table = finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS);
+        long[] phones = new long[4096];
+        for (int i = 0; i < phones.length; i++) {
+            phones[i] = Long.parseLong(randomPhone(random).substring(1));
+        }
+        OkvedResultCache cache = new OkvedResultCache(index, phones.length * 2, OkvedResultCache.Policy.LRU);
+        OkvedMatcher fallback = new OkvedMatcher() {
+            @Override
+            public Optional<OkvedFinder.MatchResult> findBestMatch(String normalizedPhone) {
+                return index.findBestMatch(normalizedPhone);
+            }
+
+            @Override
+            public Optional<OkvedFinder.MatchResult> findApproximateMatch(String normalizedPhone, int maxMismatches) {
+                return index.findApproximateMatch(normalizedPhone, maxMismatches);
+            }
+
+            @Override
+            public List<OkvedFinder.MatchResult> findTopMatches(String normalizedPhone, int k) {
+                return index.findTopMatches(normalizedPhone, k);
+            }
+
+            @Override
+            public int size() {
+                return index.size();
+            }
+        };
+
+        // Заполненный результат совпадает с Optional-вариантом во всех реализациях
+        OkvedMatchSlot slot = new OkvedMatchSlot();
+        int mismatches = 0;
+        for (int i = 0; i < 20000; i++) {
+            long phone = i < phones.length ? phones[i] : Long.parseLong(randomPhone(random).substring(1));
+            String expected = describe(index.findBestMatch("+" + phone));
+            for (OkvedMatcher matcher : new OkvedMatcher[]{index, table, cache, fallback}) {
+                boolean found = finder.findBestMatch(phone, matcher, slot);
+                String actual = found ? describe(Optional.of(slot.toResult())) : "нет";
+                if (!expected.equals(actual) || found != slot.isFound()
+                        || (found && !slot.getCode().equals(slot.toResult().getCode()))) {
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("  Расхождений с Optional-вариантом: " + mismatches);
+
+        // После прогрева поиск в цикле не создает объектов: индекс, таблица и попадания в кэш
+        for (OkvedMatcher matcher : new OkvedMatcher[]{index, table, cache}) {
+            long checksum = 0;
+            for (int round = 0; round < 200; round++) {
+                checksum += lookupAll(finder, matcher, phones, slot);
+            }
+            long before = allocatedBytes();
+            long probeCost = allocatedBytes() - before;
+            for (int round = 0; round < 200; round++) {
+                checksum += lookupAll(finder, matcher, phones, slot);
+            }
+            long allocated = allocatedBytes() - before - 2 * probeCost;
+            System.out.printf("  %s: поисков %d, выделено байт: %d (контрольная сумма %d)%n",
+                    matcher.getClass().getSimpleName(), 200L * phones.length, allocated, checksum % 1000);
+        }
+
+        // Цикл обработки TCP-сервера: выделение памяти потоками сервера на строку
+        OkvedDataset dataset = OkvedDataset.of(table, index.getLeaves());
+        OkvedLineServer server = new OkvedLineServer(() -> dataset, finder, quiet);
+        server.start(0, 1);
+        try {
+            StringBuilder request = new StringBuilder();
+            for (long phone : phones) {
+                request.append(phone).append('\n');
+            }
+            byte[] requestBytes = request.toString().getBytes(StandardCharsets.US_ASCII);
+            for (int round = 0; round < 20; round++) {
+                pipeline(server.getPort(), requestBytes, phones.length);
+            }
+            Thread loop = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().equals("okved-line-0")).findFirst().orElseThrow();
+            long before = allocatedBytes(loop);
+            int rounds = 20;
+            for (int round = 0; round < rounds; round++) {
+                pipeline(server.getPort(), requestBytes, phones.length);
+            }
+            double perLine = (double) (allocatedBytes(loop) - before) / (rounds * phones.length);
+            System.out.printf("  TCP-сервер: выделено байт на строку: %.3f (меньше 1: %s)%n", perLine, perLine < 1);
+        } finally {
+            server.stop(Duration.ZERO);
+        }
+        System.out.println();
+    }
+
+    private static void testMappedBatch() throws Exception {
+        System.out.println("21. Тест пакетной обработки с отображением файла в память:");
+
+        Random random = new Random(21);
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(randomOkvedItems(random, 2000));
+        OkvedMatcher matcher = finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS);
+        Path dir = Files.createTempDirectory("okved-mmap");
+
+        // Разные форматы, ошибки, пустые строки, \r\n и одиночный \r, не-ASCII, нет перевода строки в конце
+        String[] formats = {"+7 (%s) %s-%s-%s", "8(%s)%s%s%s", "%s%s%s%s", "7 %s %s %s %s", " +7%s%s%s%s\t"};
+        String[] broken = {"12345", "", "   ", "телефон", "+7,912,345", "\"9123\"", "9l23456789"};
+        String[] endings = {"\n", "\r\n", "\r"};
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            if (i % 13 == 0) {
+                text.append(broken[random.nextInt(broken.length)]);
+            } else {
+                String phone = randomPhone(random).substring(2);
+                text.append(String.format(formats[random.nextInt(formats.length)],
+                        phone.substring(0, 3), phone.substring(3, 6), phone.substring(6, 8), phone.substring(8)));
+            }
+            text.append(i == 19999 ? "" : endings[random.nextInt(100) < 90 ? 0 : 1 + random.nextInt(2)]);
+        }
+        Path input = dir.resolve("phones.txt");
+        Files.write(input, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (PhoneBatchProcessor.Format format : PhoneBatchProcessor.Format.values()) {
+            StringWriter expectedOutput = new StringWriter();
+            StringWriter expectedErrors = new StringWriter();
+            PhoneBatchProcessor.Stats expected = new PhoneBatchProcessor(new PhoneNormalizer(), finder, matcher, format, 3)
+                    .process(Files.newBufferedReader(input, StandardCharsets.UTF_8), expectedOutput, expectedErrors);
+
+            for (int chunkBytes : new int[]{97, 4096, 1 << 20}) {
+                PhoneFileProcessor processor = new PhoneFileProcessor(new PhoneNormalizer(), finder, matcher, format, 3);
+                processor.setChunkBytes(chunkBytes);
+                PhoneBatchProcessor.Stats actual = mappedBatch(processor, input, dir);
+                boolean same = expectedOutput.toString().equals(Files.readString(dir.resolve("out.txt")))
+                        && expectedErrors.toString().equals(Files.readString(dir.resolve("errors.txt")))
+                        && expected.toString().equals(actual.toString());
+                System.out.printf("  %-5s блок %7d байт: %s, совпадает с обычным режимом: %s%n",
+                        format, chunkBytes, actual, same);
+            }
+        }
+
+        // Строка длиннее предела продления блока: обрезается и отклоняется, нумерация строк не сбивается
+        StringBuilder withLongLine = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            withLongLine.append(i == 1500 ? "9".repeat(3 << 20) : randomPhone(random))
+                    .append(endings[i % endings.length]);
+        }
+        Path longInput = dir.resolve("long.txt");
+        Files.write(longInput, withLongLine.toString().getBytes(StandardCharsets.US_ASCII));
+        StringWriter expectedOutput = new StringWriter();
+        StringWriter expectedErrors = new StringWriter();
+        PhoneBatchProcessor.Stats expected = new PhoneBatchProcessor(new PhoneNormalizer(), finder, matcher,
+                PhoneBatchProcessor.Format.CSV, 3).process(Files.newBufferedReader(longInput, StandardCharsets.UTF_8),
+                expectedOutput, expectedErrors);
+        PhoneFileProcessor longProcessor = new PhoneFileProcessor(new PhoneNormalizer(), finder, matcher,
+                PhoneBatchProcessor.Format.CSV, 3);
+        longProcessor.setChunkBytes(4096);
+        PhoneBatchProcessor.Stats actual = mappedBatch(longProcessor, longInput, dir);
+        String errorLines = Files.readString(dir.resolve("errors.txt"));
+        System.out.printf("  Строка 3 МБ: %s, ошибка в строке %s, вывод совпадает с обычным режимом: %s%n",
+                actual, errorLines.substring(errorLines.indexOf('\n') + 1, errorLines.indexOf(',', errorLines.indexOf('\n'))),
+                expectedOutput.toString().equals(Files.readString(dir.resolve("out.txt")))
+                        && expected.toString().equals(actual.toString()));
+
+        // Пропускная способность на файле побольше
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1_000_000; i++) {
+            large.append(randomPhone(random)).append('\n');
+        }
+        Path largeInput = dir.resolve("large.txt");
+        Files.write(largeInput, large.toString().getBytes(StandardCharsets.US_ASCII));
+        double megabytes = Files.size(largeInput) / 1048576.0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long bestReader = Long.MAX_VALUE;
+        long bestMapped = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            try (BufferedReader reader = Files.newBufferedReader(largeInput, StandardCharsets.UTF_8);
+                 Writer output = Files.newBufferedWriter(dir.resolve("out.txt"), StandardCharsets.UTF_8);
+                 Writer errors = Files.newBufferedWriter(dir.resolve("errors.txt"), StandardCharsets.UTF_8)) {
+                new PhoneBatchProcessor(new PhoneNormalizer(), finder, matcher, PhoneBatchProcessor.Format.CSV, threads)
+                        .process(reader, output, errors);
+            }
+            bestReader = Math.min(bestReader, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            mappedBatch(new PhoneFileProcessor(new PhoneNormalizer(), finder, matcher,
+                    PhoneBatchProcessor.Format.CSV, threads), largeInput, dir);
+            bestMapped = Math.min(bestMapped, System.nanoTime() - start);
+        }
+        System.out.printf("  %.1f МБ входа: построчное чтение %.0f МБ/с, отображение в память %.0f МБ/с%n",
+                megabytes, megabytes * 1e9 / bestReader, megabytes * 1e9 / bestMapped);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+        System.out.println();
+    }
+
+    private static void testBulkNormalizer() {
+        System.out.println("22. Тест пакетной нормализации записей фиксированной ширины:");
+
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        PhoneBulkNormalizer bulk = new PhoneBulkNormalizer(normalizer);
+        List<String> inputs = new ArrayList<>();
+
+        // Все строки длиной до 5 символов из алфавита и случайные искажения корректных номеров
+        char[] buffer = new char[5];
+        for (int length = 0; length <= buffer.length; length++) {
+            int combinations = (int) Math.pow(PHONE_ALPHABET.length, length);
+            for (int n = 0; n < combinations; n++) {
+                int rest = n;
+                for (int i = 0; i < length; i++) {
+                    buffer[i] = PHONE_ALPHABET[rest % PHONE_ALPHABET.length];
+                    rest /= PHONE_ALPHABET.length;
+                }
+                inputs.add(new String(buffer, 0, length));
+            }
+        }
+        Random random = new Random(22);
+        String[] templates = {
+                "+7 (912) 345-67-89", "8(912)3456789", "9123456789", "+79123456789",
+                "7 912 345 67 89", " \u0001+8-(999)-000-00-00\r\n", "+ 7 ((912)) 345 - 67 - 89  \t"
+        };
+        for (int n = 0; n < 1_000_000; n++) {
+            StringBuilder phone = new StringBuilder(templates[random.nextInt(templates.length)]);
+            int edits = random.nextInt(4);
+            for (int e = 0; e < edits; e++) {
+                int position = random.nextInt(phone.length() + 1);
+                char c = PHONE_ALPHABET[random.nextInt(PHONE_ALPHABET.length)];
+                if (random.nextBoolean()) {
+                    phone.insert(position, c);
+                } else if (position < phone.length()) {
+                    phone.setCharAt(position, c);
+                }
+            }
+            inputs.add(phone.toString());
+        }
+        inputs.add("+7 (912) 345-67-89" + " ".repeat(40));
+        inputs.add("телефон");
+        inputs.add(null);
+
+        String[] phones = inputs.toArray(new String[0]);
+        long[] expected = new long[phones.length];
+        for (int i = 0; i < phones.length; i++) {
+            expected[i] = normalizer.tryNormalize(phones[i]);
+        }
+        long[] actual = new long[phones.length];
+        bulk.normalize(phones, actual);
+        System.out.printf("  Строки: проверено %d, расхождений %d%n", phones.length, mismatches(phones, expected, actual));
+
+        // Записи шириной 64 байта, дополненные нулевыми байтами
+        int width = 64;
+        List<Integer> packed = new ArrayList<>();
+        for (int i = 0; i < phones.length; i++) {
+            if (phones[i] != null && phones[i].length() <= width && phones[i].chars().allMatch(c -> c < 0x80)) {
+                packed.add(i);
+            }
+        }
+        byte[] records = new byte[packed.size() * width];
+        for (int record = 0; record < packed.size(); record++) {
+            byte[] bytes = phones[packed.get(record)].getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, records, record * width, bytes.length);
+        }
+        long[] recordResults = new long[packed.size()];
+        bulk.normalize(records, width, packed.size(), recordResults);
+        int recordMismatches = 0;
+        for (int record = 0; record < packed.size(); record++) {
+            int i = packed.get(record);
+            recordMismatches += mismatches(new String[]{phones[i]}, new long[]{expected[i]},
+                    new long[]{recordResults[record]});
+        }
+        System.out.printf("  Записи по %d байта: проверено %d, расхождений %d%n", width, packed.size(), recordMismatches);
+
+        // Скорость на типичных номерах в записях по 24 байта
+        String[] formats = {"+7 (%s) %s-%s-%s", "8(%s)%s%s%s", "%s%s%s%s", "7 %s %s %s %s"};
+        int count = 1 << 20;
+        width = 24;
+        String[] typical = new String[count];
+        records = new byte[count * width];
+        for (int i = 0; i < count; i++) {
+            String phone = randomPhone(random).substring(2);
+            typical[i] = String.format(formats[i & 3],
+                    phone.substring(0, 3), phone.substring(3, 6), phone.substring(6, 8), phone.substring(8));
+            byte[] bytes = typical[i].getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, records, i * width, bytes.length);
+        }
+        long[] results = new long[count];
+        long bestScalar = Long.MAX_VALUE;
+        long bestBulk = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                results[i] = normalizer.tryNormalize(typical[i]);
+            }
+            bestScalar = Math.min(bestScalar, System.nanoTime() - start);
+            checksum += results[count - 1];
+
+            start = System.nanoTime();
+            bulk.normalize(records, width, count, results);
+            bestBulk = Math.min(bestBulk, System.nanoTime() - start);
+            checksum -= results[count - 1];
+        }
+        System.out.printf("  tryNormalize: %.1f нс/номер, записи: %.1f нс/номер (ускорение %.1fx, контроль %d)%n",
+                (double) bestScalar / count, (double) bestBulk / count, (double) bestScalar / bestBulk, checksum);
+        System.out.println();
+    }
+
+    private static void testApproximateMatch() {
+        System.out.println("23. Тест приближенного поиска с несовпадающими цифрами:");
+
+        Random random = new Random(23);
+        List<OkvedItem> items = randomOkvedItems(random, 3000);
+        // Длинные коды: совпадение ограничено 11 цифрами номера
+        for (int i = 0; i < 200; i++) {
+            items.add(new OkvedItem(String.format("%06d.%08d", random.nextInt(1_000_000), random.nextInt(100_000_000)),
+                    "Длинный " + i, null));
+        }
+        items.add(new OkvedItem("12.34", "Повтор кода", null));
+        items.add(new OkvedItem("12.34", "Повтор кода, второй", null));
+
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(items);
+        OkvedMatcher table = finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS);
+        OkvedMatcher cache = new OkvedResultCache(index, 1024, OkvedResultCache.Policy.LRU);
+
+        String[] phones = new String[5000];
+        for (int i = 0; i < phones.length; i++) {
+            phones[i] = randomPhone(random);
+        }
+        phones[0] = "+79991231234";
+
+        for (int k = 0; k <= OkvedFinder.MAX_MISMATCHES; k++) {
+            int mismatches = 0;
+            int found = 0;
+            for (String phone : phones) {
+                String expected = describeApproximate(referenceApproximateMatch(phone, items, k));
+                List<String> actual = new ArrayList<>();
+                actual.add(describeApproximate(finder.findApproximateMatch(phone, items, k)));
+                for (OkvedMatcher matcher : new OkvedMatcher[]{index, table, cache}) {
+                    actual.add(describeApproximate(finder.findApproximateMatch(phone, matcher, k)));
+                }
+                if (k == 0) {
+                    actual.add(describeApproximate(finder.findBestMatch(phone, index)));
+                }
+                for (String result : actual) {
+                    if (!expected.equals(result) && mismatches++ < 5) {
+                        System.out.printf("  %s, k=%d: ожидалось %s, получено %s%n", phone, k, expected, result);
+                    }
+                }
+                if (!expected.equals("нет")) {
+                    found++;
+                }
+            }
+            System.out.printf("  k=%d: найдено %d из %d, расхождений со списком и эталоном: %d%n",
+                    k, found, phones.length, mismatches);
+        }
+        System.out.println("  +79991231234, k=1: "
+                + describeApproximate(finder.findApproximateMatch("+79991231234", index, 1)));
+
+        try {
+            finder.findApproximateMatch(phones[0], index, OkvedFinder.MAX_MISMATCHES + 1);
+            System.out.println("  Ошибка: недопустимое количество несовпадений принято");
+        } catch (IllegalArgumentException e) {
+            System.out.println("  Недопустимое количество несовпадений: " + e.getMessage());
+        }
+
+        // Время поиска по индексу в сравнении с точным
+        int rounds = 20;
+        long[] best = new long[OkvedFinder.MAX_MISMATCHES + 2];
+        Arrays.fill(best, Long.MAX_VALUE);
+        long checksum = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (String phone : phones) {
+                checksum += index.findBestMatch(phone).isPresent() ? 1 : 0;
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+            for (int k = 0; k <= OkvedFinder.MAX_MISMATCHES; k++) {
+                start = System.nanoTime();
+                for (String phone : phones) {
+                    checksum += index.findApproximateMatch(phone, k).isPresent() ? 1 : 0;
+                }
+                best[k + 1] = Math.min(best[k + 1], System.nanoTime() - start);
+            }
+        }
+        StringBuilder timing = new StringBuilder("  Индекс, нс на поиск: точный " + best[0] / phones.length);
+        for (int k = 0; k <= OkvedFinder.MAX_MISMATCHES; k++) {
+            timing.append(String.format(", k=%d %d (%.1fx)", k, best[k + 1] / phones.length,
+                    (double) best[k + 1] / best[0]));
+        }
+        System.out.println(timing + " [" + (checksum > 0) + "]");
+        System.out.println();
+    }
+
+    private static void testCoverage() throws Exception {
+        System.out.println("24. Тест покрытия пространства номеров кодами:");
+
+        Random random = new Random(24);
+        List<OkvedItem> items = randomOkvedItems(random, 3000);
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(items);
+        long start = System.nanoTime();
+        OkvedCoverage coverage = OkvedCoverage.compute(index);
+        long elapsed = System.nanoTime() - start;
+
+        // Коды не длиннее 6 цифр: результат зависит только от 6 последних цифр номера
+        int tailDigits = index.getMaxDepth();
+        long perTail = OkvedCoverage.PHONE_SPACE / (long) Math.pow(10, tailDigits);
+        Map<String, Long> expectedWins = new HashMap<>();
+        long[] expectedLengths = new long[OkvedCoverage.MAX_MATCH_LENGTH + 1];
+        for (int tail = 0; tail < (int) Math.pow(10, tailDigits); tail++) {
+            Optional<OkvedFinder.MatchResult> match = index.findBestMatch(79_000_000_000L + tail);
+            if (match.isPresent()) {
+                expectedWins.merge(match.get().getCode(), perTail, Long::sum);
+                expectedLengths[match.get().getMatchLength()] += perTail;
+            } else {
+                expectedLengths[0] += perTail;
+            }
+        }
+        int mismatches = 0;
+        for (OkvedCoverage.CodeCoverage code : coverage.getCodes()) {
+            if (code.getWins() != expectedWins.getOrDefault(code.getCode(), 0L)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("  Кодов: %d, достижимых: %d, резервная стратегия: %d номеров; расхождений с перебором: %d, "
+                        + "гистограмма длин совпадает: %s (%.1f мс)%n",
+                coverage.getCodes().size(), coverage.getReachableCount(), coverage.getBackupCount(), mismatches,
+                Arrays.equals(expectedLengths, coverage.getLengthHistogram()), elapsed / 1e6);
+
+        // Длинные коды: префикс 79 у всех номеров фиксирован
+        List<OkvedItem> longCodes = new ArrayList<>(items);
+        longCodes.add(new OkvedItem("91.234.567.89", "Десять цифр", null));
+        longCodes.add(new OkvedItem("79.123.456.789", "Одиннадцать цифр", null));
+        longCodes.add(new OkvedItem("89.123.456.780", "Префикс 8", null));
+        longCodes.add(new OkvedItem("1.234.567.890.123", "Тринадцать цифр", null));
+        OkvedCoverage extended = OkvedCoverage.compute(OkvedSuffixIndex.build(longCodes));
+        long total = extended.getBackupCount();
+        StringBuilder longWins = new StringBuilder();
+        for (OkvedCoverage.CodeCoverage code : extended.getCodes()) {
+            total += code.getWins();
+            if (code.getCode().length() > 8) {
+                longWins.append(String.format("%s: %d/%d, ", code.getCode(), code.getWins(10), code.getWins(11)));
+            }
+        }
+        System.out.printf("  Длинные коды, номеров с длиной 10/11: %sсумма по кодам и резервной: %d%n", longWins, total);
+
+        // Изменения между версиями: сумма изменений по кодам и резервной стратегии равна нулю
+        List<OkvedItem> updated = new ArrayList<>(items.subList(100, items.size()));
+        updated.add(new OkvedItem("45.67", "Новый код", null));
+        OkvedCoverage after = OkvedCoverage.compute(OkvedSuffixIndex.build(updated));
+        List<OkvedCoverage.CodeChange> changes = OkvedCoverage.compare(coverage, after);
+        long balance = after.getBackupCount() - coverage.getBackupCount();
+        for (OkvedCoverage.CodeChange change : changes) {
+            balance += change.getDelta();
+        }
+        System.out.printf("  Изменения: %d кодов, первое: %s, баланс: %d%n", changes.size(), changes.get(0), balance);
+
+        StringWriter csv = new StringWriter();
+        coverage.write(OkvedCoverage.Format.CSV, csv);
+        String[] lines = csv.toString().split("\n");
+        System.out.println("  CSV: " + lines[0]);
+        System.out.println("       " + lines[1]);
+        System.out.println("       " + lines[lines.length - 1]);
+        StringWriter json = new StringWriter();
+        OkvedCoverage.writeDiff(OkvedCoverage.Format.JSON, coverage, after, json);
+        JsonNode diff = new ObjectMapper().readTree(json.toString());
+        System.out.printf("  JSON изменений разбирается: %s, изменений: %d%n",
+                diff.path("changes").size() == changes.size(), diff.path("changes").size());
+        System.out.println();
+    }
+
+    private static void testBulkMatches() {
+        System.out.println("25. Тест пакетного поиска с группировкой по окончаниям:");
+
+        Random random = new Random(25);
+        List<OkvedItem> items = randomOkvedItems(random, 3000);
+        List<OkvedItem> longCodes = new ArrayList<>(items);
+        for (int i = 0; i < 200; i++) {
+            longCodes.add(new OkvedItem(String.format("%06d.%08d", random.nextInt(1_000_000),
+                    random.nextInt(100_000_000)), "Длинный " + i, null));
+        }
+
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        OkvedFinder finder = new OkvedFinder(quiet);
+        PhoneNormalizer normalizer = new PhoneNormalizer();
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(items);
+        OkvedSuffixIndex longIndex = OkvedSuffixIndex.build(longCodes);
+        OkvedMatcher table = finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS);
+        OkvedMatcher cache = new OkvedResultCache(longIndex, 1024, OkvedResultCache.Policy.LRU);
+        System.out.printf("  Значимых цифр: индекс %d, таблица %d, длинные коды %d, кэш %d%n",
+                index.getTailDigits(), table.getTailDigits(), longIndex.getTailDigits(), cache.getTailDigits());
+
+        // Пакет с большим количеством повторов: 2000 номеров из одного пула в разных форматах
+        String[] pool = new String[2000];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = randomPhone(random).substring(2);
+        }
+        List<String> phones = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            String core = pool[random.nextInt(pool.length)];
+            switch (random.nextInt(4)) {
+                case 0: phones.add("+7" + core); break;
+                case 1: phones.add("8 (" + core.substring(0, 3) + ") " + core.substring(3, 6) + "-"
+                        + core.substring(6, 8) + "-" + core.substring(8)); break;
+                case 2: phones.add(core.substring(0, 4) + random.nextInt(10) + core.substring(5)); break;
+                default: phones.add(random.nextInt(50) == 0 ? "не номер" : "7" + core); break;
+            }
+        }
+        phones.add(null);
+
+        for (OkvedMatcher matcher : new OkvedMatcher[]{index, table, longIndex, cache}) {
+            List<Optional<OkvedFinder.MatchResult>> results = finder.findBestMatches(phones, matcher);
+            int mismatches = 0;
+            int rejected = 0;
+            for (int i = 0; i < phones.size(); i++) {
+                long phone = normalizer.tryNormalize(phones.get(i));
+                Optional<OkvedFinder.MatchResult> expected = finder.findBestMatch(phone, matcher);
+                if (phone < 0) {
+                    rejected++;
+                }
+                if (!String.valueOf(expected.orElse(null)).equals(String.valueOf(results.get(i).orElse(null)))) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("  %s: %d номеров, отклонено %d, расхождений с поштучным поиском: %d%n",
+                    matcher.getClass().getSimpleName(), results.size(), rejected, mismatches);
+        }
+
+        // Различных окончаний больше порога: поиск идет в пуле потоков
+        long[] distinct = new long[OkvedFinder.PARALLEL_THRESHOLD * 4];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = i % 97 == 0 ? PhoneNormalizer.REJECT_FORMAT : 79_000_000_000L + random.nextInt(1_000_000_000);
+        }
+        ForkJoinPool workers = new ForkJoinPool(4);
+        try {
+            List<Optional<OkvedFinder.MatchResult>> parallel = finder.findBestMatches(distinct, longIndex, workers);
+            List<Optional<OkvedFinder.MatchResult>> sequential = finder.findBestMatches(distinct, longIndex, null);
+            int mismatches = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                String expected = String.valueOf(finder.findBestMatch(distinct[i], longIndex).orElse(null));
+                if (!expected.equals(String.valueOf(parallel.get(i).orElse(null)))
+                        || !expected.equals(String.valueOf(sequential.get(i).orElse(null)))) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("  Параллельный поиск: %d номеров, расхождений: %d%n", distinct.length, mismatches);
+        } finally {
+            workers.shutdown();
+        }
+
+        // Перебор списка: пакет из 5000 номеров из пула в 100 номеров, поштучно и пакетом
+        List<String> repeated = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            repeated.add(i % 1000 == 0 ? "не номер" : "+7" + pool[random.nextInt(100)]);
+        }
+        long start = System.nanoTime();
+        List<Optional<OkvedFinder.MatchResult>> expected = new ArrayList<>();
+        for (String phone : repeated) {
+            long normalized = normalizer.tryNormalize(phone);
+            expected.add(normalized < 0 ? Optional.empty() : finder.findBestMatch("+" + normalized, items));
+        }
+        long single = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<Optional<OkvedFinder.MatchResult>> bulk = finder.findBestMatches(repeated, items);
+        long batch = System.nanoTime() - start;
+        int mismatches = 0;
+        for (int i = 0; i < repeated.size(); i++) {
+            if (!String.valueOf(expected.get(i).orElse(null)).equals(String.valueOf(bulk.get(i).orElse(null)))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("  Перебор списка: расхождений %d, поштучно %.0f мс, пакетом %.0f мс (в %.0f раз быстрее)%n",
+                mismatches, single / 1e6, batch / 1e6, (double) single / batch);
+        System.out.println();
+    }
+
+    /**
+     * Прямое определение приближенного совпадения по строкам.
+     */
+    private static Optional<OkvedFinder.MatchResult> referenceApproximateMatch(String phone, List<OkvedItem> items,
+                                                                               int k) {
+        String phoneDigits = phone.substring(1);
+        OkvedFinder.MatchResult best = null;
+        for (OkvedItem item : items) {
+            String digits = item.getDigitsOnly();
+            for (int length = Math.min(phoneDigits.length(), digits.length()); length >= 1; length--) {
+                String phoneSuffix = phoneDigits.substring(phoneDigits.length() - length);
+                String okvedSuffix = digits.substring(digits.length() - length);
+                OkvedFinder.MatchResult candidate = new OkvedFinder.MatchResult(item, length, phoneSuffix, okvedSuffix);
+                if (phoneSuffix.charAt(0) != okvedSuffix.charAt(0) || candidate.getMismatches() > k) {
+                    continue;
+                }
+                if (best == null || length > best.getMatchLength()
+                        || (length == best.getMatchLength() && (candidate.getMismatches() < best.getMismatches()
+                        || (candidate.getMismatches() == best.getMismatches()
+                        && item.getCode().compareTo(best.getCode()) > 0)))) {
+                    best = candidate;
+                }
+                break;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private static String describeApproximate(Optional<OkvedFinder.MatchResult> result) {
+        if (result.isEmpty()) {
+            return "нет";
+        }
+        OkvedFinder.MatchResult match = result.get();
+        return String.format("%s '%s' %d цифр, несовпадений %d (...%s / ...%s)", match.getCode(), match.getName(),
+                match.getMatchLength(), match.getMismatches(), match.getPhoneSuffix(), match.getOkvedSuffix());
+    }
+
+    private static int mismatches(String[] phones, long[] expected, long[] actual) {
+        int mismatches = 0;
+        for (int i = 0; i < phones.length; i++) {
+            if (expected[i] != actual[i]) {
+                if (mismatches++ < 5) {
+                    System.out.printf("  '%s': ожидалось %d, получено %d%n", phones[i], expected[i], actual[i]);
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static PhoneBatchProcessor.Stats mappedBatch(PhoneFileProcessor processor, Path input, Path dir)
+            throws Exception {
+        try (FileChannel output = FileChannel.open(dir.resolve("out.txt"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel errors = FileChannel.open(dir.resolve("errors.txt"), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return processor.process(input, output, errors);
+        }
+    }
+
+    private static long lookupAll(OkvedFinder finder, OkvedMatcher matcher, long[] phones, OkvedMatchSlot slot) {
+        long checksum = 0;
+        for (long phone : phones) {
+            if (finder.findBestMatch(phone, matcher, slot)) {
+                checksum += slot.getMatchLength() + slot.getCode().length();
+            }
+        }
+        return checksum;
+    }
+
+    private static long allocatedBytes() {
+        return allocatedBytes(Thread.currentThread());
+    }
+
+    private static long allocatedBytes(Thread thread) {
+        return ((com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(thread.getId());
+    }
+
+    private static OkvedHedgedLoader.Result hedgedLoad(OkvedService service, long hedgeMillis, long deadlineMillis,
+                                                       String sha256, OkvedSource... sources) throws IOException {
+        try (OkvedHedgedLoader loader = new OkvedHedgedLoader(Arrays.asList(sources), service::readNumericLeafItems,
+                new PrintStream(OutputStream.nullOutputStream()))) {
+            loader.setHedgeDelay(Duration.ofMillis(hedgeMillis));
+            loader.setDeadline(Duration.ofMillis(deadlineMillis));
+            loader.setExpectedSha256(sha256);
+            return loader.load();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+        exchange.close();
+    }
+
+    private static String sha256Hex(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String describeAll(List<OkvedFinder.MatchResult> results) {
+        return results.stream().map(r -> r + " " + r.getName()).collect(Collectors.joining("; "));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static OkvedDataset compileDataset(OkvedFinder finder, List<OkvedItem> items) {
+        OkvedSuffixIndex index = OkvedSuffixIndex.build(items);
+        return OkvedDataset.of(finder.compile(index, OkvedFinder.MAX_TABLE_DIGITS), index.getLeaves());
+    }
+
+    private static String toOkvedJson(List<OkvedItem> items) throws IOException {
+        return new ObjectMapper().writeValueAsString(items.stream()
+                .map(item -> Map.of("code", item.getCode(), "name", item.getName()))
+                .collect(Collectors.toList()));
+    }
+
+    private static long measureLookups(PhoneNormalizer normalizer, OkvedFinder finder, OkvedMatcher matcher,
+                                       String[] inputs) {
+        // Лучший из кругов: на загруженной машине отдельные круги искажаются планировщиком
+        long elapsed = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            long start = System.nanoTime();
+            for (String input : inputs) {
+                lookup(normalizer, finder, matcher, input);
+            }
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+        return elapsed;
+    }
+
+    private static void lookup(PhoneNormalizer normalizer, OkvedFinder finder, OkvedMatcher matcher, String input) {
+        long phone = normalizer.tryNormalize(input);
+        if (phone >= 0 && !finder.findBestMatch("+" + phone, matcher).isPresent()) {
+            finder.createBackupMatch("+" + phone);
+        }
+    }
+
+    private static String httpRequest(String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        InputStream input = connection.getResponseCode() < 400
+                ? connection.getInputStream() : connection.getErrorStream();
+        try (InputStream response = input) {
+            return connection.getResponseCode() + " " + new String(response.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}